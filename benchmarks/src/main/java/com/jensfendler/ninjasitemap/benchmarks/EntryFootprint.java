@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.benchmarks;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.builder.CompactEntryStore;
+
+/**
+ * Measures the memory required per sitemap entry, once for a list of
+ * {@link SitemapEntry} objects (as returned by providers), and once for a
+ * {@link CompactEntryStore}. Both the heap and the direct (off-heap) memory in
+ * use are compared before and after creating the entries.
+ * 
+ * Usage: <code>java -cp target/benchmarks.jar
+ * com.jensfendler.ninjasitemap.benchmarks.EntryFootprint [entries]</code>
+ *
+ * @author Jens Fendler
+ *
+ */
+public final class EntryFootprint {
+
+    private static final long LAST_MODIFIED = 1451606400000L;
+
+    private EntryFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int entryCount = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+        long[] before = measure();
+        List<SitemapEntry> list = createList(entryCount);
+        long[] after = measure();
+        report("List<SitemapEntry>", entryCount, before, after);
+        // keep the list reachable until it has been measured
+        System.out.printf("%-20s %8d entries%n", "", list.size());
+        list = null;
+
+        before = measure();
+        CompactEntryStore store = createStore(entryCount);
+        after = measure();
+        report("CompactEntryStore", entryCount, before, after);
+        System.out.printf("%-20s %8.1f bytes/entry allocated (excluding object headers)%n", "",
+                (double) store.getAllocatedBytes() / entryCount);
+    }
+
+    private static List<SitemapEntry> createList(int entryCount) {
+        List<SitemapEntry> entries = new ArrayList<SitemapEntry>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            entries.add(new SitemapEntry(getPagePath(i), new Date(LAST_MODIFIED + i * 1000L),
+                    SyntheticData.getChangeFrequency(i), SyntheticData.getPriority(i)));
+        }
+        return entries;
+    }
+
+    private static CompactEntryStore createStore(int entryCount) {
+        // size the paths exactly, so trimToSize() does not copy them into a
+        // second direct buffer
+        long pathBytes = 0;
+        for (int i = 0; i < entryCount; i++) {
+            pathBytes += getPagePath(i).length();
+        }
+        CompactEntryStore store = new CompactEntryStore(entryCount, (int) Math.min(Integer.MAX_VALUE, pathBytes));
+        for (int i = 0; i < entryCount; i++) {
+            store.add(getPagePath(i), new Date(LAST_MODIFIED + i * 1000L), SyntheticData.getChangeFrequency(i),
+                    SyntheticData.getPriority(i));
+        }
+        store.trimToSize();
+        return store;
+    }
+
+    private static String getPagePath(int i) {
+        return "/products/" + (i % 100) + "/item-" + i;
+    }
+
+    /**
+     * @return the heap and the direct memory in use (after garbage
+     *         collection)
+     */
+    private static long[] measure() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long direct = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                direct = pool.getMemoryUsed();
+            }
+        }
+        return new long[] { heap, direct };
+    }
+
+    private static void report(String name, int entryCount, long[] before, long[] after) {
+        double heap = (double) (after[0] - before[0]) / entryCount;
+        double direct = (double) (after[1] - before[1]) / entryCount;
+        System.out.printf("%-20s %8.1f bytes/entry on heap, %8.1f bytes/entry off heap%n", name, heap, direct);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.jensfendler.ninjasitemap.NinjaSitemapModule;
+import com.jensfendler.ninjasitemap.builder.ParallelProviderInvoker;
+import com.jensfendler.ninjasitemap.builder.SitemapBuild;
+import com.jensfendler.ninjasitemap.builder.SitemapBuilder;
+import com.jensfendler.ninjasitemap.builder.SitemapUpdateService;
+
+import ninja.Router;
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaProperties;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Measures the creation of a complete (sharded) sitemap from a synthetic
+ * application with a few static routes and four dynamic routes, for each build
+ * mode.
+ *
+ * @author Jens Fendler
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+// Guice's class generation needs access to java.lang on Java 9+ (the option is
+// ignored by Java 8)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g", "-XX:+IgnoreUnrecognizedVMOptions",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+public class SitemapBuildBenchmark {
+
+    private static final String SITE_URL_PREFIX = "https://www.example.com/";
+
+    private static final int STATIC_ROUTES = 20;
+
+    private static final int DYNAMIC_ROUTES = 4;
+
+    public enum BuildMode {
+        /** Sequential {@link SyntheticListProvider}s */
+        LIST,
+        /** Sequential {@link SyntheticStreamingProvider}s */
+        STREAMING,
+        /** {@link SyntheticListProvider}s invoked on the provider thread pool */
+        PARALLEL,
+        /** Sequential {@link SyntheticListProvider}s, keeping an entry index */
+        INCREMENTAL
+    }
+
+    /**
+     * The total number of entries created by all dynamic routes
+     */
+    @Param({ "1000", "100000", "1000000" })
+    public int entries;
+
+    @Param({ "LIST", "STREAMING", "PARALLEL", "INCREMENTAL" })
+    public BuildMode mode;
+
+    private Injector injector;
+
+    private SitemapBuilder sitemapBuilder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.entriesPerRoute = entries / DYNAMIC_ROUTES;
+
+        final NinjaPropertiesImpl ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty(SitemapBuilder.KEY_SITEMAP_PREFIX, SITE_URL_PREFIX);
+        ninjaProperties.setProperty(ParallelProviderInvoker.KEY_PARALLEL_PROVIDERS,
+                String.valueOf(mode == BuildMode.PARALLEL));
+        ninjaProperties.setProperty(SitemapUpdateService.KEY_INCREMENTAL_UPDATES,
+                String.valueOf(mode == BuildMode.INCREMENTAL));
+
+        Class<?> providerControllerClass = (mode == BuildMode.STREAMING)
+                ? SyntheticControllers.StreamingProviderController.class
+                : SyntheticControllers.ListProviderController.class;
+        final Router router = new SyntheticRouter(providerControllerClass, STATIC_ROUTES, DYNAMIC_ROUTES);
+
+        injector = Guice.createInjector(new NinjaSitemapModule(), new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(NinjaProperties.class).toInstance(ninjaProperties);
+                bind(Router.class).toInstance(router);
+            }
+        });
+        sitemapBuilder = injector.getInstance(SitemapBuilder.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        injector.getInstance(ParallelProviderInvoker.class).stop();
+        injector.getInstance(SitemapUpdateService.class).stop();
+    }
+
+    @Benchmark
+    public SitemapBuild build() throws IOException {
+        return sitemapBuilder.build(SITE_URL_PREFIX);
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jensfendler.ninjasitemap.writer.SitemapWriter;
+
+import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
+
+/**
+ * Measures the rendering of single <code>&lt;url&gt;</code> elements by the
+ * {@link SitemapWriter} (one operation per entry).
+ *
+ * @author Jens Fendler
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SitemapWriterBenchmark {
+
+    private static final int URLS_PER_INVOCATION = 10000;
+
+    private static final ChangeFreq[] CHANGE_FREQUENCIES = { ChangeFreq.HOURLY, ChangeFreq.DAILY,
+            ChangeFreq.WEEKLY, ChangeFreq.MONTHLY };
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(2 * 1024 * 1024);
+
+    private String[] pagePaths;
+
+    private Date lastModified;
+
+    @Setup
+    public void setUp() {
+        pagePaths = new String[URLS_PER_INVOCATION];
+        for (int i = 0; i < URLS_PER_INVOCATION; i++) {
+            pagePaths[i] = "/category-" + (i & 3) + "/" + i + "?variant=a&b";
+        }
+        lastModified = new Date(1451606400000L);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(URLS_PER_INVOCATION)
+    public int writeUrls() throws IOException {
+        out.reset();
+        SitemapWriter writer = new SitemapWriter(out, "https://www.example.com/");
+        writer.writeStartDocument();
+        for (int i = 0; i < URLS_PER_INVOCATION; i++) {
+            writer.writeUrl(pagePaths[i], lastModified, CHANGE_FREQUENCIES[i & 3], (i % 10) / 10.0);
+        }
+        writer.writeEndDocument();
+        writer.flush();
+        return out.size();
+    }
+
+}
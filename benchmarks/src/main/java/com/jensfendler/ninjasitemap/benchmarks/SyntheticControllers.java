@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.benchmarks;
+
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Context;
+import ninja.Result;
+
+/**
+ * Controllers of the synthetic application. Their methods are never invoked;
+ * only their {@link Sitemap} annotations matter.
+ *
+ * @author Jens Fendler
+ *
+ */
+public final class SyntheticControllers {
+
+    private SyntheticControllers() {
+    }
+
+    public static class StaticController {
+
+        @Sitemap(priority = 0.8, changeFrequency = Sitemap.WEEKLY)
+        public Result page(Context context) {
+            return null;
+        }
+
+        public Result notInSitemap(Context context) {
+            return null;
+        }
+
+    }
+
+    public static class ListProviderController {
+
+        @Sitemap(multiPageProvider = "com.jensfendler.ninjasitemap.benchmarks.SyntheticListProvider")
+        public Result details(Context context) {
+            return null;
+        }
+
+    }
+
+    public static class StreamingProviderController {
+
+        @Sitemap(multiPageProvider = "com.jensfendler.ninjasitemap.benchmarks.SyntheticStreamingProvider")
+        public Result details(Context context) {
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.benchmarks;
+
+import java.util.Date;
+
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Route;
+
+/**
+ * Deterministic synthetic sitemap entries, shared by the synthetic providers.
+ *
+ * @author Jens Fendler
+ *
+ */
+public final class SyntheticData {
+
+    /**
+     * The number of entries every synthetic provider creates (set by the
+     * benchmarks before building)
+     */
+    static volatile int entriesPerRoute = 1000;
+
+    private static final Date LAST_MODIFIED = new Date(1451606400000L);
+
+    private static final int[] CHANGE_FREQUENCIES = { Sitemap.HOURLY, Sitemap.DAILY, Sitemap.WEEKLY,
+            Sitemap.MONTHLY };
+
+    private SyntheticData() {
+    }
+
+    /**
+     * @return the part of the route's URI preceding the first path parameter
+     */
+    static String getPathPrefix(Route route) {
+        String uri = route.getUri();
+        int parameterStart = uri.indexOf('{');
+        return (parameterStart < 0) ? uri : uri.substring(0, parameterStart);
+    }
+
+    static Date getLastModified(int i) {
+        return LAST_MODIFIED;
+    }
+
+    static int getChangeFrequency(int i) {
+        return CHANGE_FREQUENCIES[i & 3];
+    }
+
+    static double getPriority(int i) {
+        return (i % 10) / 10.0;
+    }
+
+}
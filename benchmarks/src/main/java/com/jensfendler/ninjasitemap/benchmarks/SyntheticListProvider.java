@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Route;
+
+/**
+ * A {@link SitemapMultiPageProvider} returning a fully materialised list of
+ * synthetic entries.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SyntheticListProvider implements SitemapMultiPageProvider {
+
+    public List<SitemapEntry> getSitemapEntries(Route route, Sitemap sitemapAnnotation) {
+        String pathPrefix = SyntheticData.getPathPrefix(route);
+        int entryCount = SyntheticData.entriesPerRoute;
+        List<SitemapEntry> entries = new ArrayList<SitemapEntry>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            entries.add(new SitemapEntry(pathPrefix + i, SyntheticData.getLastModified(i),
+                    SyntheticData.getChangeFrequency(i), SyntheticData.getPriority(i)));
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+
+import ninja.Context;
+import ninja.Route;
+import ninja.RouteBuilder;
+import ninja.Router;
+
+/**
+ * A {@link Router} with a fixed set of routes: a number of static pages,
+ * some routes not included in the sitemap, and a number of dynamic routes
+ * handled by the given controller's <code>details</code> method (one
+ * provider per route).
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SyntheticRouter implements Router {
+
+    private final List<Route> routes;
+
+    public SyntheticRouter(Class<?> providerControllerClass, int staticRoutes, int dynamicRoutes) {
+        try {
+            List<Route> routes = new ArrayList<Route>();
+            Method page = SyntheticControllers.StaticController.class.getMethod("page", Context.class);
+            Method notInSitemap = SyntheticControllers.StaticController.class.getMethod("notInSitemap",
+                    Context.class);
+            for (int i = 0; i < staticRoutes; i++) {
+                routes.add(new Route("GET", "/pages/" + i, SyntheticControllers.StaticController.class, page, null));
+                routes.add(new Route("POST", "/pages/" + i, SyntheticControllers.StaticController.class,
+                        notInSitemap, null));
+            }
+
+            Method details = providerControllerClass.getMethod("details", Context.class);
+            for (int i = 0; i < dynamicRoutes; i++) {
+                routes.add(new Route("GET", "/category-" + i + "/{id}", providerControllerClass, details, null));
+            }
+            this.routes = Collections.unmodifiableList(routes);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public Route getRouteFor(String httpMethod, String uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getReverseRoute(Class<?> controllerClass, String controllerMethodName) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getReverseRoute(Class<?> controllerClass, String controllerMethodName, Map<String, Object> map) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getReverseRoute(Class<?> controllerClass, String controllerMethodName, Object... parameterMap) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getReverseRoute(Class<?> controllerClass, String controllerMethodName,
+            Optional<Map<String, Object>> parameterMap) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void compileRoutes() {
+        // the routes are fixed
+    }
+
+    public RouteBuilder GET() {
+        throw new UnsupportedOperationException();
+    }
+
+    public RouteBuilder POST() {
+        throw new UnsupportedOperationException();
+    }
+
+    public RouteBuilder PUT() {
+        throw new UnsupportedOperationException();
+    }
+
+    public RouteBuilder DELETE() {
+        throw new UnsupportedOperationException();
+    }
+
+    public RouteBuilder OPTIONS() {
+        throw new UnsupportedOperationException();
+    }
+
+    public RouteBuilder HEAD() {
+        throw new UnsupportedOperationException();
+    }
+
+    public RouteBuilder METHOD(String method) {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.builder.SitemapRefreshScheduler;
 
 /**
  * @author Jens Fendler
@@ -36,6 +37,9 @@ public class NinjaSitemapModule extends AbstractModule {
 	protected void configure() {
 		LOG.info("Initialising Ninja Sitemap.");
 		bind(SitemapRouteDetails.class).toProvider(SitemapRouteDetailsProvider.class).in(Singleton.class);
+		// eagerly created, so that Ninja's lifecycle can start the background
+		// refresh (if enabled) at application startup
+		bind(SitemapRefreshScheduler.class).asEagerSingleton();
 	}
 
 }
@@ -19,7 +19,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
+import com.jensfendler.ninjasitemap.builder.SitemapRefreshScheduler;
 import com.jensfendler.ninjasitemap.controller.NinjaSitemapController;
+import com.jensfendler.ninjasitemap.controller.SitemapDiagnosticsController;
 
 import ninja.Router;
 import ninja.application.ApplicationRoutes;
@@ -35,6 +37,44 @@ public class NinjaSitemapRoutes implements ApplicationRoutes {
 
     public static final String DEFAULT_SITEMAP_ROUTE = "/sitemap.xml";
 
+    /**
+     * The route (URI) to serve the sitemap metrics as JSON on. Default: none
+     * (not served).
+     */
+    public static final String KEY_DIAGNOSTICS_ROUTE = "ninja.sitemap.diagnosticsRoute";
+
+    /**
+     * The name of the path parameter holding the (1-based) shard number in the
+     * route for individual sitemap shards.
+     */
+    public static final String SHARD_PATH_PARAMETER = "shard";
+
+    /**
+     * If true, the sitemap index lists one sitemap per route with a
+     * {@link SitemapMultiPageProvider} (plus one for all other routes), and
+     * every one of them is only created when it is requested. Default: false.
+     */
+    public static final String KEY_LAZY_ROUTE_SITEMAPS = "ninja.sitemap.lazyRouteSitemaps";
+
+    /**
+     * The name of the path parameter holding the route sitemap identifier in
+     * the route for individual route sitemaps (see
+     * {@link #KEY_LAZY_ROUTE_SITEMAPS}).
+     */
+    public static final String ROUTE_PATH_PARAMETER = "route";
+
+    /**
+     * The name of the path parameter holding the (1-based) page number in the
+     * route for individual route sitemaps.
+     */
+    public static final String PAGE_PATH_PARAMETER = "page";
+
+    /**
+     * The suffix of the routes serving the gzip-compressed variants of the
+     * sitemap and its shards.
+     */
+    public static final String GZIP_SUFFIX = ".gz";
+
     protected static final Logger LOG = LoggerFactory.getLogger(NinjaSitemapRoutes.class);
 
     @Inject
@@ -44,9 +84,109 @@ public class NinjaSitemapRoutes implements ApplicationRoutes {
      * @see ninja.application.ApplicationRoutes#init(ninja.Router)
      */
     public void init(Router router) {
-        String sitemapRoute = ninjaProperties.getWithDefault(KEY_SITEMAP_ROUTE, DEFAULT_SITEMAP_ROUTE);
-        LOG.info("Installing Ninja Sitemap routes: {}", sitemapRoute);
+        if (isLazyRouteSitemaps()) {
+            initRouteSitemaps(router);
+        } else {
+            initShards(router);
+        }
+
+        String diagnosticsRoute = ninjaProperties.get(KEY_DIAGNOSTICS_ROUTE);
+        if (diagnosticsRoute != null) {
+            LOG.info("Installing Ninja Sitemap diagnostics route: {}", diagnosticsRoute);
+            router.GET().route(diagnosticsRoute).with(SitemapDiagnosticsController.class, "getDiagnostics");
+        }
+    }
+
+    private void initShards(Router router) {
+        String sitemapRoute = getSitemapRoute();
+        String shardRoute = getShardRoute("{" + SHARD_PATH_PARAMETER + ": [0-9]+}");
+        LOG.info("Installing Ninja Sitemap routes: {}, {} (and {} variants)", sitemapRoute, shardRoute, GZIP_SUFFIX);
         router.GET().route(sitemapRoute).with(NinjaSitemapController.class, "getSitemapXml");
+        router.GET().route(sitemapRoute + GZIP_SUFFIX).with(NinjaSitemapController.class, "getSitemapXmlGz");
+        router.GET().route(shardRoute).with(NinjaSitemapController.class, "getSitemapShardXml");
+        router.GET().route(shardRoute + GZIP_SUFFIX).with(NinjaSitemapController.class, "getSitemapShardXmlGz");
+    }
+
+    private void initRouteSitemaps(Router router) {
+        String sitemapRoute = getSitemapRoute();
+        String routeSitemapRoute = getShardRoute(
+                "{" + ROUTE_PATH_PARAMETER + ": [0-9]+}-{" + PAGE_PATH_PARAMETER + ": [0-9]+}");
+        LOG.info("Installing Ninja Sitemap routes: {}, {} (and {} variants). Route sitemaps are created on demand.",
+                sitemapRoute, routeSitemapRoute, GZIP_SUFFIX);
+        router.GET().route(sitemapRoute).with(NinjaSitemapController.class, "getRouteSitemapIndexXml");
+        router.GET().route(sitemapRoute + GZIP_SUFFIX).with(NinjaSitemapController.class,
+                "getRouteSitemapIndexXmlGz");
+        router.GET().route(routeSitemapRoute).with(NinjaSitemapController.class, "getRouteSitemapXml");
+        router.GET().route(routeSitemapRoute + GZIP_SUFFIX).with(NinjaSitemapController.class,
+                "getRouteSitemapXmlGz");
+    }
+
+    /**
+     * @return true, if route sitemaps are created on demand (see
+     *         {@link #KEY_LAZY_ROUTE_SITEMAPS}). This is not possible with
+     *         the background refresh, which always creates the complete
+     *         sitemap.
+     */
+    public boolean isLazyRouteSitemaps() {
+        if (!ninjaProperties.getBooleanWithDefault(KEY_LAZY_ROUTE_SITEMAPS, false)) {
+            return false;
+        }
+        if (ninjaProperties.getBooleanWithDefault(SitemapRefreshScheduler.KEY_BACKGROUND_REFRESH, false)) {
+            LOG.warn("{} cannot be combined with {}. Creating the complete sitemap instead.",
+                    KEY_LAZY_ROUTE_SITEMAPS, SitemapRefreshScheduler.KEY_BACKGROUND_REFRESH);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the configured route of the sitemap (or sitemap index), always
+     *         starting with a slash
+     */
+    public String getSitemapRoute() {
+        String sitemapRoute = ninjaProperties.getWithDefault(KEY_SITEMAP_ROUTE, DEFAULT_SITEMAP_ROUTE);
+        return sitemapRoute.startsWith("/") ? sitemapRoute : "/" + sitemapRoute;
+    }
+
+    /**
+     * @param shard
+     *            the (1-based) number of the shard
+     * @return the path of the given sitemap shard, e.g.
+     *         <code>/sitemap-3.xml</code> for the default sitemap route
+     */
+    public String getShardPath(int shard) {
+        return getShardRoute(Integer.toString(shard));
+    }
+
+    /**
+     * @param routeSitemapId
+     *            the identifier of the route sitemap
+     * @param page
+     *            the (1-based) page number within the route sitemap
+     * @return the path of the given route sitemap page, e.g.
+     *         <code>/sitemap-4-1.xml</code> for the default sitemap route
+     */
+    public String getRouteSitemapPath(int routeSitemapId, int page) {
+        return getShardRoute(routeSitemapId + "-" + page);
+    }
+
+    /**
+     * Derive the route of a sitemap shard from the sitemap route, by inserting
+     * the given shard identifier in front of the file extension (if any).
+     * 
+     * @param shardIdentifier
+     *            the shard number, or a route parameter expression
+     * @return the shard route
+     */
+    private String getShardRoute(String shardIdentifier) {
+        String sitemapRoute = getSitemapRoute();
+        int extensionIndex = sitemapRoute.lastIndexOf('.');
+        if (extensionIndex <= sitemapRoute.lastIndexOf('/')) {
+            // no file extension
+            return sitemapRoute + "-" + shardIdentifier;
+        }
+        return sitemapRoute.substring(0, extensionIndex) + "-" + shardIdentifier
+                + sitemapRoute.substring(extensionIndex);
     }
 
 }
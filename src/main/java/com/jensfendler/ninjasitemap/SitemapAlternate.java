@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+/**
+ * An alternate language version of a page
+ * (<code>&lt;xhtml:link rel="alternate" hreflang="..." href="..."/&gt;</code>).
+ * 
+ * Like all URLs of the extensions, the location is either an absolute URL
+ * (e.g. on a country specific domain), or a path relative to the sitemap's URL
+ * prefix.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public class SitemapAlternate {
+
+    /**
+     * The language (and optional region) of the alternate page, e.g. "de",
+     * "en-GB", or "x-default"
+     */
+    private String hreflang;
+
+    /**
+     * The URL of the alternate page
+     */
+    private String href;
+
+    /**
+     * @param hreflang
+     *            the language (and optional region) of the alternate page, e.g.
+     *            "de", "en-GB", or "x-default"
+     * @param href
+     *            the URL of the alternate page
+     */
+    public SitemapAlternate(String hreflang, String href) {
+        this.hreflang = hreflang;
+        this.href = href;
+    }
+
+    public String getHreflang() {
+        return hreflang;
+    }
+
+    public void setHreflang(String hreflang) {
+        this.hreflang = hreflang;
+    }
+
+    public String getHref() {
+        return href;
+    }
+
+    public void setHref(String href) {
+        this.href = href;
+    }
+
+    @Override
+    public String toString() {
+        return "SitemapAlternate [hreflang=" + hreflang + ", href=" + href + "]";
+    }
+
+}
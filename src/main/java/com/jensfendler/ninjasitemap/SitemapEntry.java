@@ -61,6 +61,12 @@ public class SitemapEntry {
      */
     private String shortDescription;
 
+    /**
+     * The sitemap extensions (alternates, images, videos, news) of the page,
+     * or null
+     */
+    private SitemapExtensions extensions;
+
     /**
      * @param pagePath
      *            the path of the URL (as in the {@link Router} for non-dynamic
@@ -140,11 +146,89 @@ public class SitemapEntry {
         this.shortDescription = shortDescription;
     }
 
+    /**
+     * @return the sitemap extensions of the page, or null if there are none
+     */
+    public SitemapExtensions getExtensions() {
+        return extensions;
+    }
+
+    public void setExtensions(SitemapExtensions extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * Add an alternate language version of the page.
+     * 
+     * @param alternate
+     *            the {@link SitemapAlternate}
+     * @return this entry
+     */
+    public SitemapEntry addAlternate(SitemapAlternate alternate) {
+        getOrCreateExtensions().addAlternate(alternate);
+        return this;
+    }
+
+    /**
+     * Add an image on the page.
+     * 
+     * @param image
+     *            the {@link SitemapImage}
+     * @return this entry
+     */
+    public SitemapEntry addImage(SitemapImage image) {
+        getOrCreateExtensions().addImage(image);
+        return this;
+    }
+
+    /**
+     * Add a video on the page.
+     * 
+     * @param video
+     *            the {@link SitemapVideo}
+     * @return this entry
+     */
+    public SitemapEntry addVideo(SitemapVideo video) {
+        getOrCreateExtensions().addVideo(video);
+        return this;
+    }
+
+    /**
+     * Set the news article on the page.
+     * 
+     * @param news
+     *            the {@link SitemapNews}
+     */
+    public void setNews(SitemapNews news) {
+        getOrCreateExtensions().setNews(news);
+    }
+
+    /**
+     * Set the languages the page is available in. The page is then listed
+     * once per language (using the URL pattern configured with
+     * <code>ninja.sitemap.languageUrlPattern</code>), with all language
+     * versions linked as alternates of each other. Languages which are not
+     * listed in <code>application.languages</code> are ignored.
+     *
+     * @param languages
+     *            the language codes
+     */
+    public void setLanguages(String... languages) {
+        getOrCreateExtensions().setLanguages(languages);
+    }
+
+    private SitemapExtensions getOrCreateExtensions() {
+        if (extensions == null) {
+            extensions = new SitemapExtensions();
+        }
+        return extensions;
+    }
+
     @Override
     public String toString() {
         return "SitemapEntry [pagePath=" + pagePath + ", lastModified=" + lastModified + ", priority=" + priority
                 + ", changeFrequency=" + changeFrequency + ", shortName=" + shortName + ", shortDescription="
-                + shortDescription + "]";
+                + shortDescription + ", extensions=" + extensions + "]";
     }
 
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+import java.util.List;
+
+/**
+ * A single page of entries returned by a {@link SitemapPagedProvider}.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public class SitemapEntryPage {
+
+    /**
+     * The entries of this page
+     */
+    private List<SitemapEntry> entries;
+
+    /**
+     * The continuation token of the next page, or null if this is the last
+     * page
+     */
+    private String nextPageToken;
+
+    /**
+     * @param entries
+     *            the entries of this page
+     * @param nextPageToken
+     *            the continuation token of the next page (e.g. the key of the
+     *            last entry of this page), or null if this is the last page
+     */
+    public SitemapEntryPage(List<SitemapEntry> entries, String nextPageToken) {
+        this.entries = entries;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<SitemapEntry> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<SitemapEntry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return the continuation token of the next page, or null if this is the
+     *         last page
+     */
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public void setNextPageToken(String nextPageToken) {
+        this.nextPageToken = nextPageToken;
+    }
+
+    @Override
+    public String toString() {
+        return "SitemapEntryPage [entries=" + ((entries == null) ? 0 : entries.size()) + ", nextPageToken="
+                + nextPageToken + "]";
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+import java.io.IOException;
+import java.util.Date;
+
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+/**
+ * Receives the entries of a {@link SitemapStreamingProvider} one by one, and
+ * writes them to the sitemap immediately.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public interface SitemapEntrySink {
+
+	/**
+	 * Add a single entry to the sitemap.
+	 * 
+	 * @param entry
+	 *            the {@link SitemapEntry}
+	 * @return true, if more entries can be added. If false, the provider should
+	 *         stop producing entries (e.g. because only a part of the sitemap
+	 *         is being created), and any further entries will be ignored.
+	 * @throws IOException
+	 *             if the entry could not be written
+	 */
+	public boolean add(SitemapEntry entry) throws IOException;
+
+	/**
+	 * Add a single entry to the sitemap, without creating a
+	 * {@link SitemapEntry} object first.
+	 * 
+	 * @param pagePath
+	 *            the path of the URL
+	 * @param lastModified
+	 *            the last modified Date
+	 * @param changeFrequency
+	 *            the expected change frequency for the page (use one of the
+	 *            frequency constants from {@link Sitemap})
+	 * @param priority
+	 *            the priority of the page (between 0 and 1)
+	 * @return true, if more entries can be added (see
+	 *         {@link #add(SitemapEntry)})
+	 * @throws IOException
+	 *             if the entry could not be written
+	 */
+	public boolean add(String pagePath, Date lastModified, int changeFrequency, double priority) throws IOException;
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The sitemap extensions of a single entry: alternate language versions of
+ * the page (listed individually, or as a set of languages), images, videos,
+ * and a news article. They are written to the
+ * entry's <code>&lt;url&gt;</code> element, in the same pass (and the same
+ * shard) as the entry itself.
+ * 
+ * Extensions are kept as they are (i.e. not copied) when entries are cached,
+ * so they must not be changed after their entry has been passed to the
+ * sitemap.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public class SitemapExtensions {
+
+    private List<SitemapAlternate> alternates;
+
+    private List<SitemapImage> images;
+
+    private List<SitemapVideo> videos;
+
+    private SitemapNews news;
+
+    private String[] languages;
+
+    /**
+     * @return the alternate language versions of the page (or null)
+     */
+    public List<SitemapAlternate> getAlternates() {
+        return alternates;
+    }
+
+    public void setAlternates(List<SitemapAlternate> alternates) {
+        this.alternates = alternates;
+    }
+
+    /**
+     * @return the images on the page (or null)
+     */
+    public List<SitemapImage> getImages() {
+        return images;
+    }
+
+    public void setImages(List<SitemapImage> images) {
+        this.images = images;
+    }
+
+    /**
+     * @return the videos on the page (or null)
+     */
+    public List<SitemapVideo> getVideos() {
+        return videos;
+    }
+
+    public void setVideos(List<SitemapVideo> videos) {
+        this.videos = videos;
+    }
+
+    /**
+     * @return the news article on the page (or null)
+     */
+    public SitemapNews getNews() {
+        return news;
+    }
+
+    public void setNews(SitemapNews news) {
+        this.news = news;
+    }
+
+    /**
+     * @return the languages (of <code>application.languages</code>) the page
+     *         is available in (or null). The sitemap lists one URL per
+     *         language, with all of them linked as alternates of each other.
+     */
+    public String[] getLanguages() {
+        return languages;
+    }
+
+    public void setLanguages(String... languages) {
+        this.languages = languages;
+    }
+
+    public SitemapExtensions addAlternate(SitemapAlternate alternate) {
+        if (alternates == null) {
+            alternates = new ArrayList<SitemapAlternate>(4);
+        }
+        alternates.add(alternate);
+        return this;
+    }
+
+    public SitemapExtensions addImage(SitemapImage image) {
+        if (images == null) {
+            images = new ArrayList<SitemapImage>(4);
+        }
+        images.add(image);
+        return this;
+    }
+
+    public SitemapExtensions addVideo(SitemapVideo video) {
+        if (videos == null) {
+            videos = new ArrayList<SitemapVideo>(1);
+        }
+        videos.add(video);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "SitemapExtensions [alternates=" + alternates + ", images=" + images + ", videos=" + videos
+                + ", news=" + news + ", languages=" + Arrays.toString(languages) + "]";
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+/**
+ * An image on a page, for the image sitemap extension
+ * (<code>&lt;image:image&gt;</code>).
+ * 
+ * Like all URLs of the extensions, the location is either an absolute URL
+ * (e.g. of a CDN), or a path relative to the sitemap's URL prefix.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public class SitemapImage {
+
+    /**
+     * The URL of the image (required)
+     */
+    private String loc;
+
+    /**
+     * The caption of the image (optional)
+     */
+    private String caption;
+
+    /**
+     * The geographic location of the image, e.g. "Cape Town, South Africa"
+     * (optional)
+     */
+    private String geoLocation;
+
+    /**
+     * The title of the image (optional)
+     */
+    private String title;
+
+    /**
+     * The URL of the license of the image (optional)
+     */
+    private String license;
+
+    /**
+     * @param loc
+     *            the URL of the image
+     */
+    public SitemapImage(String loc) {
+        this.loc = loc;
+    }
+
+    /**
+     * @param loc
+     *            the URL of the image
+     * @param caption
+     *            the caption of the image (or null)
+     * @param title
+     *            the title of the image (or null)
+     */
+    public SitemapImage(String loc, String caption, String title) {
+        this.loc = loc;
+        this.caption = caption;
+        this.title = title;
+    }
+
+    public String getLoc() {
+        return loc;
+    }
+
+    public void setLoc(String loc) {
+        this.loc = loc;
+    }
+
+    public String getCaption() {
+        return caption;
+    }
+
+    public void setCaption(String caption) {
+        this.caption = caption;
+    }
+
+    public String getGeoLocation() {
+        return geoLocation;
+    }
+
+    public void setGeoLocation(String geoLocation) {
+        this.geoLocation = geoLocation;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getLicense() {
+        return license;
+    }
+
+    public void setLicense(String license) {
+        this.license = license;
+    }
+
+    @Override
+    public String toString() {
+        return "SitemapImage [loc=" + loc + ", caption=" + caption + ", geoLocation=" + geoLocation + ", title="
+                + title + ", license=" + license + "]";
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+import java.util.Date;
+
+/**
+ * A news article, for the news sitemap extension
+ * (<code>&lt;news:news&gt;</code>). All properties are required.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public class SitemapNews {
+
+    /**
+     * The name of the news publication
+     */
+    private String publicationName;
+
+    /**
+     * The language of the publication (an ISO 639 language code, e.g. "en")
+     */
+    private String publicationLanguage;
+
+    /**
+     * The date (and time) the article has been published
+     */
+    private Date publicationDate;
+
+    /**
+     * The title of the article
+     */
+    private String title;
+
+    /**
+     * @param publicationName
+     *            the name of the news publication
+     * @param publicationLanguage
+     *            the language of the publication (e.g. "en")
+     * @param publicationDate
+     *            the date (and time) the article has been published
+     * @param title
+     *            the title of the article
+     */
+    public SitemapNews(String publicationName, String publicationLanguage, Date publicationDate, String title) {
+        this.publicationName = publicationName;
+        this.publicationLanguage = publicationLanguage;
+        this.publicationDate = publicationDate;
+        this.title = title;
+    }
+
+    public String getPublicationName() {
+        return publicationName;
+    }
+
+    public void setPublicationName(String publicationName) {
+        this.publicationName = publicationName;
+    }
+
+    public String getPublicationLanguage() {
+        return publicationLanguage;
+    }
+
+    public void setPublicationLanguage(String publicationLanguage) {
+        this.publicationLanguage = publicationLanguage;
+    }
+
+    public Date getPublicationDate() {
+        return publicationDate;
+    }
+
+    public void setPublicationDate(Date publicationDate) {
+        this.publicationDate = publicationDate;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    @Override
+    public String toString() {
+        return "SitemapNews [publicationName=" + publicationName + ", publicationLanguage=" + publicationLanguage
+                + ", publicationDate=" + publicationDate + ", title=" + title + "]";
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Route;
+
+/**
+ * An alternative to {@link SitemapMultiPageProvider} for routes backed by
+ * large database tables. Instead of returning all entries at once, the entries
+ * are requested one page at a time, each page continuing where the previous
+ * one has ended (e.g. using keyset pagination:
+ * <code>WHERE id &gt; :lastId ORDER BY id LIMIT :pageSize</code>). Only a
+ * single page is held in memory at any time, and every database query returns
+ * a bounded result set.
+ * 
+ * The continuation token of a page is opaque to the sitemap module. It is kept
+ * (e.g. in the plan of the sitemap shards) to continue at that page later, so
+ * it should identify the position in the table (like the last key of the
+ * previous page) rather than an offset, and must be serializable as a string.
+ * 
+ * Classes implementing this interface can be referenced in the
+ * {@link Sitemap#multiPageProvider()} parameter just like
+ * {@link SitemapMultiPageProvider}s.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public interface SitemapPagedProvider {
+
+	/**
+	 * Count all {@link SitemapEntry}s of the given {@link Route}, without
+	 * loading them (e.g. with a <code>SELECT COUNT(*)</code> query). This is
+	 * only used with <code>ninja.sitemap.lazyRouteSitemaps</code>, to list all
+	 * sitemaps of a route in the sitemap index before any of them has been
+	 * created, so an estimate is sufficient. Otherwise, the shards of the
+	 * sitemap are planned from the entries actually returned by
+	 * {@link #getSitemapEntries(Route, Sitemap, String, int)}, and this method
+	 * is not called at all.
+	 * 
+	 * @param route
+	 *            the {@link Route}
+	 * @param sitemapAnnotation
+	 *            the {@link Sitemap}
+	 * @return the (estimated) number of entries, or -1 if unknown
+	 */
+	public long countSitemapEntries(Route route, Sitemap sitemapAnnotation);
+
+	/**
+	 * Get a single page of {@link SitemapEntry}s for the given {@link Route}
+	 * and {@link Sitemap} annotation.
+	 * 
+	 * @param route
+	 *            the {@link Route}
+	 * @param sitemapAnnotation
+	 *            the {@link Sitemap}
+	 * @param pageToken
+	 *            the continuation token of the page (as returned by
+	 *            {@link SitemapEntryPage#getNextPageToken()} for the previous
+	 *            page), or null for the first page
+	 * @param pageSize
+	 *            the maximum number of entries to return
+	 * @return the {@link SitemapEntryPage}
+	 */
+	public SitemapEntryPage getSitemapEntries(Route route, Sitemap sitemapAnnotation, String pageToken,
+			int pageSize);
+
+}
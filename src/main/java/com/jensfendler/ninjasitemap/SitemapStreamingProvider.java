@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+import java.io.IOException;
+
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Route;
+
+/**
+ * An alternative to {@link SitemapMultiPageProvider} for routes with a very
+ * large number of pages. Instead of returning all entries at once, the entries
+ * are passed to a {@link SitemapEntrySink} one by one (e.g. while iterating
+ * over a database result set), so that they never have to be held in memory
+ * together.
+ * 
+ * Classes implementing this interface can be referenced in the
+ * {@link Sitemap#multiPageProvider()} parameter just like
+ * {@link SitemapMultiPageProvider}s.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public interface SitemapStreamingProvider {
+
+	/**
+	 * Pass all {@link SitemapEntry}s (representing individual pages in the
+	 * sitemap) for the given {@link Route} and {@link Sitemap} annotation to the
+	 * given sink. Implementations should stop as soon as
+	 * {@link SitemapEntrySink#add} returns false.
+	 * 
+	 * @param route
+	 *            the {@link Route}
+	 * @param sitemapAnnotation
+	 *            the {@link Sitemap}
+	 * @param sink
+	 *            the {@link SitemapEntrySink} to add the entries to
+	 * @throws IOException
+	 *             if the sink fails to write an entry (must be passed on)
+	 */
+	public void writeSitemapEntries(Route route, Sitemap sitemapAnnotation, SitemapEntrySink sink)
+			throws IOException;
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap;
+
+import java.util.Date;
+
+/**
+ * A video on a page, for the video sitemap extension
+ * (<code>&lt;video:video&gt;</code>). Either the content location or the
+ * player location is required.
+ * 
+ * Like all URLs of the extensions, the locations are either absolute URLs, or
+ * paths relative to the sitemap's URL prefix.
+ * 
+ * @author Jens Fendler
+ *
+ */
+public class SitemapVideo {
+
+    /**
+     * The URL of the video's thumbnail image (required)
+     */
+    private String thumbnailLoc;
+
+    /**
+     * The title of the video (required)
+     */
+    private String title;
+
+    /**
+     * The description of the video (required)
+     */
+    private String description;
+
+    /**
+     * The URL of the video file
+     */
+    private String contentLoc;
+
+    /**
+     * The URL of a player for the video
+     */
+    private String playerLoc;
+
+    /**
+     * The duration of the video in seconds (optional)
+     */
+    private Integer duration;
+
+    /**
+     * The date after which the video will no longer be available (optional)
+     */
+    private Date expirationDate;
+
+    /**
+     * The date the video has been published (optional)
+     */
+    private Date publicationDate;
+
+    /**
+     * Whether the video is suitable for all audiences (optional)
+     */
+    private Boolean familyFriendly;
+
+    /**
+     * @param thumbnailLoc
+     *            the URL of the video's thumbnail image
+     * @param title
+     *            the title of the video
+     * @param description
+     *            the description of the video
+     * @param contentLoc
+     *            the URL of the video file (or null, if a player location is
+     *            given)
+     */
+    public SitemapVideo(String thumbnailLoc, String title, String description, String contentLoc) {
+        this.thumbnailLoc = thumbnailLoc;
+        this.title = title;
+        this.description = description;
+        this.contentLoc = contentLoc;
+    }
+
+    public String getThumbnailLoc() {
+        return thumbnailLoc;
+    }
+
+    public void setThumbnailLoc(String thumbnailLoc) {
+        this.thumbnailLoc = thumbnailLoc;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getContentLoc() {
+        return contentLoc;
+    }
+
+    public void setContentLoc(String contentLoc) {
+        this.contentLoc = contentLoc;
+    }
+
+    public String getPlayerLoc() {
+        return playerLoc;
+    }
+
+    public void setPlayerLoc(String playerLoc) {
+        this.playerLoc = playerLoc;
+    }
+
+    public Integer getDuration() {
+        return duration;
+    }
+
+    public void setDuration(Integer duration) {
+        this.duration = duration;
+    }
+
+    public Date getExpirationDate() {
+        return expirationDate;
+    }
+
+    public void setExpirationDate(Date expirationDate) {
+        this.expirationDate = expirationDate;
+    }
+
+    public Date getPublicationDate() {
+        return publicationDate;
+    }
+
+    public void setPublicationDate(Date publicationDate) {
+        this.publicationDate = publicationDate;
+    }
+
+    public Boolean getFamilyFriendly() {
+        return familyFriendly;
+    }
+
+    public void setFamilyFriendly(Boolean familyFriendly) {
+        this.familyFriendly = familyFriendly;
+    }
+
+    @Override
+    public String toString() {
+        return "SitemapVideo [thumbnailLoc=" + thumbnailLoc + ", title=" + title + ", description=" + description
+                + ", contentLoc=" + contentLoc + ", playerLoc=" + playerLoc + ", duration=" + duration
+                + ", expirationDate=" + expirationDate + ", publicationDate=" + publicationDate
+                + ", familyFriendly=" + familyFriendly + "]";
+    }
+
+}
@@ -22,6 +22,7 @@ import java.lang.annotation.Target;
 
 import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
 import com.jensfendler.ninjasitemap.SitemapRouteDetails;
+import com.jensfendler.ninjasitemap.SitemapStreamingProvider;
 
 /**
  * @author Jens Fendler
@@ -49,6 +50,12 @@ public @interface Sitemap {
 
     public String NO_PATH = "";
 
+    /**
+     * This value (used on the {@link #cacheTtl()} parameter) indicates that
+     * the default cache TTL from application.conf should be used.
+     */
+    public String DEFAULT_CACHE_TTL = "";
+
     public double DEFAULT_PRIORITY = 0.5;
 
     public int DEFAULT_CHANGE_FREQUENCY = DAILY;
@@ -75,7 +82,8 @@ public @interface Sitemap {
      * In case of routes which might result in more than one sitemap pages per
      * route, this parapeter can contain the name of a class implemening the
      * SitemapMultiPageProvider interface, to generate a set of pages from one
-     * route.
+     * route. For routes with a very large number of pages, the class can
+     * implement the {@link SitemapStreamingProvider} interface instead.
      * 
      * @return the full class name of the {@link SitemapMultiPageProvider}
      *         implementation to use for this controller method
@@ -92,6 +100,9 @@ public @interface Sitemap {
      * property must be bound in your <code>ninja.Module</code> class -
      * preferably <em>before</em> the Ninja-Sitemap module is installed.
      * 
+     * In either case, a single instance is created when the sitemap is created
+     * for the first time, and re-used for all further sitemap updates.
+     * 
      * @return true, if the Guice injector should be used to create instances of
      *         the {@link SitemapMultiPageProvider} class; or false (the
      *         default) for plain Java class instantiation.
@@ -125,4 +136,34 @@ public @interface Sitemap {
      */
     int changeFrequency() default DEFAULT_CHANGE_FREQUENCY;
 
+    /**
+     * The time to cache the entries of this route between sitemap builds, in
+     * the format used by the NinjaCache methods (e.g. "1h", "30mn", or "1d").
+     * While the entries are cached, re-created sitemaps re-use them instead of
+     * calling the {@link SitemapMultiPageProvider} (or the
+     * {@link SitemapRouteDetails} of a non-dynamic route) again. "0s" disables
+     * caching for this route.
+     * 
+     * By default, the value of <code>ninja.sitemap.cacheTtl</code> is used
+     * (or no caching at all, if that is not set).
+     * 
+     * @return the cache TTL of the route's entries
+     */
+    String cacheTtl() default DEFAULT_CACHE_TTL;
+
+    /**
+     * If set to true, all pages of this route are available in every language
+     * of <code>application.languages</code>. Every page is then listed once
+     * per language (see <code>ninja.sitemap.languageUrlPattern</code>), with
+     * all language versions linked as <code>hreflang</code> alternates of each
+     * other.
+     * 
+     * Entries which set their own languages (see
+     * {@link com.jensfendler.ninjasitemap.SitemapEntry#setLanguages(String...)})
+     * are listed in those languages only, regardless of this setting.
+     * 
+     * @return true, if all pages of this route are available in all languages
+     */
+    boolean alternateLanguages() default false;
+
 }
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapExtensions;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+import com.jensfendler.ninjasitemap.writer.SitemapWriter;
+
+/**
+ * A compact, column-oriented store of sitemap entries. Instead of one
+ * {@link SitemapEntry} (with its {@link Date} and {@link String} objects) per
+ * entry, the page paths of all entries are kept as UTF-8 data in a single
+ * direct (off-heap) buffer, and the other properties in primitive arrays: the
+ * last modification time as milliseconds since the epoch, the priority as a
+ * short (in units of 1/10000), and the change frequency as a byte. The
+ * {@link SitemapExtensions} of entries (if any) are kept as they are, in an
+ * array which is only created once the first entry with extensions has been
+ * added.
+ * 
+ * Entries are identified by their (0-based) position, in the order they have
+ * been added. Their page paths cannot be changed, but all other properties
+ * can.
+ * 
+ * This class is not thread-safe.
+ *
+ * @author Jens Fendler
+ *
+ */
+public final class CompactEntryStore {
+
+    /**
+     * Priorities are stored in units of 1/PRIORITY_SCALE
+     */
+    private static final double PRIORITY_SCALE = 10000.0;
+
+    /**
+     * The UTF-8 encoded page paths of all entries (one after another)
+     */
+    private ByteBuffer paths;
+
+    /**
+     * The start of every entry's page path in {@link #paths}. The path ends
+     * where the next one starts (or at the current position of the buffer).
+     */
+    private int[] pathOffsets;
+
+    private long[] lastModified;
+
+    private short[] priorities;
+
+    private byte[] changeFrequencies;
+
+    /**
+     * The extensions of all entries (or null, if no entry has any)
+     */
+    private SitemapExtensions[] extensions;
+
+    private int size;
+
+    /**
+     * @param expectedEntries
+     *            the number of entries to reserve space for
+     */
+    public CompactEntryStore(int expectedEntries) {
+        this(expectedEntries, (int) Math.min(Integer.MAX_VALUE, Math.max(4096L, Math.max(16, expectedEntries) * 32L)));
+    }
+
+    /**
+     * @param expectedEntries
+     *            the number of entries to reserve space for
+     * @param expectedPathBytes
+     *            the number of bytes to reserve for the UTF-8 encoded page
+     *            paths of all entries
+     */
+    public CompactEntryStore(int expectedEntries, int expectedPathBytes) {
+        int capacity = Math.max(16, expectedEntries);
+        paths = ByteBuffer.allocateDirect(expectedPathBytes);
+        pathOffsets = new int[capacity];
+        lastModified = new long[capacity];
+        priorities = new short[capacity];
+        changeFrequencies = new byte[capacity];
+    }
+
+    /**
+     * Create a store holding the given entries.
+     *
+     * @param entries
+     *            the {@link SitemapEntry}s
+     * @return the {@link CompactEntryStore}
+     */
+    public static CompactEntryStore copyOf(List<SitemapEntry> entries) {
+        // size the paths exactly, so trimToSize() need not copy them
+        long pathBytes = 0;
+        for (SitemapEntry entry : entries) {
+            pathBytes += getEncodedLength(entry.getPagePath());
+        }
+        CompactEntryStore store = new CompactEntryStore(entries.size(), (int) Math.min(Integer.MAX_VALUE, pathBytes));
+        for (SitemapEntry entry : entries) {
+            int position = store.add(entry.getPagePath(), entry.getLastModified(), entry.getChangeFrequency(),
+                    entry.getPriority());
+            store.setExtensions(position, entry.getExtensions());
+        }
+        store.trimToSize();
+        return store;
+    }
+
+    /**
+     * Add an entry.
+     * 
+     * @param pagePath
+     *            the path of the page
+     * @param lastModified
+     *            the last modification date (or null)
+     * @param changeFrequency
+     *            one of the change frequency constants of {@link Sitemap}
+     * @param priority
+     *            the priority (which is limited to the range 0 to 1.0, and
+     *            rounded to four decimal places)
+     * @return the position of the new entry
+     */
+    public int add(String pagePath, Date lastModified, int changeFrequency, double priority) {
+        return add(pagePath, getTime(lastModified), changeFrequency, priority);
+    }
+
+    /**
+     * Add an entry.
+     * 
+     * @param lastModified
+     *            the last modification time (in milliseconds since the epoch),
+     *            or {@link SitemapWriter#NO_LAST_MODIFIED}
+     * @see #add(String, Date, int, double)
+     */
+    public int add(String pagePath, long lastModified, int changeFrequency, double priority) {
+        return add(pagePath.getBytes(StandardCharsets.UTF_8), lastModified, changeFrequency, priority);
+    }
+
+    /**
+     * Add an entry with an already encoded page path.
+     * 
+     * @see #add(String, long, int, double)
+     */
+    int add(byte[] encodedPagePath, long lastModified, int changeFrequency, double priority) {
+        if (size == pathOffsets.length) {
+            int capacity = Math.max(16, size + (size >> 1));
+            pathOffsets = Arrays.copyOf(pathOffsets, capacity);
+            this.lastModified = Arrays.copyOf(this.lastModified, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            changeFrequencies = Arrays.copyOf(changeFrequencies, capacity);
+            if (extensions != null) {
+                extensions = Arrays.copyOf(extensions, capacity);
+            }
+        }
+        if (paths.remaining() < encodedPagePath.length) {
+            growPaths(encodedPagePath.length);
+        }
+
+        int position = size++;
+        pathOffsets[position] = paths.position();
+        paths.put(encodedPagePath);
+        set(position, lastModified, changeFrequency, priority);
+        return position;
+    }
+
+    /**
+     * Change all properties of an entry except its page path.
+     * 
+     * @param position
+     *            the position of the entry
+     * @see #add(String, Date, int, double)
+     */
+    public void set(int position, Date lastModified, int changeFrequency, double priority) {
+        set(position, getTime(lastModified), changeFrequency, priority);
+    }
+
+    /**
+     * Change all properties of an entry except its page path.
+     * 
+     * @param position
+     *            the position of the entry
+     * @see #add(String, long, int, double)
+     */
+    public void set(int position, long lastModified, int changeFrequency, double priority) {
+        this.lastModified[position] = lastModified;
+        // invalid values are mapped to an invalid value, too
+        changeFrequencies[position] = ((changeFrequency >= Byte.MIN_VALUE) && (changeFrequency <= Byte.MAX_VALUE))
+                ? (byte) changeFrequency : Byte.MIN_VALUE;
+        priorities[position] = (short) Math.round(Math.max(0.0, Math.min(1.0, priority)) * PRIORITY_SCALE);
+    }
+
+    /**
+     * Set (or remove) the extensions of an entry.
+     * 
+     * @param position
+     *            the position of the entry
+     * @param extensions
+     *            the {@link SitemapExtensions} (or null)
+     */
+    public void setExtensions(int position, SitemapExtensions extensions) {
+        if (this.extensions == null) {
+            if (extensions == null) {
+                return;
+            }
+            this.extensions = new SitemapExtensions[pathOffsets.length];
+        }
+        this.extensions[position] = extensions;
+    }
+
+    /**
+     * Release all memory reserved for entries which have not been added yet.
+     * If the buffer of page paths is not full, the paths are copied to a new
+     * direct buffer of the exact size. Until the old buffer has been garbage
+     * collected, both count towards the JVM's limit of direct memory
+     * (<code>-XX:MaxDirectMemorySize</code>), so the page paths temporarily
+     * need up to twice their reserved size. Stores which were created with
+     * the exact number of path bytes (like those of
+     * {@link #copyOf(List)}) are not copied.
+     */
+    public void trimToSize() {
+        if (size < pathOffsets.length) {
+            pathOffsets = Arrays.copyOf(pathOffsets, size);
+            lastModified = Arrays.copyOf(lastModified, size);
+            priorities = Arrays.copyOf(priorities, size);
+            changeFrequencies = Arrays.copyOf(changeFrequencies, size);
+            if (extensions != null) {
+                extensions = Arrays.copyOf(extensions, size);
+            }
+        }
+        if (paths.hasRemaining()) {
+            ByteBuffer oldPaths = paths;
+            oldPaths.flip();
+            paths = ByteBuffer.allocateDirect(oldPaths.limit());
+            paths.put(oldPaths);
+        }
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    public String getPagePath(int position) {
+        return new String(getEncodedPagePath(position), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a copy of the UTF-8 encoded page path of the entry
+     */
+    byte[] getEncodedPagePath(int position) {
+        ByteBuffer path = paths.duplicate();
+        path.position(pathOffsets[position]);
+        byte[] data = new byte[getPathEnd(position) - pathOffsets[position]];
+        path.get(data);
+        return data;
+    }
+
+    /**
+     * @return the buffer holding the UTF-8 encoded page paths of all entries.
+     *         It must only be read with absolute indices (see
+     *         {@link #getPagePathStart(int)} and {@link #getPagePathEnd(int)}),
+     *         and must not be modified. It is replaced when the store grows.
+     */
+    ByteBuffer getEncodedPagePaths() {
+        return paths;
+    }
+
+    /**
+     * @return the index of the first byte of the entry's page path in
+     *         {@link #getEncodedPagePaths()}
+     */
+    int getPagePathStart(int position) {
+        return pathOffsets[position];
+    }
+
+    /**
+     * @return the index following the last byte of the entry's page path in
+     *         {@link #getEncodedPagePaths()}
+     */
+    int getPagePathEnd(int position) {
+        return getPathEnd(position);
+    }
+
+    /**
+     * @return the last modification date of the entry (a new {@link Date}
+     *         object), or null
+     */
+    public Date getLastModified(int position) {
+        return (lastModified[position] == SitemapWriter.NO_LAST_MODIFIED) ? null : new Date(lastModified[position]);
+    }
+
+    /**
+     * @return the last modification time of the entry (in milliseconds since
+     *         the epoch), or {@link SitemapWriter#NO_LAST_MODIFIED}
+     */
+    public long getLastModifiedTime(int position) {
+        return lastModified[position];
+    }
+
+    public int getChangeFrequency(int position) {
+        return changeFrequencies[position];
+    }
+
+    public double getPriority(int position) {
+        return priorities[position] / PRIORITY_SCALE;
+    }
+
+    /**
+     * @return the {@link SitemapExtensions} of the entry, or null
+     */
+    public SitemapExtensions getExtensions(int position) {
+        return (extensions == null) ? null : extensions[position];
+    }
+
+    /**
+     * @return a new {@link SitemapEntry} with the properties of the entry at
+     *         the given position
+     */
+    public SitemapEntry getEntry(int position) {
+        SitemapEntry entry = new SitemapEntry(getPagePath(position), getLastModified(position),
+                getChangeFrequency(position), getPriority(position));
+        entry.setExtensions(getExtensions(position));
+        return entry;
+    }
+
+    /**
+     * @return a read-only list view of all entries. The {@link SitemapEntry}
+     *         objects are created as they are accessed.
+     */
+    public List<SitemapEntry> asList() {
+        return new AbstractList<SitemapEntry>() {
+            @Override
+            public SitemapEntry get(int index) {
+                if ((index < 0) || (index >= size)) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+                }
+                return getEntry(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return the number of bytes allocated for this store (on and off the
+     *         heap, not counting object headers, and the extensions
+     *         themselves)
+     */
+    public long getAllocatedBytes() {
+        return paths.capacity() + 4L * pathOffsets.length + 8L * lastModified.length + 2L * priorities.length
+                + changeFrequencies.length + ((extensions == null) ? 0 : 4L * extensions.length);
+    }
+
+    /**
+     * @return the number of bytes of the given page path in UTF-8 (as encoded
+     *         by {@link String#getBytes(java.nio.charset.Charset)})
+     */
+    static int getEncodedLength(String pagePath) {
+        int length = 0;
+        for (int i = 0; i < pagePath.length(); i++) {
+            char c = pagePath.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && (i + 1 < pagePath.length())
+                    && Character.isLowSurrogate(pagePath.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogates are replaced by '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the time of the given date (in milliseconds since the epoch), or
+     *         {@link SitemapWriter#NO_LAST_MODIFIED} for null
+     */
+    static long getTime(Date date) {
+        return (date == null) ? SitemapWriter.NO_LAST_MODIFIED : date.getTime();
+    }
+
+    /**
+     * @param position
+     *            the position of an entry
+     * @param encodedPagePath
+     *            a UTF-8 encoded page path
+     * @return true, if the entry has the given page path
+     */
+    boolean hasPagePath(int position, byte[] encodedPagePath) {
+        int start = pathOffsets[position];
+        if (getPathEnd(position) - start != encodedPagePath.length) {
+            return false;
+        }
+        for (int i = 0; i < encodedPagePath.length; i++) {
+            if (paths.get(start + i) != encodedPagePath[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the hash code of an entry's page path, as computed by
+     *         {@link #hashPagePath(byte[])}
+     */
+    int hashPagePath(int position) {
+        int hash = 1;
+        for (int i = pathOffsets[position], end = getPathEnd(position); i < end; i++) {
+            hash = 31 * hash + paths.get(i);
+        }
+        return hash;
+    }
+
+    /**
+     * @return a hash code of the given UTF-8 encoded page path
+     */
+    static int hashPagePath(byte[] encodedPagePath) {
+        return Arrays.hashCode(encodedPagePath);
+    }
+
+    private int getPathEnd(int position) {
+        return (position + 1 < size) ? pathOffsets[position + 1] : paths.position();
+    }
+
+    private void growPaths(int required) {
+        long capacity = Math.max(Math.max(4096L, (long) paths.capacity() * 2), (long) paths.position() + required);
+        if (capacity > Integer.MAX_VALUE) {
+            capacity = Integer.MAX_VALUE;
+            if (paths.position() + (long) required > capacity) {
+                throw new IllegalStateException("Too many sitemap entries to store.");
+            }
+        }
+        ByteBuffer oldPaths = paths;
+        oldPaths.flip();
+        paths = ByteBuffer.allocateDirect((int) capacity);
+        paths.put(oldPaths);
+    }
+
+}
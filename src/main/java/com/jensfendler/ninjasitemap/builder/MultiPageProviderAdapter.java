@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapEntrySink;
+import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
+import com.jensfendler.ninjasitemap.SitemapStreamingProvider;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Route;
+
+/**
+ * Adapts a (list-based) {@link SitemapMultiPageProvider} to the
+ * {@link SitemapStreamingProvider} interface.
+ *
+ * @author Jens Fendler
+ *
+ */
+class MultiPageProviderAdapter implements SitemapStreamingProvider {
+
+    private final SitemapMultiPageProvider provider;
+
+    MultiPageProviderAdapter(SitemapMultiPageProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @return the adapted {@link SitemapMultiPageProvider}
+     */
+    SitemapMultiPageProvider getProvider() {
+        return provider;
+    }
+
+    public void writeSitemapEntries(Route route, Sitemap sitemapAnnotation, SitemapEntrySink sink)
+            throws IOException {
+        writeEntries(provider.getSitemapEntries(route, sitemapAnnotation), sink);
+    }
+
+    /**
+     * Pass the given entries to the sink, until the sink does not accept any
+     * more entries.
+     *
+     * @param entries
+     *            the {@link SitemapEntry}s (may be null)
+     * @param sink
+     *            the {@link SitemapEntrySink}
+     * @return true, if the sink accepts further entries
+     * @throws IOException
+     *             if the sink fails to write an entry
+     */
+    static boolean writeEntries(List<SitemapEntry> entries, SitemapEntrySink sink) throws IOException {
+        if (entries == null) {
+            return true;
+        }
+        for (SitemapEntry entry : entries) {
+            if (!sink.add(entry)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.IOException;
+
+import com.jensfendler.ninjasitemap.SitemapEntryPage;
+import com.jensfendler.ninjasitemap.SitemapEntrySink;
+import com.jensfendler.ninjasitemap.SitemapPagedProvider;
+import com.jensfendler.ninjasitemap.SitemapStreamingProvider;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Route;
+
+/**
+ * Adapts a {@link SitemapPagedProvider} to the
+ * {@link SitemapStreamingProvider} interface, by requesting one page after the
+ * other until the last page has been written, or the sink does not accept any
+ * more entries.
+ *
+ * @author Jens Fendler
+ *
+ */
+class PagedProviderAdapter implements SitemapStreamingProvider {
+
+    private final SitemapPagedProvider provider;
+
+    private final int pageSize;
+
+    PagedProviderAdapter(SitemapPagedProvider provider, int pageSize) {
+        this.provider = provider;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the adapted {@link SitemapPagedProvider}
+     */
+    SitemapPagedProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return the number of entries to request per page
+     */
+    int getPageSize() {
+        return pageSize;
+    }
+
+    public void writeSitemapEntries(Route route, Sitemap sitemapAnnotation, SitemapEntrySink sink)
+            throws IOException {
+        String pageToken = null;
+        do {
+            SitemapEntryPage page = provider.getSitemapEntries(route, sitemapAnnotation, pageToken, pageSize);
+            if ((page == null) || !MultiPageProviderAdapter.writeEntries(page.getEntries(), sink)) {
+                return;
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+    }
+
+}
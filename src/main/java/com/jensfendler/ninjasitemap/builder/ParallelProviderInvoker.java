@@ -0,0 +1,328 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+
+import ninja.lifecycle.Dispose;
+import ninja.utils.NinjaProperties;
+import ninja.utils.TimeUtil;
+
+/**
+ * Invokes {@link SitemapMultiPageProvider}s concurrently on a bounded thread
+ * pool, if enabled with the <code>ninja.sitemap.parallelProviders</code>
+ * property. Each provider call is subject to a timeout, and to a deadline
+ * which includes the time it has been queued. If a provider does not finish
+ * in time (or fails), its result from the previous build is used instead (if
+ * available and enabled), or its entries are skipped.
+ * 
+ * Provider calls which have timed out are cancelled, but a provider which
+ * ignores interrupts keeps its thread until it returns. Such a provider is not
+ * invoked again until its previous call has returned.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class ParallelProviderInvoker {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(ParallelProviderInvoker.class);
+
+    /**
+     * If this application.conf property is 'true', all
+     * {@link SitemapMultiPageProvider}s are invoked concurrently when the
+     * complete sitemap is created. Default: false.
+     */
+    public static final String KEY_PARALLEL_PROVIDERS = "ninja.sitemap.parallelProviders";
+
+    /**
+     * The number of threads to invoke {@link SitemapMultiPageProvider}s on.
+     * Default: 4.
+     */
+    private static final String KEY_PROVIDER_THREADS = "ninja.sitemap.providerThreads";
+
+    private static final int DEFAULT_PROVIDER_THREADS = 4;
+
+    /**
+     * The maximum time a single {@link SitemapMultiPageProvider} may take
+     * (counted from the moment it starts running). The string must be in a
+     * format compatible with the NinjaCache methods. Default: "5mn".
+     */
+    private static final String KEY_PROVIDER_TIMEOUT = "ninja.sitemap.providerTimeout";
+
+    private static final String DEFAULT_PROVIDER_TIMEOUT = "5mn";
+
+    /**
+     * The maximum time to wait for a single {@link SitemapMultiPageProvider},
+     * counted from the moment it has been submitted (i.e. including the time
+     * it has been queued behind other providers). The string must be in a
+     * format compatible with the NinjaCache methods. Default: "15mn".
+     */
+    private static final String KEY_PROVIDER_DEADLINE = "ninja.sitemap.providerDeadline";
+
+    private static final String DEFAULT_PROVIDER_DEADLINE = "15mn";
+
+    /**
+     * If this application.conf property is 'true' (the default), the entries
+     * of a provider from the previous build are used if the provider times out
+     * or fails. Note that this requires the entries of all providers to be
+     * kept in memory between builds. If 'false', the provider's entries are
+     * omitted from the sitemap instead.
+     */
+    private static final String KEY_PROVIDER_FALLBACK = "ninja.sitemap.providerFallback";
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected SitemapMetrics metrics;
+
+    /**
+     * The last successful result of each provider (by route index), in
+     * compact form
+     */
+    private final ConcurrentMap<Integer, CompactEntryStore> lastResults = new ConcurrentHashMap<Integer, CompactEntryStore>();
+
+    /**
+     * The provider calls which are currently running (by route index)
+     */
+    private final ConcurrentMap<Integer, PendingEntries> runningCalls = new ConcurrentHashMap<Integer, PendingEntries>();
+
+    private ExecutorService executor;
+
+    /**
+     * @return true, if providers should be invoked concurrently
+     */
+    public boolean isEnabled() {
+        return ninjaProperties.getBooleanWithDefault(KEY_PARALLEL_PROVIDERS, false);
+    }
+
+    /**
+     * Start the given provider call on the thread pool.
+     *
+     * @param routeIndex
+     *            the index of the provider's route (used to keep track of its
+     *            previous result)
+     * @param description
+     *            a description of the provider (for log messages)
+     * @param providerCall
+     *            the actual provider call
+     * @return the {@link PendingEntries} to pass to {@link #await}. If a
+     *         previous call of the provider is still running, the provider is
+     *         not invoked again, and {@link #await} treats the call as failed.
+     */
+    public PendingEntries submit(int routeIndex, String description, Callable<List<SitemapEntry>> providerCall) {
+        PendingEntries pending = new PendingEntries(routeIndex, description, providerCall, runningCalls);
+        if (!runningCalls.containsKey(routeIndex)) {
+            pending.future = getExecutor().submit(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Wait for the result of a provider call started with {@link #submit}.
+     *
+     * @param pending
+     *            the {@link PendingEntries}
+     * @return the provider's entries, its entries from a previous build (if it
+     *         timed out or failed), or null
+     */
+    public List<SitemapEntry> await(PendingEntries pending) {
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(TimeUtil.parseDuration(ninjaProperties.getWithDefault(
+                KEY_PROVIDER_TIMEOUT, DEFAULT_PROVIDER_TIMEOUT)));
+        long deadlineNanos = TimeUnit.SECONDS.toNanos(TimeUtil.parseDuration(ninjaProperties.getWithDefault(
+                KEY_PROVIDER_DEADLINE, DEFAULT_PROVIDER_DEADLINE)));
+        boolean fallback = ninjaProperties.getBooleanWithDefault(KEY_PROVIDER_FALLBACK, true);
+
+        if (pending.future == null) {
+            LOG.warn("{} is still running since a previous build. Not invoking it again.", pending.description);
+        } else {
+            try {
+                List<SitemapEntry> entries = awaitWithTimeout(pending, timeoutNanos, deadlineNanos);
+                if (fallback && (entries != null)) {
+                    lastResults.put(pending.routeIndex, CompactEntryStore.copyOf(entries));
+                }
+                return entries;
+
+            } catch (TimeoutException e) {
+                pending.cancel();
+                LOG.warn("{} did not return its sitemap entries in time.", pending.description);
+            } catch (InterruptedException e) {
+                pending.cancel();
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while waiting for {}.", pending.description);
+            } catch (ExecutionException e) {
+                LOG.error("Failed to get sitemap entries from " + pending.description + ".", e.getCause());
+            }
+        }
+
+        pending.failed = true;
+        metrics.incrementCounter("provider.failure");
+        CompactEntryStore previousEntries = fallback ? lastResults.get(pending.routeIndex) : null;
+        if (previousEntries != null) {
+            LOG.warn("Using {} sitemap entries from the previous build for {}.", previousEntries.size(),
+                    pending.description);
+            return previousEntries.asList();
+        }
+        LOG.warn("Not including entries from {} in sitemap.", pending.description);
+        return null;
+    }
+
+    /**
+     * Shut down the thread pool.
+     */
+    @Dispose(order = 90)
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Wait until the provider call has returned, it has been running for
+     * longer than the timeout, or the deadline (counted from its submission)
+     * has passed.
+     */
+    private List<SitemapEntry> awaitWithTimeout(PendingEntries pending, long timeoutNanos, long deadlineNanos)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = pending.submitNanos + deadlineNanos;
+        while (true) {
+            long startNanos = pending.startNanos;
+            long now = System.nanoTime();
+            if (startNanos != 0) {
+                // the timeout counts from the start of the provider call
+                long waitNanos = Math.min(startNanos + timeoutNanos - now, deadline - now);
+                return pending.future.get(Math.max(0, waitNanos), TimeUnit.NANOSECONDS);
+            }
+            if (deadline - now <= 0) {
+                // queued behind other (possibly stuck) providers for too long
+                throw new TimeoutException();
+            }
+            try {
+                // still queued behind other providers
+                return pending.future.get(Math.min(timeoutNanos, deadline - now), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // check again how long the provider has been running
+            }
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int threads = Math.max(1, ninjaProperties.getIntegerWithDefault(KEY_PROVIDER_THREADS,
+                    DEFAULT_PROVIDER_THREADS));
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ninja-sitemap-provider-" + threadNumber.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+            LOG.info("Invoking sitemap providers on up to {} threads.", threads);
+        }
+        return executor;
+    }
+
+    /**
+     * A provider call which has been submitted to the thread pool.
+     */
+    public static class PendingEntries implements Callable<List<SitemapEntry>> {
+
+        private final int routeIndex;
+
+        private final String description;
+
+        private final Callable<List<SitemapEntry>> providerCall;
+
+        /**
+         * The provider calls which are currently running (by route index)
+         */
+        private final ConcurrentMap<Integer, PendingEntries> runningCalls;
+
+        private final long submitNanos = System.nanoTime();
+
+        private volatile long startNanos;
+
+        private volatile boolean failed;
+
+        private Future<List<SitemapEntry>> future;
+
+        PendingEntries(int routeIndex, String description, Callable<List<SitemapEntry>> providerCall,
+                ConcurrentMap<Integer, PendingEntries> runningCalls) {
+            this.routeIndex = routeIndex;
+            this.description = description;
+            this.providerCall = providerCall;
+            this.runningCalls = runningCalls;
+        }
+
+        public List<SitemapEntry> call() throws Exception {
+            // nanoTime() could be 0 in theory. avoid confusion with 'not
+            // started'.
+            long now = System.nanoTime();
+            startNanos = (now == 0) ? 1 : now;
+            runningCalls.put(routeIndex, this);
+            try {
+                return providerCall.call();
+            } finally {
+                runningCalls.remove(routeIndex, this);
+            }
+        }
+
+        /**
+         * @return true, if the provider call has failed or timed out
+         */
+        boolean hasFailed() {
+            return failed;
+        }
+
+        /**
+         * Cancel the provider call (if it has not completed yet).
+         */
+        void cancel() {
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import com.jensfendler.ninjasitemap.SitemapStreamingProvider;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Route;
+import ninja.Router;
+
+/**
+ * A route to be included in the sitemap, together with everything about it
+ * that does not change between sitemap builds (its {@link Sitemap}
+ * annotation, the path of a static entry, or the instance of its provider).
+ *
+ * @author Jens Fendler
+ *
+ */
+final class PlannedRoute {
+
+    /**
+     * The index of the route in {@link Router#getRoutes()}
+     */
+    private final int routeIndex;
+
+    private final Route route;
+
+    private final Sitemap sitemap;
+
+    /**
+     * The path of the single entry of a static route (or null)
+     */
+    private final String pagePath;
+
+    /**
+     * The provider of a route with multiple entries (or null)
+     */
+    private final SitemapStreamingProvider provider;
+
+    /**
+     * The time to cache the route's entries (in milliseconds), or 0
+     */
+    private final long cacheTtl;
+
+    private PlannedRoute(int routeIndex, Route route, Sitemap sitemap, String pagePath,
+            SitemapStreamingProvider provider, long cacheTtl) {
+        this.routeIndex = routeIndex;
+        this.route = route;
+        this.sitemap = sitemap;
+        this.pagePath = pagePath;
+        this.provider = provider;
+        this.cacheTtl = cacheTtl;
+    }
+
+    /**
+     * Create a {@link PlannedRoute} for a route with a single entry.
+     */
+    static PlannedRoute forStaticRoute(int routeIndex, Route route, Sitemap sitemap, long cacheTtl) {
+        // use an explicitly given path (name), or the path from the router
+        String pagePath = Sitemap.NO_PATH.equals(sitemap.path()) ? route.getUri() : sitemap.path();
+        return new PlannedRoute(routeIndex, route, sitemap, pagePath, null, cacheTtl);
+    }
+
+    /**
+     * Create a {@link PlannedRoute} for a route with entries from a provider.
+     */
+    static PlannedRoute forProvider(int routeIndex, Route route, Sitemap sitemap, SitemapStreamingProvider provider,
+            long cacheTtl) {
+        return new PlannedRoute(routeIndex, route, sitemap, null, provider, cacheTtl);
+    }
+
+    int getRouteIndex() {
+        return routeIndex;
+    }
+
+    Route getRoute() {
+        return route;
+    }
+
+    Sitemap getSitemap() {
+        return sitemap;
+    }
+
+    String getPagePath() {
+        return pagePath;
+    }
+
+    SitemapStreamingProvider getProvider() {
+        return provider;
+    }
+
+    boolean hasProvider() {
+        return provider != null;
+    }
+
+    /**
+     * @return the time to cache the route's entries (in milliseconds), or 0 if
+     *         they should not be cached
+     */
+    long getCacheTtl() {
+        return cacheTtl;
+    }
+
+}
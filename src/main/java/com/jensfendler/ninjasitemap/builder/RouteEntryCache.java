@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ninja.Router;
+
+/**
+ * Keeps the entries of routes with a cache TTL (see
+ * {@link com.jensfendler.ninjasitemap.annotations.Sitemap#cacheTtl()}) between
+ * sitemap builds, so that their providers are only called again once the TTL
+ * has expired.
+ *
+ * @author Jens Fendler
+ *
+ */
+final class RouteEntryCache {
+
+    /**
+     * The cached entries by route index
+     */
+    private final ConcurrentMap<Integer, CachedEntries> cachedEntries = new ConcurrentHashMap<Integer, CachedEntries>();
+
+    /**
+     * @return the entries of all routes which have not expired yet (by route
+     *         index)
+     */
+    Map<Integer, CompactEntryStore> getFreshEntries() {
+        long now = System.currentTimeMillis();
+        Map<Integer, CompactEntryStore> freshEntries = new HashMap<Integer, CompactEntryStore>();
+        for (Map.Entry<Integer, CachedEntries> entry : cachedEntries.entrySet()) {
+            if (entry.getValue().expires > now) {
+                freshEntries.put(entry.getKey(), entry.getValue().entries);
+            } else {
+                cachedEntries.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return freshEntries;
+    }
+
+    /**
+     * Cache the entries of a route.
+     *
+     * @param routeIndex
+     *            the index (in {@link Router#getRoutes()}) of the route
+     * @param entries
+     *            the complete entries of the route
+     * @param ttlMillis
+     *            the time to keep the entries (in milliseconds)
+     */
+    void put(int routeIndex, CompactEntryStore entries, long ttlMillis) {
+        cachedEntries.put(routeIndex, new CachedEntries(entries, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Drop the cached entries of a route (if any), so that its provider is
+     * called again for the next sitemap build.
+     *
+     * @param routeIndex
+     *            the index (in {@link Router#getRoutes()}) of the route
+     */
+    void invalidate(int routeIndex) {
+        cachedEntries.remove(routeIndex);
+    }
+
+    private static final class CachedEntries {
+
+        private final CompactEntryStore entries;
+
+        /**
+         * The expiry time (in milliseconds since the epoch)
+         */
+        private final long expires;
+
+        CachedEntries(CompactEntryStore entries, long expires) {
+            this.entries = entries;
+            this.expires = expires;
+        }
+
+    }
+
+}
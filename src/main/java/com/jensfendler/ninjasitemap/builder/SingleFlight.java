@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes sure that at most one computation per key is running at any time.
+ * Callers requesting the same key while a computation is in progress do not
+ * start a computation of their own, but wait for the result of the running
+ * one ("coalesced" calls).
+ *
+ * @author Jens Fendler
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the result type
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    private final AtomicLong executionCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Run the given computation for the given key, unless a computation for
+     * the same key is already running. In that case, wait for its result
+     * instead.
+     *
+     * @param key
+     *            the key
+     * @param callable
+     *            the computation
+     * @return the result of the computation
+     * @throws IOException
+     *             if the computation has thrown an {@link IOException}, or if
+     *             the current thread was interrupted while waiting
+     */
+    public V execute(K key, Callable<V> callable) throws IOException {
+        FutureTask<V> task = new FutureTask<V>(callable);
+        FutureTask<V> running = inFlight.putIfAbsent(key, task);
+
+        if (running == null) {
+            // this thread runs the computation
+            executionCount.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            return getResult(task);
+        }
+
+        // join the running computation
+        coalescedCount.incrementAndGet();
+        return getResult(running);
+    }
+
+    /**
+     * @param key
+     *            the key
+     * @return true, if a computation for the given key is currently running
+     */
+    public boolean isInFlight(K key) {
+        return inFlight.containsKey(key);
+    }
+
+    /**
+     * @return the number of computations that have been started
+     */
+    public long getExecutionCount() {
+        return executionCount.get();
+    }
+
+    /**
+     * @return the number of calls which have waited for an already running
+     *         computation instead of starting their own
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private V getResult(FutureTask<V> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for computation.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The result of a complete sitemap build: one or more sitemap shards, the
+ * plan describing their boundaries, and (if there is more than one shard) the
+ * sitemap index referencing them. Builds can be shared through Ninja's cache,
+ * without the index of their entries (which is only kept on the node which
+ * has created the build).
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapBuild implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Date created;
+
+    private final List<SitemapDocument> shards;
+
+    private final List<SitemapShard> shardPlan;
+
+    private final SitemapDocument index;
+
+    /**
+     * All entries of the sitemap (only if incremental updates are enabled)
+     */
+    private final transient SitemapEntryIndex entryIndex;
+
+    public SitemapBuild(Date created, List<SitemapDocument> shards, List<SitemapShard> shardPlan,
+            SitemapDocument index) {
+        this(created, shards, shardPlan, index, null);
+    }
+
+    SitemapBuild(Date created, List<SitemapDocument> shards, List<SitemapShard> shardPlan, SitemapDocument index,
+            SitemapEntryIndex entryIndex) {
+        this.created = created;
+        this.shards = shards;
+        this.shardPlan = shardPlan;
+        this.index = index;
+        this.entryIndex = entryIndex;
+    }
+
+    /**
+     * @return the time at which the build was started
+     */
+    public Date getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the sitemap documents, in shard order
+     */
+    public List<SitemapDocument> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return the boundaries of the shards (in the same order as
+     *         {@link #getShards()})
+     */
+    public List<SitemapShard> getShardPlan() {
+        return shardPlan;
+    }
+
+    /**
+     * @return the sitemap index, or null if all entries fit into a single
+     *         sitemap
+     */
+    public SitemapDocument getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the index of all entries, or null if incremental updates are
+     *         not enabled (or the build has been created on another node)
+     */
+    SitemapEntryIndex getEntryIndex() {
+        return entryIndex;
+    }
+
+    /**
+     * @return true, if the sitemap has been split into more than one shard
+     */
+    public boolean isSharded() {
+        return index != null;
+    }
+
+    /**
+     * @return the document to serve at the main sitemap route: either the
+     *         sitemap index, or the only sitemap shard
+     */
+    public SitemapDocument getMainDocument() {
+        return isSharded() ? index : shards.get(0);
+    }
+
+    /**
+     * @return the total number of sitemap entries in all shards
+     */
+    public int getUrlCount() {
+        int urlCount = 0;
+        for (SitemapShard shard : shardPlan) {
+            urlCount += shard.getUrlCount();
+        }
+        return urlCount;
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+
+import ninja.cache.NinjaCache;
+import ninja.utils.NinjaProperties;
+import ninja.utils.TimeUtil;
+
+/**
+ * Elects a single node of a cluster to re-create the sitemap, if enabled with
+ * the <code>ninja.sitemap.clusterLease</code> property. All nodes must share
+ * Ninja's cache (e.g. memcached). The node re-creating the sitemap holds a
+ * lease, i.e. an entry in the cache which is only added if it does not exist
+ * yet, and which expires after <code>ninja.sitemap.clusterLeaseTime</code>
+ * (so that the lease of a node which has crashed is not held forever).
+ * 
+ * Every acquisition of the lease is identified by its own token, and only
+ * released with that token, so that the lease acquired by one thread is never
+ * released by another one (or after it has expired, and been acquired by
+ * another node).
+ * 
+ * If not enabled, every node may always re-create the sitemap.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapBuildLease {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapBuildLease.class);
+
+    /**
+     * If this application.conf property is 'true', only the node holding the
+     * lease re-creates the sitemap, while all other nodes continue to serve
+     * the previous sitemap from the (shared) cache. Default: false.
+     */
+    public static final String KEY_CLUSTER_LEASE = "ninja.sitemap.clusterLease";
+
+    /**
+     * An application.conf property to control the time after which the lease
+     * expires. This should be longer than the time it takes to create the
+     * sitemap. The string must be in a format compatible with the NinjaCache
+     * methods.
+     */
+    public static final String KEY_CLUSTER_LEASE_TIME = "ninja.sitemap.clusterLeaseTime";
+
+    /**
+     * The default lease time.
+     */
+    public static final String DEFAULT_CLUSTER_LEASE_TIME = "10mn";
+
+    /**
+     * The cache key of the lease.
+     */
+    private static final String LEASE_CACHE_KEY = SitemapBuildLease.class.getSimpleName() + "-sitemap";
+
+    /**
+     * The token returned by {@link #tryAcquire()} if the lease is not enabled
+     */
+    private static final String UNCOORDINATED_TOKEN = "";
+
+    /**
+     * The share of the lease time after which a lease is no longer released,
+     * but left to expire. Close to its expiry, the lease might expire (and be
+     * acquired by another node) between checking and deleting it.
+     */
+    private static final double RELEASE_TIME_SHARE = 0.9;
+
+    @Inject
+    protected NinjaCache cache;
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected SitemapMetrics metrics;
+
+    /**
+     * Identifies this node as the holder of a lease.
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicLong acquisitionCount = new AtomicLong();
+
+    /**
+     * The time (as returned by {@link System#nanoTime()}) every lease
+     * currently held by this node has been acquired, by token.
+     */
+    private final ConcurrentMap<String, Long> heldLeases = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * @return true, if the nodes of a cluster coordinate the re-creation of
+     *         the sitemap
+     */
+    public boolean isEnabled() {
+        return ninjaProperties.getBooleanWithDefault(KEY_CLUSTER_LEASE, false);
+    }
+
+    /**
+     * @return the time after which a lease expires (in seconds)
+     */
+    public int getLeaseSeconds() {
+        return TimeUtil.parseDuration(getLeaseTime());
+    }
+
+    /**
+     * Try to acquire the lease. The lease must be released with
+     * {@link #release(String)} once the sitemap has been re-created.
+     * 
+     * @return the token of the acquired lease (or of no lease, if the lease is
+     *         not enabled); null, if another node (or another thread of this
+     *         node) holds the lease
+     */
+    public String tryAcquire() {
+        if (!isEnabled()) {
+            return UNCOORDINATED_TOKEN;
+        }
+
+        // a unique value for every acquisition, so that an expired lease of
+        // this node can be told apart from a later one
+        String lease = getLeasePrefix() + acquisitionCount.incrementAndGet();
+        long acquired = System.nanoTime();
+        cache.safeAdd(LEASE_CACHE_KEY, lease, getLeaseTime());
+
+        // the result of safeAdd() does not tell whether the entry has been
+        // added with every cache implementation, so read it back
+        if (lease.equals(cache.get(LEASE_CACHE_KEY))) {
+            heldLeases.put(lease, acquired);
+            metrics.incrementCounter("lease.acquired");
+            LOG.debug("Acquired the lease to re-create the sitemap.");
+            return lease;
+        }
+        metrics.incrementCounter("lease.denied");
+        return null;
+    }
+
+    /**
+     * Release a lease acquired with {@link #tryAcquire()}. A lease which is
+     * about to expire is left to expire instead, as the cache cannot delete
+     * it only if it is still held with the given token.
+     * 
+     * @param token
+     *            the token returned by {@link #tryAcquire()} (or null)
+     */
+    public void release(String token) {
+        if (token == null) {
+            return;
+        }
+        Long acquired = heldLeases.remove(token);
+        if (acquired == null) {
+            // no lease, or released already
+            return;
+        }
+        long heldNanos = System.nanoTime() - acquired;
+        if (heldNanos >= getLeaseSeconds() * RELEASE_TIME_SHARE * 1000000000L) {
+            LOG.debug("Not releasing the lease to re-create the sitemap, which is about to expire.");
+            return;
+        }
+        // the lease might have expired (and been acquired by another node)
+        if (token.equals(cache.get(LEASE_CACHE_KEY))) {
+            cache.safeDelete(LEASE_CACHE_KEY);
+        }
+    }
+
+    /**
+     * @return true, if another node currently holds the lease
+     */
+    public boolean isHeldElsewhere() {
+        if (!isEnabled()) {
+            return false;
+        }
+        Object lease = cache.get(LEASE_CACHE_KEY);
+        return (lease instanceof String) && !((String) lease).startsWith(getLeasePrefix());
+    }
+
+    /**
+     * @return the prefix of the values of all leases acquired by this node
+     */
+    private String getLeasePrefix() {
+        return nodeId + "-";
+    }
+
+    private String getLeaseTime() {
+        return ninjaProperties.getWithDefault(KEY_CLUSTER_LEASE_TIME, DEFAULT_CLUSTER_LEASE_TIME);
+    }
+
+}
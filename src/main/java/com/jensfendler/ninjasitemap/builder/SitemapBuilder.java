@@ -0,0 +1,1382 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.NinjaSitemapRoutes;
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapEntryPage;
+import com.jensfendler.ninjasitemap.SitemapExtensions;
+import com.jensfendler.ninjasitemap.SitemapEntrySink;
+import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
+import com.jensfendler.ninjasitemap.SitemapPagedProvider;
+import com.jensfendler.ninjasitemap.SitemapRouteDetails;
+import com.jensfendler.ninjasitemap.SitemapStreamingProvider;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+import com.jensfendler.ninjasitemap.builder.ParallelProviderInvoker.PendingEntries;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+import com.jensfendler.ninjasitemap.writer.ShardedSitemapWriter;
+import com.jensfendler.ninjasitemap.writer.SitemapWriter;
+import com.jensfendler.ninjasitemap.writer.SitemapIndexWriter;
+
+import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
+import ninja.Route;
+import ninja.Router;
+import ninja.utils.NinjaConstant;
+import ninja.utils.NinjaProperties;
+import ninja.utils.TimeUtil;
+
+/**
+ * Creates the sitemap by walking all routes of the application's
+ * {@link Router}, and writing the entries for all routes with a
+ * {@link Sitemap} annotation into one or more sitemap shards.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapBuilder {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapBuilder.class);
+
+    /**
+     * Routes are matched against this expression to check if they contain a
+     * dynamic part.
+     */
+    protected static final Pattern DYNAMIC_ROUTE_PATTERN = Pattern.compile(".*\\{.*\\}.*");
+
+    /**
+     * The key name in application.conf to contain the protocol, server name,
+     * port, and possibly a path component to prepend to all sitemap entries.
+     */
+    public static final String KEY_SITEMAP_PREFIX = "ninja.sitemap.prefix";
+
+    /**
+     * If this key is set to 'false', no warnings will be logged when using a
+     * {@link SitemapMultiPageProvider} for a non-dynamic route. If this
+     * property is 'true' (the default), a warning will be logged.
+     */
+    private static final String KEY_SHOW_MPP_WARNINGS = "ninja.sitemap.multiPageWarnings";
+
+    /**
+     * The maximum number of entries per sitemap document. If there are more
+     * entries, the sitemap is split into several shards, and a sitemap index
+     * is served instead. Default (and maximum): 50000.
+     */
+    private static final String KEY_MAX_URLS_PER_SITEMAP = "ninja.sitemap.maxUrlsPerSitemap";
+
+    /**
+     * The maximum size (in bytes, uncompressed) of a sitemap document. If the
+     * sitemap would be larger, it is split into several shards, and a sitemap
+     * index is served instead. Default (and maximum): 52428800 (50 MB).
+     */
+    private static final String KEY_MAX_BYTES_PER_SITEMAP = "ninja.sitemap.maxBytesPerSitemap";
+
+    /**
+     * The default time to cache the entries of every route between sitemap
+     * builds, for all routes which do not specify a
+     * {@link Sitemap#cacheTtl()}. Default: none (entries are not cached).
+     */
+    public static final String KEY_CACHE_TTL = "ninja.sitemap.cacheTtl";
+
+    /**
+     * The URL pattern of the language versions of a page, for pages available
+     * in several languages of <code>application.languages</code>. The
+     * placeholders <code>{language}</code> and <code>{path}</code> are
+     * replaced with the language code and the page path (including a leading
+     * slash). Patterns without "://" are relative to the site URL prefix.
+     * Default: "/{language}{path}".
+     */
+    public static final String KEY_LANGUAGE_URL_PATTERN = "ninja.sitemap.languageUrlPattern";
+
+    /**
+     * The language (of <code>application.languages</code>) whose version of a
+     * page is served at the plain page path, i.e. without applying
+     * <code>ninja.sitemap.languageUrlPattern</code>. Default: none.
+     */
+    public static final String KEY_DEFAULT_LANGUAGE = "ninja.sitemap.defaultLanguage";
+
+    /**
+     * The number of entries to request per page from
+     * {@link SitemapPagedProvider}s. Default: 1000.
+     */
+    public static final String KEY_PROVIDER_PAGE_SIZE = "ninja.sitemap.providerPageSize";
+
+    /**
+     * The default for {@link #KEY_PROVIDER_PAGE_SIZE}
+     */
+    private static final int DEFAULT_PROVIDER_PAGE_SIZE = 1000;
+
+    /**
+     * The identifier of the route sitemap (see
+     * {@link #buildRouteSitemap(String, int)}) holding the entries of all
+     * routes without a {@link SitemapMultiPageProvider}. All other route
+     * sitemaps are identified by their route's index (in
+     * {@link Router#getRoutes()}) plus one.
+     */
+    public static final int STATIC_ROUTES_SITEMAP = 0;
+
+    /**
+     * The default for {@link #KEY_LANGUAGE_URL_PATTERN}
+     */
+    private static final String DEFAULT_LANGUAGE_URL_PATTERN = "/{language}{path}";
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected Router router;
+
+    @Inject
+    protected SitemapRouteDetails sitemapDetailsProvider;
+
+    @Inject
+    protected Injector injector;
+
+    @Inject
+    protected NinjaSitemapRoutes sitemapRoutes;
+
+    @Inject
+    protected ParallelProviderInvoker parallelProviderInvoker;
+
+    @Inject
+    protected SitemapMetrics metrics;
+
+    /**
+     * The routes to include in the sitemap (created once, on first use)
+     */
+    private volatile List<PlannedRoute> routePlan;
+
+    /**
+     * The entries of routes with a cache TTL
+     */
+    private final RouteEntryCache routeEntryCache = new RouteEntryCache();
+
+    /**
+     * @return the URL prefix for all sitemap entries as configured in
+     *         application.conf (without a trailing slash), or null if no prefix
+     *         has been configured
+     */
+    public String getConfiguredSiteUrlPrefix() {
+        String siteUrlPrefix = ninjaProperties.get(KEY_SITEMAP_PREFIX);
+        return (siteUrlPrefix == null) ? null : siteUrlPrefix.replaceAll("/$", "");
+    }
+
+    /**
+     * Create the complete sitemap from scratch.
+     *
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @return the {@link SitemapBuild} holding all shards (and the sitemap
+     *         index, if required)
+     * @throws IOException
+     *             if the sitemap could not be written
+     */
+    public SitemapBuild build(String siteUrlPrefix) throws IOException {
+        return build(siteUrlPrefix, null);
+    }
+
+    /**
+     * Create the complete sitemap from scratch. Documents with the same
+     * content as in the previous sitemap keep their modification time.
+     *
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @param previous
+     *            the previous sitemap (or null)
+     * @return the {@link SitemapBuild} holding all shards (and the sitemap
+     *         index, if required)
+     * @throws IOException
+     *             if the sitemap could not be written
+     */
+    public SitemapBuild build(String siteUrlPrefix, SitemapBuild previous) throws IOException {
+        long buildStart = SitemapMetrics.start();
+        Date created = new Date();
+        List<PlannedRoute> routePlan = getRoutePlan();
+        RouteWalk walk = new RouteWalk(createWriter(siteUrlPrefix), Integer.MAX_VALUE);
+        walk.routeEntryCounts = new LinkedHashMap<String, Integer>();
+        walk.cachedEntries = routeEntryCache.getFreshEntries();
+        if (ninjaProperties.getBooleanWithDefault(SitemapUpdateService.KEY_INCREMENTAL_UPDATES, false)) {
+            // keep all entries for incremental updates
+            walk.entryIndex = new SitemapEntryIndex(siteUrlPrefix, getAlternateLanguageRoutes(routePlan));
+        }
+        List<PendingEntries> pendingEntries = null;
+        if (parallelProviderInvoker.isEnabled()) {
+            // start all SitemapMultiPageProviders now. their entries are
+            // written in route order as the walk reaches them.
+            walk.providers = new HashMap<Integer, SitemapStreamingProvider>();
+            pendingEntries = submitMultiPageProviders(routePlan, walk);
+        }
+        long phaseStart = SitemapMetrics.start();
+        try {
+            walkRoutes(routePlan, walk, 0, 0);
+        } finally {
+            if (pendingEntries != null) {
+                for (PendingEntries pending : pendingEntries) {
+                    pending.cancel();
+                }
+            }
+        }
+        metrics.recordDuration("build.routes", phaseStart);
+
+        phaseStart = SitemapMetrics.start();
+        List<SitemapDocument> shards = createDocuments(walk.writer,
+                (previous == null) ? null : previous.getShards());
+        metrics.recordDuration("build.compress", phaseStart);
+        List<Integer> shardUrlCounts = walk.writer.getShardUrlCounts();
+        List<SitemapShard> shardPlan = new ArrayList<SitemapShard>(shards.size());
+        if (walk.shardStarts.isEmpty()) {
+            // no entries at all. there is a single, empty shard.
+            shardPlan.add(new SitemapShard(1, 0, 0, 0));
+        } else {
+            for (int i = 0; i < walk.shardStarts.size(); i++) {
+                int[] start = walk.shardStarts.get(i);
+                shardPlan.add(new SitemapShard(i + 1, start[0], start[1], shardUrlCounts.get(i),
+                        walk.shardStartPageTokens.get(i), start[2]));
+            }
+        }
+
+        SitemapDocument index = null;
+        if (shards.size() > 1) {
+            phaseStart = SitemapMetrics.start();
+            List<Date> shardLastModified = new ArrayList<Date>(shards.size());
+            for (SitemapDocument shard : shards) {
+                shardLastModified.add(new Date(shard.getValidators().getLastModified()));
+            }
+            index = createIndex(siteUrlPrefix, shardLastModified, (previous == null) ? null : previous.getIndex());
+            metrics.recordDuration("build.index", phaseStart);
+        }
+
+        if ((walk.entryIndex != null) && (walk.entryIndex.getShardCount() == 0)) {
+            walk.entryIndex.startShard();
+        }
+
+        LOG.info("Created sitemap with {} entries in {} {}.", walk.writer.getTotalUrlCount(), shards.size(),
+                (shards.size() == 1 ? "shard" : "shards"));
+        SitemapBuild build = new SitemapBuild(created, shards, Collections.unmodifiableList(shardPlan), index,
+                walk.entryIndex);
+        metrics.recordDuration("build", buildStart);
+        recordBuildMetrics(build, walk.routeEntryCounts);
+        return build;
+    }
+
+    /**
+     * Record the size of a newly created sitemap.
+     *
+     * @param build
+     *            the {@link SitemapBuild}
+     * @param routeEntryCounts
+     *            the number of entries of every route (by URI), or null if
+     *            unchanged
+     */
+    void recordBuildMetrics(SitemapBuild build, Map<String, Integer> routeEntryCounts) {
+        long rawBytes = 0;
+        long gzipBytes = 0;
+        for (SitemapDocument shard : build.getShards()) {
+            rawBytes += shard.getXmlLength();
+            gzipBytes += shard.getGzipLength();
+        }
+        if (build.getIndex() != null) {
+            rawBytes += build.getIndex().getXmlLength();
+            gzipBytes += build.getIndex().getGzipLength();
+        }
+        metrics.recordValue("urls", build.getUrlCount());
+        metrics.recordValue("shards", build.getShards().size());
+        metrics.recordValue("bytes.raw", rawBytes);
+        metrics.recordValue("bytes.gzip", gzipBytes);
+        if (routeEntryCounts != null) {
+            for (Map.Entry<String, Integer> routeEntryCount : routeEntryCounts.entrySet()) {
+                metrics.recordValue("entries." + routeEntryCount.getKey(), routeEntryCount.getValue());
+            }
+        }
+    }
+
+    /**
+     * Re-create a single shard of a previously created sitemap, without
+     * rendering any of the other shards. Routes preceding the shard's first
+     * route are not visited at all.
+     *
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @param shard
+     *            the {@link SitemapShard} (from a previous {@link #build})
+     * @return the sitemap document of the shard
+     * @throws IOException
+     *             if the sitemap could not be written
+     */
+    public SitemapDocument buildShard(String siteUrlPrefix, SitemapShard shard) throws IOException {
+        if (!shard.isReproducible()) {
+            throw new IOException("Sitemap shard " + shard.getNumber()
+                    + " has been changed by incremental updates, and cannot be re-created on its own.");
+        }
+        long shardStart = SitemapMetrics.start();
+        RouteWalk walk = new RouteWalk(createWriter(siteUrlPrefix), shard.getUrlCount());
+        walk.cachedEntries = routeEntryCache.getFreshEntries();
+        walk.resumePageToken = shard.getPageToken();
+        walk.resumePageEntryOffset = shard.getPageEntryOffset();
+        walkRoutes(getRoutePlan(), walk, shard.getRouteIndex(), shard.getEntryOffset());
+
+        List<ByteBuffer> documents = walk.writer.finish();
+        if (documents.size() > 1) {
+            // the entries have grown since the shard plan was created. the
+            // remainder will be included after the next complete rebuild.
+            LOG.warn("Sitemap shard {} exceeds the maximum size. Some entries have been omitted.", shard.getNumber());
+        }
+        LOG.debug("Re-created sitemap shard {} with {} entries.", shard.getNumber(),
+                walk.writer.getShardUrlCounts().get(0));
+        SitemapDocument document = SitemapDocument.create(documents.get(0),
+                walk.writer.getShardLastModified().get(0), null);
+        metrics.recordDuration("shard", shardStart);
+        return document;
+    }
+
+    /**
+     * @return the identifiers of all route sitemaps (see
+     *         {@link #buildRouteSitemap(String, int)}), in route order
+     */
+    public List<Integer> getRouteSitemapIds() {
+        List<Integer> routeSitemapIds = new ArrayList<Integer>();
+        for (PlannedRoute plannedRoute : getRoutePlan()) {
+            if (plannedRoute.hasProvider()) {
+                routeSitemapIds.add(plannedRoute.getRouteIndex() + 1);
+            } else if (!routeSitemapIds.contains(STATIC_ROUTES_SITEMAP)) {
+                routeSitemapIds.add(0, STATIC_ROUTES_SITEMAP);
+            }
+        }
+        return routeSitemapIds;
+    }
+
+    /**
+     * Estimate the number of pages of a route sitemap (see
+     * {@link #buildRouteSitemap(String, int)}) before it is created, from the
+     * number of entries reported by a {@link SitemapPagedProvider}. No entries
+     * are loaded for this. This is only used for lazily created route
+     * sitemaps; the shards of the complete sitemap are planned from the
+     * entries actually returned by the providers.
+     *
+     * @param routeSitemapId
+     *            the identifier of the route sitemap
+     * @return the estimated number of pages, or 0 if unknown
+     */
+    public int getRouteSitemapPageCount(int routeSitemapId) {
+        for (PlannedRoute plannedRoute : getRoutePlan()) {
+            if ((plannedRoute.getRouteIndex() != routeSitemapId - 1)
+                    || !(plannedRoute.getProvider() instanceof PagedProviderAdapter)) {
+                continue;
+            }
+            long entryCount = ((PagedProviderAdapter) plannedRoute.getProvider()).getProvider()
+                    .countSitemapEntries(plannedRoute.getRoute(), plannedRoute.getSitemap());
+            if (entryCount < 0) {
+                return 0;
+            }
+            if (plannedRoute.getSitemap().alternateLanguages()) {
+                String[] languages = ninjaProperties.getStringArray(NinjaConstant.applicationLanguages);
+                entryCount *= Math.max(1, (languages == null) ? 1 : languages.length);
+            }
+            int maxUrls = getMaxUrlsPerSitemap();
+            return (int) Math.max(1, (entryCount + maxUrls - 1) / maxUrls);
+        }
+        return 0;
+    }
+
+    /**
+     * Create the sitemap of a single route with a
+     * {@link SitemapMultiPageProvider} (or of all routes without one), without
+     * visiting any other routes. If the route has more entries than fit into
+     * a single sitemap document, it is split into several pages.
+     *
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @param routeSitemapId
+     *            the route's index (in {@link Router#getRoutes()}) plus one, or
+     *            {@link #STATIC_ROUTES_SITEMAP}
+     * @return the sitemap documents of all pages of the route sitemap, or null
+     *         if there is no such route sitemap
+     * @throws IOException
+     *             if the sitemap could not be written
+     */
+    public List<SitemapDocument> buildRouteSitemap(String siteUrlPrefix, int routeSitemapId) throws IOException {
+        List<PlannedRoute> routePlan = new ArrayList<PlannedRoute>();
+        for (PlannedRoute plannedRoute : getRoutePlan()) {
+            if ((routeSitemapId == STATIC_ROUTES_SITEMAP) ? !plannedRoute.hasProvider()
+                    : (plannedRoute.hasProvider() && (plannedRoute.getRouteIndex() == routeSitemapId - 1))) {
+                routePlan.add(plannedRoute);
+            }
+        }
+        if (routePlan.isEmpty()) {
+            return null;
+        }
+
+        long buildStart = SitemapMetrics.start();
+        RouteWalk walk = new RouteWalk(createWriter(siteUrlPrefix), Integer.MAX_VALUE);
+        walk.routeEntryCounts = new LinkedHashMap<String, Integer>();
+        walk.cachedEntries = routeEntryCache.getFreshEntries();
+        walkRoutes(routePlan, walk, 0, 0);
+        List<SitemapDocument> documents = createDocuments(walk.writer, null);
+
+        LOG.info("Created route sitemap {} with {} entries in {} {}.", routeSitemapId,
+                walk.writer.getTotalUrlCount(), documents.size(), (documents.size() == 1 ? "page" : "pages"));
+        metrics.recordDuration("routeSitemap", buildStart);
+        for (Map.Entry<String, Integer> routeEntryCount : walk.routeEntryCounts.entrySet()) {
+            metrics.recordValue("entries." + routeEntryCount.getKey(), routeEntryCount.getValue());
+        }
+        return documents;
+    }
+
+    /**
+     * Start all (list-based) {@link SitemapMultiPageProvider}s of the route
+     * plan on the {@link ParallelProviderInvoker}'s thread pool, except for
+     * those with cached entries. Streaming providers are still invoked during
+     * the walk, as their entries are written as they are produced.
+     *
+     * @param routePlan
+     *            the {@link PlannedRoute}s
+     * @param walk
+     *            the {@link RouteWalk} to put the providers to use into (by
+     *            route index)
+     * @return the {@link PendingEntries} of all started providers
+     */
+    private List<PendingEntries> submitMultiPageProviders(List<PlannedRoute> routePlan, final RouteWalk walk) {
+        List<PendingEntries> pendingEntries = new ArrayList<PendingEntries>();
+        for (PlannedRoute plannedRoute : routePlan) {
+            if (!(plannedRoute.getProvider() instanceof MultiPageProviderAdapter)
+                    || walk.cachedEntries.containsKey(plannedRoute.getRouteIndex())) {
+                continue;
+            }
+
+            final Route route = plannedRoute.getRoute();
+            final Sitemap sitemap = plannedRoute.getSitemap();
+            final SitemapMultiPageProvider smpp = ((MultiPageProviderAdapter) plannedRoute.getProvider())
+                    .getProvider();
+            final PendingEntries pending = parallelProviderInvoker.submit(plannedRoute.getRouteIndex(),
+                    sitemap.multiPageProvider() + " for route " + route.getUri(), new Callable<List<SitemapEntry>>() {
+                        public List<SitemapEntry> call() {
+                            try {
+                                return getSitemapEntries(smpp, route, sitemap);
+                            } catch (NullPointerException npe) {
+                                logInjectorHint(sitemap, smpp);
+                                throw npe;
+                            }
+                        }
+                    });
+            pendingEntries.add(pending);
+            walk.providers.put(plannedRoute.getRouteIndex(), new SitemapStreamingProvider() {
+                public void writeSitemapEntries(Route route, Sitemap sitemap, SitemapEntrySink sink)
+                        throws IOException {
+                    List<SitemapEntry> entries = parallelProviderInvoker.await(pending);
+                    if (pending.hasFailed()) {
+                        // do not cache the entries of a previous build
+                        walk.recordedEntries = null;
+                    }
+                    MultiPageProviderAdapter.writeEntries(entries, sink);
+                }
+            });
+        }
+        return pendingEntries;
+    }
+
+    /**
+     * Complete the given writer, and create (and compress) the
+     * {@link SitemapDocument}s of its shards.
+     *
+     * @param previousDocuments
+     *            the previous documents in the same places (or null)
+     */
+    private List<SitemapDocument> createDocuments(ShardedSitemapWriter writer,
+            List<SitemapDocument> previousDocuments) throws IOException {
+        List<ByteBuffer> xmlDocuments = writer.finish();
+        List<Long> lastModified = writer.getShardLastModified();
+        List<SitemapDocument> documents = new ArrayList<SitemapDocument>(xmlDocuments.size());
+        for (int i = 0; i < xmlDocuments.size(); i++) {
+            SitemapDocument previous = ((previousDocuments != null) && (i < previousDocuments.size()))
+                    ? previousDocuments.get(i) : null;
+            documents.add(SitemapDocument.create(xmlDocuments.get(i), lastModified.get(i), previous));
+        }
+        return Collections.unmodifiableList(documents);
+    }
+
+    /**
+     * Write the sitemap index for the given shards.
+     *
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @param shardLastModified
+     *            the last modification date of every shard
+     * @param previous
+     *            the previous sitemap index (or null)
+     * @return the {@link SitemapDocument} of the sitemap index
+     * @throws IOException
+     *             if the sitemap index could not be written
+     */
+    SitemapDocument createIndex(String siteUrlPrefix, List<Date> shardLastModified, SitemapDocument previous)
+            throws IOException {
+        List<String> shardPaths = new ArrayList<String>(shardLastModified.size());
+        for (int shard = 1; shard <= shardLastModified.size(); shard++) {
+            shardPaths.add(sitemapRoutes.getShardPath(shard));
+        }
+        return createIndex(siteUrlPrefix, shardPaths, shardLastModified, previous);
+    }
+
+    /**
+     * Write a sitemap index for the given sitemap documents.
+     *
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @param sitemapPaths
+     *            the paths of all sitemap documents
+     * @param lastModified
+     *            the last modification date of every sitemap document (or
+     *            null, if unknown)
+     * @return the {@link SitemapDocument} of the sitemap index
+     * @throws IOException
+     *             if the sitemap index could not be written
+     */
+    public SitemapDocument createIndex(String siteUrlPrefix, List<String> sitemapPaths, List<Date> lastModified)
+            throws IOException {
+        return createIndex(siteUrlPrefix, sitemapPaths, lastModified, null);
+    }
+
+    /**
+     * Write a sitemap index for the given sitemap documents, which replaces a
+     * previous index (if any). Its modification time is the newest one of
+     * the sitemap documents (see
+     * {@link SitemapDocument#create(byte[], long, SitemapDocument)}).
+     *
+     * @param previous
+     *            the previous sitemap index (or null)
+     * @see #createIndex(String, List, List)
+     */
+    SitemapDocument createIndex(String siteUrlPrefix, List<String> sitemapPaths, List<Date> lastModified,
+            SitemapDocument previous) throws IOException {
+        long newestLastModified = SitemapWriter.NO_LAST_MODIFIED;
+        for (Date date : lastModified) {
+            if (date != null) {
+                newestLastModified = Math.max(newestLastModified, date.getTime());
+            }
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128 * (sitemapPaths.size() + 1));
+        SitemapIndexWriter indexWriter = new SitemapIndexWriter(buffer, siteUrlPrefix);
+        indexWriter.writeStartDocument();
+        for (int i = 0; i < sitemapPaths.size(); i++) {
+            indexWriter.writeSitemap(sitemapPaths.get(i), lastModified.get(i));
+        }
+        indexWriter.writeEndDocument();
+        indexWriter.close();
+        return SitemapDocument.create(buffer.toByteArray(), newestLastModified, previous);
+    }
+
+    /**
+     * @return the configured maximum number of entries per sitemap document
+     */
+    int getMaxUrlsPerSitemap() {
+        return Math.min(ShardedSitemapWriter.PROTOCOL_MAX_URLS, ninjaProperties
+                .getIntegerWithDefault(KEY_MAX_URLS_PER_SITEMAP, ShardedSitemapWriter.PROTOCOL_MAX_URLS));
+    }
+
+    /**
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @return a new {@link ShardedSitemapWriter} with the configured limits
+     */
+    ShardedSitemapWriter createWriter(String siteUrlPrefix) {
+        int maxUrls = getMaxUrlsPerSitemap();
+        int maxBytes = Math.min(ShardedSitemapWriter.PROTOCOL_MAX_BYTES, ninjaProperties
+                .getIntegerWithDefault(KEY_MAX_BYTES_PER_SITEMAP, ShardedSitemapWriter.PROTOCOL_MAX_BYTES));
+        ShardedSitemapWriter writer = new ShardedSitemapWriter(siteUrlPrefix, maxUrls, maxBytes);
+        String[] languages = ninjaProperties.getStringArray(NinjaConstant.applicationLanguages);
+        if (languages != null && languages.length > 0) {
+            String urlPattern = ninjaProperties.getWithDefault(KEY_LANGUAGE_URL_PATTERN, DEFAULT_LANGUAGE_URL_PATTERN);
+            String defaultLanguage = ninjaProperties.get(KEY_DEFAULT_LANGUAGE);
+            String[] urlPatterns = new String[languages.length];
+            for (int i = 0; i < languages.length; i++) {
+                urlPatterns[i] = languages[i].equals(defaultLanguage) ? "{path}"
+                        : urlPattern.replace("{language}", languages[i]);
+            }
+            writer.setLanguageUrls(languages, urlPatterns);
+        }
+        return writer;
+    }
+
+    /**
+     * @param routePlan
+     *            the {@link PlannedRoute}s of the sitemap
+     * @return the indices of all routes whose pages are available in all
+     *         languages (see {@link Sitemap#alternateLanguages()})
+     */
+    BitSet getAlternateLanguageRoutes(List<PlannedRoute> routePlan) {
+        BitSet routes = new BitSet();
+        for (PlannedRoute plannedRoute : routePlan) {
+            if (plannedRoute.getSitemap().alternateLanguages()) {
+                routes.set(plannedRoute.getRouteIndex());
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Find the route with the given controller method.
+     *
+     * @param controllerClass
+     *            the controller class
+     * @param controllerMethodName
+     *            the name of the controller method
+     * @return the index (in {@link Router#getRoutes()}) of the first such
+     *         route included in the sitemap, or -1 if there is none
+     */
+    int getRouteIndex(Class<?> controllerClass, String controllerMethodName) {
+        for (PlannedRoute plannedRoute : getRoutePlan()) {
+            Route route = plannedRoute.getRoute();
+            if (route.getControllerClass().equals(controllerClass)
+                    && route.getControllerMethod().getName().equals(controllerMethodName)) {
+                return plannedRoute.getRouteIndex();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drop the cached entries of a route (if any), so that the next sitemap
+     * build calls its provider again.
+     *
+     * @param routeIndex
+     *            the index (in {@link Router#getRoutes()}) of the route
+     */
+    void invalidateCachedEntries(int routeIndex) {
+        routeEntryCache.invalidate(routeIndex);
+    }
+
+    /**
+     * @return the routes to include in the sitemap
+     */
+    private List<PlannedRoute> getRoutePlan() {
+        List<PlannedRoute> routePlan = this.routePlan;
+        if (routePlan == null) {
+            synchronized (this) {
+                routePlan = this.routePlan;
+                if (routePlan == null) {
+                    routePlan = createRoutePlan();
+                    this.routePlan = routePlan;
+                }
+            }
+        }
+        return routePlan;
+    }
+
+    /**
+     * Look at all routes of the application once, and collect everything
+     * which does not change between sitemap builds: their annotations, the
+     * paths of static entries, and the provider instances of routes with
+     * multiple entries. Routes which cannot be included in the sitemap are
+     * logged (once) and left out.
+     *
+     * @return the (immutable) list of {@link PlannedRoute}s
+     */
+    private List<PlannedRoute> createRoutePlan() {
+        List<PlannedRoute> routePlan = new ArrayList<PlannedRoute>();
+        List<Route> routes = router.getRoutes();
+        for (int i = 0; i < routes.size(); i++) {
+            Route route = routes.get(i);
+            Sitemap sitemap = route.getControllerMethod().getAnnotation(Sitemap.class);
+            // check if the route should be processed for the sitemap
+            if (!includeInSitemap(sitemap, route)) {
+                LOG.debug("Not including route {} in sitemap.xml", route.getUri());
+                continue;
+            }
+
+            // allow for multiple pages if there is at least one @PathParam
+            // annotation in the controller method's arguments.
+            boolean dynamicRoute = DYNAMIC_ROUTE_PATTERN.matcher(route.getUri()).matches();
+
+            // check if we have a SitemapMultiPageProvider registered for this
+            // route
+            String smppClassName = sitemap.multiPageProvider();
+
+            if (!Sitemap.NO_MULTIPAGE_PROVIDER.equals(smppClassName)) {
+                SitemapStreamingProvider provider = createMultiPageProvider(route, sitemap, smppClassName,
+                        dynamicRoute);
+                if (provider != null) {
+                    routePlan.add(PlannedRoute.forProvider(i, route, sitemap, provider, getCacheTtl(route, sitemap)));
+                }
+
+            } else if (!dynamicRoute) {
+                // no SitemapMultiPageProvider given, and not a dynamic route.
+                // standard case.
+                routePlan.add(PlannedRoute.forStaticRoute(i, route, sitemap, getCacheTtl(route, sitemap)));
+
+            } else {
+                // no SitemapMultiPageProvider given, but a dynamic route. warn
+                // about this.
+                LOG.warn(
+                        "Dynamic Route {} in controller {}::{} does not provide a {} implementation. Not including in sitemap.",
+                        route.getUri(), route.getControllerClass().getName(), route.getControllerMethod().getName(),
+                        SitemapMultiPageProvider.class.getSimpleName());
+            }
+        }
+
+        LOG.info("Including {} of {} routes in sitemap.", routePlan.size(), routes.size());
+        return Collections.unmodifiableList(routePlan);
+    }
+
+    /**
+     * @return the time to cache the entries of the given route (in
+     *         milliseconds), or 0 if they should not be cached
+     */
+    private long getCacheTtl(Route route, Sitemap sitemap) {
+        String cacheTtl = Sitemap.DEFAULT_CACHE_TTL.equals(sitemap.cacheTtl()) ? ninjaProperties.get(KEY_CACHE_TTL)
+                : sitemap.cacheTtl();
+        if (cacheTtl == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(TimeUtil.parseDuration(cacheTtl));
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid cache TTL '{}' for route {}. Not caching its entries.", cacheTtl, route.getUri());
+            return 0;
+        }
+    }
+
+    /**
+     * Visit all planned routes (starting at the given route index), and write
+     * their sitemap entries until the walk is complete.
+     *
+     * @param routePlan
+     *            the {@link PlannedRoute}s
+     * @param walk
+     *            the {@link RouteWalk}
+     * @param firstRouteIndex
+     *            the index (in {@link Router#getRoutes()}) of the first route
+     *            to visit
+     * @param firstEntryOffset
+     *            the number of entries of the first route to skip
+     * @throws IOException
+     *             if writing the entries fails
+     */
+    private void walkRoutes(List<PlannedRoute> routePlan, RouteWalk walk, int firstRouteIndex, int firstEntryOffset)
+            throws IOException {
+        for (int i = 0; i < routePlan.size() && !walk.isComplete(); i++) {
+            PlannedRoute plannedRoute = routePlan.get(i);
+            if (plannedRoute.getRouteIndex() < firstRouteIndex) {
+                continue;
+            }
+            walk.startRoute(plannedRoute.getRouteIndex(),
+                    (plannedRoute.getRouteIndex() == firstRouteIndex) ? firstEntryOffset : 0,
+                    plannedRoute.getSitemap().alternateLanguages());
+            if (plannedRoute.getRouteIndex() != firstRouteIndex) {
+                // only the first route may be resumed at a provider page
+                walk.resumePageToken = null;
+            }
+
+            LOG.debug("Including route {} in sitemap.xml", plannedRoute.getRoute().getUri());
+            CompactEntryStore cachedEntries = walk.cachedEntries.get(plannedRoute.getRouteIndex());
+            if (cachedEntries != null) {
+                // re-use the entries from a previous build
+                metrics.incrementCounter("routeCache.hit");
+                addSitemapPagesFromCache(cachedEntries, walk);
+            } else {
+                if ((plannedRoute.getCacheTtl() > 0) && (walk.resumePageToken == null)) {
+                    // (the entries preceding a resumed page are not visited,
+                    // so they cannot be cached)
+                    metrics.incrementCounter("routeCache.miss");
+                    walk.recordedEntries = new CompactEntryStore(16);
+                }
+                // write page(s) from the route to the sitemap
+                if (plannedRoute.hasProvider()) {
+                    addSitemapPagesFromProvider(plannedRoute, walk);
+                } else {
+                    addSitemapPageStatic(plannedRoute, walk);
+                }
+                cacheRecordedEntries(plannedRoute, walk);
+            }
+            walk.resumePageToken = null;
+
+            LOG.debug("Using {} {} in sitemap.xml for route {}.", walk.routeEntryCount,
+                    (walk.routeEntryCount == 1 ? "entry" : "entries"), plannedRoute.getRoute().getUri());
+            if (walk.routeEntryCounts != null) {
+                String uri = plannedRoute.getRoute().getUri();
+                Integer previousCount = walk.routeEntryCounts.get(uri);
+                walk.routeEntryCounts.put(uri,
+                        walk.routeEntryCount + ((previousCount == null) ? 0 : previousCount.intValue()));
+            }
+        }
+    }
+
+    /**
+     * Write the cached entries of a route to the sitemap.
+     *
+     * @param cachedEntries
+     *            the entries
+     * @param walk
+     *            the {@link RouteWalk} to write the entries to
+     * @throws IOException
+     *             if writing the entries fails
+     */
+    private void addSitemapPagesFromCache(CompactEntryStore cachedEntries, RouteWalk walk) throws IOException {
+        for (int i = 0; i < cachedEntries.size(); i++) {
+            if (!walk.add(cachedEntries, i)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Cache the entries recorded for the current route of the walk (if any).
+     * Entries are only cached if the walk has not been completed within the
+     * route, as there might have been more entries otherwise.
+     */
+    private void cacheRecordedEntries(PlannedRoute plannedRoute, RouteWalk walk) {
+        CompactEntryStore recordedEntries = walk.recordedEntries;
+        walk.recordedEntries = null;
+        if ((recordedEntries != null) && !walk.isComplete()) {
+            recordedEntries.trimToSize();
+            routeEntryCache.put(plannedRoute.getRouteIndex(), recordedEntries, plannedRoute.getCacheTtl());
+        }
+    }
+
+    /**
+     * Write a single entry to the sitemap.
+     *
+     * @param plannedRoute
+     *            the route for which to generate the sitemap entry
+     * @param walk
+     *            the {@link RouteWalk} to write the entry to
+     * @throws IOException
+     *             if writing the entry fails
+     */
+    private void addSitemapPageStatic(PlannedRoute plannedRoute, RouteWalk walk) throws IOException {
+        Route route = plannedRoute.getRoute();
+        Sitemap sitemap = plannedRoute.getSitemap();
+
+        double priority;
+        if (sitemap.priority() == Sitemap.PRIORITY_DYNAMIC) {
+            priority = sitemapDetailsProvider.getPriorityForRoute(route, sitemap);
+        } else {
+            priority = sitemap.priority();
+        }
+
+        int changeFrequency;
+        if (sitemap.changeFrequency() == Sitemap.CHANGE_FREQUENCY_DYNAMIC) {
+            changeFrequency = sitemapDetailsProvider.getChangeFrequencyForRoute(route, sitemap);
+        } else {
+            changeFrequency = sitemap.changeFrequency();
+        }
+
+        walk.add(plannedRoute.getPagePath(), sitemapDetailsProvider.getLastModifiedDateForRoute(route, sitemap),
+                changeFrequency, priority);
+    }
+
+    /**
+     * Write multiple entries to the sitemap, based on a user-provided
+     * {@link SitemapMultiPageProvider} or {@link SitemapStreamingProvider}
+     * implementation.
+     *
+     * @param plannedRoute
+     *            the route for which to generate the sitemap entries
+     * @param walk
+     *            the {@link RouteWalk} to write the entries to
+     * @throws IOException
+     *             if writing the entries fails
+     */
+    private void addSitemapPagesFromProvider(PlannedRoute plannedRoute, RouteWalk walk) throws IOException {
+        Route route = plannedRoute.getRoute();
+        Sitemap sitemap = plannedRoute.getSitemap();
+
+        SitemapStreamingProvider provider = plannedRoute.getProvider();
+        SitemapStreamingProvider startedProvider = null;
+        if (walk.providers != null) {
+            // the provider has been started in parallel already
+            startedProvider = walk.providers.remove(walk.routeIndex);
+        }
+
+        try {
+            if (startedProvider != null) {
+                startedProvider.writeSitemapEntries(route, sitemap, walk);
+            } else if (provider instanceof MultiPageProviderAdapter) {
+                // time the provider itself, without writing its entries
+                MultiPageProviderAdapter.writeEntries(
+                        getSitemapEntries(((MultiPageProviderAdapter) provider).getProvider(), route, sitemap), walk);
+            } else if (provider instanceof PagedProviderAdapter) {
+                addSitemapPagesFromPagedProvider(plannedRoute, (PagedProviderAdapter) provider, walk);
+            } else {
+                long providerStart = SitemapMetrics.start();
+                provider.writeSitemapEntries(route, sitemap, walk);
+                metrics.recordDuration("provider." + route.getUri(), providerStart);
+            }
+        } catch (NullPointerException npe) {
+            logInjectorHint(sitemap, plannedRoute.getProvider());
+            throw npe;
+        }
+
+        if (walk.routeEntryCount == 0) {
+            LOG.warn("{} did not return any sitemap entries for route {} to {}::{}.", sitemap.multiPageProvider(),
+                    route.getUri(), route.getControllerClass().getName(), route.getControllerMethod().getName());
+        }
+    }
+
+    /**
+     * Write the entries of a {@link SitemapPagedProvider}, requesting one page
+     * at a time. The continuation token of every page is kept in the walk, so
+     * that the shards starting within the page can later be re-created
+     * starting at that page. If the walk is resumed at a page, the preceding
+     * pages are not requested at all.
+     *
+     * @param plannedRoute
+     *            the route for which to generate the sitemap entries
+     * @param provider
+     *            the {@link PagedProviderAdapter} of the route
+     * @param walk
+     *            the {@link RouteWalk} to write the entries to
+     * @throws IOException
+     *             if writing the entries fails
+     */
+    private void addSitemapPagesFromPagedProvider(PlannedRoute plannedRoute, PagedProviderAdapter provider,
+            RouteWalk walk) throws IOException {
+        Route route = plannedRoute.getRoute();
+        Sitemap sitemap = plannedRoute.getSitemap();
+
+        String pageToken = null;
+        if (walk.resumePageToken != null) {
+            // the entries preceding the page are counted as seen (and skipped)
+            pageToken = walk.resumePageToken;
+            walk.routeEntryCount = Math.max(0, walk.skipCount - walk.resumePageEntryOffset);
+        }
+
+        do {
+            long providerStart = SitemapMetrics.start();
+            SitemapEntryPage page = provider.getProvider().getSitemapEntries(route, sitemap, pageToken,
+                    provider.getPageSize());
+            metrics.recordDuration("provider." + route.getUri(), providerStart);
+            if (page == null) {
+                return;
+            }
+            walk.startPage(pageToken);
+            if (!MultiPageProviderAdapter.writeEntries(page.getEntries(), walk)) {
+                return;
+            }
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+    }
+
+    /**
+     * Call a {@link SitemapMultiPageProvider}, and record its duration.
+     */
+    private List<SitemapEntry> getSitemapEntries(SitemapMultiPageProvider smpp, Route route, Sitemap sitemap) {
+        long providerStart = SitemapMetrics.start();
+        List<SitemapEntry> entries = smpp.getSitemapEntries(route, sitemap);
+        metrics.recordDuration("provider." + route.getUri(), providerStart);
+        return entries;
+    }
+
+    /**
+     * Create the provider for a route. {@link SitemapMultiPageProvider}s are
+     * wrapped in a {@link MultiPageProviderAdapter}.
+     *
+     * @param route
+     *            the route for which to generate the sitemap entries
+     * @param sitemap
+     *            the {@link Sitemap} annotation
+     * @return the {@link SitemapStreamingProvider}, or null if it could not be
+     *         created
+     */
+    private SitemapStreamingProvider createMultiPageProvider(Route route, Sitemap sitemap, String smppClassName,
+            boolean dynamicRoute) {
+        try {
+            Class<?> smppClass = Class.forName(smppClassName);
+            if (!SitemapStreamingProvider.class.isAssignableFrom(smppClass)
+                    && !SitemapMultiPageProvider.class.isAssignableFrom(smppClass)
+                    && !SitemapPagedProvider.class.isAssignableFrom(smppClass)) {
+                LOG.error("Class {} as specified for {}.{} implements neither {} nor {} nor {}. Not including in sitemap.",
+                        smppClassName, route.getControllerClass().getName(), route.getControllerMethod().getName(),
+                        SitemapMultiPageProvider.class.getSimpleName(), SitemapStreamingProvider.class.getSimpleName(),
+                        SitemapPagedProvider.class.getSimpleName());
+                return null;
+            }
+
+            Object smpp = sitemap.useInjector() ? injector.getInstance(smppClass)
+                    : smppClass.getDeclaredConstructor().newInstance();
+
+            if (!dynamicRoute && ninjaProperties.getBooleanWithDefault(KEY_SHOW_MPP_WARNINGS, true)) {
+                // using a MultiPageProvider for a non-dynamic route is
+                // usually strange. warn about it.
+                LOG.warn(
+                        "Using {} to create sitemap entries for non-dynamic route {} to {}::{}. Is this really intended?",
+                        smppClassName, route.getUri(), route.getControllerClass().getName(),
+                        route.getControllerMethod().getName());
+            }
+
+            if (smpp instanceof SitemapStreamingProvider) {
+                return (SitemapStreamingProvider) smpp;
+            }
+            if (smpp instanceof SitemapPagedProvider) {
+                return new PagedProviderAdapter((SitemapPagedProvider) smpp,
+                        Math.max(1, ninjaProperties.getIntegerWithDefault(KEY_PROVIDER_PAGE_SIZE,
+                                DEFAULT_PROVIDER_PAGE_SIZE)));
+            }
+            return new MultiPageProviderAdapter((SitemapMultiPageProvider) smpp);
+
+        } catch (ClassNotFoundException e) {
+            LOG.error("Could not find class " + smppClassName + " as specified for "
+                    + route.getControllerClass().getName() + "." + route.getControllerMethod().getName()
+                    + ". Not including in sitemap.", e);
+        } catch (InstantiationException e) {
+            LOG.error("Could not instantiate class " + smppClassName + " as specified for "
+                    + route.getControllerClass().getName() + "." + route.getControllerMethod().getName()
+                    + ". Not including in sitemap.", e);
+        } catch (IllegalAccessException e) {
+            LOG.error("Illegal access to constructor of class " + smppClassName + " as specified for "
+                    + route.getControllerClass().getName() + "." + route.getControllerMethod().getName()
+                    + ". Not including in sitemap.", e);
+        } catch (NoSuchMethodException e) {
+            LOG.error("Class " + smppClassName + " as specified for " + route.getControllerClass().getName() + "."
+                    + route.getControllerMethod().getName()
+                    + " has no no-argument constructor. Not including in sitemap.", e);
+        } catch (InvocationTargetException e) {
+            LOG.error("Constructor of class " + smppClassName + " as specified for "
+                    + route.getControllerClass().getName() + "." + route.getControllerMethod().getName()
+                    + " failed. Not including in sitemap.", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Log a hint about a likely cause of a {@link NullPointerException} in a
+     * provider.
+     */
+    private void logInjectorHint(Sitemap sitemap, Object provider) {
+        if (sitemap.useInjector()) {
+            // using injector - show an error message pointing to a
+            // likely cause of the problem.
+            Object smpp = provider;
+            if (provider instanceof MultiPageProviderAdapter) {
+                smpp = ((MultiPageProviderAdapter) provider).getProvider();
+            } else if (provider instanceof PagedProviderAdapter) {
+                smpp = ((PagedProviderAdapter) provider).getProvider();
+            }
+            LOG.error(
+                    "NullPointerException in {} when using 'useInjector'. Perhaps you forgot to bind() your class in ninja.Module?",
+                    smpp.getClass().getName());
+        }
+    }
+
+    /**
+     * Convert one of the change frequency integer constants from the
+     * {@link Sitemap} annotation into the {@link ChangeFreq} enumeration format
+     * used by the sitemap library.
+     *
+     * @param changeFrequency
+     * @return
+     */
+    static ChangeFreq changeFrequencyFromInteger(int changeFrequencyConstant) {
+        switch (changeFrequencyConstant) {
+        case Sitemap.NEVER:
+            return ChangeFreq.NEVER;
+        case Sitemap.HOURLY:
+            return ChangeFreq.HOURLY;
+        case Sitemap.DAILY:
+            return ChangeFreq.DAILY;
+        case Sitemap.WEEKLY:
+            return ChangeFreq.WEEKLY;
+        case Sitemap.MONTHLY:
+            return ChangeFreq.MONTHLY;
+        case Sitemap.YEARLY:
+            return ChangeFreq.YEARLY;
+        case Sitemap.ALWAYS:
+            return ChangeFreq.ALWAYS;
+        default:
+            LOG.warn("Invalid change frequency value {}. Using 'DAILY'.", changeFrequencyConstant);
+            return ChangeFreq.DAILY;
+        }
+    }
+
+    /**
+     * Tests if the given {@link Route} should result in any pages for the
+     * sitemap.
+     *
+     * @param sitemap
+     *            the {@link Sitemap} annotation of the {@link Route}'s
+     *            controller method.
+     * @param route
+     *            the {@link Route} itself
+     * @return true, if the route should result in sitemap pages, otherwise
+     *         false
+     */
+    private boolean includeInSitemap(Sitemap sitemap, Route route) {
+        if (sitemap == null) {
+            LOG.debug("No @Sitemap annotation for controller {}::{}. Not including in sitemap.xml.",
+                    route.getControllerClass().getName(), route.getControllerMethod().getName());
+            return false;
+
+        } else {
+
+            // TODO implement additional filtering of routes for sitemap
+            // generation based on annotation
+
+            return true;
+        }
+    }
+
+    /**
+     * Keeps track of the current position while walking the routes, and
+     * records where new shards start.
+     */
+    private static class RouteWalk implements SitemapEntrySink {
+
+        private final ShardedSitemapWriter writer;
+
+        /**
+         * The maximum number of URLs to write in this walk
+         */
+        private final int maxUrls;
+
+        /**
+         * Route index and entry offset of the first entry of every shard
+         */
+        private final List<int[]> shardStarts = new ArrayList<int[]>();
+
+        /**
+         * The continuation token of the provider page holding the first entry
+         * of every shard (or null)
+         */
+        private final List<String> shardStartPageTokens = new ArrayList<String>();
+
+        private int routeIndex;
+
+        /**
+         * True, if all pages of the current route are available in all
+         * languages
+         */
+        private boolean alternateLanguages;
+
+        /**
+         * The continuation token of the current {@link SitemapPagedProvider}
+         * page (or null)
+         */
+        private String pageToken;
+
+        /**
+         * The number of entries of the current route preceding the current
+         * page
+         */
+        private int pageStartEntryCount;
+
+        /**
+         * The continuation token of the page to resume the first route at (or
+         * null, to start at its first entry)
+         */
+        private String resumePageToken;
+
+        /**
+         * The number of entries of the resumed page which should be skipped
+         */
+        private int resumePageEntryOffset;
+
+        /**
+         * The number of entries of the current route which should be skipped
+         */
+        private int skipCount;
+
+        /**
+         * The number of entries seen for the current route (including skipped
+         * ones)
+         */
+        private int routeEntryCount;
+
+        /**
+         * The already started providers by route index (or null, if providers
+         * are invoked as the walk reaches their routes)
+         */
+        private Map<Integer, SitemapStreamingProvider> providers;
+
+        /**
+         * The cached entries of all routes which have not expired yet (by
+         * route index)
+         */
+        private Map<Integer, CompactEntryStore> cachedEntries;
+
+        /**
+         * Records the entries of the current route for the
+         * {@link RouteEntryCache} (or null, if not required)
+         */
+        private CompactEntryStore recordedEntries;
+
+        /**
+         * Collects all written entries (or null, if incremental updates are
+         * not enabled)
+         */
+        private SitemapEntryIndex entryIndex;
+
+        /**
+         * The number of entries of every route by URI (or null, if not
+         * required)
+         */
+        private Map<String, Integer> routeEntryCounts;
+
+        RouteWalk(ShardedSitemapWriter writer, int maxUrls) {
+            this.writer = writer;
+            this.maxUrls = maxUrls;
+        }
+
+        void startRoute(int routeIndex, int skipCount, boolean alternateLanguages) {
+            this.routeIndex = routeIndex;
+            this.alternateLanguages = alternateLanguages;
+            this.pageToken = null;
+            this.pageStartEntryCount = 0;
+            this.skipCount = skipCount;
+            this.routeEntryCount = 0;
+        }
+
+        /**
+         * Start the next page of a {@link SitemapPagedProvider}.
+         *
+         * @param pageToken
+         *            the continuation token of the page (or null for the first
+         *            page)
+         */
+        void startPage(String pageToken) {
+            this.pageToken = pageToken;
+            this.pageStartEntryCount = routeEntryCount;
+        }
+
+        /**
+         * @return true, if the next entry of the current route should be
+         *         skipped. In this case, the entry is counted as seen.
+         */
+        boolean skipEntry() {
+            if (routeEntryCount < skipCount) {
+                routeEntryCount++;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isComplete() {
+            return writer.getTotalUrlCount() >= maxUrls;
+        }
+
+        public boolean add(SitemapEntry entry) throws IOException {
+            return add(entry.getPagePath(), CompactEntryStore.getTime(entry.getLastModified()),
+                    entry.getChangeFrequency(), entry.getPriority(), entry.getExtensions());
+        }
+
+        public boolean add(String pagePath, Date lastModified, int changeFrequency, double priority)
+                throws IOException {
+            return add(pagePath, CompactEntryStore.getTime(lastModified), changeFrequency, priority, null);
+        }
+
+        /**
+         * @param lastModified
+         *            the last modification time (in milliseconds since the
+         *            epoch), or
+         *            {@link com.jensfendler.ninjasitemap.writer.SitemapWriter#NO_LAST_MODIFIED}
+         * @param extensions
+         *            the {@link SitemapExtensions} of the entry (or null)
+         * @see #add(String, Date, int, double)
+         */
+        boolean add(String pagePath, long lastModified, int changeFrequency, double priority,
+                SitemapExtensions extensions) throws IOException {
+            if (isComplete()) {
+                return false;
+            }
+            if (recordedEntries != null) {
+                int position = recordedEntries.add(pagePath, lastModified, changeFrequency, priority);
+                recordedEntries.setExtensions(position, extensions);
+            }
+            if (!skipEntry()) {
+                boolean newShard = writer.writeUrl(pagePath, lastModified, changeFrequencyFromInteger(changeFrequency),
+                        priority, extensions, alternateLanguages);
+                startShard(newShard);
+                if (entryIndex != null) {
+                    entryIndex.add(routeIndex, pagePath, lastModified, changeFrequency, priority, extensions);
+                }
+                routeEntryCount++;
+            }
+            return !isComplete();
+        }
+
+        /**
+         * Add an entry of a {@link CompactEntryStore}, copying its encoded page
+         * path straight to the sitemap (without decoding it).
+         *
+         * @param entries
+         *            the {@link CompactEntryStore}
+         * @param position
+         *            the position of the entry in the store
+         * @see #add(String, long, int, double, SitemapExtensions)
+         */
+        boolean add(CompactEntryStore entries, int position) throws IOException {
+            if (isComplete()) {
+                return false;
+            }
+            long lastModified = entries.getLastModifiedTime(position);
+            int changeFrequency = entries.getChangeFrequency(position);
+            double priority = entries.getPriority(position);
+            SitemapExtensions extensions = entries.getExtensions(position);
+            if (recordedEntries != null) {
+                int recorded = recordedEntries.add(entries.getEncodedPagePath(position), lastModified,
+                        changeFrequency, priority);
+                recordedEntries.setExtensions(recorded, extensions);
+            }
+            if (!skipEntry()) {
+                boolean newShard = writer.writeUrl(entries.getEncodedPagePaths(), entries.getPagePathStart(position),
+                        entries.getPagePathEnd(position), lastModified, changeFrequencyFromInteger(changeFrequency),
+                        priority, extensions, alternateLanguages);
+                startShard(newShard);
+                if (entryIndex != null) {
+                    entryIndex.add(routeIndex, entries.getEncodedPagePath(position), lastModified, changeFrequency,
+                            priority, extensions);
+                }
+                routeEntryCount++;
+            }
+            return !isComplete();
+        }
+
+        /**
+         * Record the start of a new shard (if the entry just written is the
+         * first one of a new shard).
+         */
+        private void startShard(boolean newShard) {
+            if (newShard) {
+                shardStarts.add(new int[] { routeIndex, routeEntryCount, routeEntryCount - pageStartEntryCount });
+                shardStartPageTokens.add(pageToken);
+                if (entryIndex != null) {
+                    entryIndex.startShard();
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.jensfendler.ninjasitemap.writer.SitemapWriter;
+
+/**
+ * A single rendered sitemap document (a sitemap shard, or the sitemap index),
+ * holding both the plain UTF-8 encoded XML data, and the same data compressed
+ * with gzip. Compression happens exactly once, when the document is created,
+ * as does the computation of its {@link SitemapValidators}.
+ * 
+ * Documents restored from a snapshot on disk are memory mapped instead of
+ * being read into the Java heap, and newly created documents keep their XML
+ * data in the buffer it has been written to. The data of such buffered
+ * documents is only copied to a byte array if requested with
+ * {@link #getXml()} or {@link #getGzip()} (or when serialized), so they should
+ * preferably be read with {@link #getXmlBuffer()} and
+ * {@link #getGzipBuffer()}.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapDocument implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private final byte[] xml;
+
+    private final byte[] gzip;
+
+    private final SitemapValidators validators;
+
+    /**
+     * The XML data of a buffered document (memory mapped, or in the buffer it
+     * has been written to), or null
+     */
+    private final transient ByteBuffer bufferedXml;
+
+    /**
+     * The memory mapped gzip data of a restored document, or null
+     */
+    private final transient ByteBuffer bufferedGzip;
+
+    private SitemapDocument(byte[] xml, byte[] gzip, SitemapValidators validators) {
+        this(xml, null, gzip, null, validators);
+    }
+
+    private SitemapDocument(ByteBuffer bufferedXml, ByteBuffer bufferedGzip, SitemapValidators validators) {
+        this(null, bufferedXml, null, bufferedGzip, validators);
+    }
+
+    private SitemapDocument(byte[] xml, ByteBuffer bufferedXml, byte[] gzip, ByteBuffer bufferedGzip,
+            SitemapValidators validators) {
+        this.xml = xml;
+        this.bufferedXml = bufferedXml;
+        this.gzip = gzip;
+        this.bufferedGzip = bufferedGzip;
+        this.validators = validators;
+    }
+
+    /**
+     * Create a new document from the given XML data, and compress it.
+     *
+     * @param xml
+     *            the UTF-8 encoded XML data
+     * @return the {@link SitemapDocument}
+     * @throws IOException
+     *             if the data could not be compressed
+     */
+    public static SitemapDocument create(byte[] xml) throws IOException {
+        return new SitemapDocument(xml, gzip(ByteBuffer.wrap(xml)),
+                SitemapValidators.create(xml, System.currentTimeMillis()));
+    }
+
+    /**
+     * Create a new document from the given XML data, which replaces a
+     * previous document (if any). A document with the same content as the
+     * previous one keeps its modification time (and its compressed data).
+     * Otherwise, the modification time is the newest modification time of the
+     * document's entries. The current time is used instead if that is
+     * unknown, in the future, or not later than the modification time of the
+     * previous document (e.g. because an entry has been removed).
+     *
+     * @param xml
+     *            the UTF-8 encoded XML data
+     * @param entriesLastModified
+     *            the newest last modification time of the document's entries
+     *            (in milliseconds since the epoch), or
+     *            {@link SitemapWriter#NO_LAST_MODIFIED}
+     * @param previous
+     *            the previous document (or null)
+     * @return the {@link SitemapDocument}
+     * @throws IOException
+     *             if the data could not be compressed
+     */
+    public static SitemapDocument create(byte[] xml, long entriesLastModified, SitemapDocument previous)
+            throws IOException {
+        return create(xml, null, entriesLastModified, previous);
+    }
+
+    /**
+     * Create a new document from the XML data in the given buffer (from its
+     * position to its limit), without copying it.
+     *
+     * @param xml
+     *            the buffer holding the UTF-8 encoded XML data. It must not
+     *            be modified afterwards.
+     * @see #create(byte[], long, SitemapDocument)
+     */
+    public static SitemapDocument create(ByteBuffer xml, long entriesLastModified, SitemapDocument previous)
+            throws IOException {
+        return create(null, xml.slice(), entriesLastModified, previous);
+    }
+
+    /**
+     * @see #create(byte[], long, SitemapDocument)
+     */
+    private static SitemapDocument create(byte[] xml, ByteBuffer bufferedXml, long entriesLastModified,
+            SitemapDocument previous) throws IOException {
+        long now = System.currentTimeMillis();
+        ByteBuffer data = (xml != null) ? ByteBuffer.wrap(xml) : bufferedXml;
+        SitemapValidators validators = SitemapValidators.create(data, now);
+        if ((previous != null) && validators.getContentHash().equals(previous.validators.getContentHash())) {
+            return new SitemapDocument(xml, bufferedXml, previous.getGzip(), null, previous.validators);
+        }
+        // (HTTP dates have a resolution of one second)
+        if ((entriesLastModified != SitemapWriter.NO_LAST_MODIFIED) && (entriesLastModified <= now)
+                && ((previous == null)
+                        || (entriesLastModified / 1000 > previous.validators.getLastModified() / 1000))) {
+            validators = validators.withLastModified(entriesLastModified);
+        }
+        return new SitemapDocument(xml, bufferedXml, gzip(data), null, validators);
+    }
+
+    /**
+     * Re-create a previously created document (e.g. from a snapshot on disk),
+     * without compressing it again.
+     *
+     * @param xml
+     *            the UTF-8 encoded XML data
+     * @param gzip
+     *            the gzip-compressed XML data
+     * @param validators
+     *            the {@link SitemapValidators} of the document
+     * @return the {@link SitemapDocument}
+     */
+    static SitemapDocument restore(byte[] xml, byte[] gzip, SitemapValidators validators) {
+        return new SitemapDocument(xml, gzip, validators);
+    }
+
+    /**
+     * Re-create a previously created document from its memory mapped files,
+     * without reading them into the Java heap.
+     *
+     * @param xml
+     *            the mapped UTF-8 encoded XML data
+     * @param gzip
+     *            the mapped gzip-compressed XML data
+     * @param validators
+     *            the {@link SitemapValidators} of the document
+     * @return the {@link SitemapDocument}
+     */
+    static SitemapDocument restore(ByteBuffer xml, ByteBuffer gzip, SitemapValidators validators) {
+        return new SitemapDocument(xml, gzip, validators);
+    }
+
+    /**
+     * @return the UTF-8 encoded XML data (a copy, for memory mapped
+     *         documents)
+     */
+    public byte[] getXml() {
+        return (xml != null) ? xml : copy(bufferedXml);
+    }
+
+    /**
+     * @return the gzip-compressed XML data (a copy, for memory mapped
+     *         documents)
+     */
+    public byte[] getGzip() {
+        return (gzip != null) ? gzip : copy(bufferedGzip);
+    }
+
+    /**
+     * @return a read-only buffer with the UTF-8 encoded XML data
+     */
+    public ByteBuffer getXmlBuffer() {
+        return (xml != null) ? ByteBuffer.wrap(xml).asReadOnlyBuffer() : bufferedXml.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only buffer with the gzip-compressed XML data
+     */
+    public ByteBuffer getGzipBuffer() {
+        return (gzip != null) ? ByteBuffer.wrap(gzip).asReadOnlyBuffer() : bufferedGzip.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the length of the UTF-8 encoded XML data (in bytes)
+     */
+    public int getXmlLength() {
+        return (xml != null) ? xml.length : bufferedXml.remaining();
+    }
+
+    /**
+     * @return the length of the gzip-compressed XML data (in bytes)
+     */
+    public int getGzipLength() {
+        return (gzip != null) ? gzip.length : bufferedGzip.remaining();
+    }
+
+    /**
+     * @return true, if the XML data of the document is held in a buffer
+     *         (memory mapped from a file, or the buffer it has been written
+     *         to) rather than a byte array
+     */
+    public boolean isBuffered() {
+        return xml == null;
+    }
+
+    /**
+     * @return the HTTP cache validators of this document
+     */
+    public SitemapValidators getValidators() {
+        return validators;
+    }
+
+    /**
+     * Buffered documents are serialized with a copy of their data.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return isBuffered() ? new SitemapDocument(getXml(), getGzip(), validators) : this;
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    private static byte[] gzip(ByteBuffer data) throws IOException {
+        // sitemaps compress very well. typically to less than 10%
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(512, data.remaining() / 8));
+        OutputStream out = new BestCompressionGZIPOutputStream(buffer);
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            ByteBuffer source = data.duplicate();
+            byte[] chunk = new byte[8192];
+            while (source.hasRemaining()) {
+                int length = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Compression only happens once per sitemap build, so the best (i.e.
+     * slowest) compression level is used.
+     */
+    private static class BestCompressionGZIPOutputStream extends GZIPOutputStream {
+
+        BestCompressionGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, 8192);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import ninja.cache.NinjaCache;
+
+/**
+ * Keeps the documents of the sitemap in Ninja's (possibly shared) cache. Every
+ * document is cached under its own key, and its {@link SitemapValidators}
+ * under a separate key, so that they can be looked up without fetching the
+ * document itself. The same keys are used by all nodes, and by both the
+ * controller and the {@link SitemapRefreshScheduler}.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapDocumentCache {
+
+    /**
+     * The cache key of the sitemap (or the sitemap index, if the sitemap
+     * consists of more than one shard).
+     */
+    public static final String SITEMAP_CACHE_KEY = "NinjaSitemapController-sitemap";
+
+    /**
+     * The cache key of the list of {@link SitemapShard}s of the most recently
+     * created sitemap.
+     */
+    public static final String SHARD_PLAN_CACHE_KEY = SITEMAP_CACHE_KEY + "-shards";
+
+    /**
+     * The suffix of the cache keys of the {@link SitemapValidators} of cached
+     * documents.
+     */
+    public static final String VALIDATORS_CACHE_KEY_SUFFIX = "-validators";
+
+    @Inject
+    protected NinjaCache cache;
+
+    /**
+     * @param shardNumber
+     *            the (1-based) number of the shard
+     * @return the cache key of the shard
+     */
+    public static String getShardCacheKey(int shardNumber) {
+        return SITEMAP_CACHE_KEY + "-" + shardNumber;
+    }
+
+    /**
+     * Cache a document, together with its {@link SitemapValidators}.
+     *
+     * @param cacheKey
+     *            the cache key of the document
+     * @param document
+     *            the {@link SitemapDocument}
+     * @param expires
+     *            the expiry time (in a format compatible with the NinjaCache
+     *            methods)
+     * @return true, if both the document and its validators have been cached
+     */
+    public boolean putDocument(String cacheKey, SitemapDocument document, String expires) {
+        // the document first, as the validators announce it to other nodes
+        if (!cache.safeSet(cacheKey, document, expires)) {
+            // e.g. too large for the cache. do not leave an older document
+            // (or its validators) behind.
+            cache.safeDelete(cacheKey);
+            cache.safeDelete(cacheKey + VALIDATORS_CACHE_KEY_SUFFIX);
+            return false;
+        }
+        return cache.safeSet(cacheKey + VALIDATORS_CACHE_KEY_SUFFIX, document.getValidators(), expires);
+    }
+
+    /**
+     * Cache only the {@link SitemapValidators} of a document, and drop any
+     * previously cached document under the same key.
+     *
+     * @param cacheKey
+     *            the cache key of the document
+     * @param validators
+     *            the {@link SitemapValidators}
+     * @param expires
+     *            the expiry time (in a format compatible with the NinjaCache
+     *            methods)
+     * @return true, if the validators have been cached
+     */
+    public boolean putValidators(String cacheKey, SitemapValidators validators, String expires) {
+        cache.safeDelete(cacheKey);
+        return cache.safeSet(cacheKey + VALIDATORS_CACHE_KEY_SUFFIX, validators, expires);
+    }
+
+    /**
+     * Cache all documents of a sitemap, and its shard plan.
+     *
+     * @param build
+     *            the {@link SitemapBuild}
+     * @param expires
+     *            the expiry time (in a format compatible with the NinjaCache
+     *            methods)
+     * @return true, if everything has been cached
+     */
+    public boolean putBuild(SitemapBuild build, String expires) {
+        boolean cached = true;
+        List<SitemapDocument> shards = build.getShards();
+        for (int i = 0; i < shards.size(); i++) {
+            cached &= putDocument(getShardCacheKey(i + 1), shards.get(i), expires);
+        }
+        cached &= cache.safeSet(SHARD_PLAN_CACHE_KEY, new ArrayList<SitemapShard>(build.getShardPlan()), expires);
+        cached &= putDocument(SITEMAP_CACHE_KEY, build.getMainDocument(), expires);
+        return cached;
+    }
+
+    /**
+     * @param cacheKey
+     *            the cache key of the document
+     * @return the cached {@link SitemapDocument}, or null
+     */
+    public SitemapDocument getDocument(String cacheKey) {
+        Object cached = cache.get(cacheKey);
+        return (cached instanceof SitemapDocument) ? (SitemapDocument) cached : null;
+    }
+
+    /**
+     * @param cacheKey
+     *            the cache key of the document
+     * @return the cached {@link SitemapValidators} of the document, or null
+     */
+    public SitemapValidators getValidators(String cacheKey) {
+        Object cached = cache.get(cacheKey + VALIDATORS_CACHE_KEY_SUFFIX);
+        return (cached instanceof SitemapValidators) ? (SitemapValidators) cached : null;
+    }
+
+    /**
+     * @return the cached shard plan, or null
+     */
+    @SuppressWarnings("unchecked")
+    public List<SitemapShard> getShardPlan() {
+        Object cached = cache.get(SHARD_PLAN_CACHE_KEY);
+        return (cached instanceof List) ? (List<SitemapShard>) cached : null;
+    }
+
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapExtensions;
+import com.jensfendler.ninjasitemap.writer.ShardedSitemapWriter;
+import com.jensfendler.ninjasitemap.writer.SitemapWriter;
+
+import ninja.Router;
+
+/**
+ * An in-memory index of all entries of a sitemap, by route and by shard. This
+ * allows individual entries to be added, updated, or removed later, and only
+ * the shards containing them to be re-created.
+ *
+ * The entries are kept in a {@link CompactEntryStore}, and are referred to by
+ * their position in the store (their "slot") only. Slots of removed (or
+ * replaced) entries are not re-used.
+ *
+ * This class is not thread-safe.
+ *
+ * @author Jens Fendler
+ *
+ */
+final class SitemapEntryIndex {
+
+    /**
+     * A free position in {@link #table}
+     */
+    private static final int FREE = 0;
+
+    /**
+     * A position in {@link #table} which has been used by a removed entry
+     */
+    private static final int REMOVED = -1;
+
+    /**
+     * The prefix of all URLs in the sitemap
+     */
+    private final String siteUrlPrefix;
+
+    /**
+     * The properties of all entries (by slot)
+     */
+    private final CompactEntryStore entries = new CompactEntryStore(1024);
+
+    /**
+     * The route index of every slot
+     */
+    private int[] slotRoutes = new int[1024];
+
+    /**
+     * The shard of every slot (or -1 for removed entries)
+     */
+    private int[] slotShards = new int[1024];
+
+    /**
+     * The hash code of every slot's route index and page path
+     */
+    private int[] slotHashes = new int[1024];
+
+    /**
+     * The slots of every shard (in order)
+     */
+    private final List<IntList> shards = new ArrayList<IntList>();
+
+    /**
+     * An open addressing hash table of all entries (by route index, and page
+     * path). Every position holds {@link #FREE}, {@link #REMOVED}, or a slot
+     * plus one.
+     */
+    private int[] table = new int[2048];
+
+    /**
+     * The number of positions in {@link #table} which are not {@link #FREE}
+     */
+    private int tableUsed;
+
+    /**
+     * The shard most recently added to for every route (by route index)
+     */
+    private final Map<Integer, Integer> lastShardByRoute = new HashMap<Integer, Integer>();
+
+    /**
+     * The indices of all routes whose pages are available in all languages
+     */
+    private final BitSet alternateLanguageRoutes;
+
+    SitemapEntryIndex(String siteUrlPrefix, BitSet alternateLanguageRoutes) {
+        this.siteUrlPrefix = siteUrlPrefix;
+        this.alternateLanguageRoutes = alternateLanguageRoutes;
+    }
+
+    String getSiteUrlPrefix() {
+        return siteUrlPrefix;
+    }
+
+    /**
+     * Start a new (empty) shard. All entries added with
+     * {@link #add(int, String, long, int, double, SitemapExtensions)} go into this shard.
+     */
+    void startShard() {
+        shards.add(new IntList());
+    }
+
+    /**
+     * Add an entry to the last shard (while the sitemap is being created).
+     *
+     * @param routeIndex
+     *            the index (in {@link Router#getRoutes()}) of the entry's route
+     * @param pagePath
+     *            the path of the page
+     * @param lastModified
+     *            the last modification time (in milliseconds since the epoch),
+     *            or {@link SitemapWriter#NO_LAST_MODIFIED}
+     * @param changeFrequency
+     *            the change frequency constant
+     * @param priority
+     *            the priority
+     * @param extensions
+     *            the {@link SitemapExtensions} (or null)
+     */
+    void add(int routeIndex, String pagePath, long lastModified, int changeFrequency, double priority,
+            SitemapExtensions extensions) {
+        add(routeIndex, pagePath.getBytes(StandardCharsets.UTF_8), lastModified, changeFrequency, priority,
+                extensions);
+    }
+
+    /**
+     * Add an entry with an already UTF-8 encoded page path.
+     *
+     * @see #add(int, String, long, int, double, SitemapExtensions)
+     */
+    void add(int routeIndex, byte[] encodedPagePath, long lastModified, int changeFrequency, double priority,
+            SitemapExtensions extensions) {
+        int hash = hash(routeIndex, encodedPagePath);
+        int previous = find(routeIndex, encodedPagePath, hash);
+        if (previous >= 0) {
+            // the same page has been listed twice. keep the last one only.
+            removeSlot(previous);
+        }
+        int shard = shards.size() - 1;
+        insert(routeIndex, encodedPagePath, hash, lastModified, changeFrequency, priority, extensions, shard);
+    }
+
+    /**
+     * Add a new entry, or replace an existing entry with the same page path.
+     * New entries are placed in the shard that most recently received an
+     * entry of the same route, or in the last shard if that one is full. A new
+     * shard is started if all of these are full.
+     *
+     * @param routeIndex
+     *            the index (in {@link Router#getRoutes()}) of the entry's route
+     * @param entry
+     *            the {@link SitemapEntry}
+     * @param maxUrls
+     *            the maximum number of entries per shard
+     * @return the (0-based) number of the shard which has been changed
+     */
+    int put(int routeIndex, SitemapEntry entry, int maxUrls) {
+        byte[] encodedPagePath = entry.getPagePath().getBytes(StandardCharsets.UTF_8);
+        int hash = hash(routeIndex, encodedPagePath);
+        int slot = find(routeIndex, encodedPagePath, hash);
+        if (slot >= 0) {
+            entries.set(slot, entry.getLastModified(), entry.getChangeFrequency(), entry.getPriority());
+            entries.setExtensions(slot, entry.getExtensions());
+            return slotShards[slot];
+        }
+
+        Integer shard = lastShardByRoute.get(routeIndex);
+        if ((shard == null) || (shards.get(shard).size() >= maxUrls)) {
+            shard = shards.size() - 1;
+            if (shards.get(shard).size() >= maxUrls) {
+                startShard();
+                shard = shards.size() - 1;
+            }
+        }
+
+        insert(routeIndex, encodedPagePath, hash, CompactEntryStore.getTime(entry.getLastModified()),
+                entry.getChangeFrequency(), entry.getPriority(), entry.getExtensions(), shard);
+        return shard;
+    }
+
+    /**
+     * Remove an entry.
+     *
+     * @param routeIndex
+     *            the index (in {@link Router#getRoutes()}) of the entry's route
+     * @param pagePath
+     *            the page path of the entry
+     * @return the (0-based) number of the shard which has been changed, or -1
+     *         if there is no such entry
+     */
+    int remove(int routeIndex, String pagePath) {
+        byte[] encodedPagePath = pagePath.getBytes(StandardCharsets.UTF_8);
+        int slot = find(routeIndex, encodedPagePath, hash(routeIndex, encodedPagePath));
+        if (slot < 0) {
+            return -1;
+        }
+        int shard = slotShards[slot];
+        removeSlot(slot);
+        return shard;
+    }
+
+    /**
+     * Move all entries of a shard following the first <code>entryCount</code>
+     * ones into a new shard (e.g. because the shard has grown too large).
+     *
+     * @param shard
+     *            the (0-based) number of the shard
+     * @param entryCount
+     *            the number of entries to keep in the shard
+     * @return the (0-based) number of the new shard
+     */
+    int split(int shard, int entryCount) {
+        startShard();
+        int newShard = shards.size() - 1;
+        IntList source = shards.get(shard);
+        IntList target = shards.get(newShard);
+        for (int i = entryCount; i < source.size(); i++) {
+            int slot = source.get(i);
+            slotShards[slot] = newShard;
+            target.add(slot);
+            lastShardByRoute.put(slotRoutes[slot], newShard);
+        }
+        source.truncate(entryCount);
+        return newShard;
+    }
+
+    /**
+     * @return the number of shards
+     */
+    int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Write all entries of a shard (in order).
+     *
+     * @param shard
+     *            the (0-based) number of the shard
+     * @param writer
+     *            the {@link ShardedSitemapWriter} to write to
+     * @throws IOException
+     *             if writing fails
+     */
+    void writeEntries(int shard, ShardedSitemapWriter writer) throws IOException {
+        IntList slots = shards.get(shard);
+        ByteBuffer encodedPaths = entries.getEncodedPagePaths();
+        for (int i = 0; i < slots.size(); i++) {
+            int slot = slots.get(i);
+            writer.writeUrl(encodedPaths, entries.getPagePathStart(slot), entries.getPagePathEnd(slot),
+                    entries.getLastModifiedTime(slot),
+                    SitemapBuilder.changeFrequencyFromInteger(entries.getChangeFrequency(slot)),
+                    entries.getPriority(slot), entries.getExtensions(slot),
+                    alternateLanguageRoutes.get(slotRoutes[slot]));
+        }
+    }
+
+    /**
+     * @return the slot of the given entry, or -1 if there is no such entry
+     */
+    private int find(int routeIndex, byte[] encodedPagePath, int hash) {
+        int mask = table.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            int value = table[i];
+            if (value == FREE) {
+                return -1;
+            }
+            int slot = value - 1;
+            if ((value != REMOVED) && (slotHashes[slot] == hash) && (slotRoutes[slot] == routeIndex)
+                    && entries.hasPagePath(slot, encodedPagePath)) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(int routeIndex, byte[] encodedPagePath, int hash, long lastModified, int changeFrequency,
+            double priority, SitemapExtensions extensions, int shard) {
+        int slot = entries.add(encodedPagePath, lastModified, changeFrequency, priority);
+        entries.setExtensions(slot, extensions);
+        if (slot == slotRoutes.length) {
+            int capacity = slot + (slot >> 1);
+            slotRoutes = Arrays.copyOf(slotRoutes, capacity);
+            slotShards = Arrays.copyOf(slotShards, capacity);
+            slotHashes = Arrays.copyOf(slotHashes, capacity);
+        }
+        slotRoutes[slot] = routeIndex;
+        slotShards[slot] = shard;
+        slotHashes[slot] = hash;
+
+        if (2 * (tableUsed + 1) > table.length) {
+            rehash();
+        }
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+        tableUsed++;
+
+        shards.get(shard).add(slot);
+        lastShardByRoute.put(routeIndex, shard);
+    }
+
+    private void removeSlot(int slot) {
+        int mask = table.length - 1;
+        int i = slotHashes[slot] & mask;
+        while (table[i] != slot + 1) {
+            i = (i + 1) & mask;
+        }
+        table[i] = REMOVED;
+        shards.get(slotShards[slot]).removeValue(slot);
+        slotShards[slot] = -1;
+    }
+
+    /**
+     * Re-build {@link #table} from all current entries, dropping the
+     * positions of removed entries, and growing it if necessary.
+     */
+    private void rehash() {
+        int liveEntries = 0;
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] > 0) {
+                liveEntries++;
+            }
+        }
+        int capacity = table.length;
+        while (4 * (liveEntries + 1) > capacity) {
+            capacity *= 2;
+        }
+
+        int[] oldTable = table;
+        table = new int[capacity];
+        tableUsed = 0;
+        int mask = capacity - 1;
+        for (int value : oldTable) {
+            if (value > 0) {
+                int i = slotHashes[value - 1] & mask;
+                while (table[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+                tableUsed++;
+            }
+        }
+    }
+
+    private static int hash(int routeIndex, byte[] encodedPagePath) {
+        int hash = 31 * CompactEntryStore.hashPagePath(encodedPagePath) + routeIndex;
+        // spread the higher bits, as the table is indexed by the lower ones
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A growable list of primitive ints
+     */
+    private static final class IntList {
+
+        private int[] values = new int[64];
+
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void removeValue(int value) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (values[i] == value) {
+                    System.arraycopy(values, i + 1, values, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+
+        void truncate(int newSize) {
+            size = Math.min(size, newSize);
+        }
+
+    }
+
+}
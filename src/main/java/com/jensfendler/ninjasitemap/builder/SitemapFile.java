@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.Serializable;
+
+/**
+ * A reference to a single sitemap document written to disk by the
+ * {@link SitemapSnapshotStore}, to serve the document from its file on the
+ * node which has written it. File paths are local to that node, so references
+ * must not be shared with other nodes.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapFile implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the XML file (within the snapshot directory). The name of
+     * the compressed file has an additional ".gz" extension.
+     */
+    private final String fileName;
+
+    private final long xmlLength;
+
+    private final long gzipLength;
+
+    private final SitemapValidators validators;
+
+    SitemapFile(String fileName, long xmlLength, long gzipLength, SitemapValidators validators) {
+        this.fileName = fileName;
+        this.xmlLength = xmlLength;
+        this.gzipLength = gzipLength;
+        this.validators = validators;
+    }
+
+    /**
+     * @param gzip
+     *            true for the gzip-compressed file
+     * @return the name of the file (within the snapshot directory)
+     */
+    public String getFileName(boolean gzip) {
+        return gzip ? fileName + SitemapSnapshotStore.GZIP_EXTENSION : fileName;
+    }
+
+    /**
+     * @param gzip
+     *            true for the gzip-compressed file
+     * @return the size of the file (in bytes)
+     */
+    public long getLength(boolean gzip) {
+        return gzip ? gzipLength : xmlLength;
+    }
+
+    /**
+     * @return the HTTP cache validators of the document
+     */
+    public SitemapValidators getValidators() {
+        return validators;
+    }
+
+}
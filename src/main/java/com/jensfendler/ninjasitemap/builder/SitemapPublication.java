@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The marker of a sitemap published in Ninja's cache by the node holding the
+ * {@link SitemapBuildLease}. The documents of the sitemap are cached
+ * individually (see {@link SitemapDocumentCache}), and this marker is only
+ * cached once all of them have been cached successfully. It lists the hashes
+ * of all documents, so that other nodes can tell whether the documents they
+ * find in the cache belong to the published sitemap.
+ *
+ * @author Jens Fendler
+ *
+ */
+class SitemapPublication implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Date created;
+
+    /**
+     * The content hashes of all shards, in shard order
+     */
+    private final List<String> shardHashes;
+
+    /**
+     * The content hash of the sitemap index, or null
+     */
+    private final String indexHash;
+
+    SitemapPublication(SitemapBuild build) {
+        this.created = build.getCreated();
+        this.shardHashes = new ArrayList<String>(build.getShards().size());
+        for (SitemapDocument shard : build.getShards()) {
+            shardHashes.add(shard.getValidators().getContentHash());
+        }
+        this.indexHash = (build.getIndex() == null) ? null : build.getIndex().getValidators().getContentHash();
+    }
+
+    /**
+     * @return the creation date of the published sitemap
+     */
+    Date getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the number of shards of the published sitemap
+     */
+    int getShardCount() {
+        return shardHashes.size();
+    }
+
+    /**
+     * @param shardNumber
+     *            the (1-based) number of a shard
+     * @param document
+     *            a cached document (or null)
+     * @return true, if the document is the given shard of the published
+     *         sitemap
+     */
+    boolean isShard(int shardNumber, SitemapDocument document) {
+        return (document != null)
+                && document.getValidators().getContentHash().equals(shardHashes.get(shardNumber - 1));
+    }
+
+    /**
+     * @param document
+     *            a cached document (or null)
+     * @return true, if the document is the sitemap index of the published
+     *         sitemap
+     */
+    boolean isIndex(SitemapDocument document) {
+        return (document != null) && document.getValidators().getContentHash().equals(indexHash);
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.ping.SearchEnginePinger;
+
+import ninja.cache.NinjaCache;
+import ninja.lifecycle.Dispose;
+import ninja.lifecycle.Start;
+import ninja.utils.NinjaProperties;
+import ninja.utils.TimeUtil;
+
+/**
+ * Re-creates the sitemap periodically on a dedicated background thread, if
+ * enabled with the <code>ninja.sitemap.backgroundRefresh</code> property.
+ * Every successfully created sitemap replaces the previous one atomically, so
+ * that requests are always served the last good sitemap without ever waiting
+ * for a rebuild (except for the very first one after startup, unless a
+ * snapshot of the previous sitemap is available from the
+ * {@link SitemapSnapshotStore}).
+ * 
+ * With the {@link SitemapBuildLease}, only the node holding the lease
+ * re-creates the sitemap (and pings the search engines), and publishes its
+ * documents in Ninja's (shared) cache. All other nodes take the published
+ * sitemap from there. A node which has no sitemap at all, and cannot find a
+ * complete published one (e.g. because its documents exceed the maximum item
+ * size of the cache), creates the sitemap itself.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapRefreshScheduler implements SitemapUpdateListener {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapRefreshScheduler.class);
+
+    /**
+     * If this application.conf property is 'true', the sitemap is re-created
+     * in the background, at the interval given by
+     * <code>ninja.sitemap.expires</code>. Default: false.
+     */
+    public static final String KEY_BACKGROUND_REFRESH = "ninja.sitemap.backgroundRefresh";
+
+    /**
+     * An application.conf property to control the expiry time of the sitemap in
+     * Ninja's cache (and the refresh interval for background refreshes). This
+     * value should preferably be less than half the shortest 'changeFrequency'
+     * of your sitemap entries.
+     */
+    public static final String KEY_NINJA_SITEMAP_EXPIRES = "ninja.sitemap.expires";
+
+    /**
+     * The default expiry time (and refresh interval) of the sitemap. The string
+     * must be in a format compatible with the NinjaCache methods.
+     */
+    public static final String DEFAULT_SITEMAP_EXPIRY_TIME = "12h";
+
+    /**
+     * The maximum time (in seconds) to wait for the first background build in
+     * {@link #getCurrentBuild()}.
+     */
+    public static final int FIRST_BUILD_TIMEOUT = 5;
+
+    /**
+     * The cache key of the {@link SitemapPublication} of the sitemap published
+     * by the node holding the lease, to check for a new sitemap without
+     * fetching its documents.
+     */
+    private static final String PUBLICATION_CACHE_KEY = SitemapRefreshScheduler.class.getSimpleName()
+            + "-publication";
+
+    /**
+     * The interval (in seconds) at which nodes without the lease check whether
+     * the node holding it has published a new sitemap.
+     */
+    private static final int PUBLISH_POLL_INTERVAL = 10;
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected SitemapBuilder sitemapBuilder;
+
+    @Inject
+    protected SearchEnginePinger searchEnginePinger;
+
+    @Inject
+    protected SitemapUpdateService sitemapUpdateService;
+
+    @Inject
+    protected SitemapSnapshotStore snapshotStore;
+
+    @Inject
+    protected SitemapBuildLease buildLease;
+
+    @Inject
+    protected NinjaCache cache;
+
+    @Inject
+    protected SitemapDocumentCache documentCache;
+
+    private final AtomicReference<SitemapBuild> currentBuild = new AtomicReference<SitemapBuild>();
+
+    private final CountDownLatch firstBuildAttempted = new CountDownLatch(1);
+
+    private volatile ScheduledExecutorService executor;
+
+    private String siteUrlPrefix;
+
+    private long intervalSeconds;
+
+    private final Runnable refreshTask = new Runnable() {
+        public void run() {
+            refresh();
+        }
+    };
+
+    /**
+     * The next check for a sitemap published by another node (if scheduled).
+     * Only accessed on the refresh thread.
+     */
+    private ScheduledFuture<?> pendingPoll;
+
+    private final Runnable pollTask = new Runnable() {
+        public void run() {
+            pendingPoll = null;
+            refresh();
+        }
+    };
+
+    /**
+     * Start the periodic background refresh (if enabled). The first build is
+     * started immediately.
+     */
+    @Start(order = 90)
+    public void start() {
+        if (!ninjaProperties.getBooleanWithDefault(KEY_BACKGROUND_REFRESH, false)) {
+            return;
+        }
+
+        siteUrlPrefix = sitemapBuilder.getConfiguredSiteUrlPrefix();
+        if (siteUrlPrefix == null) {
+            LOG.warn("Background refresh of the sitemap requires {} to be configured. Sitemap will be created on demand.",
+                    SitemapBuilder.KEY_SITEMAP_PREFIX);
+            return;
+        }
+
+        SitemapBuild snapshot = snapshotStore.takeSnapshot();
+        if (snapshot != null) {
+            // serve the snapshot until the first background build completes
+            currentBuild.set(snapshot);
+        }
+
+        String expires = ninjaProperties.getWithDefault(KEY_NINJA_SITEMAP_EXPIRES, DEFAULT_SITEMAP_EXPIRY_TIME);
+        intervalSeconds = Math.max(1, TimeUtil.parseDuration(expires));
+
+        executor = createExecutor();
+        executor.scheduleWithFixedDelay(refreshTask, 0, intervalSeconds, TimeUnit.SECONDS);
+
+        LOG.info("Sitemap will be re-created in the background every {}.", expires);
+    }
+
+    /**
+     * Stop the background refresh.
+     */
+    @Dispose(order = 90)
+    public void stop() {
+        ScheduledExecutorService executor = this.executor;
+        if (executor != null) {
+            executor.shutdownNow();
+            this.executor = null;
+        }
+    }
+
+    /**
+     * @return the (single-threaded) executor to run the refresh on
+     */
+    protected ScheduledExecutorService createExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ninja-sitemap-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return true, if the sitemap is being re-created in the background
+     */
+    public boolean isRunning() {
+        return executor != null;
+    }
+
+    /**
+     * Returns the most recently created sitemap. If no sitemap has been
+     * created yet, this method waits for the first background build to
+     * complete, but no longer than {@link #FIRST_BUILD_TIMEOUT} seconds.
+     *
+     * @return the last good {@link SitemapBuild}, or null if the first build
+     *         has failed, or has not completed in time
+     * @throws InterruptedException
+     *             if interrupted while waiting for the first build
+     */
+    public SitemapBuild getCurrentBuild() throws InterruptedException {
+        SitemapBuild build = currentBuild.get();
+        if (build == null) {
+            firstBuildAttempted.await(FIRST_BUILD_TIMEOUT, TimeUnit.SECONDS);
+            build = currentBuild.get();
+        }
+        return build;
+    }
+
+    /**
+     * Make an incrementally updated sitemap the current one.
+     */
+    public void sitemapUpdated(SitemapBuild build, Set<Integer> updatedShards) {
+        currentBuild.set(build);
+        snapshotStore.save(build, siteUrlPrefix);
+    }
+
+    /**
+     * Create a new sitemap, and make it the current one if successful. If the
+     * build fails, the previous sitemap remains in use. If another node has
+     * published a sitemap within the refresh interval, that sitemap is used
+     * instead. While another node holds the lease, the previous sitemap
+     * remains in use until the other node has published the new one. Without
+     * any previous sitemap, the sitemap is created without the lease (and not
+     * published).
+     */
+    void refresh() {
+        try {
+            if (adoptPublishedBuild()) {
+                return;
+            }
+            String lease = buildLease.tryAcquire();
+            if ((lease == null) && (currentBuild.get() != null)) {
+                // another node is re-creating the sitemap
+                schedulePoll();
+                return;
+            }
+            try {
+                long start = System.currentTimeMillis();
+                SitemapBuild build = sitemapBuilder.build(siteUrlPrefix, currentBuild.get());
+                currentBuild.set(build);
+                sitemapUpdateService.setBuild(build, this);
+                snapshotStore.save(build, siteUrlPrefix);
+                if (lease != null) {
+                    publish(build);
+                }
+                LOG.info("Sitemap has been re-created in the background in {} ms.",
+                        System.currentTimeMillis() - start);
+            } finally {
+                buildLease.release(lease);
+            }
+
+            // inform search engines about the updated sitemap
+            if (lease != null) {
+                searchEnginePinger.pingSearchEngines(siteUrlPrefix);
+            }
+
+        } catch (Exception e) {
+            // catch everything. an exception would cancel all future runs.
+            LOG.error("Failed to re-create sitemap in the background. Continuing to serve the previous sitemap.", e);
+        } finally {
+            firstBuildAttempted.countDown();
+        }
+    }
+
+    /**
+     * Share a newly created sitemap with the other nodes (only with the
+     * lease). The {@link SitemapPublication} is only cached once all
+     * documents have been cached.
+     */
+    private void publish(SitemapBuild build) {
+        if (!buildLease.isEnabled()) {
+            return;
+        }
+        String expires = ninjaProperties.getWithDefault(KEY_NINJA_SITEMAP_EXPIRES, DEFAULT_SITEMAP_EXPIRY_TIME);
+        String publishedExpires = (TimeUtil.parseDuration(expires) + buildLease.getLeaseSeconds()) + "s";
+        if (!documentCache.putBuild(build, publishedExpires)
+                || !cache.safeSet(PUBLICATION_CACHE_KEY, new SitemapPublication(build), publishedExpires)) {
+            cache.safeDelete(PUBLICATION_CACHE_KEY);
+            LOG.warn("Failed to publish the sitemap in the cache (e.g. because a document exceeds the maximum item "
+                    + "size of the cache). Other nodes will create the sitemap themselves.");
+        }
+    }
+
+    /**
+     * Make the sitemap published by another node within the refresh interval
+     * the current one (only with the lease).
+     *
+     * @return true, if the published sitemap is (now) the current one; false,
+     *         if there is no such sitemap, or its documents are not (all)
+     *         available any more
+     */
+    private boolean adoptPublishedBuild() {
+        if (!buildLease.isEnabled()) {
+            return false;
+        }
+        Object cached = cache.get(PUBLICATION_CACHE_KEY);
+        if (!(cached instanceof SitemapPublication)) {
+            return false;
+        }
+        SitemapPublication publication = (SitemapPublication) cached;
+        if (System.currentTimeMillis() - publication.getCreated().getTime() >= intervalSeconds * 1000L) {
+            // due to be re-created
+            return false;
+        }
+        SitemapBuild current = currentBuild.get();
+        if ((current != null) && !publication.getCreated().after(current.getCreated())) {
+            // e.g. published by this node
+            return true;
+        }
+
+        SitemapBuild published = getPublishedBuild(publication);
+        if (published == null) {
+            LOG.warn("The sitemap published {} is incomplete in the cache. Ignoring it.", publication.getCreated());
+            return false;
+        }
+        currentBuild.set(published);
+        snapshotStore.save(published, siteUrlPrefix);
+        LOG.info("Using the sitemap created {} by the node holding the lease.", publication.getCreated());
+        return true;
+    }
+
+    /**
+     * Assemble the published sitemap from its individually cached documents.
+     *
+     * @return the {@link SitemapBuild}, or null if any document is missing
+     *         (or belongs to another sitemap)
+     */
+    private SitemapBuild getPublishedBuild(SitemapPublication publication) {
+        List<SitemapShard> shardPlan = documentCache.getShardPlan();
+        if ((shardPlan == null) || (shardPlan.size() != publication.getShardCount())) {
+            return null;
+        }
+        List<SitemapDocument> shards = new ArrayList<SitemapDocument>(shardPlan.size());
+        for (int shardNumber = 1; shardNumber <= shardPlan.size(); shardNumber++) {
+            SitemapDocument shard = documentCache.getDocument(SitemapDocumentCache.getShardCacheKey(shardNumber));
+            if (!publication.isShard(shardNumber, shard)) {
+                return null;
+            }
+            shards.add(shard);
+        }
+        SitemapDocument index = null;
+        if (shards.size() > 1) {
+            index = documentCache.getDocument(SitemapDocumentCache.SITEMAP_CACHE_KEY);
+            if (!publication.isIndex(index)) {
+                return null;
+            }
+        }
+        return new SitemapBuild(publication.getCreated(), Collections.unmodifiableList(shards),
+                Collections.unmodifiableList(new ArrayList<SitemapShard>(shardPlan)), index);
+    }
+
+    /**
+     * Check again after {@link #PUBLISH_POLL_INTERVAL} seconds whether the
+     * node holding the lease has published the sitemap. At most one check is
+     * pending at any time.
+     */
+    private void schedulePoll() {
+        ScheduledExecutorService executor = this.executor;
+        if ((executor != null) && (pendingPoll == null)) {
+            pendingPoll = executor.schedule(pollTask, PUBLISH_POLL_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+}
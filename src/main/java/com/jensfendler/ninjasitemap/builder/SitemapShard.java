@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.Serializable;
+
+import ninja.Router;
+
+/**
+ * Describes where a single sitemap shard starts within the sequence of all
+ * sitemap entries, and how many entries it contains. This allows a single
+ * shard to be re-created without rendering any of the preceding shards.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapShard implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The (1-based) number of the shard
+     */
+    private final int number;
+
+    /**
+     * The index of the route (in {@link Router#getRoutes()}) providing the
+     * first entry of this shard, or -1 if the shard has been changed by
+     * incremental updates
+     */
+    private final int routeIndex;
+
+    /**
+     * The index of the first entry of this shard within all entries of its
+     * first route
+     */
+    private final int entryOffset;
+
+    /**
+     * The number of entries in this shard
+     */
+    private final int urlCount;
+
+    /**
+     * The continuation token of the
+     * {@link com.jensfendler.ninjasitemap.SitemapPagedProvider} page holding
+     * the first entry of this shard (or null for the first page, or other
+     * providers)
+     */
+    private final String pageToken;
+
+    /**
+     * The index of the first entry of this shard within the page given by
+     * {@link #pageToken}
+     */
+    private final int pageEntryOffset;
+
+    public SitemapShard(int number, int routeIndex, int entryOffset, int urlCount) {
+        this(number, routeIndex, entryOffset, urlCount, null, entryOffset);
+    }
+
+    public SitemapShard(int number, int routeIndex, int entryOffset, int urlCount, String pageToken,
+            int pageEntryOffset) {
+        this.number = number;
+        this.routeIndex = routeIndex;
+        this.entryOffset = entryOffset;
+        this.urlCount = urlCount;
+        this.pageToken = pageToken;
+        this.pageEntryOffset = pageEntryOffset;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public int getRouteIndex() {
+        return routeIndex;
+    }
+
+    public int getEntryOffset() {
+        return entryOffset;
+    }
+
+    public int getUrlCount() {
+        return urlCount;
+    }
+
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    public int getPageEntryOffset() {
+        return pageEntryOffset;
+    }
+
+    /**
+     * @return true, if the shard can be re-created from the routes alone (i.e.
+     *         it has not been changed by incremental updates)
+     */
+    public boolean isReproducible() {
+        return routeIndex >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SitemapShard [number=" + number + ", routeIndex=" + routeIndex + ", entryOffset=" + entryOffset
+                + ", urlCount=" + urlCount + ", pageToken=" + pageToken + ", pageEntryOffset=" + pageEntryOffset
+                + "]";
+    }
+
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import ninja.lifecycle.Start;
+import ninja.utils.NinjaProperties;
+
+/**
+ * Keeps a copy of the most recently created sitemap in a local directory, if
+ * enabled with the <code>ninja.sitemap.snapshotDirectory</code> property. The
+ * snapshot is loaded at startup, so that the sitemap can be served immediately
+ * after a restart (while a new one is being created), even if Ninja's cache is
+ * empty. The documents of the snapshot are memory mapped rather than read into
+ * the Java heap.
+ * 
+ * The directory contains the XML and gzip data of every document, and a
+ * manifest (<code>manifest.properties</code>) with the creation time, the URL
+ * prefix, and the hash and size of every document. The manifest is written
+ * last, and replaces the previous one atomically (where supported by the file
+ * system), so that an interrupted write never leaves an inconsistent snapshot.
+ * Only documents which have changed since the previous snapshot are written:
+ * the files of all others (identified by the hash of their content) are
+ * referenced by the new manifest again.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapSnapshotStore {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapSnapshotStore.class);
+
+    /**
+     * The directory to keep the snapshot of the sitemap in. It is created if
+     * it does not exist. Default: none (no snapshots).
+     */
+    public static final String KEY_SNAPSHOT_DIRECTORY = "ninja.sitemap.snapshotDirectory";
+
+    private static final String MANIFEST_FILE = "manifest.properties";
+
+    private static final String MANIFEST_VERSION = "1";
+
+    static final String GZIP_EXTENSION = ".gz";
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected SitemapBuilder sitemapBuilder;
+
+    /**
+     * The snapshot loaded at startup (until taken)
+     */
+    private SitemapBuild snapshot;
+
+    private boolean snapshotLoaded;
+
+    private long lastSnapshotId;
+
+    /**
+     * The names of the files of the current snapshot
+     */
+    private Set<String> currentFiles = Collections.emptySet();
+
+    /**
+     * The names of the XML files of the current snapshot, by the hash of
+     * their content
+     */
+    private Map<String, String> currentFilesByHash = Collections.emptyMap();
+
+    /**
+     * The {@link SitemapFile}s of the current snapshot (as saved or loaded)
+     */
+    private List<SitemapFile> currentSitemapFiles;
+
+    /**
+     * @return true, if snapshots are enabled
+     */
+    public boolean isEnabled() {
+        return ninjaProperties.get(KEY_SNAPSHOT_DIRECTORY) != null;
+    }
+
+    /**
+     * Load the snapshot (if enabled) at startup, so that it is available as
+     * soon as the first request arrives.
+     */
+    @Start(order = 80)
+    public void start() {
+        if (isEnabled()) {
+            getSnapshot();
+        }
+    }
+
+    /**
+     * Get the snapshot stored before the application has been started. This
+     * returns the snapshot only once, as it is outdated as soon as a new
+     * sitemap has been created.
+     *
+     * @return the {@link SitemapBuild} of the snapshot, or null if snapshots
+     *         are not enabled, there is no (valid) snapshot, or it has been
+     *         taken already
+     */
+    public synchronized SitemapBuild takeSnapshot() {
+        SitemapBuild build = getSnapshot();
+        snapshot = null;
+        return build;
+    }
+
+    /**
+     * Replace the snapshot with the given sitemap. Failures are logged, but
+     * not thrown.
+     *
+     * @param build
+     *            the newly created (or updated) sitemap
+     * @param siteUrlPrefix
+     *            the prefix of all URLs in the sitemap. No snapshot is stored
+     *            unless this is the configured prefix (as the snapshot could
+     *            not be used after a restart otherwise).
+     * @return the {@link SitemapFile}s of all shards, followed by the one of
+     *         the sitemap index (if any). The last element always refers to
+     *         the main document. Null, if no snapshot has been stored.
+     */
+    public synchronized List<SitemapFile> save(SitemapBuild build, String siteUrlPrefix) {
+        Path directory = getDirectory();
+        String configuredPrefix = sitemapBuilder.getConfiguredSiteUrlPrefix();
+        if ((directory == null) || (configuredPrefix == null) || !configuredPrefix.equals(siteUrlPrefix)) {
+            return null;
+        }
+
+        // a new set of file names for every snapshot, so that the files of
+        // the current one are never overwritten. unchanged documents keep
+        // their files.
+        long snapshotId = Math.max(build.getCreated().getTime(), lastSnapshotId + 1);
+        lastSnapshotId = snapshotId;
+        // a loaded (but not yet taken) snapshot is outdated now
+        snapshot = null;
+        snapshotLoaded = true;
+
+        try {
+            Files.createDirectories(directory);
+
+            Properties manifest = new Properties();
+            manifest.setProperty("version", MANIFEST_VERSION);
+            manifest.setProperty("created", Long.toString(build.getCreated().getTime()));
+            manifest.setProperty("prefix", siteUrlPrefix);
+            manifest.setProperty("shards", Integer.toString(build.getShards().size()));
+
+            List<SitemapFile> files = new ArrayList<SitemapFile>(build.getShards().size() + 1);
+            int[] writtenFiles = new int[1];
+            for (int i = 0; i < build.getShards().size(); i++) {
+                String key = "shard." + (i + 1);
+                files.add(writeDocument(directory, snapshotId + "-" + (i + 1) + ".xml", build.getShards().get(i),
+                        manifest, key, writtenFiles));
+                manifest.setProperty(key + ".urls", Integer.toString(build.getShardPlan().get(i).getUrlCount()));
+            }
+            if (build.getIndex() != null) {
+                files.add(writeDocument(directory, snapshotId + "-index.xml", build.getIndex(), manifest, "index",
+                        writtenFiles));
+            }
+
+            Path manifestFile = directory.resolve(MANIFEST_FILE);
+            Path tempFile = directory.resolve(MANIFEST_FILE + ".tmp");
+            OutputStream out = Files.newOutputStream(tempFile);
+            try {
+                manifest.store(out, "Ninja Sitemap snapshot");
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            // the files of the previous snapshot might still be referenced
+            // by requests in progress on this node. keep them until the
+            // next snapshot.
+            Set<String> newFiles = getFileNames(manifest);
+            Set<String> keptFiles = new HashSet<String>(newFiles);
+            keptFiles.addAll(currentFiles);
+            deleteFilesExcept(directory, keptFiles);
+            currentFiles = newFiles;
+            currentFilesByHash = getFilesByHash(manifest);
+            currentSitemapFiles = files;
+            LOG.debug("Stored sitemap snapshot in {} ({} of {} documents written).", directory, writtenFiles[0],
+                    files.size());
+            return files;
+
+        } catch (IOException e) {
+            LOG.error("Failed to store sitemap snapshot in " + directory + ".", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the {@link SitemapFile}s of the most recently saved (or loaded)
+     *         snapshot, in the order returned by {@link #save}, or null if
+     *         there is none
+     */
+    public synchronized List<SitemapFile> getFiles() {
+        return currentSitemapFiles;
+    }
+
+    /**
+     * Replace the documents of a sitemap with the memory mapped files stored
+     * by {@link #save}, so that the sitemap can be kept without holding its
+     * documents in the Java heap.
+     *
+     * @param build
+     *            the {@link SitemapBuild}
+     * @param files
+     *            the {@link SitemapFile}s of the sitemap, as returned by
+     *            {@link #save}
+     * @return the sitemap with memory mapped documents, or the given sitemap
+     *         if any file could not be mapped
+     */
+    public SitemapBuild mapFiles(SitemapBuild build, List<SitemapFile> files) {
+        Path directory = getDirectory();
+        if (directory == null) {
+            return build;
+        }
+        try {
+            List<SitemapDocument> shards = new ArrayList<SitemapDocument>(build.getShards().size());
+            for (int i = 0; i < build.getShards().size(); i++) {
+                shards.add(mapDocument(directory, files.get(i)));
+            }
+            SitemapDocument index = (build.getIndex() == null) ? null
+                    : mapDocument(directory, files.get(files.size() - 1));
+            return new SitemapBuild(build.getCreated(), Collections.unmodifiableList(shards), build.getShardPlan(),
+                    index, build.getEntryIndex());
+        } catch (IOException e) {
+            LOG.warn("Failed to map sitemap files in " + directory + ". Keeping the sitemap in memory.", e);
+            return build;
+        }
+    }
+
+    /**
+     * Open a file of a stored sitemap document for reading.
+     *
+     * @param file
+     *            the {@link SitemapFile}
+     * @param gzip
+     *            true for the gzip-compressed file
+     * @return the {@link FileChannel}, or null if snapshots are not enabled
+     * @throws IOException
+     *             if the file could not be opened (e.g. because it has been
+     *             deleted in the meantime)
+     */
+    public FileChannel openFile(SitemapFile file, boolean gzip) throws IOException {
+        Path directory = getDirectory();
+        return (directory == null) ? null
+                : FileChannel.open(directory.resolve(file.getFileName(gzip)), StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the snapshot (loaded on first use), or null
+     */
+    private synchronized SitemapBuild getSnapshot() {
+        if (!snapshotLoaded) {
+            snapshotLoaded = true;
+            Path directory = getDirectory();
+            if (directory != null) {
+                long start = System.currentTimeMillis();
+                snapshot = load(directory);
+                if (snapshot != null) {
+                    LOG.info("Loaded sitemap snapshot from {} (created {}) in {} ms.", directory,
+                            snapshot.getCreated(), System.currentTimeMillis() - start);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Read the snapshot from the given directory, and check it against the
+     * manifest.
+     *
+     * @return the {@link SitemapBuild}, or null if there is no valid snapshot
+     */
+    private SitemapBuild load(Path directory) {
+        Properties manifest = new Properties();
+        try {
+            InputStream in = Files.newInputStream(directory.resolve(MANIFEST_FILE));
+            try {
+                manifest.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (NoSuchFileException e) {
+            LOG.info("No sitemap snapshot found in {}.", directory);
+            return null;
+        } catch (IOException e) {
+            LOG.warn("Failed to read sitemap snapshot manifest in " + directory + ". Ignoring snapshot.", e);
+            return null;
+        }
+
+        if (!MANIFEST_VERSION.equals(manifest.getProperty("version"))) {
+            LOG.warn("Unknown version of sitemap snapshot in {}. Ignoring snapshot.", directory);
+            return null;
+        }
+        if (!manifest.getProperty("prefix", "").equals(sitemapBuilder.getConfiguredSiteUrlPrefix())) {
+            LOG.info("Sitemap snapshot in {} has been created for a different URL prefix. Ignoring snapshot.",
+                    directory);
+            return null;
+        }
+
+        try {
+            int shardCount = Integer.parseInt(manifest.getProperty("shards"));
+            List<SitemapDocument> shards = new ArrayList<SitemapDocument>(shardCount);
+            List<SitemapShard> shardPlan = new ArrayList<SitemapShard>(shardCount);
+            List<SitemapFile> files = new ArrayList<SitemapFile>(shardCount + 1);
+            for (int shard = 1; shard <= shardCount; shard++) {
+                String key = "shard." + shard;
+                shards.add(readDocument(directory, manifest, key));
+                files.add(getFile(manifest, key, shards.get(shard - 1)));
+                // the routes might have changed since. the shards cannot be
+                // re-created on their own.
+                shardPlan.add(new SitemapShard(shard, -1, 0, Integer.parseInt(manifest.getProperty(key + ".urls"))));
+            }
+            SitemapDocument index = (manifest.getProperty("index.file") == null) ? null
+                    : readDocument(directory, manifest, "index");
+            if (index != null) {
+                files.add(getFile(manifest, "index", index));
+            }
+            currentFiles = getFileNames(manifest);
+            currentFilesByHash = getFilesByHash(manifest);
+            currentSitemapFiles = files;
+
+            return new SitemapBuild(new Date(Long.parseLong(manifest.getProperty("created"))),
+                    Collections.unmodifiableList(shards), Collections.unmodifiableList(shardPlan), index);
+
+        } catch (IOException e) {
+            LOG.warn("Failed to read sitemap snapshot in " + directory + ". Ignoring snapshot.", e);
+        } catch (RuntimeException e) {
+            // e.g. missing or invalid numbers in the manifest
+            LOG.warn("Invalid sitemap snapshot manifest in " + directory + ". Ignoring snapshot.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Write the files of a document (unless the current snapshot has files
+     * with the same content already), and add it to the manifest.
+     *
+     * @param writtenFiles
+     *            the number of documents written (incremented if written)
+     */
+    private SitemapFile writeDocument(Path directory, String fileName, SitemapDocument document,
+            Properties manifest, String key, int[] writtenFiles) throws IOException {
+        String existingFile = currentFilesByHash.get(document.getValidators().getContentHash());
+        if ((existingFile != null) && Files.exists(directory.resolve(existingFile))
+                && Files.exists(directory.resolve(existingFile + GZIP_EXTENSION))) {
+            fileName = existingFile;
+        } else {
+            write(directory.resolve(fileName), document.getXmlBuffer());
+            write(directory.resolve(fileName + GZIP_EXTENSION), document.getGzipBuffer());
+            writtenFiles[0]++;
+        }
+        manifest.setProperty(key + ".file", fileName);
+        manifest.setProperty(key + ".hash", document.getValidators().getContentHash());
+        manifest.setProperty(key + ".lastModified", Long.toString(document.getValidators().getLastModified()));
+        return new SitemapFile(fileName, document.getXmlLength(), document.getGzipLength(),
+                document.getValidators());
+    }
+
+    private static SitemapDocument readDocument(Path directory, Properties manifest, String key)
+            throws IOException {
+        String fileName = manifest.getProperty(key + ".file");
+        MappedByteBuffer xml = map(directory.resolve(fileName));
+        MappedByteBuffer gzip = map(directory.resolve(fileName + GZIP_EXTENSION));
+        SitemapValidators validators = SitemapValidators.create(xml,
+                Long.parseLong(manifest.getProperty(key + ".lastModified")));
+        if (!validators.getContentHash().equals(manifest.getProperty(key + ".hash"))) {
+            throw new IOException("Content of " + fileName + " does not match the manifest.");
+        }
+        return SitemapDocument.restore(xml, gzip, validators);
+    }
+
+    private static SitemapFile getFile(Properties manifest, String key, SitemapDocument document) {
+        return new SitemapFile(manifest.getProperty(key + ".file"), document.getXmlLength(), document.getGzipLength(),
+                document.getValidators());
+    }
+
+    /**
+     * Map the files of a document stored by {@link #save}.
+     */
+    private static SitemapDocument mapDocument(Path directory, SitemapFile file) throws IOException {
+        return SitemapDocument.restore(map(directory.resolve(file.getFileName(false))),
+                map(directory.resolve(file.getFileName(true))), file.getValidators());
+    }
+
+    /**
+     * Map a document file into memory (outside the Java heap). The mapping
+     * remains valid after the file has been closed (or deleted).
+     */
+    private static MappedByteBuffer map(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write a buffer (e.g. a memory mapped document) to a file, without
+     * copying it to the Java heap first.
+     */
+    private static void write(Path file, ByteBuffer data) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the names of the XML files referenced by the manifest, by the
+     *         hash of their content
+     */
+    private static Map<String, String> getFilesByHash(Properties manifest) {
+        Map<String, String> filesByHash = new HashMap<String, String>();
+        for (String key : manifest.stringPropertyNames()) {
+            if (key.endsWith(".file")) {
+                String hash = manifest.getProperty(key.substring(0, key.length() - ".file".length()) + ".hash");
+                if (hash != null) {
+                    filesByHash.put(hash, manifest.getProperty(key));
+                }
+            }
+        }
+        return filesByHash;
+    }
+
+    /**
+     * @return the names of all document files referenced by the manifest
+     */
+    private static Set<String> getFileNames(Properties manifest) {
+        Set<String> fileNames = new HashSet<String>();
+        for (String key : manifest.stringPropertyNames()) {
+            if (key.endsWith(".file")) {
+                fileNames.add(manifest.getProperty(key));
+                fileNames.add(manifest.getProperty(key) + GZIP_EXTENSION);
+            }
+        }
+        return fileNames;
+    }
+
+    /**
+     * Delete the files of older snapshots.
+     */
+    private static void deleteFilesExcept(Path directory, Set<String> keptFiles) throws IOException {
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.xml*");
+        try {
+            for (Path file : files) {
+                if (!keptFiles.contains(file.getFileName().toString())) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // e.g. still open on some platforms. try again next time.
+                        LOG.debug("Could not delete old sitemap snapshot file {}.", file);
+                    }
+                }
+            }
+        } finally {
+            files.close();
+        }
+    }
+
+    private Path getDirectory() {
+        String directory = ninjaProperties.get(KEY_SNAPSHOT_DIRECTORY);
+        return (directory == null) ? null : Paths.get(directory);
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.util.Set;
+
+/**
+ * Receives sitemaps which have been changed by the {@link SitemapUpdateService}
+ * .
+ *
+ * @author Jens Fendler
+ *
+ */
+public interface SitemapUpdateListener {
+
+    /**
+     * Called after some shards of a sitemap have been re-created due to
+     * incremental updates.
+     *
+     * @param build
+     *            the updated {@link SitemapBuild}, which replaces the previous
+     *            one
+     * @param updatedShards
+     *            the (1-based) numbers of all shards which have been changed
+     *            (or added)
+     */
+    public void sitemapUpdated(SitemapBuild build, Set<Integer> updatedShards);
+
+}
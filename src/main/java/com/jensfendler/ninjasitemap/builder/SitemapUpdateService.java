@@ -0,0 +1,451 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+import com.jensfendler.ninjasitemap.ping.SearchEnginePinger;
+import com.jensfendler.ninjasitemap.writer.ShardedSitemapWriter;
+
+import ninja.lifecycle.Dispose;
+import ninja.utils.NinjaProperties;
+import ninja.utils.TimeUtil;
+
+/**
+ * Allows the application to inform the sitemap about added, updated, or
+ * removed pages, without re-creating the complete sitemap. Requires the
+ * <code>ninja.sitemap.incrementalUpdates</code> property to be enabled.
+ *
+ * All entries of the most recently created sitemap are kept in memory, by
+ * route and by shard. Changes are collected for a short while
+ * (<code>ninja.sitemap.updateDelay</code>), and then only the shards
+ * containing changed entries are re-created. The next complete re-creation of
+ * the sitemap (e.g. after expiry) starts from scratch again.
+ *
+ * Note that the entries are only kept in memory on the local node.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapUpdateService {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapUpdateService.class);
+
+    /**
+     * If this application.conf property is 'true', all entries of the sitemap
+     * are kept in memory, so that the sitemap can be updated incrementally.
+     * Default: false.
+     */
+    public static final String KEY_INCREMENTAL_UPDATES = "ninja.sitemap.incrementalUpdates";
+
+    /**
+     * The time to collect changes before the affected shards are re-created.
+     * The string must be in a format compatible with the NinjaCache methods.
+     * Default: "2s".
+     */
+    private static final String KEY_UPDATE_DELAY = "ninja.sitemap.updateDelay";
+
+    private static final String DEFAULT_UPDATE_DELAY = "2s";
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected SitemapBuilder sitemapBuilder;
+
+    @Inject
+    protected SearchEnginePinger searchEnginePinger;
+
+    @Inject
+    protected SitemapMetrics metrics;
+
+    /**
+     * Guards all of the following fields
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The current sitemap (including any updates)
+     */
+    private SitemapBuild build;
+
+    /**
+     * The listener to inform of updates to the current sitemap
+     */
+    private SitemapUpdateListener listener;
+
+    /**
+     * The last modification date of every shard
+     */
+    private List<Date> shardLastModified;
+
+    /**
+     * The (0-based) numbers of all shards with pending changes
+     */
+    private final Set<Integer> dirtyShards = new TreeSet<Integer>();
+
+    private boolean flushScheduled;
+
+    /**
+     * Incremented with every new or updated sitemap, to tell whether an update
+     * is still the current one when its listener is informed
+     */
+    private long generation;
+
+    /**
+     * The (1-based) numbers of all shards changed since the listener has
+     * last been informed
+     */
+    private final Set<Integer> unpublishedShards = new TreeSet<Integer>();
+
+    /**
+     * Serializes informing the listener (outside of {@link #lock}, as the
+     * listener may write files, or to a remote cache)
+     */
+    private final Object publishLock = new Object();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @return true, if incremental updates are enabled
+     */
+    public boolean isEnabled() {
+        return ninjaProperties.getBooleanWithDefault(KEY_INCREMENTAL_UPDATES, false);
+    }
+
+    /**
+     * Add new pages to the sitemap, or update existing ones (with the same page
+     * path).
+     *
+     * @param controllerClass
+     *            the controller class of the pages' route
+     * @param controllerMethodName
+     *            the name of the controller method of the pages' route (which
+     *            must have a {@link Sitemap} annotation)
+     * @param entries
+     *            the {@link SitemapEntry}s of the new or changed pages
+     */
+    public void addOrUpdate(Class<?> controllerClass, String controllerMethodName, SitemapEntry... entries) {
+        addOrUpdate(controllerClass, controllerMethodName, Arrays.asList(entries));
+    }
+
+    /**
+     * Add new pages to the sitemap, or update existing ones (with the same page
+     * path).
+     *
+     * @param controllerClass
+     *            the controller class of the pages' route
+     * @param controllerMethodName
+     *            the name of the controller method of the pages' route (which
+     *            must have a {@link Sitemap} annotation)
+     * @param entries
+     *            the {@link SitemapEntry}s of the new or changed pages
+     */
+    public void addOrUpdate(Class<?> controllerClass, String controllerMethodName,
+            Collection<SitemapEntry> entries) {
+        int maxUrls = sitemapBuilder.getMaxUrlsPerSitemap();
+        synchronized (lock) {
+            int routeIndex = getRouteIndex(controllerClass, controllerMethodName);
+            if (routeIndex < 0) {
+                return;
+            }
+            // the route's cached entries are outdated now
+            sitemapBuilder.invalidateCachedEntries(routeIndex);
+            SitemapEntryIndex entryIndex = build.getEntryIndex();
+            for (SitemapEntry entry : entries) {
+                dirtyShards.add(entryIndex.put(routeIndex, entry, maxUrls));
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Remove pages from the sitemap.
+     *
+     * @param controllerClass
+     *            the controller class of the pages' route
+     * @param controllerMethodName
+     *            the name of the controller method of the pages' route (which
+     *            must have a {@link Sitemap} annotation)
+     * @param pagePaths
+     *            the paths of the pages to remove (as in their
+     *            {@link SitemapEntry})
+     */
+    public void remove(Class<?> controllerClass, String controllerMethodName, String... pagePaths) {
+        remove(controllerClass, controllerMethodName, Arrays.asList(pagePaths));
+    }
+
+    /**
+     * Remove pages from the sitemap.
+     *
+     * @param controllerClass
+     *            the controller class of the pages' route
+     * @param controllerMethodName
+     *            the name of the controller method of the pages' route (which
+     *            must have a {@link Sitemap} annotation)
+     * @param pagePaths
+     *            the paths of the pages to remove (as in their
+     *            {@link SitemapEntry})
+     */
+    public void remove(Class<?> controllerClass, String controllerMethodName, Collection<String> pagePaths) {
+        synchronized (lock) {
+            int routeIndex = getRouteIndex(controllerClass, controllerMethodName);
+            if (routeIndex < 0) {
+                return;
+            }
+            sitemapBuilder.invalidateCachedEntries(routeIndex);
+            SitemapEntryIndex entryIndex = build.getEntryIndex();
+            for (String pagePath : pagePaths) {
+                int shard = entryIndex.remove(routeIndex, pagePath);
+                if (shard >= 0) {
+                    dirtyShards.add(shard);
+                } else {
+                    LOG.debug("Page {} is not part of the sitemap. Not removed.", pagePath);
+                }
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Re-create all shards with pending changes immediately, and inform the
+     * listener of the current sitemap.
+     *
+     * @throws IOException
+     *             if the shards could not be written
+     */
+    public void flush() throws IOException {
+        SitemapBuild updatedBuild;
+        long updateGeneration;
+        Set<Integer> updatedShards = new TreeSet<Integer>();
+
+        synchronized (lock) {
+            flushScheduled = false;
+            if ((build == null) || dirtyShards.isEmpty()) {
+                return;
+            }
+            long updateStart = SitemapMetrics.start();
+
+            SitemapEntryIndex entryIndex = build.getEntryIndex();
+            List<SitemapDocument> shards = new ArrayList<SitemapDocument>(build.getShards());
+            List<SitemapShard> shardPlan = new ArrayList<SitemapShard>(build.getShardPlan());
+            Date now = new Date();
+
+            // re-create all changed shards. shards which have grown too large
+            // are split, and the remainder is appended as new shards.
+            while (!dirtyShards.isEmpty()) {
+                int shard = dirtyShards.iterator().next();
+                dirtyShards.remove(shard);
+
+                ShardedSitemapWriter writer = sitemapBuilder.createWriter(entryIndex.getSiteUrlPrefix());
+                entryIndex.writeEntries(shard, writer);
+                List<ByteBuffer> documents = writer.finish();
+                List<Integer> urlCounts = writer.getShardUrlCounts();
+                if (documents.size() > 1) {
+                    // split by entries, as a page may have several URLs
+                    dirtyShards.add(entryIndex.split(shard, writer.getShardEntryCounts().get(0)));
+                }
+
+                SitemapDocument document = SitemapDocument.create(documents.get(0),
+                        writer.getShardLastModified().get(0), (shard < shards.size()) ? shards.get(shard) : null);
+                setShard(shards, shard, document);
+                // the shard cannot be re-created from the route plan any more
+                setShard(shardPlan, shard, new SitemapShard(shard + 1, -1, 0, urlCounts.get(0)));
+                setShard(shardLastModified, shard, new Date(document.getValidators().getLastModified()));
+                updatedShards.add(shard + 1);
+            }
+
+            SitemapDocument index = null;
+            if (shards.size() > 1) {
+                index = sitemapBuilder.createIndex(entryIndex.getSiteUrlPrefix(), shardLastModified, build.getIndex());
+            }
+
+            build = new SitemapBuild(now, Collections.unmodifiableList(shards),
+                    Collections.unmodifiableList(shardPlan), index, entryIndex);
+            updatedBuild = build;
+
+            LOG.info("Sitemap has been updated. Re-created {} {}.", updatedShards.size(),
+                    (updatedShards.size() == 1 ? "shard" : "shards"));
+            metrics.recordDuration("update", updateStart);
+            sitemapBuilder.recordBuildMetrics(updatedBuild, null);
+            updateGeneration = ++generation;
+            unpublishedShards.addAll(updatedShards);
+        }
+
+        publish(updatedBuild, updateGeneration);
+
+        // inform search engines about the updated sitemap
+        searchEnginePinger.pingSearchEngines(updatedBuild.getEntryIndex().getSiteUrlPrefix());
+    }
+
+    /**
+     * Inform the listener of an updated sitemap, unless it has been replaced
+     * by a newer one in the meantime (whose listener call then includes the
+     * shards changed by this update). This happens outside of {@link #lock},
+     * so that changes can still be added while the listener is busy.
+     *
+     * @param updatedBuild
+     *            the updated sitemap
+     * @param updateGeneration
+     *            the generation of the updated sitemap
+     */
+    private void publish(SitemapBuild updatedBuild, long updateGeneration) {
+        synchronized (publishLock) {
+            SitemapUpdateListener updateListener;
+            Set<Integer> updatedShards;
+            synchronized (lock) {
+                if (updateGeneration != generation) {
+                    LOG.debug("Discarding outdated sitemap update.");
+                    return;
+                }
+                updateListener = listener;
+                updatedShards = new TreeSet<Integer>(unpublishedShards);
+                unpublishedShards.clear();
+            }
+            if (updateListener != null) {
+                updateListener.sitemapUpdated(updatedBuild, updatedShards);
+            }
+        }
+    }
+
+    /**
+     * Use the given (newly created) sitemap for further incremental updates.
+     * Pending changes to the previous sitemap are discarded.
+     *
+     * @param newBuild
+     *            the {@link SitemapBuild} (created with incremental updates
+     *            enabled)
+     * @param updateListener
+     *            the listener to inform of updates to this sitemap
+     */
+    public void setBuild(SitemapBuild newBuild, SitemapUpdateListener updateListener) {
+        if (newBuild.getEntryIndex() == null) {
+            return;
+        }
+        // wait for the listener to be informed of an update of the previous
+        // sitemap, which must not replace the new one afterwards
+        synchronized (publishLock) {
+            synchronized (lock) {
+                build = newBuild;
+                listener = updateListener;
+                shardLastModified = new ArrayList<Date>(newBuild.getShards().size());
+                for (SitemapDocument shard : newBuild.getShards()) {
+                    shardLastModified.add(new Date(shard.getValidators().getLastModified()));
+                }
+                dirtyShards.clear();
+                unpublishedShards.clear();
+                generation++;
+            }
+        }
+    }
+
+    /**
+     * Stop the update thread.
+     */
+    @Dispose(order = 90)
+    public void stop() {
+        synchronized (lock) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the route with the given controller method, or -1
+     *         if there is no sitemap to update (or the route is not part of it)
+     */
+    private int getRouteIndex(Class<?> controllerClass, String controllerMethodName) {
+        if (!isEnabled()) {
+            LOG.warn("Ignoring sitemap update. Set {} to true to enable incremental updates.",
+                    KEY_INCREMENTAL_UPDATES);
+            return -1;
+        }
+        if (build == null) {
+            // the changes will be included when the sitemap is created
+            LOG.debug("No sitemap has been created yet. Ignoring sitemap update.");
+            return -1;
+        }
+        int routeIndex = sitemapBuilder.getRouteIndex(controllerClass, controllerMethodName);
+        if (routeIndex < 0) {
+            LOG.warn("{}::{} is not part of the sitemap. Ignoring sitemap update.", controllerClass.getName(),
+                    controllerMethodName);
+        }
+        return routeIndex;
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled || dirtyShards.isEmpty()) {
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ninja-sitemap-updates");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        long delaySeconds = TimeUtil.parseDuration(ninjaProperties.getWithDefault(KEY_UPDATE_DELAY,
+                DEFAULT_UPDATE_DELAY));
+        executor.schedule(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    LOG.error("Failed to update sitemap.", e);
+                }
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+        flushScheduled = true;
+    }
+
+    /**
+     * Set (or append) an element of a list.
+     */
+    private static <T> void setShard(List<T> list, int shard, T element) {
+        if (shard < list.size()) {
+            list.set(shard, element);
+        } else {
+            list.add(element);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The HTTP cache validators (entity tag and last modification time) of a
+ * single {@link SitemapDocument}. These are computed once, when the document
+ * is created, and are small enough to be looked up (and cached) separately
+ * from the document itself.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapValidators implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The hex encoded hash of the document's XML data
+     */
+    private final String contentHash;
+
+    /**
+     * The time the content of the document has last changed (in milliseconds
+     * since the epoch)
+     */
+    private final long lastModified;
+
+    private SitemapValidators(String contentHash, long lastModified) {
+        this.contentHash = contentHash;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Compute the validators for the given document data.
+     *
+     * @param xml
+     *            the UTF-8 encoded XML data of the document
+     * @param lastModified
+     *            the time the document has been created (in milliseconds
+     *            since the epoch)
+     * @return the {@link SitemapValidators}
+     */
+    static SitemapValidators create(byte[] xml, long lastModified) {
+        return create(ByteBuffer.wrap(xml), lastModified);
+    }
+
+    /**
+     * Compute the validators for the given document data, e.g. of a memory
+     * mapped file.
+     *
+     * @param xml
+     *            the UTF-8 encoded XML data of the document (from its
+     *            position to its limit, which is left unchanged)
+     * @param lastModified
+     *            the time the document has been created (in milliseconds
+     *            since the epoch)
+     * @return the {@link SitemapValidators}
+     */
+    static SitemapValidators create(ByteBuffer xml, long lastModified) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(xml.duplicate());
+            byte[] digest = md5.digest();
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+                hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0x0f];
+            }
+            return new SitemapValidators(new String(hex), lastModified);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param lastModified
+     *            the time the content of the document has last changed (in
+     *            milliseconds since the epoch)
+     * @return validators with the same content hash, and the given
+     *         modification time
+     */
+    SitemapValidators withLastModified(long lastModified) {
+        return new SitemapValidators(contentHash, lastModified);
+    }
+
+    /**
+     * @return the hex encoded hash of the document's XML data
+     */
+    String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param gzip
+     *            true for the gzip-compressed representation of the document
+     * @return the (strong, quoted) entity tag of the given representation of
+     *         the document
+     */
+    public String getEtag(boolean gzip) {
+        return gzip ? "\"" + contentHash + "-gzip\"" : "\"" + contentHash + "\"";
+    }
+
+    /**
+     * @return the time the content of the document has last changed (in
+     *         milliseconds since the epoch)
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.controller;
+
+import com.jensfendler.ninjasitemap.builder.SitemapBuild;
+
+/**
+ * An immutable pairing of the sitemap created (or last updated) on this node
+ * with the time until which it may be served without asking Ninja's cache.
+ * The controller keeps the current instance behind a single volatile
+ * reference, so that a rebuild replaces sitemap and expiry time together, and
+ * requests never see one without the other.
+ *
+ * @author Jens Fendler
+ *
+ */
+final class CurrentSitemap {
+
+    private final SitemapBuild build;
+
+    private final long expires;
+
+    /**
+     * @param build
+     *            the {@link SitemapBuild}, with the pre-encoded (plain and
+     *            compressed) bytes of all its documents
+     * @param expires
+     *            the time (in milliseconds) at which the sitemap expires
+     */
+    CurrentSitemap(SitemapBuild build, long expires) {
+        this.build = build;
+        this.expires = expires;
+    }
+
+    SitemapBuild getBuild() {
+        return build;
+    }
+
+    /**
+     * @param now
+     *            the current time (in milliseconds)
+     * @return true, if the sitemap has not expired yet
+     */
+    boolean isValid(long now) {
+        return now < expires;
+    }
+
+}
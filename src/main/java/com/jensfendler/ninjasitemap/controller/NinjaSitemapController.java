@@ -15,93 +15,204 @@
  */
 package com.jensfendler.ninjasitemap.controller;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Date;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.Inject;
-import com.google.inject.Injector;
 import com.google.inject.Singleton;
-import com.jensfendler.ninjasitemap.SitemapRouteDetails;
 import com.jensfendler.ninjasitemap.NinjaSitemapRoutes;
-import com.jensfendler.ninjasitemap.SitemapEntry;
-import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
-import com.jensfendler.ninjasitemap.annotations.Sitemap;
-
-import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
-import cz.jiripinkas.jsitemapgenerator.WebPage;
-import cz.jiripinkas.jsitemapgenerator.exception.GWTException;
-import cz.jiripinkas.jsitemapgenerator.generator.SitemapGenerator;
+import com.jensfendler.ninjasitemap.builder.SingleFlight;
+import com.jensfendler.ninjasitemap.builder.SitemapBuild;
+import com.jensfendler.ninjasitemap.builder.SitemapBuildLease;
+import com.jensfendler.ninjasitemap.builder.SitemapBuilder;
+import com.jensfendler.ninjasitemap.builder.SitemapDocument;
+import com.jensfendler.ninjasitemap.builder.SitemapDocumentCache;
+import com.jensfendler.ninjasitemap.builder.SitemapFile;
+import com.jensfendler.ninjasitemap.builder.SitemapRefreshScheduler;
+import com.jensfendler.ninjasitemap.builder.SitemapShard;
+import com.jensfendler.ninjasitemap.builder.SitemapSnapshotStore;
+import com.jensfendler.ninjasitemap.builder.SitemapUpdateListener;
+import com.jensfendler.ninjasitemap.builder.SitemapUpdateService;
+import com.jensfendler.ninjasitemap.builder.SitemapValidators;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+import com.jensfendler.ninjasitemap.ping.SearchEnginePinger;
+
 import ninja.Context;
 import ninja.Result;
 import ninja.Results;
-import ninja.Route;
-import ninja.Router;
 import ninja.cache.NinjaCache;
+import ninja.lifecycle.Dispose;
+import ninja.utils.DateUtil;
+import ninja.utils.HttpHeaderConstants;
 import ninja.utils.NinjaProperties;
+import ninja.utils.NoHttpBody;
+import ninja.utils.TimeUtil;
 
 /**
  * @author Jens Fendler
  *
  */
 @Singleton
-public class NinjaSitemapController {
+public class NinjaSitemapController implements SitemapUpdateListener {
 
     protected static final Logger LOG = LoggerFactory.getLogger(NinjaSitemapController.class);
 
     /**
-     * Routes are matched against this expression to check if they contain a
-     * dynamic part.
+     * If this application.conf property is 'true', the node which has created
+     * the sitemap serves its documents from their files in the snapshot
+     * directory (see {@link SitemapSnapshotStore}). Only the (small)
+     * {@link SitemapValidators} of the documents are cached, and the
+     * references to the files are only kept on this node. The documents are
+     * neither cached, nor kept in the Java heap. Default: false.
+     */
+    public static final String KEY_SERVE_FROM_FILES = "ninja.sitemap.serveFromFiles";
+
+    /**
+     * If this application.conf property is 'true', the sitemap created on this
+     * node is served straight from memory until it expires, and Ninja's cache
+     * is only consulted for sitemaps created by other nodes. Default: true
+     * (false, if {@link #KEY_SERVE_FROM_FILES} is enabled).
+     */
+    public static final String KEY_SERVE_FROM_MEMORY = "ninja.sitemap.serveFromMemory";
+
+    /**
+     * The cache key to use for the sitemap (or the sitemap index, if the
+     * sitemap consists of more than one shard).
      */
-    protected static final String DYNAMIC_ROUTE_PATTERN = ".*\\{.*\\}.*";
+    private static final String SITEMAP_CACHE_KEY = SitemapDocumentCache.SITEMAP_CACHE_KEY;
 
     /**
-     * The key name in application.conf to contain the protocol, server name,
-     * port, and possibly a path component to prepend to all sitemap entries.
+     * The cache key of the marker which is present while the cached sitemap
+     * is fresh (only used with the cluster lease, see
+     * {@link SitemapBuildLease}).
      */
-    private static final String KEY_SITEMAP_PREFIX = "ninja.sitemap.prefix";
+    private static final String FRESH_CACHE_KEY = SITEMAP_CACHE_KEY + "-fresh";
 
     /**
-     * An application.conf property to control the expiry time of the sitemap in
-     * Ninja's cache. This value should preferably be less than half the
-     * shortest 'changeFrequency' of your sitemap entries.
+     * The cache key of the sitemap index listing all route sitemaps (if they
+     * are created on demand)
      */
-    private static final String KEY_NINJA_SITEMAP_EXPIRED = "ninja.sitemap.expires";
+    private static final String ROUTE_SITEMAP_INDEX_CACHE_KEY = SITEMAP_CACHE_KEY + "-routes";
 
     /**
-     * The default expiry time of the sitemap string in Ninja's cache. Defaults
-     * to 6 hours ("6h"). The string must be in a format compatible with the
-     * {@link NinjaCache} methods.
+     * The time to keep the creation dates of the pages of every route sitemap
+     * in the cache. This is longer than the time the pages themselves are
+     * cached, so that the sitemap index continues to list all pages of a
+     * route until the route sitemap is re-created.
      */
-    private static final String DEFAULT_SITEMAP_EXPIRY_TIME = "12h";
+    private static final String ROUTE_SITEMAP_PAGES_EXPIRES = "30d";
 
     /**
-     * If this application.conf property is 'true', the Google search engine is
-     * informed of updates to the sitemap. Default: false.
+     * The HTTP status code returned if the first background build of the
+     * sitemap has failed (or has not completed yet).
      */
-    private static final String KEY_PING_GOOGLE = "ninja.sitemap.ping.google";
+    private static final int SC_503_SERVICE_UNAVAILABLE = 503;
 
     /**
-     * If this application.conf property is 'true', the Bing search engine is
-     * informed of updates to the sitemap. Default: false.
+     * The time (in seconds) after which clients should retry a request
+     * answered with {@link #SC_503_SERVICE_UNAVAILABLE}.
      */
-    private static final String KEY_PING_BING = "ninja.sitemap.ping.bing";
+    private static final int RETRY_AFTER_SECONDS = 30;
 
     /**
-     * The cache key to use for the sitemap.
+     * The content type of the gzip-compressed sitemap files.
      */
-    private static final String SITEMAP_CACHE_KEY = NinjaSitemapController.class.getSimpleName() + "-sitemap";
+    private static final String CONTENT_TYPE_GZIP = "application/x-gzip";
 
     /**
-     * If this key is set to 'false', no warnings will be logged when using a
-     * {@link SitemapMultiPageProvider} for a non-dynamic route. If this
-     * property is 'true' (the default), a warning will be logged.
+     * The minimum time between two checks whether the cached sitemap is still
+     * fresh (in milliseconds).
      */
-    private static final String KEY_SHOW_MPP_WARNINGS = "ninja.sitemap.multiPageWarnings";
+    private static final long FRESHNESS_CHECK_INTERVAL = 1000;
+
+    /**
+     * The time between two cache lookups while waiting for another node to
+     * publish the sitemap (in milliseconds).
+     */
+    private static final long PUBLISH_POLL_INTERVAL = 250;
+
+    /**
+     * Coordinates concurrent re-creation of the complete sitemap (there is
+     * only a single key).
+     */
+    private final SingleFlight<String, SitemapBuild> sitemapRebuilds = new SingleFlight<String, SitemapBuild>();
+
+    /**
+     * Coordinates concurrent re-creation of individual shards (keyed by shard
+     * number).
+     */
+    private final SingleFlight<Integer, SitemapDocument> shardRebuilds = new SingleFlight<Integer, SitemapDocument>();
+
+    /**
+     * Coordinates concurrent creation of individual route sitemaps (keyed by
+     * route sitemap identifier).
+     */
+    private final SingleFlight<Integer, List<SitemapDocument>> routeSitemapRebuilds =
+            new SingleFlight<Integer, List<SitemapDocument>>();
+
+    /**
+     * The most recently created sitemap. Served (stale) to requests arriving
+     * while the sitemap is being re-created. If serving from files is
+     * enabled, its documents are memory mapped from their files.
+     */
+    private volatile SitemapBuild lastBuild;
+
+    /**
+     * The sitemap created on this node, while it has not expired (only if
+     * serving from memory is enabled). Replaced as a whole by every rebuild.
+     */
+    private volatile CurrentSitemap currentSitemap;
+
+    private final AtomicLong staleResponseCount = new AtomicLong();
+
+    /**
+     * Re-creates the sitemap in the background while a snapshot (or the stale
+     * sitemap) is served. At most one such refresh runs at a time, further
+     * ones are rejected.
+     */
+    private final ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ninja-sitemap-rebuild");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * The files of the documents created on this node, by cache key (only if
+     * serving from files is enabled). File paths are only valid on this node,
+     * and are therefore never stored in Ninja's (possibly shared) cache.
+     */
+    private final ConcurrentMap<String, SitemapFile> localFiles = new ConcurrentHashMap<String, SitemapFile>();
+
+    /**
+     * True while the sitemap is re-created after a snapshot has been served
+     * at startup
+     */
+    private boolean refreshingSnapshot;
+
+    /**
+     * The time of the next check whether the cached sitemap is still fresh
+     */
+    private volatile long nextFreshnessCheck;
 
     @Inject
     protected NinjaCache cache;
@@ -110,354 +221,1240 @@ public class NinjaSitemapController {
     protected NinjaProperties ninjaProperties;
 
     @Inject
-    protected Router router;
+    protected SitemapBuilder sitemapBuilder;
+
+    @Inject
+    protected SearchEnginePinger searchEnginePinger;
+
+    @Inject
+    protected SitemapRefreshScheduler refreshScheduler;
+
+    @Inject
+    protected SitemapUpdateService sitemapUpdateService;
+
+    @Inject
+    protected SitemapMetrics metrics;
 
     @Inject
-    protected SitemapRouteDetails sitemapDetailsProvider;
+    protected SitemapSnapshotStore snapshotStore;
 
     @Inject
-    protected Injector injector;
+    protected SitemapBuildLease buildLease;
+
+    @Inject
+    protected SitemapDocumentCache documentCache;
+
+    @Inject
+    protected NinjaSitemapRoutes sitemapRoutes;
 
     /**
-     * Returns the sitemap.xml data following a GET request to /sitemap.xml
+     * Returns the sitemap.xml data following a GET request to /sitemap.xml. If
+     * the sitemap has been split into several shards, the sitemap index is
+     * returned.
      * 
      * @param context
-     *            the request context (currently not used)
+     *            the request context
      * @return the Result containing the sitemap.xml data
      */
     public Result getSitemapXml(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderSitemap(context, false);
+        } finally {
+            metrics.recordDuration("serve.sitemap", serveStart);
+        }
+    }
 
-        // attempt a cache lookup first.
-        String sitemapString = (String) cache.get(SITEMAP_CACHE_KEY);
+    /**
+     * Returns the gzip-compressed sitemap.xml data following a GET request to
+     * /sitemap.xml.gz
+     * 
+     * @param context
+     *            the request context
+     * @return the Result containing the compressed sitemap.xml data
+     */
+    public Result getSitemapXmlGz(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderSitemap(context, true);
+        } finally {
+            metrics.recordDuration("serve.sitemap", serveStart);
+        }
+    }
 
-        if (sitemapString == null) {
-            // sitemap is not in cache. re-create.
-            sitemapString = createSitemap(context);
+    /**
+     * Returns a single shard of the sitemap following a GET request to e.g.
+     * /sitemap-3.xml. Only the requested shard will be re-created if it is not
+     * found in the cache.
+     * 
+     * @param context
+     *            the request context
+     * @return the Result containing the sitemap data of the shard
+     */
+    public Result getSitemapShardXml(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderSitemapShard(context, false);
+        } finally {
+            metrics.recordDuration("serve.shard", serveStart);
         }
+    }
 
-        return Results.ok().xml().renderRaw(sitemapString.getBytes());
+    /**
+     * Returns a single, gzip-compressed shard of the sitemap following a GET
+     * request to e.g. /sitemap-3.xml.gz
+     * 
+     * @param context
+     *            the request context
+     * @return the Result containing the compressed sitemap data of the shard
+     */
+    public Result getSitemapShardXmlGz(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderSitemapShard(context, true);
+        } finally {
+            metrics.recordDuration("serve.shard", serveStart);
+        }
     }
 
     /**
-     * Create the sitemap from scratch.
+     * Returns the sitemap index listing all route sitemaps following a GET
+     * request to /sitemap.xml, if route sitemaps are created on demand (see
+     * {@link NinjaSitemapRoutes#KEY_LAZY_ROUTE_SITEMAPS}). No route sitemap is
+     * created for this.
      * 
      * @param context
-     *            the request context (not used)
-     * @return the XML data of the sitemap (as one string)
+     *            the request context
+     * @return the Result containing the sitemap index
      */
-    private String createSitemap(Context context) {
-        // get the (optional) prefix to prepend to all URLs provided in the
-        // sitemap
-        String siteUrlPrefix = ninjaProperties.get(KEY_SITEMAP_PREFIX);
-        if (siteUrlPrefix == null) {
-            siteUrlPrefix = "http://" + context.getHostname();
-            LOG.warn(
-                    "No {} configured in application conf. Using default prefix '{}'. You should configure this property in application.conf.",
-                    KEY_SITEMAP_PREFIX, siteUrlPrefix);
+    public Result getRouteSitemapIndexXml(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderRouteSitemapIndex(context, false);
+        } finally {
+            metrics.recordDuration("serve.sitemap", serveStart);
         }
+    }
 
-        siteUrlPrefix = siteUrlPrefix.replaceAll("/$", "");
+    /**
+     * Returns the gzip-compressed sitemap index listing all route sitemaps
+     * following a GET request to /sitemap.xml.gz
+     * 
+     * @param context
+     *            the request context
+     * @return the Result containing the compressed sitemap index
+     */
+    public Result getRouteSitemapIndexXmlGz(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderRouteSitemapIndex(context, true);
+        } finally {
+            metrics.recordDuration("serve.sitemap", serveStart);
+        }
+    }
+
+    /**
+     * Returns a single page of a route sitemap following a GET request to e.g.
+     * /sitemap-4-1.xml. The route sitemap is created when any of its pages is
+     * requested and not found in the cache.
+     * 
+     * @param context
+     *            the request context
+     * @return the Result containing the sitemap data of the page
+     */
+    public Result getRouteSitemapXml(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderRouteSitemap(context, false);
+        } finally {
+            metrics.recordDuration("serve.shard", serveStart);
+        }
+    }
 
-        final SitemapGenerator generator = new SitemapGenerator(siteUrlPrefix);
+    /**
+     * Returns a single, gzip-compressed page of a route sitemap following a
+     * GET request to e.g. /sitemap-4-1.xml.gz
+     * 
+     * @param context
+     *            the request context
+     * @return the Result containing the compressed sitemap data of the page
+     */
+    public Result getRouteSitemapXmlGz(Context context) {
+        long serveStart = SitemapMetrics.start();
+        try {
+            return renderRouteSitemap(context, true);
+        } finally {
+            metrics.recordDuration("serve.shard", serveStart);
+        }
+    }
 
-        for (Route route : router.getRoutes()) {
-            Sitemap sitemap = route.getControllerMethod().getAnnotation(Sitemap.class);
-            // check if the route should be processed for the sitemap
-            if (includeInSitemap(sitemap, route)) {
-                LOG.debug("Including route {} in sitemap.xml", route.getUri());
-                // create page(s) from the route and add to the sitemap
-                generator.addPages(createSitemapPages(sitemap, route));
-            } else {
-                LOG.debug("Not including route {} in sitemap.xml", route.getUri());
+    private Result renderSitemap(Context context, boolean gzipFile) {
+        if (refreshScheduler.isRunning()) {
+            // serve the last sitemap created in the background
+            SitemapBuild build = getScheduledBuild();
+            if (build == null) {
+                return serviceUnavailable();
             }
+            return renderDocument(context, build.getMainDocument(), gzipFile);
         }
 
-        // cache the newly created sitemap
-        String sitemapString = generator.constructSitemapString();
-        String sitemapCacheExpires = ninjaProperties.getWithDefault(KEY_NINJA_SITEMAP_EXPIRED,
-                DEFAULT_SITEMAP_EXPIRY_TIME);
-        boolean isCached = cache.safeSet(SITEMAP_CACHE_KEY, sitemapString, sitemapCacheExpires);
-        if (isCached) {
-            LOG.info("Sitemap has been updated and cached. Will be recreated in {}.", sitemapCacheExpires);
-        } else {
-            // perhaps this is the first time cache
-            LOG.warn("Sitemap has been updated and will be delivered, but could not be cached.");
+        // serve the sitemap created on this node, if it has not expired yet
+        SitemapBuild current = getCurrentBuild();
+        if (current != null) {
+            return renderDocument(context, current.getMainDocument(), gzipFile);
         }
 
-        // check if we should ping google/bing for the updated sitemap
-        final boolean shouldPingGoogle = ninjaProperties.getBooleanWithDefault(KEY_PING_GOOGLE, false);
-        final boolean shouldPingBing = ninjaProperties.getBooleanWithDefault(KEY_PING_BING, false);
-        if (shouldPingGoogle || shouldPingBing) {
+        refreshIfStale(context);
+
+        // answer conditional requests without fetching the document itself
+        Result notModified = checkNotModified(context, SITEMAP_CACHE_KEY, gzipFile);
+        if (notModified != null) {
+            return notModified;
+        }
 
-            String sitemapRoute = ninjaProperties.getWithDefault(NinjaSitemapRoutes.KEY_SITEMAP_ROUTE,
-                    NinjaSitemapRoutes.DEFAULT_SITEMAP_ROUTE);
-            if (!sitemapRoute.startsWith("/")) {
-                sitemapRoute = "/" + sitemapRoute;
+        // attempt a cache lookup first.
+        Result cached = renderCachedDocument(context, SITEMAP_CACHE_KEY, gzipFile);
+        if (cached != null) {
+            return cached;
+        }
+
+        // sitemap is not in cache. serve the previous sitemap if another
+        // request is already re-creating it, or re-create.
+        SitemapDocument sitemap;
+        try {
+            SitemapBuild build = getStaleBuild();
+            if (build == null) {
+                build = getSnapshotBuild();
             }
-            final String sitemapUrl = siteUrlPrefix + sitemapRoute;
-
-            // we only want to issue search engine pings in production mode
-            if (ninjaProperties.isProd()) {
-
-                // pinging search engines will take some time. run pinging in
-                // separate threads so that the current request can immediately
-                // be served.
-
-                // possibly ping Google search engine in separate thread
-                if (shouldPingGoogle) {
-                    Executors.defaultThreadFactory().newThread(new Runnable() {
-                        public void run() {
-                            try {
-                                generator.pingGoogle(sitemapUrl);
-                                LOG.info("Google search engine has been notified of updated sitemap at '{}'.",
-                                        sitemapUrl);
-                            } catch (GWTException e) {
-                                LOG.warn("Failed to ping Google with updated sitemap.", e);
-                            }
-                        }
-                    }).start();
+            if (build == null) {
+                build = rebuildSitemap(getSiteUrlPrefix(context), true);
+            }
+            if (build == null) {
+                // another node is re-creating the sitemap. serve the previous
+                // sitemap, or wait for the new one.
+                build = getPreviousBuild();
+            }
+            if (build == null) {
+                Result published = awaitPublishedDocument(context, SITEMAP_CACHE_KEY, gzipFile);
+                if (published != null) {
+                    return published;
                 }
+                build = rebuildSitemap(getSiteUrlPrefix(context), false);
+            }
+            sitemap = build.getMainDocument();
+        } catch (IOException e) {
+            LOG.error("Failed to create sitemap.", e);
+            return Results.internalServerError();
+        }
 
-                // possibly ping Bing search engine in separate thread
-                if (shouldPingBing) {
-                    Executors.defaultThreadFactory().newThread(new Runnable() {
-                        public void run() {
-                            try {
-                                generator.pingBing(sitemapUrl);
-                                LOG.info("Bing search engine has been notified of updated sitemap at '{}'.",
-                                        sitemapUrl);
-                            } catch (GWTException e) {
-                                LOG.warn("Failed to ping Google with updated sitemap.", e);
-                            }
-                        }
-                    }).start();
+        return renderDocument(context, sitemap, gzipFile);
+    }
+
+    private Result renderSitemapShard(Context context, boolean gzipFile) {
+        Integer shardNumber = context.getPathParameterAsInteger(NinjaSitemapRoutes.SHARD_PATH_PARAMETER);
+        if ((shardNumber == null) || (shardNumber < 1)) {
+            return Results.notFound();
+        }
+
+        if (refreshScheduler.isRunning()) {
+            // serve the last sitemap created in the background
+            SitemapBuild build = getScheduledBuild();
+            if (build == null) {
+                return serviceUnavailable();
+            }
+            if (shardNumber > build.getShards().size()) {
+                return Results.notFound();
+            }
+            return renderDocument(context, build.getShards().get(shardNumber - 1), gzipFile);
+        }
+
+        // serve the sitemap created on this node, if it has not expired yet
+        SitemapBuild current = getCurrentBuild();
+        if (current != null) {
+            if (shardNumber > current.getShards().size()) {
+                return Results.notFound();
+            }
+            return renderDocument(context, current.getShards().get(shardNumber - 1), gzipFile);
+        }
+
+        refreshIfStale(context);
+
+        // answer conditional requests without fetching the document itself
+        String shardCacheKey = getShardCacheKey(shardNumber);
+        Result notModified = checkNotModified(context, shardCacheKey, gzipFile);
+        if (notModified != null) {
+            return notModified;
+        }
+
+        // attempt a cache lookup first.
+        Result cached = renderCachedDocument(context, shardCacheKey, gzipFile);
+        if (cached != null) {
+            return cached;
+        }
+
+        SitemapDocument shard;
+        try {
+            List<SitemapShard> shardPlan = getCachedShardPlan();
+            if (shardPlan == null) {
+                // nothing known about the current sitemap. serve the
+                // previous sitemap if another request is already
+                // re-creating it, or re-create everything.
+                SitemapBuild build = getStaleBuild();
+                if (build == null) {
+                    build = getSnapshotBuild();
+                }
+                if (build == null) {
+                    build = rebuildSitemap(getSiteUrlPrefix(context), true);
+                }
+                if (build == null) {
+                    // another node is re-creating the sitemap. serve the previous
+                    // sitemap, or wait for the new one.
+                    build = getPreviousBuild();
                 }
+                if (build == null) {
+                    Result published = awaitPublishedDocument(context, shardCacheKey, gzipFile);
+                    if (published != null) {
+                        return published;
+                    }
+                    build = rebuildSitemap(getSiteUrlPrefix(context), false);
+                }
+                List<SitemapDocument> shards = build.getShards();
+                if (shardNumber > shards.size()) {
+                    return Results.notFound();
+                }
+                shard = shards.get(shardNumber - 1);
+
             } else {
-                LOG.info("Not pinging search engines in non-production mode.");
+                // re-create only the requested shard
+                if (shardNumber > shardPlan.size()) {
+                    return Results.notFound();
+                }
+                SitemapShard plannedShard = shardPlan.get(shardNumber - 1);
+                if (plannedShard.isReproducible()) {
+                    shard = rebuildShard(context, plannedShard);
+                } else {
+                    // changed by incremental updates. only the complete
+                    // sitemap in memory has the current entries.
+                    shard = getUpdatedShard(context, shardNumber);
+                    if (shard == null) {
+                        return Results.notFound();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to create sitemap shard " + shardNumber + ".", e);
+            return Results.internalServerError();
+        }
+
+        return renderDocument(context, shard, gzipFile);
+    }
+
+    private Result renderRouteSitemapIndex(Context context, boolean gzipFile) {
+        // answer conditional requests without fetching the document itself
+        Result notModified = checkNotModified(context, ROUTE_SITEMAP_INDEX_CACHE_KEY, gzipFile);
+        if (notModified != null) {
+            return notModified;
+        }
+
+        Result cached = renderCachedDocument(context, ROUTE_SITEMAP_INDEX_CACHE_KEY, gzipFile);
+        if (cached != null) {
+            return cached;
+        }
+
+        // list all pages of every route sitemap known from route sitemaps
+        // created before (or estimated from the number of entries)
+        SitemapDocument index;
+        try {
+            List<String> sitemapPaths = new ArrayList<String>();
+            List<Date> lastModified = new ArrayList<Date>();
+            for (int routeSitemapId : sitemapBuilder.getRouteSitemapIds()) {
+                Date[] pages = getRouteSitemapPages(routeSitemapId);
+                if (pages == null) {
+                    // not created yet. list as many pages as estimated.
+                    int pageCount = Math.max(1, sitemapBuilder.getRouteSitemapPageCount(routeSitemapId));
+                    for (int page = 1; page <= pageCount; page++) {
+                        sitemapPaths.add(sitemapRoutes.getRouteSitemapPath(routeSitemapId, page));
+                        lastModified.add(null);
+                    }
+                    continue;
+                }
+                for (int page = 1; page <= pages.length; page++) {
+                    sitemapPaths.add(sitemapRoutes.getRouteSitemapPath(routeSitemapId, page));
+                    lastModified.add(pages[page - 1]);
+                }
             }
+            index = sitemapBuilder.createIndex(getSiteUrlPrefix(context), sitemapPaths, lastModified);
+        } catch (IOException e) {
+            LOG.error("Failed to create sitemap index.", e);
+            return Results.internalServerError();
+        }
+
+        cacheDocument(ROUTE_SITEMAP_INDEX_CACHE_KEY, index, null);
+        return renderDocument(context, index, gzipFile);
+    }
+
+    private Result renderRouteSitemap(Context context, boolean gzipFile) {
+        Integer routeSitemapId = context.getPathParameterAsInteger(NinjaSitemapRoutes.ROUTE_PATH_PARAMETER);
+        Integer page = context.getPathParameterAsInteger(NinjaSitemapRoutes.PAGE_PATH_PARAMETER);
+        if ((routeSitemapId == null) || (routeSitemapId < 0) || (page == null) || (page < 1)) {
+            return Results.notFound();
+        }
 
+        // answer conditional requests without fetching the document itself
+        String cacheKey = getRouteSitemapCacheKey(routeSitemapId, page);
+        Result notModified = checkNotModified(context, cacheKey, gzipFile);
+        if (notModified != null) {
+            return notModified;
         }
 
-        // return the sitemap.xml data as a string
-        return sitemapString;
+        Result cached = renderCachedDocument(context, cacheKey, gzipFile);
+        if (cached != null) {
+            return cached;
+        }
+
+        Date[] knownPages = getRouteSitemapPages(routeSitemapId);
+        if ((knownPages != null) && (page > knownPages.length)
+                && (documentCache.getValidators(getRouteSitemapCacheKey(routeSitemapId, 1)) != null)) {
+            // the current route sitemap does not have this many pages
+            return Results.notFound();
+        }
+
+        List<SitemapDocument> pages;
+        try {
+            pages = rebuildRouteSitemap(context, routeSitemapId);
+        } catch (IOException e) {
+            LOG.error("Failed to create route sitemap " + routeSitemapId + ".", e);
+            return Results.internalServerError();
+        }
+        if ((pages == null) || (page > pages.size())) {
+            return Results.notFound();
+        }
+        return renderDocument(context, pages.get(page - 1), gzipFile);
     }
 
     /**
-     * Creates a set of zero or more {@link WebPage} objects to include in the
-     * sitemap, based on the given annotation and route
+     * Render the given document. The pre-compressed data is used if a
+     * compressed file has been requested, or if the client accepts gzip
+     * content encoding. No compression happens per request. Conditional
+     * requests for an unchanged document are answered with 304 (Not
+     * Modified).
      * 
-     * @param sitemap
-     *            the {@link Sitemap} annotation of the route's controller
-     *            method
-     * @param route
-     *            the {@link Route}
-     * @return a {@link Collection} of WebPages for the sitemap
+     * @param context
+     *            the request context
+     * @param document
+     *            the {@link SitemapDocument} to render
+     * @param gzipFile
+     *            true, if the compressed file (e.g. /sitemap.xml.gz) has been
+     *            requested
+     * @return the {@link Result}
      */
-    private Collection<WebPage> createSitemapPages(Sitemap sitemap, Route route) {
-        Collection<WebPage> pages = new ArrayList<WebPage>();
+    private Result renderDocument(Context context, SitemapDocument document, boolean gzipFile) {
+        SitemapValidators validators = document.getValidators();
+        if (isNotModified(context, validators, gzipFile)) {
+            return notModified(context, validators, gzipFile);
+        }
+
+        boolean gzip = gzipFile || acceptsGzip(context);
+        Result result;
+        if (gzipFile) {
+            result = Results.ok().contentType(CONTENT_TYPE_GZIP);
+        } else {
+            result = Results.ok().xml().addHeader("Vary", "Accept-Encoding");
+            if (gzip) {
+                result.addHeader("Content-Encoding", "gzip");
+            }
+        }
+        addValidators(result, validators, gzip);
 
-        // allow for multiple pages if there is at least one @PathParam
-        // annotation in the controller method's arguments.
-        boolean dynamicRoute = route.getUri().matches(DYNAMIC_ROUTE_PATTERN);
+        if (document.isBuffered()) {
+            // memory mapped, or still in its writer's buffer. do not copy it.
+            return result.render(
+                    new SitemapBufferRenderable(gzip ? document.getGzipBuffer() : document.getXmlBuffer()));
+        }
+        return result.renderRaw(gzip ? document.getGzip() : document.getXml());
+    }
+
+    /**
+     * Render the document cached under the given key (if any). If this node
+     * has created the cached document, and serving from files is enabled, it
+     * is served from its local {@link SitemapFile} instead.
+     * 
+     * @param context
+     *            the request context
+     * @param cacheKey
+     *            the cache key of the document
+     * @param gzipFile
+     *            true, if the compressed file has been requested
+     * @return the {@link Result}, or null if the document is not in the cache
+     */
+    private Result renderCachedDocument(Context context, String cacheKey, boolean gzipFile) {
+        Result result = renderLocalFile(context, cacheKey, gzipFile);
+        if (result == null) {
+            SitemapDocument cached = documentCache.getDocument(cacheKey);
+            if (cached != null) {
+                result = renderDocument(context, cached, gzipFile);
+            }
+        }
+        metrics.incrementCounter((result == null) ? "cache.miss" : "cache.hit");
+        return result;
+    }
 
-        // check if we have a SitemapMultiPageProvider registered for this route
-        String smppClassName = sitemap.multiPageProvider();
+    /**
+     * Render the local file of the document cached under the given key, if it
+     * has been created on this node, and is still the cached one (i.e. no
+     * other node has re-created it since).
+     * 
+     * @return the {@link Result}, or null if there is no such file (or it
+     *         could not be opened)
+     */
+    private Result renderLocalFile(Context context, String cacheKey, boolean gzipFile) {
+        SitemapFile file = localFiles.get(cacheKey);
+        if (file == null) {
+            return null;
+        }
+        SitemapValidators cached = documentCache.getValidators(cacheKey);
+        if ((cached == null) || !cached.getEtag(false).equals(file.getValidators().getEtag(false))) {
+            localFiles.remove(cacheKey, file);
+            return null;
+        }
+        return renderFile(context, file, gzipFile);
+    }
 
-        if (!Sitemap.NO_MULTIPAGE_PROVIDER.equals(smppClassName)) {
-            addSitemapPagesFromMPP(route, sitemap, smppClassName, dynamicRoute, pages);
+    /**
+     * Render a document from its file, like
+     * {@link #renderDocument(Context, SitemapDocument, boolean)}.
+     * 
+     * @return the {@link Result}, or null if the file could not be opened
+     */
+    private Result renderFile(Context context, SitemapFile file, boolean gzipFile) {
+        SitemapValidators validators = file.getValidators();
+        if (isNotModified(context, validators, gzipFile)) {
+            return notModified(context, validators, gzipFile);
+        }
 
-        } else if (!dynamicRoute) {
-            addSitemapPageStatic(route, sitemap, pages);
+        boolean gzip = gzipFile || acceptsGzip(context);
+        FileChannel channel;
+        try {
+            channel = snapshotStore.openFile(file, gzip);
+        } catch (IOException e) {
+            LOG.debug("Could not open sitemap file {}. Re-creating the sitemap.", file.getFileName(gzip));
+            return null;
+        }
+        if (channel == null) {
+            return null;
+        }
 
+        Result result;
+        if (gzipFile) {
+            result = Results.ok().contentType(CONTENT_TYPE_GZIP);
         } else {
-            // no SitemapMultiPageProvider given, but a dynamic route. warn
-            // about this.
-            LOG.warn(
-                    "Dynamic Route {} in controller {}::{} does not provide a {} implementation. Not including in sitemap.",
-                    route.getUri(), route.getControllerClass().getName(), route.getControllerMethod().getName(),
-                    SitemapMultiPageProvider.class.getSimpleName());
+            result = Results.ok().xml().addHeader("Vary", "Accept-Encoding");
+            if (gzip) {
+                result.addHeader("Content-Encoding", "gzip");
+            }
+        }
+        return addValidators(result, validators, gzip).render(new SitemapFileRenderable(channel, file.getLength(gzip)));
+    }
+
+    /**
+     * Check if a conditional request refers to an unchanged cached document.
+     * Only the (small) {@link SitemapValidators} are read from the cache, not
+     * the document itself.
+     * 
+     * @param context
+     *            the request context
+     * @param cacheKey
+     *            the cache key of the document
+     * @param gzipFile
+     *            true, if the compressed file has been requested
+     * @return the 304 (Not Modified) {@link Result}, or null if the request is
+     *         not conditional, or the document has changed
+     */
+    private Result checkNotModified(Context context, String cacheKey, boolean gzipFile) {
+        if ((context.getHeader(HttpHeaderConstants.IF_NONE_MATCH) == null)
+                && (context.getHeader(HttpHeaderConstants.IF_MODIFIED_SINCE) == null)) {
+            return null;
+        }
+        SitemapValidators validators = documentCache.getValidators(cacheKey);
+        if (validators == null) {
+            return null;
+        }
+        return isNotModified(context, validators, gzipFile) ? notModified(context, validators, gzipFile) : null;
+    }
+
+    /**
+     * @param context
+     *            the request context
+     * @param validators
+     *            the {@link SitemapValidators} of the current document
+     * @param gzipFile
+     *            true, if the compressed file has been requested
+     * @return true, if the request's If-None-Match or If-Modified-Since header
+     *         matches the current document
+     */
+    private static boolean isNotModified(Context context, SitemapValidators validators, boolean gzipFile) {
+        String ifNoneMatch = context.getHeader(HttpHeaderConstants.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-Modified-Since is ignored if If-None-Match is present
+            String etag = validators.getEtag(gzipFile || acceptsGzip(context));
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    // weak comparison
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || etag.equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        LOG.debug("Using {} {} in sitemap.xml for route {}.", pages.size(), (pages.size() == 1 ? "entry" : "entries"),
-                route.getUri());
+        String ifModifiedSince = context.getHeader(HttpHeaderConstants.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            try {
+                Date since = DateUtil.parseHttpDateFormat(ifModifiedSince);
+                // HTTP dates have a resolution of one second
+                return validators.getLastModified() / 1000 <= since.getTime() / 1000;
+            } catch (IllegalArgumentException e) {
+                LOG.debug("Ignoring invalid If-Modified-Since header '{}'.", ifModifiedSince);
+            }
+        }
+        return false;
+    }
+
+    private Result notModified(Context context, SitemapValidators validators, boolean gzipFile) {
+        metrics.incrementCounter("notModified");
+        Result result = Results.status(Result.SC_304_NOT_MODIFIED);
+        if (!gzipFile) {
+            result.addHeader("Vary", "Accept-Encoding");
+        }
+        return addValidators(result, validators, gzipFile || acceptsGzip(context)).render(new NoHttpBody());
+    }
+
+    /**
+     * @return the 503 (Service Unavailable) {@link Result}, while there is no
+     *         sitemap created in the background yet
+     */
+    private static Result serviceUnavailable() {
+        return Results.status(SC_503_SERVICE_UNAVAILABLE).addHeader("Retry-After",
+                String.valueOf(RETRY_AFTER_SECONDS));
+    }
+
+    private static Result addValidators(Result result, SitemapValidators validators, boolean gzip) {
+        return result.addHeader(HttpHeaderConstants.ETAG, validators.getEtag(gzip))
+                .addHeader(HttpHeaderConstants.LAST_MODIFIED, DateUtil.formatForHttpHeader(validators.getLastModified()));
+    }
+
+    /**
+     * @param context
+     *            the request context
+     * @return true, if the client accepts the 'gzip' content encoding
+     */
+    private static boolean acceptsGzip(Context context) {
+        String acceptEncoding = context.getAcceptEncoding();
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim()) || "*".equals(parts[0].trim())) {
+                // explicitly disallowed with q=0?
+                return !((parts.length > 1) && parts[1].trim().matches("q=0(\\.0*)?"));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-create the complete sitemap, unless another request is already doing
+     * so. In that case, wait for the result of the other request.
+     * 
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @param acquireLease
+     *            true, if the sitemap should only be re-created if the
+     *            {@link SitemapBuildLease} can be acquired. If false, the
+     *            lease is either held already, or ignored.
+     * @return the {@link SitemapBuild}, or null if another node holds the
+     *         lease
+     * @throws IOException
+     *             if the sitemap could not be written
+     */
+    private SitemapBuild rebuildSitemap(final String siteUrlPrefix, final boolean acquireLease) throws IOException {
+        final boolean[] executed = new boolean[1];
+        SitemapBuild build = sitemapRebuilds.execute(SITEMAP_CACHE_KEY, new Callable<SitemapBuild>() {
+            public SitemapBuild call() throws IOException {
+                executed[0] = true;
+                String lease = null;
+                if (acquireLease) {
+                    lease = buildLease.tryAcquire();
+                    if (lease == null) {
+                        return null;
+                    }
+                }
+                try {
+                    return createSitemap(siteUrlPrefix);
+                } finally {
+                    buildLease.release(lease);
+                }
+            }
+        });
+        if (!executed[0]) {
+            metrics.incrementCounter("cache.stampede");
+        }
+        return build;
+    }
+
+    /**
+     * Re-create (and cache) a single shard, unless another request is already
+     * doing so. In that case, wait for the result of the other request.
+     * 
+     * @param context
+     *            the request context
+     * @param shard
+     *            the {@link SitemapShard} to re-create
+     * @return the {@link SitemapDocument} of the shard
+     * @throws IOException
+     *             if the shard could not be written
+     */
+    private SitemapDocument rebuildShard(final Context context, final SitemapShard shard) throws IOException {
+        final boolean[] executed = new boolean[1];
+        SitemapDocument document = shardRebuilds.execute(shard.getNumber(), new Callable<SitemapDocument>() {
+            public SitemapDocument call() throws IOException {
+                executed[0] = true;
+                SitemapDocument document = sitemapBuilder.buildShard(getSiteUrlPrefix(context), shard);
+                cacheDocument(getShardCacheKey(shard.getNumber()), document, null);
+                return document;
+            }
+        });
+        if (!executed[0]) {
+            metrics.incrementCounter("cache.stampede");
+        }
+        return document;
+    }
+
+    /**
+     * Create (and cache) all pages of a route sitemap, unless another request
+     * is already doing so. In that case, wait for the result of the other
+     * request. The sitemap index is dropped from the cache, so that it lists
+     * the new pages (and their creation date) from now on.
+     * 
+     * @param context
+     *            the request context
+     * @param routeSitemapId
+     *            the identifier of the route sitemap
+     * @return the {@link SitemapDocument}s of all pages of the route sitemap,
+     *         or null if there is no such route sitemap
+     * @throws IOException
+     *             if the route sitemap could not be written
+     */
+    private List<SitemapDocument> rebuildRouteSitemap(final Context context, final int routeSitemapId)
+            throws IOException {
+        final boolean[] executed = new boolean[1];
+        List<SitemapDocument> pages = routeSitemapRebuilds.execute(routeSitemapId,
+                new Callable<List<SitemapDocument>>() {
+                    public List<SitemapDocument> call() throws IOException {
+                        executed[0] = true;
+                        List<SitemapDocument> pages = sitemapBuilder.buildRouteSitemap(getSiteUrlPrefix(context),
+                                routeSitemapId);
+                        if (pages == null) {
+                            return null;
+                        }
+                        Date created = new Date();
+                        Date[] pageCreated = new Date[pages.size()];
+                        for (int page = 1; page <= pages.size(); page++) {
+                            cacheDocument(getRouteSitemapCacheKey(routeSitemapId, page), pages.get(page - 1), null);
+                            pageCreated[page - 1] = created;
+                        }
+                        cache.safeSet(getRouteSitemapCacheKey(routeSitemapId, 0), pageCreated,
+                                ROUTE_SITEMAP_PAGES_EXPIRES);
+                        cache.safeDelete(ROUTE_SITEMAP_INDEX_CACHE_KEY
+                                + SitemapDocumentCache.VALIDATORS_CACHE_KEY_SUFFIX);
+                        cache.safeDelete(ROUTE_SITEMAP_INDEX_CACHE_KEY);
+                        return pages;
+                    }
+                });
+        if (!executed[0]) {
+            metrics.incrementCounter("cache.stampede");
+        }
         return pages;
     }
 
     /**
-     * Add a single entry to the collection of sitemap entries.
+     * @param routeSitemapId
+     *            the identifier of the route sitemap
+     * @return the creation date of every page of the route sitemap (the
+     *         length of the array is the number of pages), or null if the
+     *         route sitemap has not been created yet
+     */
+    private Date[] getRouteSitemapPages(int routeSitemapId) {
+        Object cached = cache.get(getRouteSitemapCacheKey(routeSitemapId, 0));
+        return (cached instanceof Date[]) ? (Date[]) cached : null;
+    }
+
+    /**
+     * Get a shard which has been changed by incremental updates from the
+     * current sitemap in memory (and cache it again). If there is none (e.g.
+     * after a restart), the complete sitemap is re-created.
      * 
-     * @param route
-     *            the route for which to generate the sitemap entry
-     * @param sitemap
-     *            the {@link Sitemap} annotation for the route
-     * @param pages
-     *            the (existing, non-null) collection of all sitemap entries
-     */
-    private void addSitemapPageStatic(Route route, Sitemap sitemap, Collection<WebPage> pages) {
-        // no SitemapMultiPageProvider given, and not a dynamic route.
-        // standard case.
-        WebPage wp = new WebPage();
-        if (!Sitemap.NO_PATH.equals(sitemap.path())) {
-            // a path (name) was explicitly given
-            wp.setName(sitemap.path().replaceFirst("^/", ""));
-        } else {
-            // set the path from the router
-            wp.setName(route.getUri().replaceFirst("^/", ""));
+     * @param context
+     *            the request context
+     * @param shardNumber
+     *            the (1-based) number of the shard
+     * @return the {@link SitemapDocument} of the shard, or null if there is no
+     *         such shard
+     * @throws IOException
+     *             if the sitemap could not be written
+     */
+    private SitemapDocument getUpdatedShard(Context context, int shardNumber) throws IOException {
+        SitemapBuild build = lastBuild;
+        if ((build == null) || (shardNumber > build.getShards().size())) {
+            // the incremental updates are only known to this node
+            build = rebuildSitemap(getSiteUrlPrefix(context), false);
+            return (shardNumber > build.getShards().size()) ? null : build.getShards().get(shardNumber - 1);
         }
-        wp.setLastMod(sitemapDetailsProvider.getLastModifiedDateForRoute(route, sitemap));
+        SitemapDocument document = build.getShards().get(shardNumber - 1);
+        cacheDocument(getShardCacheKey(shardNumber), document, null);
+        return document;
+    }
 
-        if (sitemap.priority() == Sitemap.PRIORITY_DYNAMIC) {
-            wp.setPriority(sitemapDetailsProvider.getPriorityForRoute(route, sitemap));
-        } else {
-            wp.setPriority(sitemap.priority());
+    /**
+     * Cache the shards of an incrementally updated sitemap which have changed.
+     */
+    public void sitemapUpdated(SitemapBuild build, Set<Integer> updatedShards) {
+        List<SitemapFile> files = snapshotStore.save(build, sitemapBuilder.getConfiguredSiteUrlPrefix());
+        build = mapFiles(build, files);
+        lastBuild = build;
+        setCurrentBuild(build);
+        for (int shardNumber : updatedShards) {
+            cacheDocument(getShardCacheKey(shardNumber), build.getShards().get(shardNumber - 1),
+                    (files == null) ? null : files.get(shardNumber - 1));
         }
+        cache.safeSet(SitemapDocumentCache.SHARD_PLAN_CACHE_KEY, new ArrayList<SitemapShard>(build.getShardPlan()),
+                getDocumentCacheExpires());
+        cacheDocument(SITEMAP_CACHE_KEY, build.getMainDocument(), (files == null) ? null : files.get(files.size() - 1));
+        markFresh(build);
+    }
 
-        if (sitemap.changeFrequency() == Sitemap.CHANGE_FREQUENCY_DYNAMIC) {
-            wp.setChangeFreq(
-                    changeFrequencyFromInteger(sitemapDetailsProvider.getChangeFrequencyForRoute(route, sitemap)));
-        } else {
-            wp.setChangeFreq(changeFrequencyFromInteger(sitemap.changeFrequency()));
+    /**
+     * Serve the snapshot of the sitemap stored before the application has
+     * been started (if any), while the sitemap is re-created on a separate
+     * thread. Snapshots are only available if the URL prefix is configured.
+     * 
+     * @return the snapshot (or the previous sitemap, while it is being
+     *         re-created), or null if there is none
+     */
+    private synchronized SitemapBuild getSnapshotBuild() {
+        if (refreshingSnapshot) {
+            return lastBuild;
+        }
+        SitemapBuild snapshot = snapshotStore.takeSnapshot();
+        if (snapshot == null) {
+            return null;
+        }
+
+        lastBuild = snapshot;
+        cacheBuild(snapshot, snapshotStore.getFiles());
+        refreshingSnapshot = true;
+        boolean started = startRefresh(new Runnable() {
+            public void run() {
+                try {
+                    // snapshots require a configured prefix. if another node
+                    // is re-creating the sitemap, it will be published in the
+                    // cache.
+                    rebuildSitemap(sitemapBuilder.getConfiguredSiteUrlPrefix(), true);
+                } catch (Exception e) {
+                    LOG.error("Failed to re-create sitemap. Continuing to serve the snapshot.", e);
+                } finally {
+                    synchronized (NinjaSitemapController.this) {
+                        refreshingSnapshot = false;
+                    }
+                }
+            }
+        });
+        if (!started) {
+            // another refresh is running already
+            refreshingSnapshot = false;
         }
+        LOG.info("Serving sitemap snapshot created {} while the sitemap is re-created.", snapshot.getCreated());
+        return snapshot;
+    }
 
-        // add to the list of pages for this route
-        pages.add(wp);
+    /**
+     * @return the previously created sitemap, if the sitemap is currently
+     *         being re-created by another request; otherwise null
+     */
+    private SitemapBuild getStaleBuild() {
+        SitemapBuild build = lastBuild;
+        if ((build != null) && sitemapRebuilds.isInFlight(SITEMAP_CACHE_KEY)) {
+            staleResponseCount.incrementAndGet();
+            metrics.incrementCounter("cache.stampede");
+            return build;
+        }
+        return null;
     }
 
     /**
-     * Add multiple entries to the collection of sitemap.xml entries, based on a
-     * user-provided {@link SitemapMultiPageProvider} implementation.
+     * @return the previously created sitemap (while another node is
+     *         re-creating it), or null if there is none
+     */
+    private SitemapBuild getPreviousBuild() {
+        SitemapBuild build = lastBuild;
+        if (build != null) {
+            staleResponseCount.incrementAndGet();
+            metrics.incrementCounter("cache.stampede");
+        }
+        return build;
+    }
+
+    /**
+     * With the cluster lease, re-create the sitemap on a separate thread if
+     * the cached sitemap is stale and no other node is already re-creating
+     * it. Stale documents remain cached for the lease time (see
+     * {@link #getDocumentCacheExpires()}), and are served meanwhile. This is
+     * checked at most once per second.
      * 
-     * @param route
-     *            the route for which to generate the sitemap entries
-     * @param sitemap
-     *            the {@link Sitemap} annotation
-     * @param pages
-     *            the (existing, non-null) collection of all sitemap entries to
-     *            which entries should be added
-     */
-    @SuppressWarnings("unchecked")
-    private void addSitemapPagesFromMPP(Route route, Sitemap sitemap, String smppClassName, boolean dynamicRoute,
-            Collection<WebPage> pages) {
-        try {
-            Class<? extends SitemapMultiPageProvider> smppClass = (Class<? extends SitemapMultiPageProvider>) Class
-                    .forName(smppClassName);
-
-            SitemapMultiPageProvider smpp = sitemap.useInjector() ? injector.getInstance(smppClass)
-                    : smppClass.newInstance();
-
-            if (!dynamicRoute && ninjaProperties.getBooleanWithDefault(KEY_SHOW_MPP_WARNINGS, true)) {
-                // using a MultiPageProvider for a non-dynamic route is
-                // usually strange. warn about it.
-                LOG.warn(
-                        "Using {} to create sitemap entries for non-dynamic route {} to {}::{}. Is this really intended?",
-                        smppClassName, route.getUri(), route.getControllerClass().getName(),
-                        route.getControllerMethod().getName());
+     * @param context
+     *            the request context
+     */
+    private void refreshIfStale(Context context) {
+        long now = System.currentTimeMillis();
+        if ((now < nextFreshnessCheck) || !buildLease.isEnabled()) {
+            return;
+        }
+        nextFreshnessCheck = now + FRESHNESS_CHECK_INTERVAL;
+
+        // only look up the (small) validators, not the document itself
+        if ((cache.get(FRESH_CACHE_KEY) != null)
+                || (documentCache.getValidators(SITEMAP_CACHE_KEY) == null)) {
+            // fresh, or not cached at all (then re-created on demand)
+            return;
+        }
+        if (sitemapRebuilds.isInFlight(SITEMAP_CACHE_KEY)) {
+            return;
+        }
+        final String lease = buildLease.tryAcquire();
+        if (lease == null) {
+            return;
+        }
+
+        final String siteUrlPrefix = getSiteUrlPrefix(context);
+        boolean started = startRefresh(new Runnable() {
+            public void run() {
+                try {
+                    // the lease is held already
+                    rebuildSitemap(siteUrlPrefix, false);
+                } catch (Exception e) {
+                    LOG.error("Failed to re-create sitemap. Continuing to serve the stale sitemap.", e);
+                } finally {
+                    buildLease.release(lease);
+                }
             }
+        });
+        if (!started) {
+            // another refresh is running already
+            buildLease.release(lease);
+            return;
+        }
+        LOG.info("Cached sitemap is stale. Re-creating the sitemap while it is served.");
+    }
 
-            try {
-                List<SitemapEntry> entries = smpp.getSitemapEntries(route, sitemap);
-                
-                if ((entries == null) || entries.isEmpty()) {
-                    LOG.warn("{} did not return any sitemap entries for route {} to {}::{}.", smppClassName,
-                            route.getUri(), route.getControllerClass().getName(),
-                            route.getControllerMethod().getName());
-                } else {
-                    
-                    for (SitemapEntry se : entries) {
-                        WebPage wp = new WebPage();
-                        wp.setName(se.getPagePath().replaceFirst("^/", ""));
-                        wp.setShortName(se.getShortName());
-                        wp.setShortDescription(se.getShortDescription());
-                        wp.setLastMod(se.getLastModified());
-                        wp.setPriority(se.getPriority());
-                        wp.setChangeFreq(changeFrequencyFromInteger(se.getChangeFrequency()));
-
-                        // add to the list of pages for this route
-                        pages.add(wp);
+    /**
+     * Run a refresh of the sitemap on the (single) refresh thread.
+     * 
+     * @param refresh
+     *            the refresh to run
+     * @return true, if the refresh has been started; false, if another
+     *         refresh is still running (or the controller has been stopped)
+     */
+    private boolean startRefresh(Runnable refresh) {
+        try {
+            refreshExecutor.execute(refresh);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stop the refresh thread.
+     */
+    @Dispose(order = 90)
+    public void stop() {
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Wait for the node holding the {@link SitemapBuildLease} to publish the
+     * re-created sitemap in the cache.
+     * 
+     * @param context
+     *            the request context
+     * @param cacheKey
+     *            the cache key of the requested document
+     * @param gzipFile
+     *            true, if the compressed file has been requested
+     * @return the {@link Result}, or null if the lease has been released (or
+     *         has expired) without the document being published
+     * @throws IOException
+     *             if interrupted while waiting
+     */
+    private Result awaitPublishedDocument(Context context, String cacheKey, boolean gzipFile) throws IOException {
+        metrics.incrementCounter("lease.wait");
+        try {
+            while (true) {
+                // poll the (small) validators, which are cached together with
+                // the document
+                if (documentCache.getValidators(cacheKey) != null) {
+                    Result result = renderCachedDocument(context, cacheKey, gzipFile);
+                    if (result != null) {
+                        return result;
                     }
                 }
-                
-            } catch (NullPointerException npe) {
-                if (sitemap.useInjector()) {
-                    // using injector - show an error message pointing to a
-                    // likely cause of the problem.
-                    LOG.error(
-                            "NullPointerException in {} when using 'useInjector'. Perhaps you forgot to bind() your class in ninja.Module?",
-                            smppClass.getName());
+                if (!buildLease.isHeldElsewhere()) {
+                    LOG.warn("Sitemap has not been published by the node holding the lease. Re-creating it.");
+                    return null;
                 }
-                throw npe;
+                Thread.sleep(PUBLISH_POLL_INTERVAL);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the sitemap.");
+        }
+    }
+
+    /**
+     * @return the number of requests which have waited for a sitemap (or
+     *         shard) re-created by another request, instead of re-creating it
+     *         themselves
+     */
+    public long getCoalescedRebuildCount() {
+        return sitemapRebuilds.getCoalescedCount() + shardRebuilds.getCoalescedCount()
+                + routeSitemapRebuilds.getCoalescedCount();
+    }
+
+    /**
+     * @return the number of requests which have been served the previous
+     *         sitemap while it was being re-created by another request
+     */
+    public long getStaleResponseCount() {
+        return staleResponseCount.get();
+    }
 
-        } catch (ClassNotFoundException e) {
-            LOG.error("Could not find class " + smppClassName + " as specified for "
-                    + route.getControllerClass().getName() + "." + route.getControllerMethod().getName()
-                    + ". Not including in sitemap.", e);
-        } catch (InstantiationException e) {
-            LOG.error("Could not instantiate class " + smppClassName + " as specified for "
-                    + route.getControllerClass().getName() + "." + route.getControllerMethod().getName()
-                    + ". Not including in sitemap.", e);
-        } catch (IllegalAccessException e) {
-            LOG.error("Illegal access to constructor of class " + smppClassName + " as specified for "
-                    + route.getControllerClass().getName() + "." + route.getControllerMethod().getName()
-                    + ". Not including in sitemap.", e);
+    /**
+     * @return the number of (complete, single shard, or route) sitemap
+     *         re-creations triggered by requests
+     */
+    public long getRebuildCount() {
+        return sitemapRebuilds.getExecutionCount() + shardRebuilds.getExecutionCount()
+                + routeSitemapRebuilds.getExecutionCount();
+    }
+
+    /**
+     * Create the sitemap from scratch, and cache the sitemap (or sitemap
+     * index), each individual shard, and the shard plan.
+     * 
+     * @param siteUrlPrefix
+     *            the prefix to prepend to all URLs in the sitemap
+     * @return the {@link SitemapBuild}
+     * @throws IOException
+     *             if the sitemap could not be written
+     */
+    private SitemapBuild createSitemap(String siteUrlPrefix) throws IOException {
+        SitemapBuild build = sitemapBuilder.build(siteUrlPrefix, lastBuild);
+
+        // store and cache the newly created sitemap
+        List<SitemapFile> files = snapshotStore.save(build, siteUrlPrefix);
+        build = mapFiles(build, files);
+        lastBuild = build;
+        setCurrentBuild(build);
+        sitemapUpdateService.setBuild(build, this);
+        if (cacheBuild(build, files)) {
+            markFresh(build);
+            LOG.info("Sitemap has been updated and cached. Will be recreated in {}.", getSitemapCacheExpires());
+        } else {
+            // perhaps this is the first time cache
+            LOG.warn("Sitemap has been updated and will be delivered, but could not be cached.");
         }
+
+        // inform search engines about the updated sitemap
+        searchEnginePinger.pingSearchEngines(siteUrlPrefix);
+
+        // return the newly created sitemap
+        return build;
     }
 
     /**
-     * Convert one of the change frequency integer constants from the
-     * {@link Sitemap} annotation into the {@link ChangeFreq} enumeration format
-     * used by the sitemap library.
+     * Cache the sitemap (or sitemap index), each individual shard, and the
+     * shard plan of the given sitemap.
      * 
-     * @param changeFrequency
-     * @return
-     */
-    private ChangeFreq changeFrequencyFromInteger(int changeFrequencyConstant) {
-        switch (changeFrequencyConstant) {
-        case Sitemap.NEVER:
-            return ChangeFreq.NEVER;
-        case Sitemap.HOURLY:
-            return ChangeFreq.HOURLY;
-        case Sitemap.DAILY:
-            return ChangeFreq.DAILY;
-        case Sitemap.WEEKLY:
-            return ChangeFreq.WEEKLY;
-        case Sitemap.MONTHLY:
-            return ChangeFreq.MONTHLY;
-        case Sitemap.YEARLY:
-            return ChangeFreq.YEARLY;
-        case Sitemap.ALWAYS:
-            return ChangeFreq.ALWAYS;
-        default:
-            LOG.warn("Invalid change frequency value {}. Using 'DAILY'.", changeFrequencyConstant);
-            return ChangeFreq.DAILY;
-        }
-    }
-
-    /**
-     * Tests if the given {@link Route} should result in any pages for the
-     * sitemap.
+     * @param build
+     *            the {@link SitemapBuild}
+     * @param files
+     *            the {@link SitemapFile}s of the sitemap as returned by
+     *            {@link SitemapSnapshotStore#save}, or null
+     * @return true, if the sitemap (or sitemap index) has been cached
+     */
+    private boolean cacheBuild(SitemapBuild build, List<SitemapFile> files) {
+        List<SitemapDocument> shards = build.getShards();
+        for (int i = 0; i < shards.size(); i++) {
+            cacheDocument(getShardCacheKey(i + 1), shards.get(i), (files == null) ? null : files.get(i));
+        }
+        cache.safeSet(SitemapDocumentCache.SHARD_PLAN_CACHE_KEY, new ArrayList<SitemapShard>(build.getShardPlan()),
+                getDocumentCacheExpires());
+        return cacheDocument(SITEMAP_CACHE_KEY, build.getMainDocument(),
+                (files == null) ? null : files.get(files.size() - 1));
+    }
+
+    /**
+     * Determine the prefix to prepend to all URLs in the sitemap, either from
+     * application.conf, or from the current request.
      * 
-     * @param sitemap
-     *            the {@link Sitemap} annotation of the {@link Route}'s
-     *            controller method.
-     * @param route
-     *            the {@link Route} itself
-     * @return true, if the route should result in sitemap pages, otherwise
-     *         false
-     */
-    private boolean includeInSitemap(Sitemap sitemap, Route route) {
-        if (sitemap == null) {
-            LOG.debug("No @Sitemap annotation for controller {}::{}. Not including in sitemap.xml.",
-                    route.getControllerClass().getName(), route.getControllerMethod().getName());
-            return false;
+     * @param context
+     *            the request context
+     * @return the URL prefix, without a trailing slash
+     */
+    private String getSiteUrlPrefix(Context context) {
+        String siteUrlPrefix = sitemapBuilder.getConfiguredSiteUrlPrefix();
+        if (siteUrlPrefix == null) {
+            siteUrlPrefix = "http://" + context.getHostname();
+            LOG.warn(
+                    "No {} configured in application conf. Using default prefix '{}'. You should configure this property in application.conf.",
+                    SitemapBuilder.KEY_SITEMAP_PREFIX, siteUrlPrefix);
+        }
 
-        } else {
+        return siteUrlPrefix;
+    }
 
-            // TODO implement additional filtering of routes for sitemap
-            // generation based on annotation
+    /**
+     * @return the sitemap created on this node, or null if it has expired (or
+     *         serving from memory is disabled)
+     */
+    private SitemapBuild getCurrentBuild() {
+        CurrentSitemap current = currentSitemap;
+        if ((current == null) || !current.isValid(System.currentTimeMillis())) {
+            return null;
+        }
+        metrics.incrementCounter("memory.hit");
+        return current.getBuild();
+    }
 
-            return true;
+    /**
+     * Make a newly created (or updated) sitemap the one served from memory,
+     * until it expires like its cached documents.
+     * 
+     * @param build
+     *            the {@link SitemapBuild}
+     */
+    private void setCurrentBuild(SitemapBuild build) {
+        if (!ninjaProperties.getBooleanWithDefault(KEY_SERVE_FROM_MEMORY, !isServingFromFiles())) {
+            return;
+        }
+        long expires = System.currentTimeMillis() + TimeUtil.parseDuration(getSitemapCacheExpires()) * 1000L;
+        currentSitemap = new CurrentSitemap(build, expires);
+    }
+
+    /**
+     * @return true, if documents are served from their files (see
+     *         {@link #KEY_SERVE_FROM_FILES})
+     */
+    private boolean isServingFromFiles() {
+        return ninjaProperties.getBooleanWithDefault(KEY_SERVE_FROM_FILES, false);
+    }
+
+    /**
+     * Keep a newly stored sitemap with its documents memory mapped from their
+     * files (if serving from files is enabled), instead of in the Java heap.
+     *
+     * @param build
+     *            the {@link SitemapBuild}
+     * @param files
+     *            the {@link SitemapFile}s of the sitemap as returned by
+     *            {@link SitemapSnapshotStore#save}, or null
+     * @return the (memory mapped) {@link SitemapBuild}
+     */
+    private SitemapBuild mapFiles(SitemapBuild build, List<SitemapFile> files) {
+        return ((files == null) || !isServingFromFiles()) ? build : snapshotStore.mapFiles(build, files);
+    }
+
+    /**
+     * @return the sitemap most recently created in the background, or null if
+     *         there is none
+     */
+    private SitemapBuild getScheduledBuild() {
+        try {
+            return refreshScheduler.getCurrentBuild();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
         }
     }
 
+    private String getSitemapCacheExpires() {
+        return ninjaProperties.getWithDefault(SitemapRefreshScheduler.KEY_NINJA_SITEMAP_EXPIRES,
+                SitemapRefreshScheduler.DEFAULT_SITEMAP_EXPIRY_TIME);
+    }
+
+    /**
+     * @return the expiry time of cached documents. With the cluster lease,
+     *         documents remain cached for the lease time after they have
+     *         become stale, so that they can be served while one node
+     *         re-creates the sitemap.
+     */
+    private String getDocumentCacheExpires() {
+        String expires = getSitemapCacheExpires();
+        if (!buildLease.isEnabled()) {
+            return expires;
+        }
+        return (TimeUtil.parseDuration(expires) + buildLease.getLeaseSeconds()) + "s";
+    }
+
+    /**
+     * Mark the cached sitemap as fresh (with the cluster lease) until it
+     * expires.
+     */
+    private void markFresh(SitemapBuild build) {
+        if (buildLease.isEnabled()) {
+            cache.safeSet(FRESH_CACHE_KEY, build.getCreated(), getSitemapCacheExpires());
+        }
+    }
+
+    private static String getShardCacheKey(int shardNumber) {
+        return SitemapDocumentCache.getShardCacheKey(shardNumber);
+    }
+
+    /**
+     * @return the cache key of a page of a route sitemap, or (for page 0) of
+     *         the creation dates of all its pages
+     */
+    private static String getRouteSitemapCacheKey(int routeSitemapId, int page) {
+        return SITEMAP_CACHE_KEY + "-route-" + routeSitemapId + "-" + page;
+    }
+
+    /**
+     * Cache a document, together with its {@link SitemapValidators} (under a
+     * separate key). If documents are served from files, only the validators
+     * are cached, and the reference to the given file is kept on this node.
+     * 
+     * @param file
+     *            the {@link SitemapFile} of the document, or null
+     * @return true, if the document (or, with its file, its validators) has
+     *         been cached
+     */
+    private boolean cacheDocument(String cacheKey, SitemapDocument document, SitemapFile file) {
+        String expires = getDocumentCacheExpires();
+        if ((file != null) && isServingFromFiles()
+                && file.getValidators().getEtag(false).equals(document.getValidators().getEtag(false))) {
+            localFiles.put(cacheKey, file);
+            return documentCache.putValidators(cacheKey, document.getValidators(), expires);
+        }
+        localFiles.remove(cacheKey);
+        return documentCache.putDocument(cacheKey, document, expires);
+    }
+
+    private List<SitemapShard> getCachedShardPlan() {
+        return documentCache.getShardPlan();
+    }
+
 }
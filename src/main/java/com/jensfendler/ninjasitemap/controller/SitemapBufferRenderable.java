@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ninja.Context;
+import ninja.Renderable;
+import ninja.Result;
+import ninja.utils.ResponseStreams;
+
+/**
+ * Renders a sitemap document from a (memory mapped) buffer, copying it to the
+ * response in small chunks instead of as a whole.
+ *
+ * @author Jens Fendler
+ *
+ */
+class SitemapBufferRenderable implements Renderable {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapBufferRenderable.class);
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final ByteBuffer buffer;
+
+    SitemapBufferRenderable(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public void render(Context context, Result result) {
+        try {
+            result.addHeader("Content-Length", String.valueOf(buffer.remaining()));
+            ResponseStreams responseStreams = context.finalizeHeaders(result);
+            OutputStream out = responseStreams.getOutputStream();
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, buffer.remaining())];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+            out.close();
+        } catch (IOException e) {
+            // the response has been committed already. most likely, the
+            // client has closed the connection.
+            LOG.debug("Failed to send sitemap document.", e);
+        }
+    }
+
+}
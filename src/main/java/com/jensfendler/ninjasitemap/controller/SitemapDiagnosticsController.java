@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.controller;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+
+import ninja.Context;
+import ninja.Result;
+import ninja.Results;
+
+/**
+ * Serves a snapshot of the {@link SitemapMetrics} as JSON, if the
+ * <code>ninja.sitemap.diagnosticsRoute</code> property is configured.
+ * 
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapDiagnosticsController {
+
+    @Inject
+    protected SitemapMetrics metrics;
+
+    /**
+     * @param context
+     *            the request context
+     * @return the Result containing the current measurements as JSON
+     */
+    public Result getDiagnostics(Context context) {
+        return Results.json().doNotCacheContent().render(metrics.getSnapshot());
+    }
+
+}
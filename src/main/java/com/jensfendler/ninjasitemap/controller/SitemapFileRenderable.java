@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ninja.Context;
+import ninja.Renderable;
+import ninja.Result;
+import ninja.utils.ResponseStreams;
+
+/**
+ * Renders a sitemap document from its file, with
+ * {@link FileChannel#transferTo}. As the target is the response's output
+ * stream, the JDK copies the file through a small buffer, i.e. this is not a
+ * zero-copy transfer, but the document is not held in memory as a whole. The
+ * file is closed after rendering.
+ *
+ * @author Jens Fendler
+ *
+ */
+class SitemapFileRenderable implements Renderable {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapFileRenderable.class);
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    SitemapFileRenderable(FileChannel channel, long length) {
+        this.channel = channel;
+        this.length = length;
+    }
+
+    public void render(Context context, Result result) {
+        try {
+            result.addHeader("Content-Length", String.valueOf(length));
+            ResponseStreams responseStreams = context.finalizeHeaders(result);
+            OutputStream out = responseStreams.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = 0;
+            while (position < length) {
+                long transferred = channel.transferTo(position, length - position, target);
+                if (transferred <= 0) {
+                    // the file has been truncated
+                    break;
+                }
+                position += transferred;
+            }
+            out.close();
+        } catch (IOException e) {
+            // the response has been committed already. most likely, the
+            // client has closed the connection.
+            LOG.debug("Failed to send sitemap file.", e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close sitemap file.", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.export;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.NinjaSitemapRoutes;
+import com.jensfendler.ninjasitemap.builder.SitemapBuild;
+import com.jensfendler.ninjasitemap.builder.SitemapBuilder;
+import com.jensfendler.ninjasitemap.builder.SitemapDocument;
+import com.jensfendler.ninjasitemap.builder.SitemapRefreshScheduler;
+
+import ninja.Bootstrap;
+import ninja.utils.NinjaModeHelper;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Creates the sitemap without serving it, and writes all of its documents
+ * (the sitemap or sitemap index, all shards, and their gzip-compressed
+ * variants) to a directory. The files are named after their routes (e.g.
+ * <code>sitemap.xml</code>, <code>sitemap-1.xml</code>, and
+ * <code>sitemap-1.xml.gz</code>), so that they can be served as static files
+ * (e.g. by a web server or CDN) under the same URLs.
+ * 
+ * The {@link #main(String[])} method boots the complete application (with its
+ * <code>conf.Module</code> and <code>conf.Routes</code>, in the mode given by
+ * the <code>ninja.mode</code> system property), exports the sitemap, and
+ * shuts the application down again.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapExporter {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapExporter.class);
+
+    @Inject
+    protected SitemapBuilder sitemapBuilder;
+
+    @Inject
+    protected NinjaSitemapRoutes sitemapRoutes;
+
+    /**
+     * Create the sitemap, and write all of its documents to the given
+     * directory.
+     *
+     * @param directory
+     *            the directory to write to (created if required)
+     * @return the files which have been written
+     * @throws IOException
+     *             if the sitemap could not be created or written
+     */
+    public List<Path> export(Path directory) throws IOException {
+        String siteUrlPrefix = sitemapBuilder.getConfiguredSiteUrlPrefix();
+        if (siteUrlPrefix == null) {
+            throw new IOException("Exporting the sitemap requires " + SitemapBuilder.KEY_SITEMAP_PREFIX
+                    + " to be configured.");
+        }
+
+        SitemapBuild build = sitemapBuilder.build(siteUrlPrefix);
+        List<Path> files = new ArrayList<Path>();
+        writeDocument(directory, sitemapRoutes.getSitemapRoute(), build.getMainDocument(), files);
+        if (build.isSharded()) {
+            for (int shard = 1; shard <= build.getShards().size(); shard++) {
+                writeDocument(directory, sitemapRoutes.getShardPath(shard), build.getShards().get(shard - 1),
+                        files);
+            }
+        }
+        LOG.info("Exported sitemap with {} entries to {} files in {}.", build.getUrlCount(), files.size(),
+                directory);
+        return files;
+    }
+
+    /**
+     * Write a document (and its gzip-compressed variant) to the file for its
+     * route.
+     */
+    private void writeDocument(Path directory, String route, SitemapDocument document, List<Path> files)
+            throws IOException {
+        Path file = directory.resolve(route.replaceFirst("^/+", ""));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        files.add(Files.write(file, document.getXml()));
+        files.add(Files.write(file.resolveSibling(file.getFileName() + NinjaSitemapRoutes.GZIP_SUFFIX),
+                document.getGzip()));
+    }
+
+    /**
+     * Boot the application, and export its sitemap.
+     *
+     * @param args
+     *            the directory to write the sitemap to
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + SitemapExporter.class.getName() + " <directory>");
+            System.exit(2);
+        }
+
+        NinjaPropertiesImpl ninjaProperties = new NinjaPropertiesImpl(
+                NinjaModeHelper.determineModeFromSystemPropertiesOrProdIfNotSet());
+        // the sitemap is created right here. no need to do it twice.
+        ninjaProperties.setProperty(SitemapRefreshScheduler.KEY_BACKGROUND_REFRESH, "false");
+
+        Bootstrap bootstrap = new Bootstrap(ninjaProperties);
+        int status = 0;
+        try {
+            bootstrap.boot();
+            bootstrap.getInjector().getInstance(SitemapExporter.class).export(Paths.get(args[0]));
+        } catch (Exception e) {
+            LOG.error("Failed to export sitemap.", e);
+            status = 1;
+        } finally {
+            try {
+                bootstrap.shutdown();
+            } catch (Exception e) {
+                LOG.warn("Failed to shut down application.", e);
+            }
+        }
+        // the application might have started non-daemon threads
+        System.exit(status);
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+
+import ninja.utils.NinjaProperties;
+
+/**
+ * Collects measurements of sitemap creation and delivery, and forwards them to
+ * the configured {@link SitemapMetricsReporter} (if any). A snapshot of all
+ * measurements is available from {@link #getSnapshot()} (and from the
+ * diagnostics route, if configured).
+ * 
+ * Durations:
+ * <ul>
+ * <li><code>build</code>: complete sitemap creation, consisting of
+ * <code>build.routes</code> (invoking all providers, and writing the XML
+ * data), <code>build.compress</code> (compressing and hashing all shards),
+ * and <code>build.index</code> (writing the sitemap index)</li>
+ * <li><code>shard</code>: re-creation of a single shard</li>
+ * <li><code>routeSitemap</code>: creation of the sitemap of a single route
+ * (if route sitemaps are created on demand)</li>
+ * <li><code>update</code>: incremental update of changed shards</li>
+ * <li><code>provider.&lt;route&gt;</code>: a single provider call for the
+ * route with the given URI (for streaming providers, this includes writing
+ * their entries)</li>
+ * <li><code>serve.sitemap</code>, <code>serve.shard</code>: handling of a
+ * request for the sitemap (or sitemap index), or a single shard (or route
+ * sitemap)</li>
+ * </ul>
+ * 
+ * Counters: <code>memory.hit</code> (requests served from the sitemap
+ * created on this node, without a cache lookup), <code>cache.hit</code>,
+ * <code>cache.miss</code>, <code>cache.stampede</code> (cache misses which have been served from a
+ * sitemap created by another request), <code>notModified</code>,
+ * <code>provider.failure</code> (parallel providers which have timed out or
+ * failed), <code>routeCache.hit</code> and <code>routeCache.miss</code>
+ * (routes with a cache TTL whose entries have been re-used, or fetched
+ * again), <code>ping.success</code>, <code>ping.failure</code>,
+ * <code>ping.retry</code>, <code>ping.coalesced</code> (sitemap updates
+ * covered by an already pending search engine ping), <code>lease.acquired</code>
+ * and <code>lease.denied</code> (attempts to acquire the cluster lease), and
+ * <code>lease.wait</code> (requests which have waited for another node to
+ * publish the sitemap).
+ * 
+ * Values (of the most recently created sitemap): <code>urls</code>,
+ * <code>shards</code>, <code>bytes.raw</code>, <code>bytes.gzip</code>, and
+ * <code>entries.&lt;route&gt;</code> (the number of entries per route).
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SitemapMetrics {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SitemapMetrics.class);
+
+    /**
+     * The name of a class implementing the {@link SitemapMetricsReporter}
+     * interface, to forward all measurements to. Default: none.
+     */
+    public static final String KEY_METRICS_REPORTER = "ninja.sitemap.metricsReporter";
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected Injector injector;
+
+    private final ConcurrentMap<String, Duration> durations = new ConcurrentSkipListMap<String, Duration>();
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentSkipListMap<String, AtomicLong>();
+
+    private final ConcurrentMap<String, Long> values = new ConcurrentSkipListMap<String, Long>();
+
+    private volatile boolean reporterCreated;
+
+    private SitemapMetricsReporter reporter;
+
+    /**
+     * @return the current time, for use with {@link #recordDuration}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the duration of an operation.
+     * 
+     * @param name
+     *            the name of the operation
+     * @param startNanos
+     *            the start time of the operation (as returned by
+     *            {@link #start()})
+     */
+    public void recordDuration(String name, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        Duration duration = durations.get(name);
+        if (duration == null) {
+            Duration newDuration = new Duration();
+            duration = durations.putIfAbsent(name, newDuration);
+            if (duration == null) {
+                duration = newDuration;
+            }
+        }
+        duration.record(nanos);
+
+        SitemapMetricsReporter reporter = getReporter();
+        if (reporter != null) {
+            try {
+                reporter.recordDuration(name, nanos);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to report sitemap metric " + name + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Increment a counter by one.
+     * 
+     * @param name
+     *            the name of the counter
+     */
+    public void incrementCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+
+        SitemapMetricsReporter reporter = getReporter();
+        if (reporter != null) {
+            try {
+                reporter.incrementCounter(name);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to report sitemap metric " + name + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Set the current value of a gauge.
+     * 
+     * @param name
+     *            the name of the gauge
+     * @param value
+     *            its value
+     */
+    public void recordValue(String name, long value) {
+        values.put(name, value);
+
+        SitemapMetricsReporter reporter = getReporter();
+        if (reporter != null) {
+            try {
+                reporter.recordValue(name, value);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to report sitemap metric " + name + ".", e);
+            }
+        }
+    }
+
+    /**
+     * @param name
+     *            the name of a counter
+     * @return the current value of the counter
+     */
+    public long getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        return (counter == null) ? 0 : counter.get();
+    }
+
+    /**
+     * @return a snapshot of all measurements, suitable for rendering as JSON:
+     *         a map with the keys "durations" (count, and last, mean, and
+     *         maximum duration in milliseconds of every operation),
+     *         "counters", and "values"
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> durationSnapshot = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Duration> duration : durations.entrySet()) {
+            durationSnapshot.put(duration.getKey(), duration.getValue().getSnapshot());
+        }
+
+        Map<String, Long> counterSnapshot = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            counterSnapshot.put(counter.getKey(), counter.getValue().get());
+        }
+
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("durations", durationSnapshot);
+        snapshot.put("counters", counterSnapshot);
+        snapshot.put("values", new LinkedHashMap<String, Long>(values));
+        return snapshot;
+    }
+
+    /**
+     * @return the {@link SitemapMetricsReporter} (created on first use), or
+     *         null if none has been configured
+     */
+    private SitemapMetricsReporter getReporter() {
+        if (!reporterCreated) {
+            synchronized (this) {
+                if (!reporterCreated) {
+                    reporter = createReporter();
+                    reporterCreated = true;
+                }
+            }
+        }
+        return reporter;
+    }
+
+    private SitemapMetricsReporter createReporter() {
+        String reporterClassName = ninjaProperties.get(KEY_METRICS_REPORTER);
+        if (reporterClassName == null) {
+            return null;
+        }
+        try {
+            Class<?> reporterClass = Class.forName(reporterClassName);
+            if (!SitemapMetricsReporter.class.isAssignableFrom(reporterClass)) {
+                LOG.error("Class {} does not implement {}. Not reporting sitemap metrics.", reporterClassName,
+                        SitemapMetricsReporter.class.getSimpleName());
+                return null;
+            }
+            SitemapMetricsReporter reporter = (SitemapMetricsReporter) injector.getInstance(reporterClass);
+            LOG.info("Reporting sitemap metrics to {}.", reporterClassName);
+            return reporter;
+        } catch (ClassNotFoundException e) {
+            LOG.error("Could not load " + SitemapMetricsReporter.class.getSimpleName() + " implementation "
+                    + reporterClassName + ". Please check your '" + KEY_METRICS_REPORTER
+                    + "' setting in application.conf.", e);
+        } catch (RuntimeException e) {
+            LOG.error("Could not create " + SitemapMetricsReporter.class.getSimpleName() + " implementation "
+                    + reporterClassName + ".", e);
+        }
+        return null;
+    }
+
+    /**
+     * Statistics of the durations of one operation.
+     */
+    private static class Duration {
+
+        private long count;
+
+        private long lastNanos;
+
+        private long totalNanos;
+
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            count++;
+            lastNanos = nanos;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized Map<String, Object> getSnapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+            snapshot.put("count", count);
+            snapshot.put("lastMillis", lastNanos / NANOS_PER_MILLI);
+            snapshot.put("meanMillis", (count == 0) ? 0.0 : totalNanos / NANOS_PER_MILLI / count);
+            snapshot.put("maxMillis", maxNanos / NANOS_PER_MILLI);
+            return snapshot;
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.metrics;
+
+/**
+ * Forwards the measurements of the Ninja Sitemap module to a metrics library
+ * (e.g. a Dropwizard <code>MetricRegistry</code>). Implementations are
+ * configured with the <code>ninja.sitemap.metricsReporter</code> property,
+ * and created with the Guice injector. All methods may be called concurrently,
+ * and should return quickly.
+ * 
+ * See {@link SitemapMetrics} for the names of all measurements.
+ *
+ * @author Jens Fendler
+ *
+ */
+public interface SitemapMetricsReporter {
+
+    /**
+     * @param name
+     *            the name of the timed operation (e.g. "build")
+     * @param nanos
+     *            the duration of the operation (in nanoseconds)
+     */
+    public void recordDuration(String name, long nanos);
+
+    /**
+     * @param name
+     *            the name of the counter to increment by one (e.g.
+     *            "cache.miss")
+     */
+    public void incrementCounter(String name);
+
+    /**
+     * @param name
+     *            the name of the gauge (e.g. "bytes.gzip")
+     * @param value
+     *            the current value of the gauge
+     */
+    public void recordValue(String name, long value);
+
+}
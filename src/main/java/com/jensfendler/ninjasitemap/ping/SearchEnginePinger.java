@@ -0,0 +1,346 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.ping;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.jensfendler.ninjasitemap.NinjaSitemapRoutes;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+
+import ninja.lifecycle.Dispose;
+import ninja.utils.NinjaProperties;
+import ninja.utils.TimeUtil;
+
+/**
+ * Notifies search engines (Google, Bing, and any other configured endpoints)
+ * of an updated sitemap, if configured in application.conf.
+ * 
+ * Pings are sent asynchronously, on a single background thread with a shared
+ * (pooled) HTTP client. They are debounced: all updates of the same sitemap
+ * within <code>ninja.sitemap.ping.debounce</code> result in a single ping per
+ * endpoint. Failed pings (connection errors, timeouts, and HTTP status codes
+ * 429 or 5xx) are retried with an exponentially growing delay.
+ *
+ * @author Jens Fendler
+ *
+ */
+@Singleton
+public class SearchEnginePinger {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(SearchEnginePinger.class);
+
+    /**
+     * If this application.conf property is 'true', the Google search engine is
+     * informed of updates to the sitemap. Default: false.
+     */
+    private static final String KEY_PING_GOOGLE = "ninja.sitemap.ping.google";
+
+    /**
+     * If this application.conf property is 'true', the Bing search engine is
+     * informed of updates to the sitemap. Default: false.
+     */
+    private static final String KEY_PING_BING = "ninja.sitemap.ping.bing";
+
+    /**
+     * A comma-separated list of further ping endpoints. The (URL-encoded)
+     * sitemap URL is appended to every endpoint, e.g.
+     * <code>https://search.example.com/ping?sitemap=</code>. Default: none.
+     */
+    private static final String KEY_PING_ENDPOINTS = "ninja.sitemap.ping.endpoints";
+
+    /**
+     * If this application.conf property is 'true' (the default), search
+     * engines are only pinged in production mode.
+     */
+    private static final String KEY_PING_PRODUCTION_ONLY = "ninja.sitemap.ping.productionOnly";
+
+    /**
+     * The time to wait for further sitemap updates before pinging (e.g.
+     * "1mn"). Default: "1mn".
+     */
+    private static final String KEY_PING_DEBOUNCE = "ninja.sitemap.ping.debounce";
+
+    /**
+     * The timeout for establishing a connection to a ping endpoint (e.g.
+     * "10s"). Default: "10s".
+     */
+    private static final String KEY_PING_CONNECT_TIMEOUT = "ninja.sitemap.ping.connectTimeout";
+
+    /**
+     * The timeout for reading the response of a ping endpoint (e.g. "30s").
+     * Default: "30s".
+     */
+    private static final String KEY_PING_READ_TIMEOUT = "ninja.sitemap.ping.readTimeout";
+
+    /**
+     * The maximum number of retries of a failed ping. Default: 3.
+     */
+    private static final String KEY_PING_RETRIES = "ninja.sitemap.ping.retries";
+
+    /**
+     * The delay before the first retry of a failed ping (e.g. "30s"). The
+     * delay is doubled for every further retry. Default: "30s".
+     */
+    private static final String KEY_PING_RETRY_DELAY = "ninja.sitemap.ping.retryDelay";
+
+    private static final String GOOGLE_PING_ENDPOINT = "https://www.google.com/ping?sitemap=";
+
+    private static final String BING_PING_ENDPOINT = "https://www.bing.com/ping?sitemap=";
+
+    @Inject
+    protected NinjaProperties ninjaProperties;
+
+    @Inject
+    protected NinjaSitemapRoutes sitemapRoutes;
+
+    @Inject
+    protected SitemapMetrics metrics;
+
+    /**
+     * The sitemap URLs with a ping waiting for the debounce time to pass
+     */
+    private final ConcurrentMap<String, Boolean> pendingPings = new ConcurrentHashMap<String, Boolean>();
+
+    private ScheduledExecutorService executor;
+
+    private CloseableHttpClient httpClient;
+
+    /**
+     * Ping the configured search engines (in production mode only, unless
+     * configured otherwise) to inform them about an updated sitemap. Pinging
+     * happens asynchronously, after the debounce time.
+     *
+     * @param siteUrlPrefix
+     *            the prefix of all URLs in the sitemap (without trailing slash)
+     */
+    public void pingSearchEngines(String siteUrlPrefix) {
+        final List<String> endpoints = getEndpoints();
+        if (endpoints.isEmpty()) {
+            return;
+        }
+
+        // we only want to issue search engine pings in production mode
+        if (!ninjaProperties.isProd() && ninjaProperties.getBooleanWithDefault(KEY_PING_PRODUCTION_ONLY, true)) {
+            LOG.info("Not pinging search engines in non-production mode.");
+            return;
+        }
+
+        final String sitemapUrl = siteUrlPrefix + sitemapRoutes.getSitemapRoute();
+        if (pendingPings.putIfAbsent(sitemapUrl, Boolean.TRUE) != null) {
+            // a ping for this sitemap is about to be sent anyway
+            metrics.incrementCounter("ping.coalesced");
+            return;
+        }
+
+        long debounceSeconds = TimeUtil.parseDuration(ninjaProperties.getWithDefault(KEY_PING_DEBOUNCE, "1mn"));
+        try {
+            getExecutor().schedule(new Runnable() {
+                public void run() {
+                    // updates from now on require another ping
+                    pendingPings.remove(sitemapUrl);
+                    for (String endpoint : endpoints) {
+                        ping(endpoint, sitemapUrl, 0);
+                    }
+                }
+            }, debounceSeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+            pendingPings.remove(sitemapUrl);
+        }
+    }
+
+    /**
+     * Stop all pending pings, and release the HTTP client.
+     */
+    @Dispose(order = 80)
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close HTTP client.", e);
+            }
+            httpClient = null;
+        }
+        pendingPings.clear();
+    }
+
+    /**
+     * @return the URLs of all configured ping endpoints
+     */
+    private List<String> getEndpoints() {
+        List<String> endpoints = new ArrayList<String>();
+        if (ninjaProperties.getBooleanWithDefault(KEY_PING_GOOGLE, false)) {
+            endpoints.add(GOOGLE_PING_ENDPOINT);
+        }
+        if (ninjaProperties.getBooleanWithDefault(KEY_PING_BING, false)) {
+            endpoints.add(BING_PING_ENDPOINT);
+        }
+        String[] configuredEndpoints = ninjaProperties.getStringArray(KEY_PING_ENDPOINTS);
+        if (configuredEndpoints != null) {
+            for (String endpoint : configuredEndpoints) {
+                if (!endpoint.trim().isEmpty()) {
+                    endpoints.add(endpoint.trim());
+                }
+            }
+        }
+        return endpoints;
+    }
+
+    /**
+     * Send a single ping (on the executor's thread), and schedule a retry if
+     * it fails.
+     *
+     * @param endpoint
+     *            the ping endpoint
+     * @param sitemapUrl
+     *            the URL of the updated sitemap
+     * @param attempt
+     *            the number of previous attempts
+     */
+    private void ping(final String endpoint, final String sitemapUrl, final int attempt) {
+        String pingUrl;
+        try {
+            pingUrl = endpoint + URLEncoder.encode(sitemapUrl, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // every Java platform is required to support UTF-8
+            throw new IllegalStateException(e);
+        }
+
+        String failure;
+        try {
+            CloseableHttpResponse response = getHttpClient().execute(new HttpGet(pingUrl));
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                EntityUtils.consumeQuietly(response.getEntity());
+                if ((status >= 200) && (status < 300)) {
+                    metrics.incrementCounter("ping.success");
+                    LOG.info("{} has been notified of updated sitemap at '{}'.", endpoint, sitemapUrl);
+                    return;
+                }
+                if ((status != 429) && (status < 500)) {
+                    // the request itself is wrong. retrying will not help.
+                    metrics.incrementCounter("ping.failure");
+                    LOG.warn("Failed to ping {} with updated sitemap: HTTP status {}.", endpoint, status);
+                    return;
+                }
+                failure = "HTTP status " + status;
+            } finally {
+                response.close();
+            }
+        } catch (IOException e) {
+            failure = e.toString();
+        }
+
+        int retries = ninjaProperties.getIntegerWithDefault(KEY_PING_RETRIES, 3);
+        if (attempt >= retries) {
+            metrics.incrementCounter("ping.failure");
+            LOG.warn("Failed to ping {} with updated sitemap after {} attempts: {}", endpoint, attempt + 1, failure);
+            return;
+        }
+
+        long delaySeconds = TimeUtil.parseDuration(ninjaProperties.getWithDefault(KEY_PING_RETRY_DELAY, "30s"))
+                << Math.min(attempt, 20);
+        LOG.info("Failed to ping {} with updated sitemap ({}). Retrying in {} seconds.", endpoint, failure,
+                delaySeconds);
+        metrics.incrementCounter("ping.retry");
+        try {
+            getExecutor().schedule(new Runnable() {
+                public void run() {
+                    ping(endpoint, sitemapUrl, attempt + 1);
+                }
+            }, delaySeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = createExecutor();
+        }
+        return executor;
+    }
+
+    /**
+     * Create the executor which sends all pings (after the debounce time) and
+     * their retries (after the retry delay). Subclasses may override this,
+     * e.g. to control the passing of time in tests.
+     *
+     * @return a new {@link ScheduledExecutorService}
+     */
+    protected ScheduledExecutorService createExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ninja-sitemap-ping");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private synchronized CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            int connectTimeout = (int) TimeUnit.SECONDS.toMillis(
+                    TimeUtil.parseDuration(ninjaProperties.getWithDefault(KEY_PING_CONNECT_TIMEOUT, "10s")));
+            int readTimeout = (int) TimeUnit.SECONDS
+                    .toMillis(TimeUtil.parseDuration(ninjaProperties.getWithDefault(KEY_PING_READ_TIMEOUT, "30s")));
+            RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout)
+                    .setConnectionRequestTimeout(connectTimeout).setSocketTimeout(readTimeout).build();
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(4);
+            connectionManager.setDefaultMaxPerRoute(2);
+            // pings are rare. pooled connections have often been closed by
+            // the server in the meantime.
+            connectionManager.setValidateAfterInactivity(1000);
+            // retry stale connections once. everything else is retried with
+            // a delay.
+            httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(requestConfig)
+                    .setRetryHandler(new DefaultHttpRequestRetryHandler(1, false)).build();
+        }
+        return httpClient;
+    }
+
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.jensfendler.ninjasitemap.SitemapExtensions;
+
+import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
+
+/**
+ * Writes sitemap entries into one or more complete sitemap documents
+ * ("shards"), starting a new shard whenever the next entry would exceed
+ * either the maximum number of URLs or the maximum number of bytes per
+ * document.
+ *
+ * Every entry (including its extensions) is rendered straight into the
+ * buffer of the current shard. If it turns out to exceed one of the limits,
+ * it is moved to a new shard. Completed shards are handed over in their
+ * buffers, without copying them.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class ShardedSitemapWriter {
+
+    /**
+     * The maximum number of URLs per sitemap document allowed by the sitemap
+     * protocol.
+     */
+    public static final int PROTOCOL_MAX_URLS = 50000;
+
+    /**
+     * The maximum size (in bytes, uncompressed) of a sitemap document allowed
+     * by the sitemap protocol.
+     */
+    public static final int PROTOCOL_MAX_BYTES = 50 * 1024 * 1024;
+
+    private static final byte[] URLSET_START = SitemapWriter.ENCODED_URLSET_START;
+
+    private static final byte[] URLSET_END = SitemapWriter.ENCODED_URLSET_END;
+
+    private final int maxUrls;
+
+    private final int maxBytes;
+
+    /**
+     * Writes all entries to the buffer of the current shard
+     */
+    private final SitemapWriter entryWriter;
+
+    private final List<ByteBuffer> shards = new ArrayList<ByteBuffer>();
+
+    private final List<Integer> shardUrlCounts = new ArrayList<Integer>();
+
+    private final List<Integer> shardEntryCounts = new ArrayList<Integer>();
+
+    private final List<Long> shardLastModified = new ArrayList<Long>();
+
+    private ShardBuffer shardBuffer;
+
+    private int shardUrlCount;
+
+    private int shardEntryCount;
+
+    /**
+     * The newest last modification time of the entries of the current shard
+     * (or {@link SitemapWriter#NO_LAST_MODIFIED})
+     */
+    private long shardNewestLastModified = SitemapWriter.NO_LAST_MODIFIED;
+
+    private int totalUrlCount;
+
+    /**
+     * @param siteUrlPrefix
+     *            the prefix (protocol, host name, port, and path) to prepend to
+     *            all page paths
+     * @param maxUrls
+     *            the maximum number of URLs per shard
+     * @param maxBytes
+     *            the maximum number of bytes per shard
+     */
+    public ShardedSitemapWriter(String siteUrlPrefix, int maxUrls, int maxBytes) {
+        if (maxUrls < 1) {
+            throw new IllegalArgumentException("maxUrls must be positive, but is " + maxUrls);
+        }
+        if (maxBytes < URLSET_START.length + URLSET_END.length) {
+            throw new IllegalArgumentException("maxBytes is too small: " + maxBytes);
+        }
+        this.maxUrls = maxUrls;
+        this.maxBytes = maxBytes;
+        this.entryWriter = new SitemapWriter(new ShardOutputStream(), siteUrlPrefix);
+    }
+
+    /**
+     * Set the languages the pages may be available in.
+     *
+     * @see SitemapWriter#setLanguageUrls(String[], String[])
+     */
+    public void setLanguageUrls(String[] languages, String[] urlPatterns) {
+        entryWriter.setLanguageUrls(languages, urlPatterns);
+    }
+
+    /**
+     * Write a single <code>&lt;url&gt;</code> element, starting a new shard if
+     * required.
+     *
+     * @param pagePath
+     *            the path of the page, relative to the site URL prefix
+     * @param lastModified
+     *            the last modification date (optional)
+     * @param changeFrequency
+     *            the change frequency (optional)
+     * @param priority
+     *            the priority of the page (in the range 0 to 1.0)
+     * @return true, if this entry is the first entry of a new shard
+     * @throws IOException
+     *             if the entry could not be written
+     */
+    public boolean writeUrl(String pagePath, Date lastModified, ChangeFreq changeFrequency, double priority)
+            throws IOException {
+        return writeUrl(pagePath, (lastModified == null) ? SitemapWriter.NO_LAST_MODIFIED : lastModified.getTime(),
+                changeFrequency, priority, null);
+    }
+
+    /**
+     * Write a single <code>&lt;url&gt;</code> element, starting a new shard if
+     * required.
+     *
+     * @param pagePath
+     *            the path of the page, relative to the site URL prefix
+     * @param lastModified
+     *            the last modification time (in milliseconds since the epoch),
+     *            or {@link SitemapWriter#NO_LAST_MODIFIED}
+     * @param changeFrequency
+     *            the change frequency (optional)
+     * @param priority
+     *            the priority of the page (in the range 0 to 1.0)
+     * @param extensions
+     *            the {@link SitemapExtensions} of the page (or null)
+     * @return true, if this entry is the first entry of a new shard
+     * @throws IOException
+     *             if the entry could not be written
+     */
+    public boolean writeUrl(String pagePath, long lastModified, ChangeFreq changeFrequency, double priority,
+            SitemapExtensions extensions) throws IOException {
+        return writeUrl(pagePath, lastModified, changeFrequency, priority, extensions, false);
+    }
+
+    /**
+     * Write the <code>&lt;url&gt;</code> element(s) of a page (one per
+     * language of the page), starting a new shard if required. All language
+     * versions of a page are always written to the same shard.
+     *
+     * @param pagePath
+     *            the path of the page, relative to the site URL prefix
+     * @param lastModified
+     *            the last modification time (in milliseconds since the epoch),
+     *            or {@link SitemapWriter#NO_LAST_MODIFIED}
+     * @param changeFrequency
+     *            the change frequency (optional)
+     * @param priority
+     *            the priority of the page (in the range 0 to 1.0)
+     * @param extensions
+     *            the {@link SitemapExtensions} of the page (or null)
+     * @param allLanguages
+     *            true, if the page is available in all languages (unless the
+     *            extensions list the page's languages)
+     * @return true, if this entry is the first entry of a new shard
+     * @throws IOException
+     *             if the entry could not be written
+     * @see SitemapWriter#writeUrl(String, long, ChangeFreq, double,
+     *      SitemapExtensions, boolean)
+     */
+    public boolean writeUrl(String pagePath, long lastModified, ChangeFreq changeFrequency, double priority,
+            SitemapExtensions extensions, boolean allLanguages) throws IOException {
+        int entryStart = startEntry();
+        int previousUrlCount = entryWriter.getUrlCount();
+        entryWriter.writeUrl(pagePath, lastModified, changeFrequency, priority, extensions, allLanguages);
+        return completeEntry(entryStart, previousUrlCount, lastModified);
+    }
+
+    /**
+     * Write the <code>&lt;url&gt;</code> element(s) of a page with an already
+     * UTF-8 encoded page path, starting a new shard if required.
+     *
+     * @see SitemapWriter#writeUrl(ByteBuffer, int, int, long, ChangeFreq,
+     *      double, SitemapExtensions, boolean)
+     * @see #writeUrl(String, long, ChangeFreq, double, SitemapExtensions,
+     *      boolean)
+     */
+    public boolean writeUrl(ByteBuffer encodedPaths, int start, int end, long lastModified,
+            ChangeFreq changeFrequency, double priority, SitemapExtensions extensions, boolean allLanguages)
+            throws IOException {
+        int entryStart = startEntry();
+        int previousUrlCount = entryWriter.getUrlCount();
+        entryWriter.writeUrl(encodedPaths, start, end, lastModified, changeFrequency, priority, extensions,
+                allLanguages);
+        return completeEntry(entryStart, previousUrlCount, lastModified);
+    }
+
+    /**
+     * Start writing an entry to the current shard (starting the first shard,
+     * if required).
+     *
+     * @return the position of the entry in the buffer of the current shard
+     */
+    private int startEntry() {
+        if (shardBuffer == null) {
+            shardBuffer = startShard();
+        }
+        return shardBuffer.size();
+    }
+
+    /**
+     * Complete an entry which has been written to the current shard, and move
+     * it to a new shard if it exceeds the limits of the current one.
+     *
+     * @param entryStart
+     *            the position of the entry in the buffer of the current shard
+     * @param previousUrlCount
+     *            the number of URLs written before the entry
+     * @param lastModified
+     *            the last modification time of the entry (or
+     *            {@link SitemapWriter#NO_LAST_MODIFIED})
+     * @return true, if the entry is the first entry of a new shard
+     */
+    private boolean completeEntry(int entryStart, int previousUrlCount, long lastModified) throws IOException {
+        entryWriter.flush();
+        int urls = entryWriter.getUrlCount() - previousUrlCount;
+
+        boolean newShard = (shardEntryCount == 0);
+        if (!newShard && ((shardUrlCount + urls > maxUrls) || (shardBuffer.size() + URLSET_END.length > maxBytes))) {
+            ShardBuffer nextShardBuffer = startShard();
+            shardBuffer.moveTo(entryStart, nextShardBuffer);
+            finishShard();
+            shardBuffer = nextShardBuffer;
+            newShard = true;
+        }
+
+        shardUrlCount += urls;
+        shardEntryCount++;
+        shardNewestLastModified = Math.max(shardNewestLastModified, lastModified);
+        totalUrlCount += urls;
+        return newShard;
+    }
+
+    /**
+     * Complete the last shard.
+     *
+     * @return the list of complete sitemap documents (UTF-8 encoded), each in
+     *         a buffer which must not be modified. If no entries have been
+     *         written, the list contains a single, empty sitemap document.
+     */
+    public List<ByteBuffer> finish() {
+        if (shardBuffer == null && shards.isEmpty()) {
+            // always produce a valid (if empty) sitemap
+            shardBuffer = startShard();
+        }
+        finishShard();
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * @return the number of URLs in each of the completed shards
+     */
+    public List<Integer> getShardUrlCounts() {
+        return Collections.unmodifiableList(shardUrlCounts);
+    }
+
+    /**
+     * @return the number of entries (pages) in each of the completed shards.
+     *         This differs from the number of URLs for pages written in
+     *         several languages.
+     */
+    public List<Integer> getShardEntryCounts() {
+        return Collections.unmodifiableList(shardEntryCounts);
+    }
+
+    /**
+     * @return the newest last modification time (in milliseconds since the
+     *         epoch) of the entries in each of the completed shards, or
+     *         {@link SitemapWriter#NO_LAST_MODIFIED} for shards without any
+     *         modification times
+     */
+    public List<Long> getShardLastModified() {
+        return Collections.unmodifiableList(shardLastModified);
+    }
+
+    /**
+     * @return the number of URLs in the current shard
+     */
+    public int getShardUrlCount() {
+        return shardUrlCount;
+    }
+
+    /**
+     * @return the total number of URLs written to all shards
+     */
+    public int getTotalUrlCount() {
+        return totalUrlCount;
+    }
+
+    /**
+     * @return the buffer of a new shard, holding the start of the document
+     */
+    private ShardBuffer startShard() {
+        ShardBuffer buffer = new ShardBuffer(Math.min(maxBytes, 64 * 1024), maxBytes);
+        buffer.write(URLSET_START, 0, URLSET_START.length);
+        return buffer;
+    }
+
+    private void finishShard() {
+        if (shardBuffer != null) {
+            shardBuffer.write(URLSET_END, 0, URLSET_END.length);
+            shards.add(shardBuffer.toByteBuffer());
+            shardUrlCounts.add(shardUrlCount);
+            shardEntryCounts.add(shardEntryCount);
+            shardLastModified.add(shardNewestLastModified);
+            shardBuffer = null;
+            shardUrlCount = 0;
+            shardEntryCount = 0;
+            shardNewestLastModified = SitemapWriter.NO_LAST_MODIFIED;
+        }
+    }
+
+    /**
+     * The buffer of a shard. It grows up to the maximum size of a shard (plus
+     * the entry exceeding it), and hands over its data without copying it.
+     */
+    private static class ShardBuffer extends ByteArrayOutputStream {
+
+        /**
+         * The capacity the buffer grows to (unless more is required)
+         */
+        private final int maxCapacity;
+
+        ShardBuffer(int initialCapacity, int maxCapacity) {
+            super(initialCapacity);
+            this.maxCapacity = maxCapacity;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        /**
+         * Move all data from the given position on to another buffer.
+         */
+        void moveTo(int start, ShardBuffer target) {
+            target.write(buf, start, count - start);
+            count = start;
+        }
+
+        /**
+         * @return a buffer with the data (not a copy), unless much of the
+         *         capacity is unused
+         */
+        ByteBuffer toByteBuffer() {
+            if (buf.length - count > buf.length / 8) {
+                // do not keep the unused capacity of e.g. the last shard
+                return ByteBuffer.wrap(Arrays.copyOf(buf, count));
+            }
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                // beyond the maximum, grow in small steps (for an entry which
+                // is about to be moved to the next shard)
+                long newCapacity = (buf.length < maxCapacity) ? Math.min(2L * buf.length, maxCapacity)
+                        : buf.length + 64L * 1024;
+                buf = Arrays.copyOf(buf, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(capacity, newCapacity)));
+            }
+        }
+
+    }
+
+    /**
+     * Writes to the buffer of the current shard.
+     */
+    private class ShardOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            shardBuffer.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            shardBuffer.write(b, off, len);
+        }
+
+    }
+
+}
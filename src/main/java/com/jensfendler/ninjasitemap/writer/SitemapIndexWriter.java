@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.writer;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Writes a <code>&lt;sitemapindex&gt;</code> document, referencing a number
+ * of child sitemaps, to an {@link OutputStream} (UTF-8 encoded).
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapIndexWriter implements Closeable {
+
+    private final Writer writer;
+
+    /**
+     * The (already XML-escaped) URL prefix for all child sitemaps, including
+     * a trailing slash.
+     */
+    private final String escapedUrlPrefix;
+
+    private final SimpleDateFormat dateFormat;
+
+    /**
+     * @param out
+     *            the {@link OutputStream} to write the index to
+     * @param siteUrlPrefix
+     *            the prefix (protocol, host name, port, and path) to prepend to
+     *            all child sitemap paths. A trailing slash is optional.
+     */
+    public SitemapIndexWriter(OutputStream out, String siteUrlPrefix) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        this.escapedUrlPrefix = SitemapWriter
+                .escape(siteUrlPrefix.endsWith("/") ? siteUrlPrefix : siteUrlPrefix + "/");
+        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Write the XML declaration and the opening
+     * <code>&lt;sitemapindex&gt;</code> element.
+     *
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeStartDocument() throws IOException {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<sitemapindex xmlns=\""
+                + SitemapWriter.SITEMAP_NAMESPACE + "\">\n");
+    }
+
+    /**
+     * Write a single <code>&lt;sitemap&gt;</code> element.
+     *
+     * @param sitemapPath
+     *            the path of the child sitemap, relative to the site URL
+     *            prefix. A leading slash is ignored.
+     * @param lastModified
+     *            the last modification date of the child sitemap (optional)
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeSitemap(String sitemapPath, Date lastModified) throws IOException {
+        writer.write("<sitemap>\n<loc>");
+        writer.write(escapedUrlPrefix);
+        writer.write(SitemapWriter.escape(sitemapPath.startsWith("/") ? sitemapPath.substring(1) : sitemapPath));
+        writer.write("</loc>\n");
+        if (lastModified != null) {
+            writer.write("<lastmod>");
+            writer.write(dateFormat.format(lastModified));
+            writer.write("</lastmod>\n");
+        }
+        writer.write("</sitemap>\n");
+    }
+
+    /**
+     * Write the closing <code>&lt;/sitemapindex&gt;</code> element and flush
+     * all buffered data to the underlying stream.
+     *
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeEndDocument() throws IOException {
+        writer.write("</sitemapindex>\n");
+        writer.flush();
+    }
+
+    /**
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
@@ -0,0 +1,1029 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.writer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import com.jensfendler.ninjasitemap.SitemapAlternate;
+import com.jensfendler.ninjasitemap.SitemapExtensions;
+import com.jensfendler.ninjasitemap.SitemapImage;
+import com.jensfendler.ninjasitemap.SitemapNews;
+import com.jensfendler.ninjasitemap.SitemapVideo;
+
+import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
+
+/**
+ * Writes a sitemap <code>&lt;urlset&gt;</code> document entry by entry to an
+ * {@link OutputStream}, using UTF-8 encoding.
+ *
+ * In contrast to building the sitemap with the jsitemapgenerator library, no
+ * intermediate objects are kept for the entries, and the XML document is never
+ * held as a single {@link String}. The writer itself only needs a small,
+ * fixed-size buffer. Note that the complete document is still held in memory
+ * if the target stream buffers it: {@link ShardedSitemapWriter} (and thus
+ * every sitemap build) keeps each shard as a byte array, i.e. memory usage is
+ * proportional to the encoded size of the shards.
+ * 
+ * Entries are encoded straight into a byte buffer: the fixed parts of the XML
+ * are pre-encoded constants, page paths are escaped and encoded in a single
+ * pass, and dates are formatted without creating any objects. Change
+ * frequencies and common priorities are written from pre-encoded constants,
+ * too.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapWriter implements Closeable {
+
+    /**
+     * The XML namespace of the sitemap protocol.
+     */
+    public static final String SITEMAP_NAMESPACE = "http://www.sitemaps.org/schemas/sitemap/0.9";
+
+    /**
+     * The XML namespace of the image sitemap extension.
+     */
+    public static final String IMAGE_NAMESPACE = "http://www.google.com/schemas/sitemap-image/1.1";
+
+    /**
+     * The XML namespace of the video sitemap extension.
+     */
+    public static final String VIDEO_NAMESPACE = "http://www.google.com/schemas/sitemap-video/1.1";
+
+    /**
+     * The XML namespace of the news sitemap extension.
+     */
+    public static final String NEWS_NAMESPACE = "http://www.google.com/schemas/sitemap-news/0.9";
+
+    /**
+     * The XML namespace of alternate language versions of a page.
+     */
+    public static final String XHTML_NAMESPACE = "http://www.w3.org/1999/xhtml";
+
+    /**
+     * The value of a missing last modification time (in milliseconds since the
+     * epoch).
+     */
+    public static final long NO_LAST_MODIFIED = Long.MIN_VALUE;
+
+    /**
+     * The XML declaration and opening element of a sitemap document. The
+     * namespaces of all extensions are always declared, as it is not known in
+     * advance whether any entry will use them.
+     */
+    static final String URLSET_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<urlset xmlns=\""
+            + SITEMAP_NAMESPACE + "\" xmlns:xhtml=\"" + XHTML_NAMESPACE + "\" xmlns:image=\"" + IMAGE_NAMESPACE
+            + "\" xmlns:video=\"" + VIDEO_NAMESPACE + "\" xmlns:news=\"" + NEWS_NAMESPACE + "\">\n";
+
+    /**
+     * The closing element of a sitemap document.
+     */
+    static final String URLSET_END = "</urlset>\n";
+
+    /**
+     * The size of the buffer between the XML generation and the underlying
+     * stream.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The maximum number of bytes a single character can be written as (an
+     * escaped quote, or a surrogate pair)
+     */
+    private static final int MAX_CHAR_BYTES = 6;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    static final byte[] ENCODED_URLSET_START = bytes(URLSET_START);
+
+    static final byte[] ENCODED_URLSET_END = bytes(URLSET_END);
+
+    private static final byte[] URL_START = bytes("<url>\n<loc>");
+
+    private static final byte[] LOC_END = bytes("</loc>\n");
+
+    private static final byte[] LASTMOD_START = bytes("<lastmod>");
+
+    private static final byte[] LASTMOD_END = bytes("</lastmod>\n");
+
+    private static final byte[] PRIORITY_START = bytes("<priority>");
+
+    private static final byte[] PRIORITY_END = bytes("</priority>\n");
+
+    private static final byte[] URL_END = bytes("</url>\n");
+
+    private static final byte[] ALTERNATE_START = bytes("<xhtml:link rel=\"alternate\" hreflang=\"");
+
+    private static final byte[] ALTERNATE_HREF = bytes("\" href=\"");
+
+    private static final byte[] ALTERNATE_END = bytes("\"/>\n");
+
+    private static final byte[] SLASH = bytes("/");
+
+    /**
+     * The placeholder for the page path in language URL patterns
+     */
+    private static final String PATH_PLACEHOLDER = "{path}";
+
+    private static final byte[][] IMAGE = container("image:image");
+
+    private static final byte[][] IMAGE_LOC = element("image:loc");
+
+    private static final byte[][] IMAGE_CAPTION = element("image:caption");
+
+    private static final byte[][] IMAGE_GEO_LOCATION = element("image:geo_location");
+
+    private static final byte[][] IMAGE_TITLE = element("image:title");
+
+    private static final byte[][] IMAGE_LICENSE = element("image:license");
+
+    private static final byte[][] VIDEO = container("video:video");
+
+    private static final byte[][] VIDEO_THUMBNAIL_LOC = element("video:thumbnail_loc");
+
+    private static final byte[][] VIDEO_TITLE = element("video:title");
+
+    private static final byte[][] VIDEO_DESCRIPTION = element("video:description");
+
+    private static final byte[][] VIDEO_CONTENT_LOC = element("video:content_loc");
+
+    private static final byte[][] VIDEO_PLAYER_LOC = element("video:player_loc");
+
+    private static final byte[][] VIDEO_DURATION = element("video:duration");
+
+    private static final byte[][] VIDEO_EXPIRATION_DATE = element("video:expiration_date");
+
+    private static final byte[][] VIDEO_PUBLICATION_DATE = element("video:publication_date");
+
+    private static final byte[][] VIDEO_FAMILY_FRIENDLY = element("video:family_friendly");
+
+    private static final byte[][] NEWS = container("news:news");
+
+    private static final byte[][] NEWS_PUBLICATION = container("news:publication");
+
+    private static final byte[][] NEWS_NAME = element("news:name");
+
+    private static final byte[][] NEWS_LANGUAGE = element("news:language");
+
+    private static final byte[][] NEWS_PUBLICATION_DATE = element("news:publication_date");
+
+    private static final byte[][] NEWS_TITLE = element("news:title");
+
+    private static final byte[] ESCAPED_AMPERSAND = bytes("&amp;");
+
+    private static final byte[] ESCAPED_LESS_THAN = bytes("&lt;");
+
+    private static final byte[] ESCAPED_GREATER_THAN = bytes("&gt;");
+
+    private static final byte[] ESCAPED_QUOTE = bytes("&quot;");
+
+    private static final byte[] ESCAPED_APOSTROPHE = bytes("&apos;");
+
+    /**
+     * The complete <code>&lt;changefreq&gt;</code> elements for the
+     * {@link ChangeFreq} constants (indexed by their ordinal).
+     */
+    private static final byte[][] CHANGE_FREQUENCY_ELEMENTS = new byte[ChangeFreq.values().length][];
+
+    /**
+     * The number of pre-encoded priority values per unit (i.e. priorities with
+     * two decimal places are pre-encoded)
+     */
+    private static final int PRIORITY_STEPS = 100;
+
+    /**
+     * The pre-encoded priorities 0.0, 0.01, ..., 1.0 (as by
+     * {@link Double#toString(double)})
+     */
+    private static final byte[][] PRIORITY_VALUES = new byte[PRIORITY_STEPS + 1][];
+
+    static {
+        for (ChangeFreq changeFreq : ChangeFreq.values()) {
+            CHANGE_FREQUENCY_ELEMENTS[changeFreq.ordinal()] = bytes(
+                    "<changefreq>" + changeFreq.name().toLowerCase() + "</changefreq>\n");
+        }
+        for (int i = 0; i <= PRIORITY_STEPS; i++) {
+            PRIORITY_VALUES[i] = bytes(Double.toString((double) i / PRIORITY_STEPS));
+        }
+    }
+
+    private final OutputStream out;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position;
+
+    /**
+     * The UTF-8 encoded (and XML-escaped) URL prefix for all entries,
+     * including a trailing slash.
+     */
+    private final byte[] encodedUrlPrefix;
+
+    /**
+     * The reusable buffer for formatting numbers
+     */
+    private final char[] digits = new char[20];
+
+    /**
+     * The encoded <code>hreflang</code> attribute start of every language
+     * (see {@link #setLanguageUrls(String[], String[])}), or null
+     */
+    private byte[][] languageLinkStarts;
+
+    /**
+     * The encoded part of every language's page URL preceding the page path
+     */
+    private byte[][] languageUrlStarts;
+
+    /**
+     * The encoded part of every language's page URL following the page path
+     */
+    private byte[][] languageUrlEnds;
+
+    /**
+     * The (reusable) indices of the languages of the current entry
+     */
+    private int[] entryLanguages;
+
+    private String[] languages;
+
+    /**
+     * The page path of the entry being written (or null, if it has been given
+     * in encoded form)
+     */
+    private String pagePath;
+
+    /**
+     * The buffer holding the UTF-8 encoded page path of the entry being
+     * written (if {@link #pagePath} is null), and its start and end in it
+     */
+    private ByteBuffer encodedPaths;
+
+    private int pathStart;
+
+    private int pathEnd;
+
+    private int urlCount;
+
+    /**
+     * @param out
+     *            the {@link OutputStream} to write the sitemap to
+     * @param siteUrlPrefix
+     *            the prefix (protocol, host name, port, and path) to prepend to
+     *            all page paths. A trailing slash is optional.
+     */
+    public SitemapWriter(OutputStream out, String siteUrlPrefix) {
+        this.out = out;
+        this.encodedUrlPrefix = escapedBytes(siteUrlPrefix.endsWith("/") ? siteUrlPrefix : siteUrlPrefix + "/");
+    }
+
+    /**
+     * Set the languages the pages of this sitemap may be available in, and the
+     * URL patterns of the language versions of a page. Entries with languages
+     * (see {@link SitemapExtensions#getLanguages()}) are written once per
+     * language, with all language versions linked as alternates of each other.
+     *
+     * @param languages
+     *            the language codes (e.g. of <code>application.languages</code>)
+     * @param urlPatterns
+     *            the URL pattern of every language. The placeholder
+     *            <code>{path}</code> is replaced with the page path (including
+     *            a leading slash). Patterns without "://" are relative to the
+     *            site URL prefix.
+     */
+    public void setLanguageUrls(String[] languages, String[] urlPatterns) {
+        if (languages.length != urlPatterns.length) {
+            throw new IllegalArgumentException(
+                    languages.length + " languages, but " + urlPatterns.length + " URL patterns");
+        }
+        if (languages.length == 0) {
+            this.languages = null;
+            this.languageLinkStarts = null;
+            return;
+        }
+        this.languages = languages.clone();
+        this.languageLinkStarts = new byte[languages.length][];
+        this.languageUrlStarts = new byte[languages.length][];
+        this.languageUrlEnds = new byte[languages.length][];
+        this.entryLanguages = new int[languages.length];
+        for (int i = 0; i < languages.length; i++) {
+            String pattern = urlPatterns[i];
+            int pathIndex = pattern.indexOf(PATH_PLACEHOLDER);
+            String head = (pathIndex < 0) ? pattern : pattern.substring(0, pathIndex);
+            String tail = (pathIndex < 0) ? "" : pattern.substring(pathIndex + PATH_PLACEHOLDER.length());
+
+            languageLinkStarts[i] = concat(bytes("<xhtml:link rel=\"alternate\" hreflang=\""),
+                    escapedBytes(languages[i]), bytes("\" href=\""));
+            if (head.indexOf("://") > 0) {
+                languageUrlStarts[i] = escapedBytes(head);
+            } else {
+                byte[] relative = escapedBytes(head.startsWith("/") ? head.substring(1) : head);
+                languageUrlStarts[i] = Arrays.copyOf(encodedUrlPrefix, encodedUrlPrefix.length + relative.length);
+                System.arraycopy(relative, 0, languageUrlStarts[i], encodedUrlPrefix.length, relative.length);
+            }
+            languageUrlEnds[i] = escapedBytes(tail);
+        }
+    }
+
+    /**
+     * Write the XML declaration and the opening <code>&lt;urlset&gt;</code>
+     * element.
+     *
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeStartDocument() throws IOException {
+        write(ENCODED_URLSET_START);
+    }
+
+    /**
+     * Write a single <code>&lt;url&gt;</code> element.
+     *
+     * @param pagePath
+     *            the path of the page, relative to the site URL prefix. A
+     *            leading slash is ignored.
+     * @param lastModified
+     *            the last modification date (optional)
+     * @param changeFrequency
+     *            the change frequency (optional)
+     * @param priority
+     *            the priority of the page (in the range 0 to 1.0)
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeUrl(String pagePath, Date lastModified, ChangeFreq changeFrequency, double priority)
+            throws IOException {
+        writeUrl(pagePath, (lastModified == null) ? NO_LAST_MODIFIED : lastModified.getTime(), changeFrequency,
+                priority, null);
+    }
+
+    /**
+     * Write a single <code>&lt;url&gt;</code> element.
+     *
+     * @param pagePath
+     *            the path of the page, relative to the site URL prefix. A
+     *            leading slash is ignored.
+     * @param lastModified
+     *            the last modification time (in milliseconds since the epoch),
+     *            or {@link #NO_LAST_MODIFIED}
+     * @param changeFrequency
+     *            the change frequency (optional)
+     * @param priority
+     *            the priority of the page (in the range 0 to 1.0)
+     * @param extensions
+     *            the {@link SitemapExtensions} of the page (or null)
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeUrl(String pagePath, long lastModified, ChangeFreq changeFrequency, double priority,
+            SitemapExtensions extensions) throws IOException {
+        writeUrl(pagePath, lastModified, changeFrequency, priority, extensions, false);
+    }
+
+    /**
+     * Write the <code>&lt;url&gt;</code> element(s) of a page: one per
+     * language of the page (see
+     * {@link #setLanguageUrls(String[], String[])}), or a single one if the
+     * page has no languages.
+     *
+     * @param pagePath
+     *            the path of the page, relative to the site URL prefix. A
+     *            leading slash is ignored.
+     * @param lastModified
+     *            the last modification time (in milliseconds since the epoch),
+     *            or {@link #NO_LAST_MODIFIED}
+     * @param changeFrequency
+     *            the change frequency (optional)
+     * @param priority
+     *            the priority of the page (in the range 0 to 1.0)
+     * @param extensions
+     *            the {@link SitemapExtensions} of the page (or null)
+     * @param allLanguages
+     *            true, if the page is available in all languages (unless the
+     *            extensions list the page's languages)
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeUrl(String pagePath, long lastModified, ChangeFreq changeFrequency, double priority,
+            SitemapExtensions extensions, boolean allLanguages) throws IOException {
+        this.pagePath = pagePath;
+        try {
+            writeUrlElements(lastModified, changeFrequency, priority, extensions, allLanguages);
+        } finally {
+            this.pagePath = null;
+        }
+    }
+
+    /**
+     * Write the <code>&lt;url&gt;</code> element(s) of a page with an already
+     * UTF-8 encoded page path, which is copied straight from the given buffer
+     * (escaping XML special characters, and dropping characters which are not
+     * allowed in XML documents).
+     *
+     * @param encodedPaths
+     *            the buffer holding the encoded page path. Its position and
+     *            limit are not used (nor changed).
+     * @param start
+     *            the index of the first byte of the page path in the buffer
+     * @param end
+     *            the index following the last byte of the page path
+     * @see #writeUrl(String, long, ChangeFreq, double, SitemapExtensions,
+     *      boolean)
+     */
+    public void writeUrl(ByteBuffer encodedPaths, int start, int end, long lastModified, ChangeFreq changeFrequency,
+            double priority, SitemapExtensions extensions, boolean allLanguages) throws IOException {
+        this.encodedPaths = encodedPaths;
+        this.pathStart = start;
+        this.pathEnd = end;
+        try {
+            writeUrlElements(lastModified, changeFrequency, priority, extensions, allLanguages);
+        } finally {
+            this.encodedPaths = null;
+        }
+    }
+
+    /**
+     * Write the <code>&lt;url&gt;</code> element(s) of the current page path.
+     */
+    private void writeUrlElements(long lastModified, ChangeFreq changeFrequency, double priority,
+            SitemapExtensions extensions, boolean allLanguages) throws IOException {
+        int languageCount = selectLanguages(extensions, allLanguages);
+        if (languageCount == 0) {
+            writeUrlElement(-1, 0, lastModified, changeFrequency, priority, extensions);
+        } else {
+            for (int i = 0; i < languageCount; i++) {
+                writeUrlElement(entryLanguages[i], languageCount, lastModified, changeFrequency, priority,
+                        extensions);
+            }
+        }
+    }
+
+    /**
+     * Write a single <code>&lt;url&gt;</code> element for the given language
+     * (or -1), linking the first <code>languageCount</code> languages in
+     * {@link #entryLanguages} as alternates.
+     */
+    private void writeUrlElement(int language, int languageCount, long lastModified, ChangeFreq changeFrequency,
+            double priority, SitemapExtensions extensions) throws IOException {
+        write(URL_START);
+        writePageUrl(language);
+        write(LOC_END);
+
+        if (lastModified != NO_LAST_MODIFIED) {
+            write(LASTMOD_START);
+            writeDate(lastModified);
+            write(LASTMOD_END);
+        }
+
+        if (changeFrequency != null) {
+            write(CHANGE_FREQUENCY_ELEMENTS[changeFrequency.ordinal()]);
+        }
+
+        write(PRIORITY_START);
+        writePriority(priority);
+        write(PRIORITY_END);
+
+        for (int i = 0; i < languageCount; i++) {
+            write(languageLinkStarts[entryLanguages[i]]);
+            writePageUrl(entryLanguages[i]);
+            write(ALTERNATE_END);
+        }
+        if (extensions != null) {
+            writeExtensions(extensions);
+        }
+        write(URL_END);
+
+        urlCount++;
+    }
+
+    /**
+     * Collect the indices of the languages of an entry in
+     * {@link #entryLanguages}, in the configured order.
+     *
+     * @return the number of languages
+     */
+    private int selectLanguages(SitemapExtensions extensions, boolean allLanguages) {
+        if (languages == null) {
+            return 0;
+        }
+        String[] pageLanguages = (extensions == null) ? null : extensions.getLanguages();
+        if (pageLanguages == null) {
+            if (!allLanguages) {
+                return 0;
+            }
+            for (int i = 0; i < languages.length; i++) {
+                entryLanguages[i] = i;
+            }
+            return languages.length;
+        }
+        int count = 0;
+        for (int i = 0; i < languages.length; i++) {
+            for (String pageLanguage : pageLanguages) {
+                if (languages[i].equals(pageLanguage)) {
+                    entryLanguages[count++] = i;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the URL of the current page (in the given language, or -1 for the
+     * plain page path).
+     */
+    private void writePageUrl(int language) throws IOException {
+        if (language < 0) {
+            write(encodedUrlPrefix);
+            writePagePath();
+            return;
+        }
+        byte[] start = languageUrlStarts[language];
+        write(start);
+        if ((start.length == 0) || (start[start.length - 1] != '/')) {
+            write(SLASH);
+        }
+        writePagePath();
+        write(languageUrlEnds[language]);
+    }
+
+    /**
+     * Write the (escaped) current page path, without its leading slash.
+     */
+    private void writePagePath() throws IOException {
+        if (pagePath != null) {
+            writeEscaped(pagePath, pagePath.startsWith("/") ? 1 : 0);
+        } else {
+            int start = ((pathStart < pathEnd) && (encodedPaths.get(pathStart) == '/')) ? pathStart + 1 : pathStart;
+            writeEscaped(encodedPaths, start, pathEnd);
+        }
+    }
+
+    /**
+     * Write the closing <code>&lt;/urlset&gt;</code> element and flush all
+     * buffered data to the underlying stream.
+     *
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void writeEndDocument() throws IOException {
+        write(ENCODED_URLSET_END);
+        flush();
+    }
+
+    /**
+     * Flush all buffered data to the underlying stream.
+     *
+     * @throws IOException
+     *             if writing to the underlying stream fails
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * @return the number of <code>&lt;url&gt;</code> elements written so far
+     */
+    public int getUrlCount() {
+        return urlCount;
+    }
+
+    /**
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    /**
+     * Escape the XML special characters in the given string, and drop the
+     * characters which are not allowed in XML documents, exactly like page
+     * paths are written.
+     *
+     * @param s
+     *            the string to escape
+     * @return the escaped string
+     */
+    static String escape(String s) {
+        return new String(escapedBytes(s), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the given string, escaped like {@link #escape(String)}, and
+     *         encoded as UTF-8
+     */
+    static byte[] escapedBytes(String s) {
+        byte[] escaped = new byte[s.length() * MAX_CHAR_BYTES];
+        return Arrays.copyOf(escaped, putEscaped(escaped, 0, s, 0, s.length()));
+    }
+
+    private void write(byte[] data) throws IOException {
+        if (position + data.length > buffer.length) {
+            flushBuffer();
+            if (data.length > buffer.length) {
+                out.write(data);
+                return;
+            }
+        }
+        System.arraycopy(data, 0, buffer, position, data.length);
+        position += data.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Write the given string (starting at the given offset), escaping XML
+     * special characters and encoding it as UTF-8 in a single pass.
+     * Unpaired surrogates are written as '?'. Characters which are not
+     * allowed in XML documents (control characters other than tab, line feed
+     * and carriage return, and U+FFFE/U+FFFF) are dropped, as they would make
+     * the whole document invalid.
+     */
+    private void writeEscaped(String s, int offset) throws IOException {
+        int len = s.length();
+        int i = offset;
+        while (i < len) {
+            // as many characters as certainly fit into the buffer, without
+            // splitting a surrogate pair
+            int end = Math.min(len, i + (buffer.length - position) / MAX_CHAR_BYTES);
+            if ((end > i) && (end < len) && Character.isHighSurrogate(s.charAt(end - 1))) {
+                end--;
+            }
+            if (end == i) {
+                flushBuffer();
+            } else {
+                position = putEscaped(buffer, position, s, i, end);
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * Escape and encode the given range of the string into the buffer, which
+     * must have room for {@link #MAX_CHAR_BYTES} per character. This is the
+     * single escaping routine for all strings written to sitemaps.
+     *
+     * @return the new position in the buffer
+     */
+    private static int putEscaped(byte[] buffer, int position, String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                position = putAscii(buffer, position, c);
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && (i + 1 < end) && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    buffer[position++] = '?';
+                }
+            } else if (c < 0xfffe) {
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Write the given range of UTF-8 data (as encoded by
+     * {@link String#getBytes(java.nio.charset.Charset)}), escaping XML
+     * special characters and dropping characters which are not allowed in XML
+     * documents, like {@link #writeEscaped(String, int)} does.
+     */
+    private void writeEscaped(ByteBuffer data, int start, int end) throws IOException {
+        byte[] buffer = this.buffer;
+        int position = this.position;
+        for (int i = start; i < end; i++) {
+            if (position + MAX_CHAR_BYTES > buffer.length) {
+                this.position = position;
+                flushBuffer();
+                position = 0;
+            }
+            byte b = data.get(i);
+            if (b >= 0) {
+                position = putAscii(buffer, position, b);
+            } else if ((b == (byte) 0xef) && (i + 2 < end) && (data.get(i + 1) == (byte) 0xbf)
+                    && ((data.get(i + 2) & 0xfe) == 0xbe)) {
+                // U+FFFE or U+FFFF
+                i += 2;
+            } else {
+                buffer[position++] = b;
+            }
+        }
+        this.position = position;
+    }
+
+    /**
+     * Put a single ASCII character (escaped, if required) into the buffer.
+     * Control characters other than tab, line feed and carriage return are
+     * dropped.
+     *
+     * @return the new position in the buffer
+     */
+    private static int putAscii(byte[] buffer, int position, int c) {
+        switch (c) {
+        case '&':
+            return put(buffer, position, ESCAPED_AMPERSAND);
+        case '<':
+            return put(buffer, position, ESCAPED_LESS_THAN);
+        case '>':
+            return put(buffer, position, ESCAPED_GREATER_THAN);
+        case '"':
+            return put(buffer, position, ESCAPED_QUOTE);
+        case '\'':
+            return put(buffer, position, ESCAPED_APOSTROPHE);
+        case '\t':
+        case '\n':
+        case '\r':
+            buffer[position] = (byte) c;
+            return position + 1;
+        default:
+            if (c < 0x20) {
+                return position;
+            }
+            buffer[position] = (byte) c;
+            return position + 1;
+        }
+    }
+
+    private static int put(byte[] buffer, int position, byte[] data) {
+        System.arraycopy(data, 0, buffer, position, data.length);
+        return position + data.length;
+    }
+
+    private void writeExtensions(SitemapExtensions extensions) throws IOException {
+        if (extensions.getAlternates() != null) {
+            for (SitemapAlternate alternate : extensions.getAlternates()) {
+                write(ALTERNATE_START);
+                writeEscaped(alternate.getHreflang(), 0);
+                write(ALTERNATE_HREF);
+                writeLocation(alternate.getHref());
+                write(ALTERNATE_END);
+            }
+        }
+
+        if (extensions.getImages() != null) {
+            for (SitemapImage image : extensions.getImages()) {
+                write(IMAGE[0]);
+                writeLocationElement(IMAGE_LOC, image.getLoc());
+                writeElement(IMAGE_CAPTION, image.getCaption());
+                writeElement(IMAGE_GEO_LOCATION, image.getGeoLocation());
+                writeElement(IMAGE_TITLE, image.getTitle());
+                writeLocationElement(IMAGE_LICENSE, image.getLicense());
+                write(IMAGE[1]);
+            }
+        }
+
+        if (extensions.getVideos() != null) {
+            for (SitemapVideo video : extensions.getVideos()) {
+                write(VIDEO[0]);
+                writeLocationElement(VIDEO_THUMBNAIL_LOC, video.getThumbnailLoc());
+                writeElement(VIDEO_TITLE, video.getTitle());
+                writeElement(VIDEO_DESCRIPTION, video.getDescription());
+                writeLocationElement(VIDEO_CONTENT_LOC, video.getContentLoc());
+                writeLocationElement(VIDEO_PLAYER_LOC, video.getPlayerLoc());
+                if (video.getDuration() != null) {
+                    write(VIDEO_DURATION[0]);
+                    writeNumber(video.getDuration());
+                    write(VIDEO_DURATION[1]);
+                }
+                writeDateTimeElement(VIDEO_EXPIRATION_DATE, video.getExpirationDate());
+                writeDateTimeElement(VIDEO_PUBLICATION_DATE, video.getPublicationDate());
+                if (video.getFamilyFriendly() != null) {
+                    writeElement(VIDEO_FAMILY_FRIENDLY, video.getFamilyFriendly() ? "yes" : "no");
+                }
+                write(VIDEO[1]);
+            }
+        }
+
+        SitemapNews news = extensions.getNews();
+        if (news != null) {
+            write(NEWS[0]);
+            write(NEWS_PUBLICATION[0]);
+            writeElement(NEWS_NAME, news.getPublicationName());
+            writeElement(NEWS_LANGUAGE, news.getPublicationLanguage());
+            write(NEWS_PUBLICATION[1]);
+            writeDateTimeElement(NEWS_PUBLICATION_DATE, news.getPublicationDate());
+            writeElement(NEWS_TITLE, news.getTitle());
+            write(NEWS[1]);
+        }
+    }
+
+    /**
+     * Write a (single line) element with the given (escaped) text, unless the
+     * text is null.
+     */
+    private void writeElement(byte[][] element, String text) throws IOException {
+        if (text != null) {
+            write(element[0]);
+            writeEscaped(text, 0);
+            write(element[1]);
+        }
+    }
+
+    /**
+     * Write a (single line) element with the given URL (see
+     * {@link #writeLocation(String)}), unless the URL is null.
+     */
+    private void writeLocationElement(byte[][] element, String url) throws IOException {
+        if (url != null) {
+            write(element[0]);
+            writeLocation(url);
+            write(element[1]);
+        }
+    }
+
+    /**
+     * Write a (single line) element with the given date and time, unless the
+     * date is null.
+     */
+    private void writeDateTimeElement(byte[][] element, Date date) throws IOException {
+        if (date != null) {
+            write(element[0]);
+            writeDate(date.getTime());
+            writeTime(date.getTime());
+            write(element[1]);
+        }
+    }
+
+    /**
+     * Write a URL of an extension. Absolute URLs are written as they are (but
+     * escaped), all others are relative to the URL prefix (like the page path).
+     */
+    private void writeLocation(String url) throws IOException {
+        if (url.indexOf("://") > 0) {
+            writeEscaped(url, 0);
+        } else {
+            write(encodedUrlPrefix);
+            writeEscaped(url, url.startsWith("/") ? 1 : 0);
+        }
+    }
+
+    private void writeNumber(long value) throws IOException {
+        if (position + digits.length > buffer.length) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+        }
+        int count = 0;
+        do {
+            digits[count++] = (char) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            buffer[position++] = (byte) digits[--count];
+        }
+    }
+
+    /**
+     * Write the UTC time of day of the given time in W3C format
+     * (Thh:mm:ssZ), following a date written with {@link #writeDate(long)}.
+     */
+    private void writeTime(long millis) throws IOException {
+        if (position + 10 > buffer.length) {
+            flushBuffer();
+        }
+        int seconds = (int) (((millis % MILLIS_PER_DAY) + MILLIS_PER_DAY) % MILLIS_PER_DAY / 1000);
+        int hours = seconds / 3600;
+        int minutes = (seconds / 60) % 60;
+        seconds %= 60;
+        buffer[position++] = 'T';
+        buffer[position++] = (byte) ('0' + hours / 10);
+        buffer[position++] = (byte) ('0' + hours % 10);
+        buffer[position++] = ':';
+        buffer[position++] = (byte) ('0' + minutes / 10);
+        buffer[position++] = (byte) ('0' + minutes % 10);
+        buffer[position++] = ':';
+        buffer[position++] = (byte) ('0' + seconds / 10);
+        buffer[position++] = (byte) ('0' + seconds % 10);
+        buffer[position++] = 'Z';
+    }
+
+    /**
+     * Write the UTC date of the given time in W3C format (yyyy-MM-dd).
+     */
+    private void writeDate(long millis) throws IOException {
+        // at most 10 digits for the year, and '-MM-dd'
+        if (position + 16 > buffer.length) {
+            flushBuffer();
+        }
+
+        long days = millis / MILLIS_PER_DAY;
+        if ((millis % MILLIS_PER_DAY) < 0) {
+            days--;
+        }
+        // civil date from days since 1970-01-01 (proleptic Gregorian
+        // calendar), see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = ((z >= 0) ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) ((mp < 10) ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+
+        if ((year < 0) || (year > 9999)) {
+            // not representable with four digits. very unlikely.
+            write(bytes(String.format("%04d-%02d-%02d", year, month, day)));
+            return;
+        }
+        int y = (int) year;
+        buffer[position++] = (byte) ('0' + y / 1000);
+        buffer[position++] = (byte) ('0' + (y / 100) % 10);
+        buffer[position++] = (byte) ('0' + (y / 10) % 10);
+        buffer[position++] = (byte) ('0' + y % 10);
+        buffer[position++] = '-';
+        buffer[position++] = (byte) ('0' + month / 10);
+        buffer[position++] = (byte) ('0' + month % 10);
+        buffer[position++] = '-';
+        buffer[position++] = (byte) ('0' + day / 10);
+        buffer[position++] = (byte) ('0' + day % 10);
+    }
+
+    /**
+     * Write the given priority (as by {@link Double#toString(double)}).
+     */
+    private void writePriority(double priority) throws IOException {
+        double steps = priority * PRIORITY_STEPS;
+        if ((steps >= 0) && (steps <= PRIORITY_STEPS)) {
+            int step = (int) Math.round(steps);
+            if ((double) step / PRIORITY_STEPS == priority) {
+                write(PRIORITY_VALUES[step]);
+                return;
+            }
+        }
+        write(bytes(Double.toString(priority)));
+    }
+
+    /**
+     * @return the pre-encoded start and end tags of a (single line) element
+     */
+    private static byte[][] element(String name) {
+        return new byte[][] { bytes("<" + name + ">"), bytes("</" + name + ">\n") };
+    }
+
+    /**
+     * @return the pre-encoded start and end tags of an element containing
+     *         further elements
+     */
+    private static byte[][] container(String name) {
+        return new byte[][] { bytes("<" + name + ">\n"), bytes("</" + name + ">\n") };
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] part : parts) {
+            position = put(result, position, part);
+        }
+        return result;
+    }
+
+}
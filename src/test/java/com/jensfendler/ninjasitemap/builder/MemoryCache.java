@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ninja.cache.Cache;
+
+/**
+ * An in-memory stand-in for a shared cache (like memcached), for tests. Like
+ * memcached, it refuses items larger than a maximum size, in which case the
+ * safe methods return false. Items do not expire.
+ *
+ * @author Jens Fendler
+ *
+ */
+class MemoryCache implements Cache {
+
+    private final Map<String, Object> items = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * The maximum (serialized) size of an item
+     */
+    private volatile int maxItemSize = Integer.MAX_VALUE;
+
+    void setMaxItemSize(int maxItemSize) {
+        this.maxItemSize = maxItemSize;
+    }
+
+    boolean contains(String key) {
+        return items.containsKey(key);
+    }
+
+    public void add(String key, Object value, int expiration) {
+        safeAdd(key, value, expiration);
+    }
+
+    public synchronized boolean safeAdd(String key, Object value, int expiration) {
+        if (items.containsKey(key) || !fits(value)) {
+            return false;
+        }
+        items.put(key, value);
+        return true;
+    }
+
+    public void set(String key, Object value, int expiration) {
+        safeSet(key, value, expiration);
+    }
+
+    public synchronized boolean safeSet(String key, Object value, int expiration) {
+        if (!fits(value)) {
+            return false;
+        }
+        items.put(key, value);
+        return true;
+    }
+
+    public void replace(String key, Object value, int expiration) {
+        safeReplace(key, value, expiration);
+    }
+
+    public synchronized boolean safeReplace(String key, Object value, int expiration) {
+        if (!items.containsKey(key) || !fits(value)) {
+            return false;
+        }
+        items.put(key, value);
+        return true;
+    }
+
+    public Object get(String key) {
+        return items.get(key);
+    }
+
+    public Map<String, Object> get(String[] keys) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        for (String key : keys) {
+            Object value = items.get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    public synchronized long incr(String key, int by) {
+        Object value = items.get(key);
+        if (!(value instanceof Long)) {
+            return -1;
+        }
+        long incremented = (Long) value + by;
+        items.put(key, incremented);
+        return incremented;
+    }
+
+    public long decr(String key, int by) {
+        return incr(key, -by);
+    }
+
+    public void clear() {
+        items.clear();
+    }
+
+    public void delete(String key) {
+        items.remove(key);
+    }
+
+    public boolean safeDelete(String key) {
+        return items.remove(key) != null;
+    }
+
+    private boolean fits(Object value) {
+        if (maxItemSize == Integer.MAX_VALUE) {
+            return true;
+        }
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(data);
+            out.writeObject(value);
+            out.close();
+            return data.size() <= maxItemSize;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+}
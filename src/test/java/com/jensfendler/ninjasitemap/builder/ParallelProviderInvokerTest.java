@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+import com.jensfendler.ninjasitemap.builder.ParallelProviderInvoker.PendingEntries;
+import com.jensfendler.ninjasitemap.builder.SitemapBuildLeaseTest.TestMetrics;
+
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests the timeouts of the {@link ParallelProviderInvoker}, and its fallback
+ * to the entries of the previous build, with providers which ignore
+ * interrupts.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class ParallelProviderInvokerTest {
+
+    private NinjaPropertiesImpl ninjaProperties;
+
+    private ParallelProviderInvoker invoker;
+
+    /**
+     * Released at the end of every test, so that stuck providers return
+     */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty("ninja.sitemap.providerThreads", "1");
+        ninjaProperties.setProperty("ninja.sitemap.providerTimeout", "1s");
+        ninjaProperties.setProperty("ninja.sitemap.providerDeadline", "2s");
+        invoker = new ParallelProviderInvoker();
+        invoker.ninjaProperties = ninjaProperties;
+        invoker.metrics = new TestMetrics(ninjaProperties);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        invoker.stop();
+    }
+
+    @Test
+    public void testTimedOutProviderFallsBackToThePreviousEntries() throws Exception {
+        List<SitemapEntry> entries = invoker.await(invoker.submit(0, "provider", new FixedProvider("/a", "/b")));
+        assertEquals(2, entries.size());
+
+        PendingEntries pending = invoker.submit(0, "provider", new StuckProvider());
+        List<SitemapEntry> fallback = invoker.await(pending);
+        assertTrue(pending.hasFailed());
+        assertEquals(2, fallback.size());
+        assertEquals("/b", fallback.get(1).getPagePath());
+        assertEquals(1, invoker.metrics.getCounter("provider.failure"));
+    }
+
+    @Test
+    public void testTimedOutProviderIsSkippedWithoutFallback() throws Exception {
+        ninjaProperties.setProperty("ninja.sitemap.providerFallback", "false");
+        invoker.await(invoker.submit(0, "provider", new FixedProvider("/a")));
+
+        PendingEntries pending = invoker.submit(0, "provider", new StuckProvider());
+        assertNull(invoker.await(pending));
+        assertTrue(pending.hasFailed());
+    }
+
+    @Test
+    public void testQueuedProviderIsSkippedAfterTheDeadline() throws Exception {
+        // the only thread is blocked by a provider which ignores interrupts
+        PendingEntries stuck = invoker.submit(0, "stuck provider", new StuckProvider());
+        FixedProvider queuedProvider = new FixedProvider("/a");
+        PendingEntries queued = invoker.submit(1, "queued provider", queuedProvider);
+
+        assertNull(invoker.await(stuck));
+        long start = System.nanoTime();
+        assertNull(invoker.await(queued));
+        assertTrue(queued.hasFailed());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+        // the queued provider is cancelled, and never runs
+        release.countDown();
+        invoker.await(invoker.submit(2, "provider", new FixedProvider("/b")));
+        assertEquals(0, queuedProvider.calls.get());
+    }
+
+    @Test
+    public void testStillRunningProviderIsNotInvokedAgain() throws Exception {
+        ninjaProperties.setProperty("ninja.sitemap.providerThreads", "2");
+        invoker.await(invoker.submit(0, "provider", new FixedProvider("/a")));
+        StuckProvider stuckProvider = new StuckProvider();
+        invoker.await(invoker.submit(0, "provider", stuckProvider));
+
+        // the previous call is still running
+        FixedProvider provider = new FixedProvider("/b");
+        long start = System.nanoTime();
+        PendingEntries pending = invoker.submit(0, "provider", provider);
+        List<SitemapEntry> fallback = invoker.await(pending);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(pending.hasFailed());
+        assertEquals("/a", fallback.get(0).getPagePath());
+        assertEquals(0, provider.calls.get());
+
+        // once it has returned, the provider is invoked again
+        release.countDown();
+        stuckProvider.returned.await(5, TimeUnit.SECONDS);
+        for (int i = 0; (i < 100) && (provider.calls.get() == 0); i++) {
+            pending = invoker.submit(0, "provider", provider);
+            invoker.await(pending);
+            Thread.sleep(10);
+        }
+        assertEquals(1, provider.calls.get());
+        assertFalse(pending.hasFailed());
+    }
+
+    /**
+     * A provider returning fixed entries.
+     */
+    static class FixedProvider implements Callable<List<SitemapEntry>> {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        private final String[] pagePaths;
+
+        FixedProvider(String... pagePaths) {
+            this.pagePaths = pagePaths;
+        }
+
+        public List<SitemapEntry> call() {
+            calls.incrementAndGet();
+            SitemapEntry[] entries = new SitemapEntry[pagePaths.length];
+            for (int i = 0; i < pagePaths.length; i++) {
+                entries[i] = new SitemapEntry(pagePaths[i], new Date(0), Sitemap.DAILY, 0.5);
+            }
+            return Arrays.asList(entries);
+        }
+
+    }
+
+    /**
+     * A provider which ignores interrupts, and only returns once the test has
+     * ended.
+     */
+    class StuckProvider implements Callable<List<SitemapEntry>> {
+
+        final CountDownLatch returned = new CountDownLatch(1);
+
+        public List<SitemapEntry> call() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    release.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            returned.countDown();
+            return Collections.emptyList();
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+
+import ninja.Result;
+import ninja.Route;
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests that the {@link RouteEntryCache} keeps the entries of every route for
+ * its own cache TTL, so that only the providers of expired routes are called
+ * again.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class RouteEntryCacheTest {
+
+    /**
+     * The number of calls of every route's provider (by route URI)
+     */
+    private static final ConcurrentMap<String, AtomicInteger> PROVIDER_CALLS = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private NinjaPropertiesImpl ninjaProperties;
+
+    private SitemapBuilder sitemapBuilder;
+
+    @Before
+    public void setUp() throws Exception {
+        PROVIDER_CALLS.clear();
+        ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        sitemapBuilder = new TestSitemapBuilder(ninjaProperties, Controller.class, "/short/{id}", "shortTtl",
+                "/long/{id}", "longTtl", "/uncached/{id}", "uncached");
+    }
+
+    @Test
+    public void testOnlyExpiredProvidersAreCalledAgain() throws Exception {
+        assertEquals(6, sitemapBuilder.build("https://www.example.com").getUrlCount());
+        assertProviderCalls(1, 1, 1);
+
+        // all cached entries are still fresh
+        assertEquals(6, sitemapBuilder.build("https://www.example.com").getUrlCount());
+        assertProviderCalls(1, 1, 2);
+
+        // the short TTL expires
+        Thread.sleep(1100);
+        assertEquals(6, sitemapBuilder.build("https://www.example.com").getUrlCount());
+        assertProviderCalls(2, 1, 3);
+    }
+
+    @Test
+    public void testDefaultTtlAppliesToRoutesWithoutTheirOwn() throws Exception {
+        ninjaProperties.setProperty(SitemapBuilder.KEY_CACHE_TTL, "1h");
+        sitemapBuilder.build("https://www.example.com");
+        sitemapBuilder.build("https://www.example.com");
+        assertProviderCalls(1, 1, 1);
+    }
+
+    @Test
+    public void testCachedEntriesAreWrittenLikeFreshOnes() throws Exception {
+        byte[] first = sitemapBuilder.build("https://www.example.com").getMainDocument().getXml();
+        byte[] second = sitemapBuilder.build("https://www.example.com").getMainDocument().getXml();
+        assertEquals(new String(first, "UTF-8"), new String(second, "UTF-8"));
+    }
+
+    private static void assertProviderCalls(int shortTtl, int longTtl, int uncached) {
+        assertEquals(shortTtl, getProviderCalls("/short/{id}"));
+        assertEquals(longTtl, getProviderCalls("/long/{id}"));
+        assertEquals(uncached, getProviderCalls("/uncached/{id}"));
+    }
+
+    private static int getProviderCalls(String uri) {
+        AtomicInteger calls = PROVIDER_CALLS.get(uri);
+        return (calls == null) ? 0 : calls.get();
+    }
+
+    public static class Controller {
+
+        @Sitemap(multiPageProvider = "com.jensfendler.ninjasitemap.builder.RouteEntryCacheTest$CountingProvider", cacheTtl = "1s")
+        public Result shortTtl() {
+            return null;
+        }
+
+        @Sitemap(multiPageProvider = "com.jensfendler.ninjasitemap.builder.RouteEntryCacheTest$CountingProvider", cacheTtl = "1h")
+        public Result longTtl() {
+            return null;
+        }
+
+        @Sitemap(multiPageProvider = "com.jensfendler.ninjasitemap.builder.RouteEntryCacheTest$CountingProvider")
+        public Result uncached() {
+            return null;
+        }
+
+    }
+
+    /**
+     * Returns two entries per route, and counts its calls.
+     */
+    public static class CountingProvider implements SitemapMultiPageProvider {
+
+        @Override
+        public List<SitemapEntry> getSitemapEntries(Route route, Sitemap sitemap) {
+            AtomicInteger calls = new AtomicInteger();
+            AtomicInteger previous = PROVIDER_CALLS.putIfAbsent(route.getUri(), calls);
+            (previous == null ? calls : previous).incrementAndGet();
+
+            String path = route.getUri().substring(0, route.getUri().indexOf('{'));
+            List<SitemapEntry> entries = new ArrayList<SitemapEntry>();
+            entries.add(new SitemapEntry(path + "1"));
+            entries.add(new SitemapEntry(path + "2"));
+            return entries;
+        }
+
+    }
+
+}
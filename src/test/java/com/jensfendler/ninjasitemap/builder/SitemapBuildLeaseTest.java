@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+
+import ninja.cache.NinjaCache;
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaProperties;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests the {@link SitemapBuildLease} of two nodes sharing a
+ * {@link MemoryCache}.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapBuildLeaseTest {
+
+    private MemoryCache memoryCache;
+
+    private NinjaPropertiesImpl ninjaProperties;
+
+    private SitemapBuildLease node1;
+
+    private SitemapBuildLease node2;
+
+    @Before
+    public void setUp() {
+        memoryCache = new MemoryCache();
+        ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty(SitemapBuildLease.KEY_CLUSTER_LEASE, "true");
+        node1 = new TestLease(new NinjaCache(memoryCache), ninjaProperties);
+        node2 = new TestLease(new NinjaCache(memoryCache), ninjaProperties);
+    }
+
+    @Test
+    public void testOnlyOneNodeAcquiresTheLease() {
+        String lease = node1.tryAcquire();
+        assertNotNull(lease);
+        assertNull(node2.tryAcquire());
+        assertTrue(node2.isHeldElsewhere());
+        assertFalse(node1.isHeldElsewhere());
+
+        node1.release(lease);
+        assertFalse(node2.isHeldElsewhere());
+        assertNotNull(node2.tryAcquire());
+    }
+
+    @Test
+    public void testOnlyOneThreadOfANodeAcquiresTheLease() {
+        assertNotNull(node1.tryAcquire());
+        assertNull(node1.tryAcquire());
+    }
+
+    @Test
+    public void testLeaseIsOnlyReleasedWithItsToken() {
+        String lease = node1.tryAcquire();
+        node1.release(null);
+        node1.release(lease + "0");
+        assertTrue(node2.isHeldElsewhere());
+
+        node1.release(lease);
+        assertFalse(node2.isHeldElsewhere());
+    }
+
+    @Test
+    public void testReleasingTwiceDoesNotReleaseALaterLease() {
+        String lease = node1.tryAcquire();
+        node1.release(lease);
+        String laterLease = node2.tryAcquire();
+        assertNotNull(laterLease);
+
+        node1.release(lease);
+        assertTrue(node1.isHeldElsewhere());
+        assertNull(node1.tryAcquire());
+    }
+
+    @Test
+    public void testExpiredLeaseIsNotReleasedOnceAcquiredElsewhere() {
+        String lease = node1.tryAcquire();
+        // the lease expires, and is acquired by the other node
+        memoryCache.clear();
+        assertNotNull(node2.tryAcquire());
+
+        node1.release(lease);
+        assertTrue(node1.isHeldElsewhere());
+    }
+
+    @Test
+    public void testEveryNodeAcquiresADisabledLease() {
+        ninjaProperties.setProperty(SitemapBuildLease.KEY_CLUSTER_LEASE, "false");
+        String lease = node1.tryAcquire();
+        assertNotNull(lease);
+        assertNotNull(node2.tryAcquire());
+        assertFalse(node2.isHeldElsewhere());
+        node1.release(lease);
+    }
+
+    /**
+     * The lease, without Guice.
+     */
+    static class TestLease extends SitemapBuildLease {
+
+        TestLease(NinjaCache cache, NinjaProperties ninjaProperties) {
+            this.cache = cache;
+            this.ninjaProperties = ninjaProperties;
+            this.metrics = new TestMetrics(ninjaProperties);
+        }
+
+    }
+
+    /**
+     * The metrics, without Guice.
+     */
+    static class TestMetrics extends SitemapMetrics {
+
+        TestMetrics(NinjaProperties ninjaProperties) {
+            this.ninjaProperties = ninjaProperties;
+        }
+
+    }
+
+}
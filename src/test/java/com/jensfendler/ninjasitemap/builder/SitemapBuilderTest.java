@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.writer.ShardedSitemapWriter;
+
+import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests the limits of the sitemap documents created by the
+ * {@link SitemapBuilder}.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapBuilderTest {
+
+    @Test
+    public void testConfiguredLimitsAreCappedAtTheProtocolLimits() throws Exception {
+        NinjaPropertiesImpl ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty("ninja.sitemap.maxUrlsPerSitemap", "100000");
+        ninjaProperties.setProperty("ninja.sitemap.maxBytesPerSitemap", "104857600");
+        SitemapBuilder sitemapBuilder = new TestSitemapBuilder(ninjaProperties, Object.class);
+        assertEquals(ShardedSitemapWriter.PROTOCOL_MAX_URLS, sitemapBuilder.getMaxUrlsPerSitemap());
+
+        ShardedSitemapWriter writer = sitemapBuilder.createWriter("https://www.example.com");
+        for (int i = 0; i <= ShardedSitemapWriter.PROTOCOL_MAX_URLS; i++) {
+            writer.writeUrl("/page/" + i, 0L, ChangeFreq.DAILY, 0.5, null);
+        }
+        assertEquals(2, writer.finish().size());
+        assertEquals(ShardedSitemapWriter.PROTOCOL_MAX_URLS, writer.getShardUrlCounts().get(0).intValue());
+    }
+
+    @Test
+    public void testShardsFollowTheConfiguredLimits() throws Exception {
+        NinjaPropertiesImpl ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty("ninja.sitemap.maxUrlsPerSitemap", "10");
+        SitemapBuilder sitemapBuilder = new TestSitemapBuilder(ninjaProperties, Object.class);
+
+        ShardedSitemapWriter writer = sitemapBuilder.createWriter("https://www.example.com");
+        for (int i = 0; i < 25; i++) {
+            writer.writeUrl("/page/" + i, 0L, ChangeFreq.DAILY, 0.5, null);
+        }
+        assertEquals(3, writer.finish().size());
+        assertEquals(10, writer.getShardUrlCounts().get(1).intValue());
+        assertEquals(5, writer.getShardUrlCounts().get(2).intValue());
+    }
+
+}
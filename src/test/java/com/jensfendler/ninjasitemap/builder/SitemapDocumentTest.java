@@ -0,0 +1,76 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.writer.SitemapWriter;
+
+/**
+ * Tests the modification times of {@link SitemapDocument}s which replace a
+ * previous document.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapDocumentTest {
+
+    private static final long ENTRY_TIME = 1451606400000L;
+
+    @Test
+    public void testUnchangedDocumentKeepsItsModificationTime() throws Exception {
+        SitemapDocument previous = SitemapDocument.create(xml("a"), ENTRY_TIME, null);
+        SitemapDocument document = SitemapDocument.create(xml("a"), ENTRY_TIME + 60000L, previous);
+        assertEquals(ENTRY_TIME, document.getValidators().getLastModified());
+        assertEquals(previous.getValidators().getEtag(false), document.getValidators().getEtag(false));
+        assertArrayEquals(previous.getGzip(), document.getGzip());
+    }
+
+    @Test
+    public void testChangedDocumentTakesTheNewestEntryModificationTime() throws Exception {
+        SitemapDocument previous = SitemapDocument.create(xml("a"), ENTRY_TIME, null);
+        SitemapDocument document = SitemapDocument.create(xml("b"), ENTRY_TIME + 60000L, previous);
+        assertEquals(ENTRY_TIME + 60000L, document.getValidators().getLastModified());
+        assertNotEquals(previous.getValidators().getEtag(false), document.getValidators().getEtag(false));
+    }
+
+    @Test
+    public void testChangedDocumentWithoutNewerEntriesTakesTheCurrentTime() throws Exception {
+        long start = System.currentTimeMillis();
+        SitemapDocument previous = SitemapDocument.create(xml("a"), ENTRY_TIME, null);
+        // e.g. an entry has been removed
+        SitemapDocument document = SitemapDocument.create(xml("b"), ENTRY_TIME, previous);
+        assertTrue(document.getValidators().getLastModified() >= start);
+        // entries without modification times
+        document = SitemapDocument.create(xml("c"), SitemapWriter.NO_LAST_MODIFIED, null);
+        assertTrue(document.getValidators().getLastModified() >= start);
+        // entries modified in the future
+        document = SitemapDocument.create(xml("d"), start + 3600000L, null);
+        assertTrue(document.getValidators().getLastModified() < start + 3600000L);
+    }
+
+    private static byte[] xml(String content) {
+        return ("<urlset>" + content + "</urlset>").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.builder.SitemapBuildLeaseTest.TestLease;
+import com.jensfendler.ninjasitemap.ping.SearchEnginePinger;
+
+import ninja.cache.NinjaCache;
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests how the {@link SitemapRefreshScheduler}s of two nodes sharing a
+ * {@link MemoryCache} publish and adopt the sitemap with the cluster lease.
+ * Scheduled tasks are not run after their delay, but explicitly by the test.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapRefreshSchedulerTest {
+
+    private MemoryCache memoryCache;
+
+    private NinjaPropertiesImpl ninjaProperties;
+
+    private TestScheduler node1;
+
+    private TestScheduler node2;
+
+    @Before
+    public void setUp() {
+        memoryCache = new MemoryCache();
+        ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty(SitemapRefreshScheduler.KEY_BACKGROUND_REFRESH, "true");
+        ninjaProperties.setProperty(SitemapBuildLease.KEY_CLUSTER_LEASE, "true");
+        node1 = new TestScheduler();
+        node2 = new TestScheduler();
+        node1.start();
+        node2.start();
+    }
+
+    @After
+    public void tearDown() {
+        node1.stop();
+        node2.stop();
+    }
+
+    @Test
+    public void testSitemapPublishedByTheLeaseHolderIsAdopted() throws Exception {
+        node1.refresh();
+        node2.refresh();
+
+        assertEquals(1, node1.builder.buildCount);
+        assertEquals(0, node2.builder.buildCount);
+        SitemapBuild published = node1.getCurrentBuild();
+        SitemapBuild adopted = node2.getCurrentBuild();
+        assertEquals(published.getCreated(), adopted.getCreated());
+        assertEquals(3, adopted.getShards().size());
+        for (int i = 0; i < published.getShards().size(); i++) {
+            assertEquals(published.getShards().get(i).getValidators().getEtag(false),
+                    adopted.getShards().get(i).getValidators().getEtag(false));
+        }
+        assertEquals(published.getIndex().getValidators().getEtag(false),
+                adopted.getIndex().getValidators().getEtag(false));
+        assertEquals(1, node1.pinger.pingCount);
+        assertEquals(0, node2.pinger.pingCount);
+    }
+
+    @Test
+    public void testSitemapIsCreatedByEveryNodeIfItCannotBePublished() throws Exception {
+        // documents exceed the maximum item size of the cache
+        memoryCache.setMaxItemSize(1024);
+        node1.refresh();
+        node2.refresh();
+
+        assertEquals(1, node1.builder.buildCount);
+        assertEquals(1, node2.builder.buildCount);
+        assertNotNull(node2.getCurrentBuild());
+        assertEquals(0, node2.scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testIncompletelyCachedSitemapIsNotAdopted() throws Exception {
+        node1.refresh();
+        // a document has been evicted from the cache
+        memoryCache.delete(SitemapDocumentCache.getShardCacheKey(2));
+        node2.refresh();
+
+        assertEquals(1, node2.builder.buildCount);
+    }
+
+    @Test
+    public void testNodeWithoutSitemapCreatesItWhileLeaseIsHeldElsewhere() throws Exception {
+        String lease = node1.buildLease.tryAcquire();
+        node2.refresh();
+
+        assertEquals(1, node2.builder.buildCount);
+        assertNotNull(node2.getCurrentBuild());
+        // neither published, nor announced to search engines
+        assertEquals(0, node2.pinger.pingCount);
+        node1.buildLease.release(lease);
+        node1.refresh();
+        assertEquals(1, node1.builder.buildCount);
+    }
+
+    @Test
+    public void testNodeWithSitemapWaitsForTheLeaseHolderToPublish() throws Exception {
+        node2.refresh();
+        SitemapBuild previous = node2.getCurrentBuild();
+        // the published sitemap is due to be re-created
+        memoryCache.clear();
+
+        String lease = node1.buildLease.tryAcquire();
+        node2.refresh();
+        node2.refresh();
+        // a single check for the published sitemap is pending
+        assertEquals(1, node2.scheduler.getPendingCount());
+        assertEquals(10, node2.scheduler.getNextDelaySeconds());
+        assertSame(previous, node2.getCurrentBuild());
+
+        // the lease holder has published the sitemap in the meantime
+        node1.buildLease.release(lease);
+        node1.refresh();
+        node2.scheduler.runNext();
+
+        assertEquals(1, node2.builder.buildCount);
+        assertEquals(node1.getCurrentBuild().getCreated(), node2.getCurrentBuild().getCreated());
+        assertEquals(0, node2.scheduler.getPendingCount());
+    }
+
+    /**
+     * A scheduler (and its dependencies) of a single node, without Guice.
+     */
+    class TestScheduler extends SitemapRefreshScheduler {
+
+        final TestBuilder builder = new TestBuilder();
+
+        final TestPinger pinger = new TestPinger();
+
+        final ManualScheduler scheduler = new ManualScheduler();
+
+        TestScheduler() {
+            NinjaCache ninjaCache = new NinjaCache(memoryCache);
+            this.ninjaProperties = SitemapRefreshSchedulerTest.this.ninjaProperties;
+            this.cache = ninjaCache;
+            this.sitemapBuilder = builder;
+            this.searchEnginePinger = pinger;
+            this.sitemapUpdateService = new SitemapUpdateService();
+            this.snapshotStore = new SitemapSnapshotStore();
+            this.snapshotStore.ninjaProperties = ninjaProperties;
+            this.snapshotStore.sitemapBuilder = builder;
+            this.buildLease = new TestLease(ninjaCache, ninjaProperties);
+            this.documentCache = new SitemapDocumentCache();
+            this.documentCache.cache = ninjaCache;
+            builder.ninjaProperties = ninjaProperties;
+        }
+
+        @Override
+        protected ManualScheduler createExecutor() {
+            return scheduler;
+        }
+
+    }
+
+    /**
+     * Creates a sitemap with three shards (and an index), without any routes.
+     */
+    static class TestBuilder extends SitemapBuilder {
+
+        /**
+         * Ensures that every sitemap has been created later than the
+         * previous one
+         */
+        private static long lastCreated;
+
+        int buildCount;
+
+        @Override
+        public SitemapBuild build(String siteUrlPrefix, SitemapBuild previous) throws IOException {
+            buildCount++;
+            Date created = new Date(nextCreated());
+            List<SitemapDocument> shards = new ArrayList<SitemapDocument>();
+            List<SitemapShard> shardPlan = new ArrayList<SitemapShard>();
+            for (int shard = 1; shard <= 3; shard++) {
+                StringBuilder xml = new StringBuilder("<urlset>");
+                for (int page = 0; page < 50; page++) {
+                    xml.append("<url><loc>").append(siteUrlPrefix).append('/').append(shard).append('/').append(page)
+                            .append("?created=").append(created.getTime()).append("</loc></url>");
+                }
+                xml.append("</urlset>");
+                shards.add(SitemapDocument.create(xml.toString().getBytes(StandardCharsets.UTF_8)));
+                shardPlan.add(new SitemapShard(shard, 0, shard - 1, 1));
+            }
+            SitemapDocument index = SitemapDocument
+                    .create(("<sitemapindex>" + created.getTime() + "</sitemapindex>").getBytes(StandardCharsets.UTF_8));
+            return new SitemapBuild(created, Collections.unmodifiableList(shards),
+                    Collections.unmodifiableList(shardPlan), index);
+        }
+
+        private static synchronized long nextCreated() {
+            lastCreated = Math.max(System.currentTimeMillis(), lastCreated + 1);
+            return lastCreated;
+        }
+
+    }
+
+    /**
+     * Counts pings instead of sending them.
+     */
+    static class TestPinger extends SearchEnginePinger {
+
+        int pingCount;
+
+        @Override
+        public void pingSearchEngines(String siteUrlPrefix) {
+            pingCount++;
+        }
+
+    }
+
+    /**
+     * Records scheduled one-time tasks (and their delays) instead of running
+     * them after their delay. Periodic tasks are ignored.
+     */
+    static class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        private final List<Long> delays = new ArrayList<Long>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(command);
+            delays.add(unit.toSeconds(delay));
+            return super.schedule(command, 1, TimeUnit.DAYS);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                TimeUnit unit) {
+            return null;
+        }
+
+        synchronized int getPendingCount() {
+            return tasks.size();
+        }
+
+        synchronized long getNextDelaySeconds() {
+            return delays.get(0);
+        }
+
+        /**
+         * Run the next scheduled task (on the calling thread).
+         */
+        void runNext() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.remove(0);
+                delays.remove(0);
+            }
+            task.run();
+        }
+
+    }
+
+}
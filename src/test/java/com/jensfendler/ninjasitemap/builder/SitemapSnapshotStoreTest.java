@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests that the {@link SitemapSnapshotStore} writes only changed documents,
+ * and keeps using the files of unchanged ones.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapSnapshotStoreTest {
+
+    private static final String PREFIX = "https://www.example.com";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SitemapSnapshotStore store;
+
+    @Before
+    public void setUp() {
+        NinjaPropertiesImpl ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty(SitemapSnapshotStore.KEY_SNAPSHOT_DIRECTORY, folder.getRoot().getPath());
+        store = new SitemapSnapshotStore();
+        store.ninjaProperties = ninjaProperties;
+        store.sitemapBuilder = new SitemapBuilder();
+        store.sitemapBuilder.ninjaProperties = ninjaProperties;
+    }
+
+    @Test
+    public void testUnchangedShardsKeepTheirFiles() throws Exception {
+        List<SitemapFile> first = store.save(createBuild(1000L, "a", "b", "c"), PREFIX);
+        assertNotNull(first);
+        long modified = new File(folder.getRoot(), first.get(0).getFileName(false)).lastModified();
+
+        // only the second shard (and the index) have changed
+        List<SitemapFile> second = store.save(createBuild(2000L, "a", "x", "c"), PREFIX);
+        assertNotNull(second);
+        assertEquals(first.get(0).getFileName(false), second.get(0).getFileName(false));
+        assertEquals(first.get(2).getFileName(false), second.get(2).getFileName(false));
+        assertNotEquals(first.get(1).getFileName(false), second.get(1).getFileName(false));
+        assertNotEquals(first.get(3).getFileName(false), second.get(3).getFileName(false));
+        assertEquals(modified, new File(folder.getRoot(), first.get(0).getFileName(false)).lastModified());
+
+        // the files of the unchanged shards survive the clean-up of older
+        // snapshots
+        store.save(createBuild(3000L, "a", "y", "c"), PREFIX);
+        assertEquals(Arrays.asList(first.get(0).getFileName(false), first.get(2).getFileName(false)),
+                Arrays.asList(store.getFiles().get(0).getFileName(false), store.getFiles().get(2).getFileName(false)));
+        assertFalse(new File(folder.getRoot(), first.get(1).getFileName(false)).exists());
+        for (SitemapFile file : store.getFiles()) {
+            assertEquals(true, new File(folder.getRoot(), file.getFileName(false)).exists());
+            assertEquals(true, new File(folder.getRoot(), file.getFileName(true)).exists());
+        }
+    }
+
+    @Test
+    public void testReusedFilesAreLoadedAfterRestart() throws Exception {
+        store.save(createBuild(1000L, "a", "b"), PREFIX);
+        SitemapBuild saved = createBuild(2000L, "a", "x");
+        store.save(saved, PREFIX);
+
+        SitemapSnapshotStore restarted = new SitemapSnapshotStore();
+        restarted.ninjaProperties = store.ninjaProperties;
+        restarted.sitemapBuilder = store.sitemapBuilder;
+        SitemapBuild loaded = restarted.takeSnapshot();
+        assertNotNull(loaded);
+        assertEquals(saved.getCreated(), loaded.getCreated());
+        for (int i = 0; i < saved.getShards().size(); i++) {
+            assertArrayEquals(saved.getShards().get(i).getXml(), loaded.getShards().get(i).getXml());
+        }
+        assertArrayEquals(Files.readAllBytes(new File(folder.getRoot(), store.getFiles().get(0).getFileName(false))
+                .toPath()), loaded.getShards().get(0).getXml());
+    }
+
+    private static SitemapBuild createBuild(long created, String... contents) throws IOException {
+        List<SitemapDocument> shards = new ArrayList<SitemapDocument>();
+        List<SitemapShard> shardPlan = new ArrayList<SitemapShard>();
+        for (int i = 0; i < contents.length; i++) {
+            shards.add(SitemapDocument.create(("<urlset>" + contents[i] + "</urlset>").getBytes(StandardCharsets.UTF_8)));
+            shardPlan.add(new SitemapShard(i + 1, 0, i, 1));
+        }
+        SitemapDocument index = SitemapDocument
+                .create(("<sitemapindex>" + created + "</sitemapindex>").getBytes(StandardCharsets.UTF_8));
+        return new SitemapBuild(new Date(created), Collections.unmodifiableList(shards),
+                Collections.unmodifiableList(shardPlan), index);
+    }
+
+}
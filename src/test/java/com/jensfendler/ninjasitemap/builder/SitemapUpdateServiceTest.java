@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.SitemapEntry;
+import com.jensfendler.ninjasitemap.SitemapMultiPageProvider;
+import com.jensfendler.ninjasitemap.annotations.Sitemap;
+import com.jensfendler.ninjasitemap.builder.SitemapBuildLeaseTest.TestMetrics;
+import com.jensfendler.ninjasitemap.ping.SearchEnginePinger;
+
+import ninja.Result;
+import ninja.Route;
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaProperties;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests that the {@link SitemapUpdateService} re-creates only the shards
+ * containing changed entries, without calling any provider.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapUpdateServiceTest {
+
+    private static final AtomicInteger PROVIDER_CALLS = new AtomicInteger();
+
+    /**
+     * 2020-01-02T12:00:00Z
+     */
+    private static final Date UPDATED = new Date(1577966400000L);
+
+    private SitemapUpdateService updateService;
+
+    private SitemapBuild build;
+
+    /**
+     * The shards updated with every listener call
+     */
+    private final List<Set<Integer>> updates = Collections.synchronizedList(new ArrayList<Set<Integer>>());
+
+    @Before
+    public void setUp() throws Exception {
+        PROVIDER_CALLS.set(0);
+        NinjaPropertiesImpl ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty(SitemapUpdateService.KEY_INCREMENTAL_UPDATES, "true");
+        ninjaProperties.setProperty("ninja.sitemap.maxUrlsPerSitemap", "10");
+        SitemapBuilder sitemapBuilder = new TestSitemapBuilder(ninjaProperties, Controller.class, "/item/{id}",
+                "item");
+
+        updateService = new SitemapUpdateService();
+        updateService.ninjaProperties = ninjaProperties;
+        updateService.sitemapBuilder = sitemapBuilder;
+        updateService.searchEnginePinger = new TestPinger(ninjaProperties);
+        updateService.metrics = new TestMetrics(ninjaProperties);
+
+        // 25 entries in 3 shards
+        build = sitemapBuilder.build("https://www.example.com");
+        assertEquals(3, build.getShards().size());
+        updateService.setBuild(build, new SitemapUpdateListener() {
+            public void sitemapUpdated(SitemapBuild updatedBuild, Set<Integer> updatedShards) {
+                build = updatedBuild;
+                updates.add(new TreeSet<Integer>(updatedShards));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        updateService.stop();
+    }
+
+    @Test
+    public void testOnlyTheShardOfAnUpdatedEntryIsRecreated() throws Exception {
+        List<SitemapDocument> shards = build.getShards();
+        SitemapDocument index = build.getIndex();
+
+        updateService.addOrUpdate(Controller.class, "item", new SitemapEntry("/item/12", UPDATED, Sitemap.DAILY, 0.5));
+        updateService.flush();
+
+        assertEquals(Collections.singletonList(Collections.singleton(2)), updates);
+        assertSame(shards.get(0), build.getShards().get(0));
+        assertNotSame(shards.get(1), build.getShards().get(1));
+        assertSame(shards.get(2), build.getShards().get(2));
+        assertTrue(getXml(build.getShards().get(1)).contains("<lastmod>2020-01-02"));
+        // the index lists the new modification time of the shard
+        assertNotSame(index, build.getIndex());
+        assertEquals(25, build.getUrlCount());
+        assertEquals(1, PROVIDER_CALLS.get());
+    }
+
+    @Test
+    public void testOnlyTheShardsOfRemovedEntriesAreRecreated() throws Exception {
+        List<SitemapDocument> shards = build.getShards();
+
+        updateService.remove(Controller.class, "item", "/item/3", "/item/24");
+        updateService.flush();
+
+        assertEquals(Collections.singletonList(new TreeSet<Integer>(Arrays.asList(1, 3))), updates);
+        assertNotSame(shards.get(0), build.getShards().get(0));
+        assertSame(shards.get(1), build.getShards().get(1));
+        assertNotSame(shards.get(2), build.getShards().get(2));
+        assertFalse(getXml(build.getShards().get(0)).contains("/item/3<"));
+        assertEquals(23, build.getUrlCount());
+        assertEquals(1, PROVIDER_CALLS.get());
+    }
+
+    @Test
+    public void testChangesAreCollectedUntilTheNextFlush() throws Exception {
+        updateService.addOrUpdate(Controller.class, "item", new SitemapEntry("/item/0", UPDATED, Sitemap.DAILY, 0.5));
+        updateService.addOrUpdate(Controller.class, "item", new SitemapEntry("/item/1", UPDATED, Sitemap.DAILY, 0.5));
+        updateService.flush();
+        // nothing left to do
+        updateService.flush();
+
+        assertEquals(Collections.singletonList(Collections.singleton(1)), updates);
+    }
+
+    @Test
+    public void testUnknownRoutesAreIgnored() throws Exception {
+        updateService.addOrUpdate(Controller.class, "notInSitemap", new SitemapEntry("/other"));
+        updateService.flush();
+
+        assertTrue(updates.isEmpty());
+    }
+
+    private static String getXml(SitemapDocument document) throws Exception {
+        return new String(document.getXml(), "UTF-8");
+    }
+
+    public static class Controller {
+
+        @Sitemap(multiPageProvider = "com.jensfendler.ninjasitemap.builder.SitemapUpdateServiceTest$ItemProvider")
+        public Result item() {
+            return null;
+        }
+
+        public Result notInSitemap() {
+            return null;
+        }
+
+    }
+
+    public static class ItemProvider implements SitemapMultiPageProvider {
+
+        @Override
+        public List<SitemapEntry> getSitemapEntries(Route route, Sitemap sitemap) {
+            PROVIDER_CALLS.incrementAndGet();
+            List<SitemapEntry> entries = new ArrayList<SitemapEntry>();
+            for (int i = 0; i < 25; i++) {
+                entries.add(new SitemapEntry("/item/" + i, new Date(0), Sitemap.DAILY, 0.5));
+            }
+            return entries;
+        }
+
+    }
+
+    /**
+     * The pinger, without Guice. No endpoints are configured, so it never
+     * pings.
+     */
+    private static class TestPinger extends SearchEnginePinger {
+
+        TestPinger(NinjaProperties ninjaProperties) {
+            this.ninjaProperties = ninjaProperties;
+        }
+
+    }
+
+}
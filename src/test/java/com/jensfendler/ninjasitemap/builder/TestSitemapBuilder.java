@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Optional;
+import com.jensfendler.ninjasitemap.NinjaSitemapRoutes;
+import com.jensfendler.ninjasitemap.SimpleSitemapRouteDetails;
+import com.jensfendler.ninjasitemap.builder.SitemapBuildLeaseTest.TestMetrics;
+
+import ninja.Route;
+import ninja.RouteBuilder;
+import ninja.Router;
+import ninja.utils.NinjaProperties;
+
+/**
+ * A {@link SitemapBuilder} for the routes of a test controller, without Guice.
+ * Providers must not use the injector.
+ *
+ * @author Jens Fendler
+ *
+ */
+class TestSitemapBuilder extends SitemapBuilder {
+
+    /**
+     * @param ninjaProperties
+     *            the properties to use
+     * @param controllerClass
+     *            the class of the controller methods
+     * @param routes
+     *            pairs of route URI and controller method name (without
+     *            parameters)
+     */
+    TestSitemapBuilder(NinjaProperties ninjaProperties, Class<?> controllerClass, String... routes)
+            throws NoSuchMethodException {
+        this.ninjaProperties = ninjaProperties;
+        this.router = new TestRouter(controllerClass, routes);
+        this.sitemapDetailsProvider = new SimpleSitemapRouteDetails();
+        this.sitemapRoutes = new TestSitemapRoutes(ninjaProperties);
+        this.metrics = new TestMetrics(ninjaProperties);
+        this.parallelProviderInvoker = new ParallelProviderInvoker();
+        this.parallelProviderInvoker.ninjaProperties = ninjaProperties;
+        this.parallelProviderInvoker.metrics = metrics;
+    }
+
+    /**
+     * The sitemap routes (for the shard paths in the sitemap index), without
+     * Guice.
+     */
+    private static class TestSitemapRoutes extends NinjaSitemapRoutes {
+
+        TestSitemapRoutes(NinjaProperties ninjaProperties) {
+            this.ninjaProperties = ninjaProperties;
+        }
+
+    }
+
+    /**
+     * A {@link Router} which only knows a fixed list of GET routes.
+     */
+    private static class TestRouter implements Router {
+
+        private final List<Route> routes = new ArrayList<Route>();
+
+        TestRouter(Class<?> controllerClass, String... routes) throws NoSuchMethodException {
+            for (int i = 0; i + 1 < routes.length; i += 2) {
+                this.routes.add(
+                        new Route("GET", routes[i], controllerClass, controllerClass.getMethod(routes[i + 1]), null));
+            }
+        }
+
+        @Override
+        public List<Route> getRoutes() {
+            return routes;
+        }
+
+        @Override
+        public Route getRouteFor(String httpMethod, String uri) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getReverseRoute(Class<?> controllerClass, String controllerMethodName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getReverseRoute(Class<?> controllerClass, String controllerMethodName,
+                Map<String, Object> parameterMap) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getReverseRoute(Class<?> controllerClass, String controllerMethodName,
+                Object... parameterMap) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getReverseRoute(Class<?> controllerClass, String controllerMethodName,
+                Optional<Map<String, Object>> parameterMap) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void compileRoutes() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RouteBuilder GET() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RouteBuilder POST() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RouteBuilder PUT() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RouteBuilder DELETE() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RouteBuilder OPTIONS() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RouteBuilder HEAD() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RouteBuilder METHOD(String method) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
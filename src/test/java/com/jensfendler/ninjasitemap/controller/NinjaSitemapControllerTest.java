@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.builder.SitemapBuild;
+import com.jensfendler.ninjasitemap.builder.SitemapDocument;
+import com.jensfendler.ninjasitemap.builder.SitemapRefreshScheduler;
+import com.jensfendler.ninjasitemap.builder.SitemapShard;
+import com.jensfendler.ninjasitemap.builder.SitemapValidators;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+import com.jensfendler.ninjasitemap.writer.SitemapWriter;
+
+import ninja.Renderable;
+import ninja.Result;
+import ninja.WrappedContext;
+import ninja.utils.DateUtil;
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaProperties;
+import ninja.utils.NinjaPropertiesImpl;
+import ninja.utils.ResponseStreams;
+
+/**
+ * Tests the content negotiation (plain or gzip-compressed) and the conditional
+ * requests (ETag and Last-Modified) of the {@link NinjaSitemapController}.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class NinjaSitemapControllerTest {
+
+    private static final byte[] XML = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n"
+            + "<url>\n<loc>https://www.example.com/</loc>\n</url>\n</urlset>\n").getBytes(StandardCharsets.UTF_8);
+
+    private NinjaSitemapController controller;
+
+    private SitemapDocument document;
+
+    @Before
+    public void setUp() throws Exception {
+        NinjaPropertiesImpl ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        document = SitemapDocument.create(XML);
+        controller = new NinjaSitemapController();
+        controller.ninjaProperties = ninjaProperties;
+        controller.metrics = new TestMetrics(ninjaProperties);
+        controller.refreshScheduler = new TestScheduler(document);
+    }
+
+    @Test
+    public void testGzipIsServedToClientsAcceptingIt() throws Exception {
+        TestContext context = new TestContext().withHeader("Accept-Encoding", "deflate, gzip;q=0.8");
+        Result result = controller.getSitemapXml(context);
+
+        assertEquals(Result.SC_200_OK, result.getStatusCode());
+        assertEquals("gzip", result.getHeaders().get("Content-Encoding"));
+        assertEquals("Accept-Encoding", result.getHeaders().get("Vary"));
+        assertEquals(getValidators().getEtag(true), result.getHeaders().get("ETag"));
+        assertArrayEquals(XML, gunzip(context.render(result)));
+    }
+
+    @Test
+    public void testPlainXmlIsServedOtherwise() throws Exception {
+        for (String acceptEncoding : new String[] { null, "deflate", "gzip;q=0", "*;q=0.0" }) {
+            TestContext context = new TestContext().withHeader("Accept-Encoding", acceptEncoding);
+            Result result = controller.getSitemapXml(context);
+
+            assertNull(result.getHeaders().get("Content-Encoding"));
+            assertEquals("Accept-Encoding", result.getHeaders().get("Vary"));
+            assertEquals(getValidators().getEtag(false), result.getHeaders().get("ETag"));
+            assertArrayEquals(XML, context.render(result));
+        }
+    }
+
+    @Test
+    public void testGzFileIsAlwaysCompressed() throws Exception {
+        TestContext context = new TestContext();
+        Result result = controller.getSitemapXmlGz(context);
+
+        assertEquals("application/x-gzip", result.getContentType());
+        // the file itself is compressed, not its transfer
+        assertNull(result.getHeaders().get("Content-Encoding"));
+        assertNull(result.getHeaders().get("Vary"));
+        assertEquals(getValidators().getEtag(true), result.getHeaders().get("ETag"));
+        assertArrayEquals(XML, gunzip(context.render(result)));
+    }
+
+    @Test
+    public void testBufferedDocumentsAreServedLikeOthers() throws Exception {
+        controller.refreshScheduler = new TestScheduler(
+                SitemapDocument.create(ByteBuffer.wrap(XML), SitemapWriter.NO_LAST_MODIFIED, null));
+        TestContext context = new TestContext().withHeader("Accept-Encoding", "gzip");
+        Result result = controller.getSitemapXml(context);
+
+        assertEquals(getValidators().getEtag(true), result.getHeaders().get("ETag"));
+        assertArrayEquals(XML, gunzip(context.render(result)));
+
+        context = new TestContext();
+        assertArrayEquals(XML, context.render(controller.getSitemapXml(context)));
+    }
+
+    @Test
+    public void testMatchingEtagIsNotModified() throws Exception {
+        String gzipEtag = getValidators().getEtag(true);
+        String plainEtag = getValidators().getEtag(false);
+
+        assertEquals(Result.SC_304_NOT_MODIFIED, controller.getSitemapXml(new TestContext()
+                .withHeader("Accept-Encoding", "gzip").withHeader("If-None-Match", gzipEtag)).getStatusCode());
+        assertEquals(Result.SC_304_NOT_MODIFIED, controller.getSitemapXml(new TestContext()
+                .withHeader("If-None-Match", "\"other\", W/" + plainEtag)).getStatusCode());
+        assertEquals(Result.SC_304_NOT_MODIFIED,
+                controller.getSitemapXmlGz(new TestContext().withHeader("If-None-Match", gzipEtag)).getStatusCode());
+
+        Result notModified = controller.getSitemapXml(new TestContext().withHeader("If-None-Match", "*"));
+        assertEquals(Result.SC_304_NOT_MODIFIED, notModified.getStatusCode());
+        assertEquals(plainEtag, notModified.getHeaders().get("ETag"));
+        assertEquals("Accept-Encoding", notModified.getHeaders().get("Vary"));
+
+        // the other representation has a different entity tag
+        assertEquals(Result.SC_200_OK, controller.getSitemapXml(new TestContext()
+                .withHeader("Accept-Encoding", "gzip").withHeader("If-None-Match", plainEtag)).getStatusCode());
+        assertEquals(Result.SC_200_OK, controller.getSitemapXml(new TestContext()
+                .withHeader("If-None-Match", gzipEtag)).getStatusCode());
+    }
+
+    @Test
+    public void testIfModifiedSinceIsOnlyUsedWithoutEtags() throws Exception {
+        long lastModified = getValidators().getLastModified();
+        String unchangedSince = DateUtil.formatForHttpHeader(lastModified);
+        String changedSince = DateUtil.formatForHttpHeader(lastModified - 60000);
+
+        Result notModified = controller.getSitemapXml(new TestContext().withHeader("If-Modified-Since",
+                unchangedSince));
+        assertEquals(Result.SC_304_NOT_MODIFIED, notModified.getStatusCode());
+        assertEquals(unchangedSince, notModified.getHeaders().get("Last-Modified"));
+        assertEquals(Result.SC_200_OK,
+                controller.getSitemapXml(new TestContext().withHeader("If-Modified-Since", changedSince))
+                        .getStatusCode());
+        // If-None-Match takes precedence
+        assertEquals(Result.SC_200_OK, controller.getSitemapXml(new TestContext()
+                .withHeader("If-Modified-Since", unchangedSince).withHeader("If-None-Match", "\"other\""))
+                .getStatusCode());
+        // invalid dates are ignored
+        assertEquals(Result.SC_200_OK,
+                controller.getSitemapXml(new TestContext().withHeader("If-Modified-Since", "yesterday"))
+                        .getStatusCode());
+    }
+
+    private SitemapValidators getValidators() {
+        return document.getValidators();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, length);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * A request with the given headers, which renders its response into
+     * memory.
+     */
+    private static class TestContext extends WrappedContext {
+
+        private final Map<String, String> headers = new HashMap<String, String>();
+
+        private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        TestContext() {
+            super(null);
+        }
+
+        TestContext withHeader(String name, String value) {
+            if (value != null) {
+                headers.put(name, value);
+            }
+            return this;
+        }
+
+        byte[] render(Result result) {
+            response.reset();
+            ((Renderable) result.getRenderable()).render(this, result);
+            return response.toByteArray();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public String getAcceptEncoding() {
+            return headers.get("Accept-Encoding");
+        }
+
+        @Override
+        public ResponseStreams finalizeHeaders(Result result) {
+            return new ResponseStreams() {
+                public OutputStream getOutputStream() {
+                    return response;
+                }
+
+                public Writer getWriter() {
+                    return new OutputStreamWriter(response, StandardCharsets.UTF_8);
+                }
+            };
+        }
+
+    }
+
+    /**
+     * A running background refresh, which has created a sitemap consisting of
+     * a single document.
+     */
+    private static class TestScheduler extends SitemapRefreshScheduler {
+
+        private final SitemapBuild build;
+
+        TestScheduler(SitemapDocument document) {
+            this.build = new SitemapBuild(new Date(), Collections.singletonList(document),
+                    Collections.singletonList(new SitemapShard(1, 0, 0, 1)), null);
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+
+        @Override
+        public SitemapBuild getCurrentBuild() {
+            return build;
+        }
+
+    }
+
+    /**
+     * The metrics, without Guice.
+     */
+    private static class TestMetrics extends SitemapMetrics {
+
+        TestMetrics(NinjaProperties ninjaProperties) {
+            this.ninjaProperties = ninjaProperties;
+        }
+
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.ping;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jensfendler.ninjasitemap.NinjaSitemapRoutes;
+import com.jensfendler.ninjasitemap.metrics.SitemapMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ninja.utils.NinjaMode;
+import ninja.utils.NinjaProperties;
+import ninja.utils.NinjaPropertiesImpl;
+
+/**
+ * Tests the {@link SearchEnginePinger} against a local HTTP stub. Scheduled
+ * pings are not run after their delay, but explicitly by the test.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SearchEnginePingerTest {
+
+    private HttpServer server;
+
+    /**
+     * The status codes to answer the next pings with (200 if empty)
+     */
+    private final List<Integer> responses = Collections.synchronizedList(new LinkedList<Integer>());
+
+    /**
+     * The query strings of all pings received by the stub
+     */
+    private final List<String> receivedPings = Collections.synchronizedList(new ArrayList<String>());
+
+    private NinjaPropertiesImpl ninjaProperties;
+
+    private ManualScheduler scheduler;
+
+    private TestPinger pinger;
+
+    private SitemapMetrics metrics;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ping", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                receivedPings.add(exchange.getRequestURI().getRawQuery());
+                int status = responses.isEmpty() ? 200 : responses.remove(0);
+                // do not let the client reuse connections the stub closes
+                exchange.getResponseHeaders().add("Connection", "close");
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        ninjaProperties = new NinjaPropertiesImpl(NinjaMode.test);
+        ninjaProperties.setProperty("ninja.sitemap.ping.endpoints",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/ping?sitemap=");
+        ninjaProperties.setProperty("ninja.sitemap.ping.debounce", "1mn");
+        ninjaProperties.setProperty("ninja.sitemap.ping.retries", "3");
+        ninjaProperties.setProperty("ninja.sitemap.ping.retryDelay", "30s");
+
+        scheduler = new ManualScheduler();
+        metrics = new TestMetrics(ninjaProperties);
+        pinger = new TestPinger();
+        pinger.ninjaProperties = ninjaProperties;
+        pinger.sitemapRoutes = new TestRoutes(ninjaProperties);
+        pinger.metrics = metrics;
+        pinger.scheduler = scheduler;
+    }
+
+    @After
+    public void tearDown() {
+        pinger.stop();
+        server.stop(0);
+    }
+
+    @Test
+    public void testUpdatesWithinDebounceTimeResultInSinglePing() {
+        pinger.pingSearchEngines("https://www.example.com");
+        pinger.pingSearchEngines("https://www.example.com");
+        pinger.pingSearchEngines("https://www.example.com");
+
+        assertEquals(1, scheduler.getPendingCount());
+        assertEquals(60, scheduler.getNextDelaySeconds());
+        assertEquals(2, metrics.getCounter("ping.coalesced"));
+        assertEquals(0, receivedPings.size());
+
+        scheduler.runNext();
+        assertEquals(Collections.singletonList("sitemap=https%3A%2F%2Fwww.example.com%2Fsitemap.xml"),
+                receivedPings);
+        assertEquals(1, metrics.getCounter("ping.success"));
+
+        // updates after the ping has been sent require another ping
+        pinger.pingSearchEngines("https://www.example.com");
+        assertEquals(1, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testServerErrorsAndTooManyRequestsAreRetried() {
+        responses.add(503);
+        responses.add(429);
+        pinger.pingSearchEngines("https://www.example.com");
+        scheduler.runNext();
+        assertEquals(1, receivedPings.size());
+
+        // retried with an exponentially growing delay
+        assertEquals(30, scheduler.getNextDelaySeconds());
+        scheduler.runNext();
+        assertEquals(2, receivedPings.size());
+        assertEquals(60, scheduler.getNextDelaySeconds());
+        scheduler.runNext();
+        assertEquals(3, receivedPings.size());
+
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(2, metrics.getCounter("ping.retry"));
+        assertEquals(1, metrics.getCounter("ping.success"));
+    }
+
+    @Test
+    public void testRetriesAreLimited() {
+        for (int i = 0; i < 10; i++) {
+            responses.add(500);
+        }
+        pinger.pingSearchEngines("https://www.example.com");
+        while (scheduler.getPendingCount() > 0) {
+            scheduler.runNext();
+        }
+        // the first attempt, and 3 retries
+        assertEquals(4, receivedPings.size());
+        assertEquals(1, metrics.getCounter("ping.failure"));
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() {
+        responses.add(404);
+        pinger.pingSearchEngines("https://www.example.com");
+        scheduler.runNext();
+
+        assertEquals(1, receivedPings.size());
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(0, metrics.getCounter("ping.retry"));
+        assertEquals(1, metrics.getCounter("ping.failure"));
+    }
+
+    @Test
+    public void testNoPingWithoutEndpoints() {
+        ninjaProperties.setProperty("ninja.sitemap.ping.endpoints", "");
+        pinger.pingSearchEngines("https://www.example.com");
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    /**
+     * A pinger using the {@link ManualScheduler} of the test.
+     */
+    static class TestPinger extends SearchEnginePinger {
+
+        ScheduledExecutorService scheduler;
+
+        @Override
+        protected ScheduledExecutorService createExecutor() {
+            return scheduler;
+        }
+
+    }
+
+    /**
+     * The metrics, without Guice.
+     */
+    static class TestMetrics extends SitemapMetrics {
+
+        TestMetrics(NinjaProperties ninjaProperties) {
+            this.ninjaProperties = ninjaProperties;
+        }
+
+    }
+
+    /**
+     * The sitemap routes, without Guice.
+     */
+    static class TestRoutes extends NinjaSitemapRoutes {
+
+        TestRoutes(NinjaProperties ninjaProperties) {
+            this.ninjaProperties = ninjaProperties;
+        }
+
+    }
+
+    /**
+     * Records scheduled tasks (and their delays) instead of running them
+     * after their delay.
+     */
+    static class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        private final List<Long> delays = new ArrayList<Long>();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(command);
+            delays.add(unit.toSeconds(delay));
+            return null;
+        }
+
+        synchronized int getPendingCount() {
+            return tasks.size();
+        }
+
+        synchronized long getNextDelaySeconds() {
+            return delays.get(0);
+        }
+
+        /**
+         * Run the next scheduled task (on the calling thread).
+         */
+        void runNext() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.remove(0);
+                delays.remove(0);
+            }
+            task.run();
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
+
+/**
+ * Tests how the {@link ShardedSitemapWriter} splits entries into shards.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class ShardedSitemapWriterTest {
+
+    private static final String PREFIX = "https://www.example.com";
+
+    @Test
+    public void testEntriesExceedingTheShardAreMovedIntact() throws Exception {
+        ShardedSitemapWriter writer = new ShardedSitemapWriter(PREFIX, 1000, 1024);
+        List<Boolean> newShards = new ArrayList<Boolean>();
+        for (int i = 0; i < 50; i++) {
+            newShards.add(writer.writeUrl("/page/" + i, 0L, ChangeFreq.DAILY, 0.5, null));
+        }
+        List<ByteBuffer> shards = writer.finish();
+        assertTrue(shards.size() > 1);
+
+        List<String> locations = new ArrayList<String>();
+        int entry = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            assertTrue(shards.get(shard).remaining() <= 1024);
+            List<String> shardLocations = getLocations(shards.get(shard));
+            assertEquals(writer.getShardEntryCounts().get(shard).intValue(), shardLocations.size());
+            // the first entry of every shard has been reported as such
+            assertEquals(true, newShards.get(entry));
+            for (int i = 1; i < shardLocations.size(); i++) {
+                assertEquals(false, newShards.get(entry + i));
+            }
+            entry += shardLocations.size();
+            locations.addAll(shardLocations);
+        }
+        assertEquals(50, locations.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(PREFIX + "/page/" + i, locations.get(i));
+        }
+    }
+
+    @Test
+    public void testEmptySitemapHasOneEmptyShard() throws Exception {
+        List<ByteBuffer> shards = new ShardedSitemapWriter(PREFIX, 1000, 1024).finish();
+        assertEquals(1, shards.size());
+        assertEquals(0, getLocations(shards.get(0)).size());
+    }
+
+    @Test
+    public void testShardsHoldAtMostTheProtocolUrlLimit() throws Exception {
+        ShardedSitemapWriter writer = new ShardedSitemapWriter(PREFIX, ShardedSitemapWriter.PROTOCOL_MAX_URLS,
+                ShardedSitemapWriter.PROTOCOL_MAX_BYTES);
+        for (int i = 0; i < ShardedSitemapWriter.PROTOCOL_MAX_URLS; i++) {
+            assertFalse(writer.writeUrl("/page/" + i, 0L, ChangeFreq.DAILY, 0.5, null) && (i > 0));
+        }
+        // the 50,001st URL starts a new shard
+        assertTrue(writer.writeUrl("/last", 0L, ChangeFreq.DAILY, 0.5, null));
+        List<ByteBuffer> shards = writer.finish();
+
+        assertEquals(2, shards.size());
+        assertEquals(ShardedSitemapWriter.PROTOCOL_MAX_URLS, getLocations(shards.get(0)).size());
+        assertEquals(Collections.singletonList(PREFIX + "/last"), getLocations(shards.get(1)));
+        assertEquals(ShardedSitemapWriter.PROTOCOL_MAX_URLS + 1, writer.getTotalUrlCount());
+    }
+
+    @Test
+    public void testShardsHoldAtMostTheProtocolByteLimit() throws Exception {
+        char[] longPath = new char[2000];
+        Arrays.fill(longPath, 'x');
+        ShardedSitemapWriter writer = new ShardedSitemapWriter(PREFIX, ShardedSitemapWriter.PROTOCOL_MAX_URLS,
+                ShardedSitemapWriter.PROTOCOL_MAX_BYTES);
+        // about 54 MB, but less than 50,000 URLs
+        int entries = 26000;
+        for (int i = 0; i < entries; i++) {
+            writer.writeUrl("/" + i + "/" + new String(longPath), 0L, ChangeFreq.DAILY, 0.5, null);
+        }
+        List<ByteBuffer> shards = writer.finish();
+
+        assertEquals(2, shards.size());
+        ByteBuffer first = shards.get(0);
+        assertTrue(first.remaining() <= ShardedSitemapWriter.PROTOCOL_MAX_BYTES);
+        // filled up to the limit, and complete
+        int entryBytes = (first.remaining() - 200) / writer.getShardEntryCounts().get(0);
+        assertTrue(first.remaining() > ShardedSitemapWriter.PROTOCOL_MAX_BYTES - entryBytes);
+        assertTrue(endsWith(first, "</urlset>\n"));
+        List<String> locations = getLocations(shards.get(1));
+        assertEquals(entries, writer.getShardEntryCounts().get(0) + locations.size());
+        assertEquals(PREFIX + "/" + (entries - locations.size()) + "/" + new String(longPath), locations.get(0));
+    }
+
+    @Test
+    public void testSingleEntryExceedingTheByteLimitIsKept() throws Exception {
+        char[] longPath = new char[2000];
+        Arrays.fill(longPath, 'x');
+        ShardedSitemapWriter writer = new ShardedSitemapWriter(PREFIX, 1000, 1024);
+        writer.writeUrl("/" + new String(longPath), 0L, ChangeFreq.DAILY, 0.5, null);
+        writer.writeUrl("/next", 0L, ChangeFreq.DAILY, 0.5, null);
+        List<ByteBuffer> shards = writer.finish();
+
+        // an entry can not be split, so it gets a shard of its own
+        assertEquals(2, shards.size());
+        assertEquals(1, getLocations(shards.get(0)).size());
+        assertEquals(Collections.singletonList(PREFIX + "/next"), getLocations(shards.get(1)));
+    }
+
+    private static boolean endsWith(ByteBuffer shard, String suffix) {
+        byte[] data = suffix.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < data.length; i++) {
+            if (shard.get(shard.limit() - data.length + i) != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the URLs of all entries of the given (well-formed) document
+     */
+    static List<String> getLocations(ByteBuffer shard) throws Exception {
+        byte[] data = new byte[shard.remaining()];
+        shard.duplicate().get(data);
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(data));
+        NodeList locs = document.getElementsByTagName("loc");
+        List<String> locations = new ArrayList<String>(locs.getLength());
+        for (int i = 0; i < locs.getLength(); i++) {
+            locations.add(locs.item(i).getTextContent());
+        }
+        return locations;
+    }
+
+}
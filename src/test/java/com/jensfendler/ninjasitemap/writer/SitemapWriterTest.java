@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Fendler Consulting cc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jensfendler.ninjasitemap.writer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import cz.jiripinkas.jsitemapgenerator.ChangeFreq;
+
+/**
+ * Tests the {@link SitemapWriter}.
+ *
+ * @author Jens Fendler
+ *
+ */
+public class SitemapWriterTest {
+
+    @Test
+    public void testCharactersNotAllowedInXmlAreDropped() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SitemapWriter writer = new SitemapWriter(out, "https://www.example.com");
+        writer.writeStartDocument();
+        writer.writeUrl("/a\u0000b\u0001c\u001fd\ufffee\uffff&f\u00e9", new Date(0), ChangeFreq.DAILY, 0.5);
+        writer.writeEndDocument();
+        writer.close();
+
+        // the document must be well-formed
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("https://www.example.com/abcde&f\u00e9",
+                document.getElementsByTagName("loc").item(0).getTextContent());
+    }
+
+    @Test
+    public void testEncodedPagePathsAreWrittenLikeStrings() throws Exception {
+        String[] pagePaths = { "/a\u0000b\u001fc\ufffed\uffff&e<f>\"g'\u00e9\u20ac\ud83d\ude00\ud800", "plain", "/", "" };
+        String[] languages = { "en", "de" };
+        String[] urlPatterns = { "{path}", "https://de.example.com/{path}?lang=de" };
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        SitemapWriter writer = new SitemapWriter(expected, "https://www.example.com");
+        writer.setLanguageUrls(languages, urlPatterns);
+        for (String pagePath : pagePaths) {
+            writer.writeUrl(pagePath, 0L, ChangeFreq.DAILY, 0.5, null, true);
+        }
+        writer.flush();
+
+        // all page paths one after another (with other data around them)
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        encoded.write('x');
+        int[] starts = new int[pagePaths.length + 1];
+        for (int i = 0; i < pagePaths.length; i++) {
+            starts[i] = encoded.size();
+            encoded.write(pagePaths[i].getBytes(StandardCharsets.UTF_8));
+        }
+        starts[pagePaths.length] = encoded.size();
+        encoded.write('x');
+        ByteBuffer encodedPaths = ByteBuffer.allocateDirect(encoded.size());
+        encodedPaths.put(encoded.toByteArray());
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        writer = new SitemapWriter(actual, "https://www.example.com");
+        writer.setLanguageUrls(languages, urlPatterns);
+        for (int i = 0; i < pagePaths.length; i++) {
+            writer.writeUrl(encodedPaths, starts[i], starts[i + 1], 0L, ChangeFreq.DAILY, 0.5, null, true);
+        }
+        writer.flush();
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertEquals(encoded.size(), encodedPaths.position());
+    }
+
+    @Test
+    public void testUrlPrefixIsEscaped() throws Exception {
+        Document document = write("https://www.example.com/a&b<c>\u0001d\uffff", null, null, "/page");
+        assertEquals("https://www.example.com/a&b<c>d/page",
+                document.getElementsByTagName("loc").item(0).getTextContent());
+    }
+
+    @Test
+    public void testAlternateLinksAreEscaped() throws Exception {
+        String[] languages = { "en", "d\"e&\u0002" };
+        String[] urlPatterns = { "/{path}?a=1&b=<2>", "https://de.example.com/\u0000{path}?x='\"'\u001f" };
+        Document document = write("https://www.example.com", languages, urlPatterns, "/page");
+
+        NodeList links = document.getElementsByTagName("xhtml:link");
+        assertEquals(4, links.getLength());
+        Element english = (Element) links.item(0);
+        assertEquals("en", english.getAttribute("hreflang"));
+        assertEquals("https://www.example.com/page?a=1&b=<2>", english.getAttribute("href"));
+        Element german = (Element) links.item(1);
+        assertEquals("d\"e&", german.getAttribute("hreflang"));
+        assertEquals("https://de.example.com/page?x='\"'", german.getAttribute("href"));
+        assertEquals("https://www.example.com/page?a=1&b=<2>",
+                document.getElementsByTagName("loc").item(0).getTextContent());
+    }
+
+    @Test
+    public void testLongPagePathsAreWrittenIntact() throws Exception {
+        // longer than the writer's buffer, so it is escaped in several chunks
+        StringBuilder pagePath = new StringBuilder("/");
+        while (pagePath.length() < 50000) {
+            pagePath.append("\ud83d\ude00&a");
+        }
+        Document document = write("https://www.example.com", null, null, pagePath.toString());
+        assertEquals("https://www.example.com" + pagePath,
+                document.getElementsByTagName("loc").item(0).getTextContent());
+    }
+
+    /**
+     * Write a sitemap with a single entry, and parse it.
+     */
+    private static Document write(String prefix, String[] languages, String[] urlPatterns, String pagePath)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SitemapWriter writer = new SitemapWriter(out, prefix);
+        if (languages != null) {
+            writer.setLanguageUrls(languages, urlPatterns);
+        }
+        writer.writeStartDocument();
+        writer.writeUrl(pagePath, 0L, ChangeFreq.DAILY, 0.5, null, true);
+        writer.writeEndDocument();
+        writer.close();
+
+        // the document must be well-formed
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+}